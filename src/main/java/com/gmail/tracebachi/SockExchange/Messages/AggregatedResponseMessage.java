@@ -0,0 +1,190 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Messages;
+
+import com.gmail.tracebachi.SockExchange.Utilities.CaseInsensitiveMap;
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteArrayDataInput;
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Response to a scatter-gather request that holds the response of every
+ * server that was sent the request
+ * <p>
+ * Servers that had not responded when the quorum was reached are not
+ * included. Servers that did not respond before the deadline are included
+ * with {@link ResponseStatus#TIMED_OUT}.
+ * </p>
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class AggregatedResponseMessage
+{
+  private final ResponseStatus responseStatus;
+  private final Map<String, ResponseMessage> responses;
+
+  /**
+   * @param responseStatus Status of sending the request to Bungee
+   */
+  public AggregatedResponseMessage(ResponseStatus responseStatus)
+  {
+    this(responseStatus, Collections.emptyMap());
+  }
+
+  /**
+   * @param responseStatus Status of sending the request to Bungee
+   * @param responses Map of server name to the response of that server
+   */
+  public AggregatedResponseMessage(
+    ResponseStatus responseStatus, Map<String, ResponseMessage> responses)
+  {
+    Preconditions.checkNotNull(responseStatus, "responseStatus");
+    Preconditions.checkNotNull(responses, "responses");
+
+    this.responseStatus = responseStatus;
+    this.responses = Collections.unmodifiableMap(
+      new CaseInsensitiveMap<>(new HashMap<>(responses)));
+  }
+
+  /**
+   * @return Status of sending the request to Bungee (the status of each
+   * server is in its own response)
+   */
+  public ResponseStatus getResponseStatus()
+  {
+    return responseStatus;
+  }
+
+  /**
+   * @return Unmodifiable map of server name (case insensitive) to response
+   */
+  public Map<String, ResponseMessage> getResponses()
+  {
+    return responses;
+  }
+
+  /**
+   * @param serverName Name of the server
+   *
+   * @return Response of the server or null if the server did not respond
+   */
+  public ResponseMessage getResponse(String serverName)
+  {
+    return responses.get(serverName);
+  }
+
+  /**
+   * @return Number of servers that responded with {@link ResponseStatus#OK}
+   */
+  public int getOkCount()
+  {
+    int count = 0;
+
+    for (ResponseMessage responseMessage : responses.values())
+    {
+      if (responseMessage.getResponseStatus().isOk())
+      {
+        count++;
+      }
+    }
+
+    return count;
+  }
+
+  /**
+   * Serializes the responses of many servers into the bytes of one response
+   *
+   * @param responses Map of server name to the response of that server
+   *
+   * @return Serialized responses
+   */
+  public static byte[] encode(Map<String, ResponseMessage> responses)
+  {
+    Preconditions.checkNotNull(responses, "responses");
+
+    ByteArrayDataOutput out = ByteStreams.newDataOutput(responses.size() * 32);
+    out.writeInt(responses.size());
+
+    for (Map.Entry<String, ResponseMessage> entry : responses.entrySet())
+    {
+      ResponseMessage responseMessage = entry.getValue();
+      ResponseStatus responseStatus = responseMessage.getResponseStatus();
+
+      out.writeUTF(entry.getKey());
+      out.writeByte(responseStatus.ordinal());
+
+      // Write the message bytes only if ResponseStatus is OK
+      if (responseStatus.isOk())
+      {
+        byte[] messageBytes = responseMessage.getMessageBytes();
+        messageBytes = messageBytes == null ? new byte[0] : messageBytes;
+
+        out.writeInt(messageBytes.length);
+        out.write(messageBytes);
+      }
+    }
+
+    return out.toByteArray();
+  }
+
+  /**
+   * Deserializes the response to a scatter-gather request
+   *
+   * @param responseMessage Response from Bungee
+   *
+   * @return Aggregated response (with no server responses if the status is not OK)
+   */
+  public static AggregatedResponseMessage decode(ResponseMessage responseMessage)
+  {
+    Preconditions.checkNotNull(responseMessage, "responseMessage");
+
+    ResponseStatus responseStatus = responseMessage.getResponseStatus();
+
+    if (!responseStatus.isOk())
+    {
+      return new AggregatedResponseMessage(responseStatus);
+    }
+
+    ByteArrayDataInput in = responseMessage.getDataInput();
+    int count = in.readInt();
+    Map<String, ResponseMessage> responses = new HashMap<>(count);
+
+    for (int i = 0; i < count; i++)
+    {
+      String serverName = in.readUTF();
+      ResponseStatus serverStatus = ResponseStatus.fromOrdinal(in.readByte());
+      byte[] messageBytes = null;
+
+      // Read the message bytes only if ResponseStatus was OK
+      if (serverStatus.isOk())
+      {
+        messageBytes = new byte[in.readInt()];
+        in.readFully(messageBytes);
+      }
+
+      responses.put(serverName, new ResponseMessage(serverStatus, messageBytes));
+    }
+
+    return new AggregatedResponseMessage(responseStatus, responses);
+  }
+}
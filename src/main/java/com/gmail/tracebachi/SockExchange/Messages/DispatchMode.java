@@ -0,0 +1,97 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Messages;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Decides which thread a consumer registered with a
+ * {@link ReceivedMessageNotifier} runs on
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public final class DispatchMode
+{
+  public enum Mode
+  {
+    /**
+     * Run the consumer on the thread that received the message (usually a
+     * Netty event loop), which skips the hop to the pool. Only for consumers
+     * that never block, like ones that swap a volatile field.
+     */
+    INLINE,
+    /**
+     * Run the consumer on the shared SockExchange executor
+     */
+    POOLED,
+    /**
+     * Run the consumer on an executor chosen by the caller
+     */
+    EXECUTOR
+  }
+
+  public static final DispatchMode INLINE = new DispatchMode(Mode.INLINE, null);
+  public static final DispatchMode POOLED = new DispatchMode(Mode.POOLED, null);
+
+  private final Mode mode;
+  private final Executor executor;
+
+  private DispatchMode(Mode mode, Executor executor)
+  {
+    this.mode = mode;
+    this.executor = executor;
+  }
+
+  /**
+   * @param executor Executor to run the consumer on
+   *
+   * @return Mode that runs the consumer on the executor
+   */
+  public static DispatchMode executor(Executor executor)
+  {
+    Preconditions.checkNotNull(executor, "executor");
+
+    return new DispatchMode(Mode.EXECUTOR, executor);
+  }
+
+  public Mode getMode()
+  {
+    return mode;
+  }
+
+  /**
+   * @return Executor of {@link Mode#EXECUTOR} or null
+   */
+  public Executor getExecutor()
+  {
+    return executor;
+  }
+
+  @Override
+  public String toString()
+  {
+    if (mode == Mode.EXECUTOR)
+    {
+      return mode + "(" + executor + ")";
+    }
+
+    return mode.toString();
+  }
+}
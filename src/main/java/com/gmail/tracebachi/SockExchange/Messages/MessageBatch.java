@@ -0,0 +1,94 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Messages;
+
+import com.gmail.tracebachi.SockExchange.Utilities.ExtraPreconditions;
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Messages that are sent together in one network frame
+ * <p>
+ * Batched messages are fire-and-forget and are delivered in the order they
+ * were added. To avoid extra memory usage, the API assumes the message bytes
+ * are not modified after they are added.
+ * </p>
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class MessageBatch
+{
+  private final List<String> channelNames;
+  private final List<byte[]> messages;
+
+  public MessageBatch()
+  {
+    this(16);
+  }
+
+  /**
+   * @param expectedSize Number of messages expected to be added
+   */
+  public MessageBatch(int expectedSize)
+  {
+    Preconditions.checkArgument(expectedSize >= 0, "expectedSize must be >= 0");
+
+    this.channelNames = new ArrayList<>(expectedSize);
+    this.messages = new ArrayList<>(expectedSize);
+  }
+
+  /**
+   * Adds a message to the batch
+   *
+   * @param channelName Name of channel to send bytes to
+   * @param messageBytes Bytes to send
+   *
+   * @return This batch (for chaining)
+   */
+  public MessageBatch add(String channelName, byte[] messageBytes)
+  {
+    ExtraPreconditions.checkNotEmpty(channelName, "channelName");
+    Preconditions.checkNotNull(messageBytes, "messageBytes");
+
+    channelNames.add(channelName);
+    messages.add(messageBytes);
+    return this;
+  }
+
+  public int size()
+  {
+    return messages.size();
+  }
+
+  public boolean isEmpty()
+  {
+    return messages.isEmpty();
+  }
+
+  public String getChannelName(int index)
+  {
+    return channelNames.get(index);
+  }
+
+  public byte[] getMessageBytes(int index)
+  {
+    return messages.get(index);
+  }
+}
@@ -21,6 +21,9 @@ import com.gmail.tracebachi.SockExchange.Utilities.ExtraPreconditions;
 import com.google.common.base.Preconditions;
 import com.google.common.io.ByteArrayDataInput;
 import com.google.common.io.ByteStreams;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.Unpooled;
 
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
@@ -33,9 +36,10 @@ public class ReceivedMessage
   private static final byte[] SINGLE_BYTE_RESPONSE = { 0 };
 
   private final String channelName;
-  private final byte[] messageBytes;
   private final Consumer<byte[]> onResponseConsumer;
   private final AtomicBoolean canRespond;
+  private volatile byte[] messageBytes;
+  private ByteBuf messageBuffer;
 
   public ReceivedMessage(
     String channelName, byte[] messageBytes, Consumer<byte[]> onResponseConsumer)
@@ -45,6 +49,31 @@ public class ReceivedMessage
 
     this.channelName = channelName;
     this.messageBytes = messageBytes;
+    this.messageBuffer = null;
+    this.onResponseConsumer = onResponseConsumer;
+    this.canRespond = new AtomicBoolean(onResponseConsumer != null);
+  }
+
+  /**
+   * Creates a message backed by a buffer (zero-copy mode)
+   * <p>
+   * The reference held by the caller is transferred to the message and is
+   * released by {@link ReceivedMessageNotifier} once every consumer has finished.
+   * </p>
+   *
+   * @param channelName Name of the channel
+   * @param messageBuffer Retained buffer holding the message bytes
+   * @param onResponseConsumer Consumer to run with response bytes or null
+   */
+  public ReceivedMessage(
+    String channelName, ByteBuf messageBuffer, Consumer<byte[]> onResponseConsumer)
+  {
+    ExtraPreconditions.checkNotEmpty(channelName, "channelName");
+    Preconditions.checkNotNull(messageBuffer, "messageBuffer");
+
+    this.channelName = channelName;
+    this.messageBytes = null;
+    this.messageBuffer = messageBuffer;
     this.onResponseConsumer = onResponseConsumer;
     this.canRespond = new AtomicBoolean(onResponseConsumer != null);
   }
@@ -54,19 +83,78 @@ public class ReceivedMessage
     return channelName;
   }
 
+  /**
+   * @return Message bytes (copied lazily if the message is backed by a buffer)
+   */
   public byte[] getMessageBytes()
   {
-    return messageBytes;
+    byte[] bytes = messageBytes;
+
+    if (bytes != null)
+    {
+      return bytes;
+    }
+
+    synchronized (this)
+    {
+      if (messageBytes == null)
+      {
+        ByteBuf buffer = checkBufferNotReleased();
+        byte[] copy = new byte[buffer.readableBytes()];
+        buffer.getBytes(buffer.readerIndex(), copy);
+        messageBytes = copy;
+      }
+
+      return messageBytes;
+    }
   }
 
-  public ByteArrayDataInput getDataInput()
+  /**
+   * Returns a read-only view of the message bytes without copying them
+   * <p>
+   * For buffer backed messages, the view is only valid until the consumer
+   * returns. Consumers that need the bytes afterwards must copy them (using
+   * {@link #getMessageBytes()}) or retain the returned buffer.
+   * </p>
+   *
+   * @return Read-only buffer with independent indexes
+   */
+  public ByteBuf getMessageBuffer()
   {
-    if (messageBytes == null)
+    synchronized (this)
     {
-      return ByteStreams.newDataInput(new byte[0]);
+      if (messageBuffer == null && messageBytes != null)
+      {
+        return Unpooled.unmodifiableBuffer(Unpooled.wrappedBuffer(messageBytes));
+      }
+
+      return Unpooled.unmodifiableBuffer(checkBufferNotReleased());
+    }
+  }
+
+  /**
+   * @return True if the message is backed by a buffer instead of a byte array
+   */
+  public boolean isBufferBacked()
+  {
+    synchronized (this)
+    {
+      return messageBuffer != null;
     }
+  }
 
-    return ByteStreams.newDataInput(messageBytes);
+  public ByteArrayDataInput getDataInput()
+  {
+    return ByteStreams.newDataInput(getMessageBytes());
+  }
+
+  /**
+   * @return {@link ByteBufInputStream} (which is also a {@link java.io.DataInput})
+   * reading from {@link #getMessageBuffer()} without copying
+   */
+  public ByteBufInputStream getBufferInput()
+  {
+    return new ByteBufInputStream(getMessageBuffer());
   }
 
   /**
@@ -111,4 +199,29 @@ public class ReceivedMessage
 
     return false;
   }
+
+  /**
+   * Releases the buffer backing this message (if any)
+   * <p>
+   * Bytes that were already copied by {@link #getMessageBytes()} remain available.
+   * </p>
+   */
+  void release()
+  {
+    synchronized (this)
+    {
+      if (messageBuffer != null)
+      {
+        messageBuffer.release();
+        messageBuffer = null;
+      }
+    }
+  }
+
+  private ByteBuf checkBufferNotReleased()
+  {
+    Preconditions.checkState(messageBuffer != null,
+      "Message buffer was released after the consumers finished");
+    return messageBuffer;
+  }
 }
@@ -17,23 +17,64 @@
  */
 package com.gmail.tracebachi.SockExchange.Messages;
 
+import com.gmail.tracebachi.SockExchange.Scheduler.AwaitableExecutor;
+import com.gmail.tracebachi.SockExchange.Scheduler.SerialExecutor;
 import com.gmail.tracebachi.SockExchange.Utilities.ExtraPreconditions;
 import com.google.common.base.Preconditions;
 
 import java.util.Collections;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
+ * Passes received messages to the consumers registered for their channel
+ * <p>
+ * By default, each consumer call is a separate task on the shared executor,
+ * so messages of a channel may be consumed concurrently and out of order.
+ * Consumers registered with {@code registerSerial} are called one message at
+ * a time in the order the messages were received, either per channel or per
+ * key (so messages with different keys still run in parallel).
+ * </p>
+ * <p>
+ * Consumers registered with {@link DispatchMode#INLINE} run on the thread
+ * that received the message. A consumer that runs inline for longer than the
+ * watchdog threshold is reported on System.err (with the stack of the
+ * blocked thread if it is still running when the watchdog checks).
+ * </p>
+ *
  * @author GeeItsZee (tracebachi@gmail.com)
  */
 public class ReceivedMessageNotifier
 {
+  /**
+   * Serial executors of a consumer registered with a key function (keys
+   * with the same stripe share one)
+   */
+  private static final int KEY_STRIPES = 32;
+
+  /**
+   * Milliseconds an inline consumer may run before it is reported (until
+   * the watchdog is started with another threshold)
+   */
+  public static final long DEFAULT_WATCHDOG_THRESHOLD_MILLIS = 50;
+
   private final Executor executor;
   private final ConcurrentHashMap<String, CopyOnWriteArraySet<Consumer<ReceivedMessage>>> channelToConsumerSetMap;
+  private final ThreadLocal<InlineSlot> inlineSlot = ThreadLocal.withInitial(this::newInlineSlot);
+  private final CopyOnWriteArrayList<InlineSlot> inlineSlots = new CopyOnWriteArrayList<>();
+  private volatile long inlineThresholdNanos =
+    TimeUnit.MILLISECONDS.toNanos(DEFAULT_WATCHDOG_THRESHOLD_MILLIS);
+  private ScheduledFuture<?> watchdogFuture;
 
   public ReceivedMessageNotifier(Executor executor)
   {
@@ -48,33 +89,138 @@ public class ReceivedMessageNotifier
     ExtraPreconditions.checkNotEmpty(channelName, "channelName");
     Preconditions.checkNotNull(consumer, "consumer");
 
-    // Create a set containing the consumer (assuming the channel will not be found)
-    CopyOnWriteArraySet<Consumer<ReceivedMessage>> newSet = new CopyOnWriteArraySet<>(
-      Collections.singleton(consumer));
+    addConsumer(channelName, consumer);
+  }
 
-    CopyOnWriteArraySet<Consumer<ReceivedMessage>> existingSet = channelToConsumerSetMap
-      .putIfAbsent(channelName, newSet);
+  /**
+   * Registers a consumer that runs on the thread picked by the dispatch mode
+   *
+   * @param channelName Name of the channel
+   * @param consumer Consumer to register
+   * @param dispatchMode {@link DispatchMode} of the consumer
+   */
+  public void register(
+    String channelName, Consumer<ReceivedMessage> consumer, DispatchMode dispatchMode)
+  {
+    ExtraPreconditions.checkNotEmpty(channelName, "channelName");
+    Preconditions.checkNotNull(consumer, "consumer");
+    Preconditions.checkNotNull(dispatchMode, "dispatchMode");
 
-    // If there was an existing mapping, existingSet will not be null (refer to putIfAbsent).
-    if (existingSet != null)
+    switch (dispatchMode.getMode())
     {
-      existingSet.add(consumer);
+      case INLINE:
+        addConsumer(channelName, new InlineConsumer(consumer));
+        break;
+      case EXECUTOR:
+        addConsumer(channelName, new ExecutorConsumer(consumer, dispatchMode.getExecutor()));
+        break;
+      default:
+        addConsumer(channelName, consumer);
+        break;
     }
   }
 
+  /**
+   * Registers a consumer that is passed the messages of the channel one at
+   * a time, in the order they were received
+   *
+   * @param channelName Name of the channel
+   * @param consumer Consumer to register
+   */
+  public void registerSerial(String channelName, Consumer<ReceivedMessage> consumer)
+  {
+    ExtraPreconditions.checkNotEmpty(channelName, "channelName");
+    Preconditions.checkNotNull(consumer, "consumer");
+
+    addConsumer(channelName, new SerialConsumer(consumer, null, 1));
+  }
+
+  /**
+   * Registers a consumer that is passed the messages with the same key one
+   * at a time, in the order they were received
+   * <p>
+   * The key function runs on the thread that received the message (usually
+   * a Netty thread), so it should only read a few bytes of the message.
+   * </p>
+   *
+   * @param channelName Name of the channel
+   * @param consumer Consumer to register
+   * @param keyFunction Function returning the key of a message (for example
+   * a player UUID) or null for messages without a key
+   */
+  public void registerSerial(
+    String channelName, Consumer<ReceivedMessage> consumer,
+    Function<ReceivedMessage, ?> keyFunction)
+  {
+    ExtraPreconditions.checkNotEmpty(channelName, "channelName");
+    Preconditions.checkNotNull(consumer, "consumer");
+    Preconditions.checkNotNull(keyFunction, "keyFunction");
+
+    addConsumer(channelName, new SerialConsumer(consumer, keyFunction, KEY_STRIPES));
+  }
+
   public void unregister(String channelName, Consumer<ReceivedMessage> consumer)
   {
     ExtraPreconditions.checkNotEmpty(channelName, "channelName");
     Preconditions.checkNotNull(consumer, "consumer");
 
-    channelToConsumerSetMap.computeIfPresent(channelName, (entryKey, entrySet) ->
+    CopyOnWriteArraySet<Consumer<ReceivedMessage>> existingSet = channelToConsumerSetMap
+      .get(channelName);
+
+    // Empty sets are kept, since connections cache the set of each channel symbol
+    if (existingSet != null)
     {
-      // Remove the consumer from the set
-      entrySet.remove(consumer);
+      existingSet.removeIf((existing) -> existing == consumer ||
+        (existing instanceof DispatchingConsumer &&
+          ((DispatchingConsumer) existing).consumer == consumer));
+    }
+  }
+
+  /**
+   * Returns the live set of consumers of a channel (creating an empty set if
+   * there are no consumers) so callers can cache it instead of looking up the
+   * channel name for every message
+   *
+   * @param channelName Name of the channel
+   *
+   * @return Set of consumers (updated by register and unregister)
+   */
+  public Set<Consumer<ReceivedMessage>> getConsumerSet(String channelName)
+  {
+    ExtraPreconditions.checkNotEmpty(channelName, "channelName");
+
+    return channelToConsumerSetMap.computeIfAbsent(channelName,
+      (key) -> new CopyOnWriteArraySet<>());
+  }
+
+  /**
+   * Starts checking for inline consumers that block their thread
+   *
+   * @param scheduler Executor to run the checks on
+   * @param thresholdMillis Milliseconds an inline consumer may run before
+   * it is reported
+   */
+  public synchronized void startWatchdog(ScheduledExecutorService scheduler, long thresholdMillis)
+  {
+    Preconditions.checkNotNull(scheduler, "scheduler");
+    Preconditions.checkArgument(thresholdMillis > 0, "thresholdMillis must be > 0");
+
+    stopWatchdog();
+
+    long periodMillis = Math.max(1, thresholdMillis / 2);
+
+    inlineThresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+    watchdogFuture = scheduler.scheduleAtFixedRate(this::checkInlineConsumers,
+      periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+  }
 
-      // If the set is now empty, remove the mapping.
-      return entrySet.size() == 0 ? null : entrySet;
-    });
+  public synchronized void stopWatchdog()
+  {
+    if (watchdogFuture != null)
+    {
+      watchdogFuture.cancel(false);
+      watchdogFuture = null;
+    }
   }
 
   public void notify(String channelName, ReceivedMessage receivedMessage)
@@ -82,16 +228,344 @@ public class ReceivedMessageNotifier
     ExtraPreconditions.checkNotEmpty(channelName, "channelName");
     Preconditions.checkNotNull(receivedMessage, "receivedMessage");
 
-    Set<Consumer<ReceivedMessage>> consumerSet = channelToConsumerSetMap.get(channelName);
+    notify(channelToConsumerSetMap.get(channelName), receivedMessage);
+  }
+
+  /**
+   * Notifies a set of consumers returned by {@link #getConsumerSet(String)}
+   *
+   * @param consumerSet Set of consumers or null if there are none
+   * @param receivedMessage Message to pass to the consumers
+   */
+  public void notify(Set<Consumer<ReceivedMessage>> consumerSet, ReceivedMessage receivedMessage)
+  {
+    Preconditions.checkNotNull(receivedMessage, "receivedMessage");
+
+    boolean bufferBacked = receivedMessage.isBufferBacked();
 
     if (consumerSet == null)
     {
+      if (bufferBacked)
+      {
+        receivedMessage.release();
+      }
       return;
     }
 
+    // The buffer is released when the last consumer finishes. The count starts
+    // at one so the buffer cannot be released while tasks are still being submitted.
+    AtomicInteger remaining = bufferBacked ? new AtomicInteger(1) : null;
+
     for (Consumer<ReceivedMessage> consumer : consumerSet)
     {
-      executor.execute(() -> consumer.accept(receivedMessage));
+      if (remaining != null)
+      {
+        remaining.incrementAndGet();
+      }
+
+      Delivery delivery = new Delivery(consumer, receivedMessage, remaining);
+
+      if (consumer instanceof DispatchingConsumer)
+      {
+        ((DispatchingConsumer) consumer).dispatch(delivery);
+      }
+      else
+      {
+        submit(executor, delivery);
+      }
+    }
+
+    if (remaining != null)
+    {
+      releaseIfDone(remaining, receivedMessage);
+    }
+  }
+
+  private void addConsumer(String channelName, Consumer<ReceivedMessage> consumer)
+  {
+    // Create a set containing the consumer (assuming the channel will not be found)
+    CopyOnWriteArraySet<Consumer<ReceivedMessage>> newSet = new CopyOnWriteArraySet<>(
+      Collections.singleton(consumer));
+
+    CopyOnWriteArraySet<Consumer<ReceivedMessage>> existingSet = channelToConsumerSetMap
+      .putIfAbsent(channelName, newSet);
+
+    // If there was an existing mapping, existingSet will not be null (refer to putIfAbsent).
+    if (existingSet != null)
+    {
+      existingSet.add(consumer);
+    }
+  }
+
+  private InlineSlot newInlineSlot()
+  {
+    InlineSlot slot = new InlineSlot(Thread.currentThread());
+    inlineSlots.add(slot);
+    return slot;
+  }
+
+  private void checkInlineConsumers()
+  {
+    long now = System.nanoTime();
+
+    for (InlineSlot slot : inlineSlots)
+    {
+      if (!slot.thread.isAlive())
+      {
+        inlineSlots.remove(slot);
+        continue;
+      }
+
+      Consumer<ReceivedMessage> consumer = slot.consumer;
+      long startNanos = slot.startNanos;
+
+      if (consumer == null || slot.reported || now - startNanos <= inlineThresholdNanos)
+      {
+        continue;
+      }
+
+      slot.reported = true;
+
+      System.err.println("[ReceivedMessageNotifier] Inline consumer " + consumer +
+        " has blocked thread " + slot.thread.getName() + " for " +
+        TimeUnit.NANOSECONDS.toMillis(now - startNanos) + " ms");
+
+      for (StackTraceElement element : slot.thread.getStackTrace())
+      {
+        System.err.println("\tat " + element);
+      }
+    }
+  }
+
+  private static void submit(Executor executor, Delivery delivery)
+  {
+    if (executor instanceof AwaitableExecutor)
+    {
+      if (!((AwaitableExecutor) executor).submit(delivery))
+      {
+        delivery.finish();
+      }
+      return;
+    }
+
+    try
+    {
+      executor.execute(delivery);
+    }
+    catch (RejectedExecutionException ex)
+    {
+      // Not rethrown, so the other consumers still run and the message is still released
+      System.err.println("[ReceivedMessageNotifier] Executor rejected consumer " +
+        delivery.consumer + " (" + ex.getMessage() + ")");
+      delivery.finish();
+    }
+  }
+
+  private static void releaseIfDone(AtomicInteger remaining, ReceivedMessage receivedMessage)
+  {
+    if (remaining.decrementAndGet() == 0)
+    {
+      receivedMessage.release();
+    }
+  }
+
+  private static class Delivery implements Runnable
+  {
+    private final Consumer<ReceivedMessage> consumer;
+    private final ReceivedMessage receivedMessage;
+    private final AtomicInteger remaining;
+
+    private Delivery(
+      Consumer<ReceivedMessage> consumer, ReceivedMessage receivedMessage,
+      AtomicInteger remaining)
+    {
+      this.consumer = consumer;
+      this.receivedMessage = receivedMessage;
+      this.remaining = remaining;
+    }
+
+    @Override
+    public void run()
+    {
+      try
+      {
+        consumer.accept(receivedMessage);
+      }
+      finally
+      {
+        finish();
+      }
+    }
+
+    /**
+     * Releases the message once every consumer is done (also called for
+     * deliveries that are never run)
+     */
+    private void finish()
+    {
+      if (remaining != null)
+      {
+        releaseIfDone(remaining, receivedMessage);
+      }
+    }
+  }
+
+  /**
+   * Inline consumer running on a thread (only written by that thread)
+   */
+  private static class InlineSlot
+  {
+    private final Thread thread;
+    private volatile Consumer<ReceivedMessage> consumer;
+    private volatile long startNanos;
+    private volatile boolean reported;
+
+    private InlineSlot(Thread thread)
+    {
+      this.thread = thread;
+    }
+  }
+
+  /**
+   * Registered consumer that picks the thread it runs on
+   */
+  private abstract static class DispatchingConsumer implements Consumer<ReceivedMessage>
+  {
+    protected final Consumer<ReceivedMessage> consumer;
+
+    private DispatchingConsumer(Consumer<ReceivedMessage> consumer)
+    {
+      this.consumer = consumer;
+    }
+
+    @Override
+    public void accept(ReceivedMessage receivedMessage)
+    {
+      consumer.accept(receivedMessage);
+    }
+
+    protected abstract void dispatch(Delivery delivery);
+
+    @Override
+    public String toString()
+    {
+      return consumer.toString();
+    }
+  }
+
+  private class InlineConsumer extends DispatchingConsumer
+  {
+    private InlineConsumer(Consumer<ReceivedMessage> consumer)
+    {
+      super(consumer);
+    }
+
+    @Override
+    protected void dispatch(Delivery delivery)
+    {
+      InlineSlot slot = inlineSlot.get();
+
+      // Messages notified by an inline consumer are timed as part of it
+      if (slot.consumer != null)
+      {
+        try
+        {
+          delivery.run();
+        }
+        catch (Exception ex)
+        {
+          ex.printStackTrace();
+        }
+        return;
+      }
+
+      long startNanos = System.nanoTime();
+      slot.startNanos = startNanos;
+      slot.reported = false;
+      slot.consumer = consumer;
+
+      try
+      {
+        delivery.run();
+      }
+      catch (Exception ex)
+      {
+        // Same as a pooled consumer, so a failing consumer does not reach the decoder
+        ex.printStackTrace();
+      }
+      finally
+      {
+        slot.consumer = null;
+
+        long elapsedNanos = System.nanoTime() - startNanos;
+
+        if (!slot.reported && elapsedNanos > inlineThresholdNanos)
+        {
+          System.err.println("[ReceivedMessageNotifier] Inline consumer " + consumer +
+            " blocked thread " + slot.thread.getName() + " for " +
+            TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + " ms");
+        }
+      }
+    }
+  }
+
+  private static class ExecutorConsumer extends DispatchingConsumer
+  {
+    private final Executor executor;
+
+    private ExecutorConsumer(Consumer<ReceivedMessage> consumer, Executor executor)
+    {
+      super(consumer);
+
+      this.executor = executor;
+    }
+
+    @Override
+    protected void dispatch(Delivery delivery)
+    {
+      submit(executor, delivery);
+    }
+  }
+
+  private class SerialConsumer extends DispatchingConsumer
+  {
+    private final Function<ReceivedMessage, ?> keyFunction;
+    private final SerialExecutor[] serialExecutors;
+
+    private SerialConsumer(
+      Consumer<ReceivedMessage> consumer, Function<ReceivedMessage, ?> keyFunction, int stripes)
+    {
+      super(consumer);
+
+      this.keyFunction = keyFunction;
+      this.serialExecutors = new SerialExecutor[stripes];
+
+      for (int i = 0; i < stripes; i++)
+      {
+        serialExecutors[i] = new SerialExecutor(executor,
+          (task) -> ((Delivery) task).finish());
+      }
+    }
+
+    @Override
+    protected void dispatch(Delivery delivery)
+    {
+      // Rejected deliveries are finished by the discard handler
+      getExecutor(delivery.receivedMessage).submit(delivery);
+    }
+
+    private SerialExecutor getExecutor(ReceivedMessage receivedMessage)
+    {
+      if (keyFunction == null)
+      {
+        return serialExecutors[0];
+      }
+
+      Object key = keyFunction.apply(receivedMessage);
+      int hash = key == null ? 0 : key.hashCode();
+
+      // Spread the hash so keys that differ in the high bits use different stripes
+      return serialExecutors[Math.floorMod(hash ^ (hash >>> 16), serialExecutors.length)];
     }
   }
 }
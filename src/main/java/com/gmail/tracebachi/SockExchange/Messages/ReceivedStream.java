@@ -0,0 +1,463 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Messages;
+
+import com.gmail.tracebachi.SockExchange.Utilities.ExtraPreconditions;
+import com.google.common.base.Preconditions;
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stream of bytes received in chunks
+ * <p>
+ * Chunks are queued as they arrive and the sender is only allowed to send
+ * more once the queued bytes are read, so a stream never holds more than one
+ * flow control window in memory. The consumer of a stream must read it to
+ * the end or close it. Reads block until data arrives, the sender finishes
+ * or the read timeout passes.
+ * </p>
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class ReceivedStream extends InputStream
+{
+  /**
+   * Callbacks from the stream to the connection it was received on
+   */
+  public interface Control
+  {
+    /**
+     * Called after bytes are read, so the sender can be granted more credit
+     *
+     * @param bytes Number of bytes read
+     */
+    void onConsumed(int bytes);
+
+    /**
+     * Called once when the stream is closed
+     *
+     * @param complete True if every byte of the stream was read
+     */
+    void onClosed(boolean complete);
+  }
+
+  private static final long DEFAULT_READ_TIMEOUT_MILLIS = 30000;
+
+  private final String channelName;
+  private final String serverName;
+  private final long length;
+  private final Control control;
+  private final ArrayDeque<ByteBuf> chunks = new ArrayDeque<>();
+  private volatile long readTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+
+  // Guarded by this
+  private boolean finished;
+  private boolean closed;
+  private boolean endReached;
+  private String abortReason;
+
+  /**
+   * @param channelName Name of the channel
+   * @param serverName Name of the server that sent the stream or null if it
+   * was sent by the proxy
+   * @param length Number of bytes in the stream or -1 if it is unknown
+   * @param control Callbacks to the connection the stream is received on
+   */
+  public ReceivedStream(String channelName, String serverName, long length, Control control)
+  {
+    ExtraPreconditions.checkNotEmpty(channelName, "channelName");
+    Preconditions.checkNotNull(control, "control");
+
+    this.channelName = channelName;
+    this.serverName = serverName;
+    this.length = length;
+    this.control = control;
+  }
+
+  public String getChannelName()
+  {
+    return channelName;
+  }
+
+  /**
+   * @return Name of the server that sent the stream or null if it was sent
+   * by the proxy
+   */
+  public String getServerName()
+  {
+    return serverName;
+  }
+
+  /**
+   * @return Number of bytes in the stream or -1 if the sender did not know
+   */
+  public long getLength()
+  {
+    return length;
+  }
+
+  /**
+   * @return Longest time (in milliseconds) a read waits for data
+   */
+  public long getReadTimeoutMillis()
+  {
+    return readTimeoutMillis;
+  }
+
+  /**
+   * @param readTimeoutMillis Longest time (in milliseconds) a read waits for
+   * data before the stream is closed (0 to wait forever)
+   */
+  public void setReadTimeoutMillis(long readTimeoutMillis)
+  {
+    Preconditions.checkArgument(readTimeoutMillis >= 0, "readTimeoutMillis must be >= 0");
+
+    this.readTimeoutMillis = readTimeoutMillis;
+  }
+
+  /**
+   * Queues a received chunk (called by the connection)
+   *
+   * @param chunk Retained chunk (released once read or when the stream is closed)
+   */
+  public void offer(ByteBuf chunk)
+  {
+    Preconditions.checkNotNull(chunk, "chunk");
+
+    synchronized (this)
+    {
+      if (!closed && !finished && abortReason == null)
+      {
+        if (chunk.isReadable())
+        {
+          chunks.add(chunk);
+          notifyAll();
+        }
+        else
+        {
+          chunk.release();
+        }
+        return;
+      }
+    }
+
+    chunk.release();
+  }
+
+  /**
+   * Marks the end of the stream (called by the connection)
+   */
+  public synchronized void finish()
+  {
+    finished = true;
+    notifyAll();
+  }
+
+  /**
+   * Fails reads once the queued chunks are read (called by the connection)
+   *
+   * @param reason Reason the stream was aborted
+   */
+  public synchronized void abort(String reason)
+  {
+    if (abortReason == null)
+    {
+      abortReason = reason;
+      notifyAll();
+    }
+  }
+
+  @Override
+  public int read() throws IOException
+  {
+    int value;
+
+    synchronized (this)
+    {
+      ByteBuf chunk = awaitChunk();
+
+      if (chunk == null)
+      {
+        return -1;
+      }
+
+      value = chunk.readUnsignedByte();
+      releaseIfRead(chunk);
+    }
+
+    control.onConsumed(1);
+    return value;
+  }
+
+  @Override
+  public int read(byte[] bytes, int offset, int length) throws IOException
+  {
+    Preconditions.checkNotNull(bytes, "bytes");
+    Preconditions.checkPositionIndexes(offset, offset + length, bytes.length);
+
+    if (length == 0)
+    {
+      return 0;
+    }
+
+    int read;
+
+    synchronized (this)
+    {
+      ByteBuf chunk = awaitChunk();
+
+      if (chunk == null)
+      {
+        return -1;
+      }
+
+      read = Math.min(length, chunk.readableBytes());
+      chunk.readBytes(bytes, offset, read);
+      releaseIfRead(chunk);
+    }
+
+    control.onConsumed(read);
+    return read;
+  }
+
+  @Override
+  public synchronized int available() throws IOException
+  {
+    int available = 0;
+
+    for (ByteBuf chunk : chunks)
+    {
+      available += chunk.readableBytes();
+    }
+
+    return available;
+  }
+
+  /**
+   * Writes the rest of the stream to an output stream
+   *
+   * @param out Output stream to write to (not closed)
+   *
+   * @return Number of bytes written
+   *
+   * @throws IOException If the stream was aborted or writing failed
+   */
+  public long transferTo(OutputStream out) throws IOException
+  {
+    Preconditions.checkNotNull(out, "out");
+
+    long transferred = 0;
+
+    while (true)
+    {
+      int read;
+
+      synchronized (this)
+      {
+        ByteBuf chunk = awaitChunk();
+
+        if (chunk == null)
+        {
+          return transferred;
+        }
+
+        // Chunks are written as they are, without an intermediate array
+        read = chunk.readableBytes();
+        chunk.readBytes(out, read);
+        releaseIfRead(chunk);
+      }
+
+      transferred += read;
+      control.onConsumed(read);
+    }
+  }
+
+  /**
+   * Writes the rest of the stream to a file (replacing its contents)
+   *
+   * @param path Path of the file to write
+   *
+   * @return Number of bytes written
+   *
+   * @throws IOException If the stream was aborted or writing failed
+   */
+  public long saveTo(Path path) throws IOException
+  {
+    Preconditions.checkNotNull(path, "path");
+
+    try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.CREATE,
+      StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+    {
+      long transferred = 0;
+
+      while (true)
+      {
+        int read;
+
+        synchronized (this)
+        {
+          ByteBuf chunk = awaitChunk();
+
+          if (chunk == null)
+          {
+            return transferred;
+          }
+
+          // Direct chunks are written to the file without copying them to the heap
+          read = chunk.readableBytes();
+          while (chunk.isReadable())
+          {
+            chunk.readBytes(fileChannel, chunk.readableBytes());
+          }
+          releaseIfRead(chunk);
+        }
+
+        transferred += read;
+        control.onConsumed(read);
+      }
+    }
+  }
+
+  /**
+   * Closes the stream and releases the queued chunks
+   * <p>
+   * Closing a stream before reading it to the end cancels it, so the sender
+   * completes with {@link ResponseStatus#CANCELLED}.
+   * </p>
+   */
+  @Override
+  public void close()
+  {
+    boolean complete;
+
+    synchronized (this)
+    {
+      if (closed)
+      {
+        return;
+      }
+
+      complete = finished && chunks.isEmpty();
+      closed = true;
+      releaseChunks();
+      notifyAll();
+    }
+
+    control.onClosed(complete);
+  }
+
+  /**
+   * Waits for a readable chunk (called while holding the lock)
+   *
+   * @return Chunk to read from or null if the end of the stream was reached
+   */
+  private ByteBuf awaitChunk() throws IOException
+  {
+    long timeoutMillis = readTimeoutMillis;
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+    while (true)
+    {
+      if (closed)
+      {
+        if (endReached)
+        {
+          return null;
+        }
+
+        throw new IOException("Stream is closed");
+      }
+
+      ByteBuf chunk = chunks.peek();
+
+      if (chunk != null)
+      {
+        return chunk;
+      }
+
+      if (abortReason != null)
+      {
+        String reason = abortReason;
+        closeWhileLocked(false);
+        throw new IOException("Stream was aborted: " + reason);
+      }
+
+      if (finished)
+      {
+        endReached = true;
+        closeWhileLocked(true);
+        return null;
+      }
+
+      long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+
+      if (timeoutMillis > 0 && remainingMillis <= 0)
+      {
+        closeWhileLocked(false);
+        throw new InterruptedIOException("Timed out waiting for stream data");
+      }
+
+      try
+      {
+        wait(timeoutMillis > 0 ? remainingMillis : 0);
+      }
+      catch (InterruptedException ex)
+      {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for stream data");
+      }
+    }
+  }
+
+  private void closeWhileLocked(boolean complete)
+  {
+    closed = true;
+    releaseChunks();
+
+    // The connection only writes an ack, so it is safe to call with the lock held
+    control.onClosed(complete);
+  }
+
+  private void releaseIfRead(ByteBuf chunk)
+  {
+    if (!chunk.isReadable())
+    {
+      chunks.poll();
+      chunk.release();
+    }
+  }
+
+  private void releaseChunks()
+  {
+    ByteBuf chunk;
+
+    while ((chunk = chunks.poll()) != null)
+    {
+      chunk.release();
+    }
+  }
+}
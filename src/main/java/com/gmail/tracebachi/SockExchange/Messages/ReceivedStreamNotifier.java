@@ -0,0 +1,118 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Messages;
+
+import com.gmail.tracebachi.SockExchange.Scheduler.AwaitableExecutor;
+import com.gmail.tracebachi.SockExchange.Utilities.ExtraPreconditions;
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Passes received streams to the consumer of their channel
+ * <p>
+ * Unlike messages, a stream can only be read once, so each channel has at
+ * most one consumer. Streams for channels without a consumer are cancelled.
+ * </p>
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class ReceivedStreamNotifier
+{
+  private final Executor executor;
+  private final ConcurrentHashMap<String, Consumer<ReceivedStream>> channelToConsumerMap;
+
+  public ReceivedStreamNotifier(Executor executor)
+  {
+    Preconditions.checkNotNull(executor, "executor");
+
+    this.executor = executor;
+    this.channelToConsumerMap = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * @param channelName Name of the channel
+   * @param consumer Consumer that reads (or closes) every stream received on the channel
+   *
+   * @throws IllegalStateException If the channel already has a consumer
+   */
+  public void register(String channelName, Consumer<ReceivedStream> consumer)
+  {
+    ExtraPreconditions.checkNotEmpty(channelName, "channelName");
+    Preconditions.checkNotNull(consumer, "consumer");
+
+    Consumer<ReceivedStream> existing = channelToConsumerMap.putIfAbsent(channelName, consumer);
+
+    Preconditions.checkState(existing == null,
+      "Channel already has a stream consumer: " + channelName);
+  }
+
+  public void unregister(String channelName, Consumer<ReceivedStream> consumer)
+  {
+    ExtraPreconditions.checkNotEmpty(channelName, "channelName");
+    Preconditions.checkNotNull(consumer, "consumer");
+
+    channelToConsumerMap.remove(channelName, consumer);
+  }
+
+  /**
+   * Runs the consumer of the stream's channel using the executor
+   * <p>
+   * The stream is closed (cancelling it) if the consumer throws an exception.
+   * </p>
+   *
+   * @param receivedStream Stream to pass to the consumer
+   *
+   * @return True if the stream was passed to a consumer or false if the
+   * channel has no consumer (or the executor rejected the task)
+   */
+  public boolean notify(ReceivedStream receivedStream)
+  {
+    Preconditions.checkNotNull(receivedStream, "receivedStream");
+
+    Consumer<ReceivedStream> consumer = channelToConsumerMap.get(receivedStream.getChannelName());
+
+    if (consumer == null)
+    {
+      return false;
+    }
+
+    Runnable runnable = () ->
+    {
+      try
+      {
+        consumer.accept(receivedStream);
+      }
+      catch (RuntimeException ex)
+      {
+        receivedStream.close();
+        throw ex;
+      }
+    };
+
+    if (executor instanceof AwaitableExecutor)
+    {
+      return ((AwaitableExecutor) executor).submit(runnable);
+    }
+
+    executor.execute(runnable);
+    return true;
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Messages;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * {@link CompletableFuture} for the response to a request
+ * <p>
+ * The future is also the consumer passed along with the request. Cancelling
+ * the future removes the pending request, so a cancelled request does not
+ * wait for its timeout and its response (if any) is ignored.
+ * </p>
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class ResponseFuture extends CompletableFuture<ResponseMessage>
+  implements Consumer<ResponseMessage>
+{
+  private final Executor completionExecutor;
+  private Runnable onCancel;
+
+  /**
+   * Creates a future that completes on the thread that receives the response
+   * (the shared SockExchange executor)
+   */
+  public ResponseFuture()
+  {
+    this(null);
+  }
+
+  /**
+   * @param completionExecutor Executor to complete the future on or null to
+   * complete it on the thread that receives the response
+   */
+  public ResponseFuture(Executor completionExecutor)
+  {
+    this.completionExecutor = completionExecutor;
+  }
+
+  @Override
+  public void accept(ResponseMessage responseMessage)
+  {
+    // The future may be used after the response is released, so copy a
+    // buffer-backed payload now (the copy is cached by the response)
+    responseMessage.getMessageBytes();
+
+    if (completionExecutor == null)
+    {
+      complete(responseMessage);
+      return;
+    }
+
+    try
+    {
+      completionExecutor.execute(() -> complete(responseMessage));
+    }
+    catch (RuntimeException ex)
+    {
+      completeExceptionally(ex);
+    }
+  }
+
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning)
+  {
+    boolean cancelled = super.cancel(mayInterruptIfRunning);
+
+    if (cancelled)
+    {
+      runOnCancel();
+    }
+
+    return cancelled;
+  }
+
+  /**
+   * Sets the action that removes the pending request when the future is
+   * cancelled (runs immediately if the future is already cancelled)
+   *
+   * @param onCancel Action to run
+   */
+  public void setOnCancel(Runnable onCancel)
+  {
+    synchronized (this)
+    {
+      this.onCancel = onCancel;
+    }
+
+    if (isCancelled())
+    {
+      runOnCancel();
+    }
+  }
+
+  private void runOnCancel()
+  {
+    Runnable toRun;
+
+    synchronized (this)
+    {
+      toRun = onCancel;
+      onCancel = null;
+    }
+
+    if (toRun != null)
+    {
+      toRun.run();
+    }
+  }
+}
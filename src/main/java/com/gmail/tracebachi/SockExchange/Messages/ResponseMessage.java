@@ -20,6 +20,9 @@ package com.gmail.tracebachi.SockExchange.Messages;
 import com.google.common.base.Preconditions;
 import com.google.common.io.ByteArrayDataInput;
 import com.google.common.io.ByteStreams;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.Unpooled;
 
 /**
  * @author GeeItsZee (tracebachi@gmail.com)
@@ -27,14 +30,16 @@ import com.google.common.io.ByteStreams;
 public class ResponseMessage
 {
   private final ResponseStatus responseStatus;
-  private final byte[] messageBytes;
+  private volatile byte[] messageBytes;
+  private ByteBuf messageBuffer;
+  private boolean bufferReleased;
 
   /**
    * @param responseStatus Status of sending request
    */
   public ResponseMessage(ResponseStatus responseStatus)
   {
-    this(responseStatus, null);
+    this(responseStatus, (byte[]) null);
   }
 
   /**
@@ -49,6 +54,25 @@ public class ResponseMessage
     this.messageBytes = messageBytes;
   }
 
+  /**
+   * Creates a response backed by a buffer (zero-copy mode)
+   * <p>
+   * The reference held by the caller is transferred to the response and is
+   * released once the response consumer returns.
+   * </p>
+   *
+   * @param responseStatus Status of sending request
+   * @param messageBuffer Retained buffer holding the message bytes
+   */
+  public ResponseMessage(ResponseStatus responseStatus, ByteBuf messageBuffer)
+  {
+    Preconditions.checkNotNull(responseStatus, "responseStatus");
+    Preconditions.checkNotNull(messageBuffer, "messageBuffer");
+
+    this.responseStatus = responseStatus;
+    this.messageBuffer = messageBuffer;
+  }
+
   /**
    * @return Status of response
    */
@@ -58,11 +82,66 @@ public class ResponseMessage
   }
 
   /**
-   * @return Raw bytes from response
+   * @return Raw bytes from response (copied lazily if the response is backed
+   * by a buffer) or null if the response has no bytes
+   *
+   * @throws IllegalStateException If the buffer backing the response was
+   * released before the bytes were copied
    */
   public byte[] getMessageBytes()
   {
-    return messageBytes;
+    byte[] bytes = messageBytes;
+
+    if (bytes != null)
+    {
+      return bytes;
+    }
+
+    synchronized (this)
+    {
+      if (messageBytes == null && (messageBuffer != null || bufferReleased))
+      {
+        ByteBuf buffer = checkBufferNotReleased();
+        byte[] copy = new byte[buffer.readableBytes()];
+        buffer.getBytes(buffer.readerIndex(), copy);
+        messageBytes = copy;
+      }
+
+      return messageBytes;
+    }
+  }
+
+  /**
+   * Returns a read-only view of the response bytes without copying them
+   * <p>
+   * For buffer backed responses, the view is only valid until the consumer
+   * returns. Consumers that need the bytes afterwards must copy them (using
+   * {@link #getMessageBytes()}) or retain the returned buffer.
+   * </p>
+   *
+   * @return Read-only buffer with independent indexes or null if there are no bytes
+   *
+   * @throws IllegalStateException If the buffer backing the response was
+   * released before the bytes were copied
+   */
+  public ByteBuf getMessageBuffer()
+  {
+    synchronized (this)
+    {
+      byte[] bytes = messageBytes;
+
+      if (bytes != null && messageBuffer == null)
+      {
+        return Unpooled.unmodifiableBuffer(Unpooled.wrappedBuffer(bytes));
+      }
+
+      if (messageBuffer == null && !bufferReleased)
+      {
+        return null;
+      }
+
+      return Unpooled.unmodifiableBuffer(checkBufferNotReleased());
+    }
   }
 
   /**
@@ -70,11 +149,50 @@ public class ResponseMessage
    */
   public ByteArrayDataInput getDataInput()
   {
-    if (messageBytes == null)
+    byte[] bytes = getMessageBytes();
+
+    if (bytes == null)
     {
       return ByteStreams.newDataInput(new byte[0]);
     }
 
-    return ByteStreams.newDataInput(messageBytes);
+    return ByteStreams.newDataInput(bytes);
+  }
+
+  /**
+   * @return {@link ByteBufInputStream} (which is also a {@link java.io.DataInput})
+   * reading from {@link #getMessageBuffer()} without copying
+   */
+  public ByteBufInputStream getBufferInput()
+  {
+    ByteBuf buffer = getMessageBuffer();
+    return new ByteBufInputStream(buffer == null ? Unpooled.EMPTY_BUFFER : buffer);
+  }
+
+  /**
+   * Releases the buffer backing this response (if any)
+   * <p>
+   * Called by SockExchange once the response consumer returns. Bytes that
+   * were already copied by {@link #getMessageBytes()} remain available.
+   * </p>
+   */
+  public void release()
+  {
+    synchronized (this)
+    {
+      if (messageBuffer != null)
+      {
+        messageBuffer.release();
+        messageBuffer = null;
+        bufferReleased = true;
+      }
+    }
+  }
+
+  private ByteBuf checkBufferNotReleased()
+  {
+    Preconditions.checkState(messageBuffer != null,
+      "Response buffer was released after the consumer finished");
+    return messageBuffer;
   }
 }
@@ -27,13 +27,31 @@ public enum ResponseStatus
   TIMED_OUT,
   SERVER_OFFLINE,
   SERVER_NOT_FOUND,
-  PLAYER_NOT_FOUND;
+  PLAYER_NOT_FOUND,
+  WRITE_BUFFER_FULL,
+  CANCELLED;
 
   public boolean isOk()
   {
     return this == OK;
   }
 
+  /**
+   * @return Status to send to a peer that does not know this status (the
+   * request was not delivered, which older peers read as NOT_CONNECTED)
+   */
+  public ResponseStatus toLegacyStatus()
+  {
+    switch (this)
+    {
+      case WRITE_BUFFER_FULL:
+      case CANCELLED:
+        return NOT_CONNECTED;
+      default:
+        return this;
+    }
+  }
+
   public static ResponseStatus fromOrdinal(int ordinal)
   {
     switch (ordinal)
@@ -50,6 +68,10 @@ public enum ResponseStatus
         return SERVER_NOT_FOUND;
       case 5:
         return PLAYER_NOT_FOUND;
+      case 6:
+        return WRITE_BUFFER_FULL;
+      case 7:
+        return CANCELLED;
     }
 
     throw new IllegalArgumentException("Unknown mapping for ordinal");
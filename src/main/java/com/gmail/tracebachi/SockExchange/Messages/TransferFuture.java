@@ -0,0 +1,95 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Messages;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link ResponseFuture} for a file transfer that also tracks how much of the
+ * file has been written to the connection
+ * <p>
+ * The future completes once the receiver has read the whole file (with
+ * {@link ResponseStatus#OK}) or the transfer failed.
+ * </p>
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class TransferFuture extends ResponseFuture
+{
+  private final long length;
+  private final AtomicLong bytesSent = new AtomicLong();
+
+  /**
+   * @param length Number of bytes to transfer
+   */
+  public TransferFuture(long length)
+  {
+    this(length, null);
+  }
+
+  /**
+   * @param length Number of bytes to transfer
+   * @param completionExecutor Executor to complete the future on or null to
+   * complete it on the thread that receives the response
+   */
+  public TransferFuture(long length, Executor completionExecutor)
+  {
+    super(completionExecutor);
+
+    Preconditions.checkArgument(length >= 0, "length must be >= 0");
+
+    this.length = length;
+  }
+
+  /**
+   * @return Number of bytes to transfer
+   */
+  public long getLength()
+  {
+    return length;
+  }
+
+  /**
+   * @return Number of bytes written to the connection so far
+   */
+  public long getBytesSent()
+  {
+    return bytesSent.get();
+  }
+
+  /**
+   * @return Fraction of the bytes written to the connection (between 0 and 1)
+   */
+  public double getProgress()
+  {
+    return length == 0 ? 1.0 : (double) bytesSent.get() / length;
+  }
+
+  /**
+   * Called by the connection once a chunk of the transfer was written
+   *
+   * @param bytes Number of bytes of data in the chunk
+   */
+  public void recordBytesSent(int bytes)
+  {
+    bytesSent.addAndGet(bytes);
+  }
+}
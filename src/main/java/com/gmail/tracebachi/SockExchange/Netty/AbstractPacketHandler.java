@@ -17,16 +17,73 @@
  */
 package com.gmail.tracebachi.SockExchange.Netty;
 
+import com.gmail.tracebachi.SockExchange.Messages.ReceivedMessage;
+import com.gmail.tracebachi.SockExchange.Messages.ReceivedMessageNotifier;
+import com.gmail.tracebachi.SockExchange.Messages.ResponseFuture;
+import com.gmail.tracebachi.SockExchange.Messages.ResponseMessage;
+import com.gmail.tracebachi.SockExchange.Messages.ResponseStatus;
 import com.gmail.tracebachi.SockExchange.Netty.Packets.*;
+import com.gmail.tracebachi.SockExchange.Scheduler.AwaitableExecutor;
+import com.gmail.tracebachi.SockExchange.SockExchangeConstants.Channels;
+import com.gmail.tracebachi.SockExchange.Utilities.LongIdCounterMap;
 import com.google.common.base.Preconditions;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
 /**
  * @author GeeItsZee (tracebachi@gmail.com)
  */
 public abstract class AbstractPacketHandler
 {
+  private static final PacketWriter[] NO_LANES = new PacketWriter[0];
+
+  private final FlushPolicy flushPolicy;
+  private final FlushStatistics flushStatistics = new FlushStatistics();
+  private final PriorityStatistics priorityStatistics = new PriorityStatistics();
+  private final BackpressurePolicy backpressurePolicy;
+  private final AtomicLong rejectedWrites = new AtomicLong(0);
+  private final Object writabilityLock = new Object();
   protected volatile Channel channel;
+  protected volatile PacketWriter packetWriter;
+  private volatile int protocolFeatures;
+  private volatile boolean autoBatching;
+  private volatile LaneOptions laneOptions = new LaneOptions();
+  private volatile PriorityOptions priorityOptions = new PriorityOptions();
+  private volatile Runnable laneConnector;
+
+  // Writers of the bulk lanes indexed by lane - 1 (null until a lane is added)
+  private final Object laneLock = new Object();
+  private volatile PacketWriter[] laneWriters = NO_LANES;
+
+  // Consumer sets indexed by channel symbol (only accessed from the event loop)
+  private final List<Set<Consumer<ReceivedMessage>>> consumerSetsBySymbol = new ArrayList<>();
+
+  protected AbstractPacketHandler()
+  {
+    this(FlushPolicy.IMMEDIATE);
+  }
+
+  protected AbstractPacketHandler(FlushPolicy flushPolicy)
+  {
+    this(flushPolicy, BackpressurePolicy.FAIL);
+  }
+
+  protected AbstractPacketHandler(FlushPolicy flushPolicy, BackpressurePolicy backpressurePolicy)
+  {
+    Preconditions.checkNotNull(flushPolicy, "flushPolicy");
+    Preconditions.checkNotNull(backpressurePolicy, "backpressurePolicy");
+
+    this.flushPolicy = flushPolicy;
+    this.backpressurePolicy = backpressurePolicy;
+  }
 
   /**
    * @return True if the handler has a channel or false if not
@@ -45,6 +102,11 @@ public abstract class AbstractPacketHandler
     Preconditions.checkState(this.channel == null, "Channel is active");
 
     this.channel = channel;
+    this.packetWriter = new PacketWriter(channel, flushPolicy, flushStatistics,
+      priorityOptions, priorityStatistics);
+
+    // Symbols are assigned per channel
+    this.consumerSetsBySymbol.clear();
   }
 
   /**
@@ -54,7 +116,823 @@ public abstract class AbstractPacketHandler
   {
     Preconditions.checkState(this.channel != null, "Channel is not active");
 
+    this.packetWriter = null;
     this.channel = null;
+    this.protocolFeatures = 0;
+
+    // The lanes are one connection, so they are closed with the control lane
+    PacketWriter[] lanes;
+
+    synchronized (laneLock)
+    {
+      lanes = laneWriters;
+      laneWriters = NO_LANES;
+    }
+
+    for (PacketWriter lane : lanes)
+    {
+      if (lane != null)
+      {
+        lane.getChannel().close();
+      }
+    }
+
+    // Wake up senders waiting for the buffer to drain
+    onWritabilityChanged();
+  }
+
+  /**
+   * Informs the packet handler that a channel it reads from is now inactive
+   * (called by the packet decoders)
+   *
+   * @param channel Control lane or a bulk lane of the handler
+   */
+  void onChannelInactive(Channel channel)
+  {
+    if (channel == this.channel)
+    {
+      onChannelInactive();
+      return;
+    }
+
+    boolean removed = false;
+
+    synchronized (laneLock)
+    {
+      PacketWriter[] lanes = laneWriters;
+
+      for (int i = 0; i < lanes.length; i++)
+      {
+        if (lanes[i] != null && lanes[i].getChannel() == channel)
+        {
+          PacketWriter[] copy = lanes.clone();
+          copy[i] = null;
+          laneWriters = copy;
+          removed = true;
+          break;
+        }
+      }
+    }
+
+    // Data sent on the lane may be lost, so the whole connection is closed
+    // (a lane that was already removed belonged to an earlier connection)
+    Channel controlChannel = this.channel;
+
+    if (removed && controlChannel != null)
+    {
+      controlChannel.close();
+    }
+
+    onWritabilityChanged();
+  }
+
+  /**
+   * Adds a bulk lane once it is registered
+   *
+   * @param controlChannel Control lane the bulk lane was registered for
+   * @param laneChannel Channel of the bulk lane
+   * @param lane Index of the lane (from 1 to laneCount)
+   * @param laneCount Number of bulk lanes the client opens
+   * @param laneFeatures Features negotiated for the lane
+   *
+   * @return True if the lane was added or false if the control lane changed,
+   * the lane was already added or the lane count does not match
+   */
+  boolean addLane(
+    Channel controlChannel, Channel laneChannel, int lane, int laneCount, int laneFeatures)
+  {
+    Preconditions.checkNotNull(controlChannel, "controlChannel");
+    Preconditions.checkNotNull(laneChannel, "laneChannel");
+
+    if (laneCount < 1 || laneCount > LaneOptions.MAX_BULK_LANES || lane < 1 || lane > laneCount)
+    {
+      return false;
+    }
+
+    PacketWriter writer = new PacketWriter(laneChannel, flushPolicy, flushStatistics,
+      priorityOptions, priorityStatistics);
+    writer.setBatching(autoBatching &&
+      ProtocolFeatures.has(laneFeatures, ProtocolFeatures.BATCHING));
+
+    synchronized (laneLock)
+    {
+      PacketWriter[] lanes = laneWriters;
+
+      if (controlChannel != this.channel ||
+        (lanes.length != 0 && lanes.length != laneCount) ||
+        (lanes.length != 0 && lanes[lane - 1] != null))
+      {
+        return false;
+      }
+
+      PacketWriter[] copy = lanes.length == 0 ? new PacketWriter[laneCount] : lanes.clone();
+      copy[lane - 1] = writer;
+      laneWriters = copy;
+    }
+
+    // If the control lane closes from now on, it closes this lane too
+    return true;
+  }
+
+  /**
+   * @return Number of bulk lanes that are open
+   */
+  public int getBulkLaneCount()
+  {
+    int count = 0;
+
+    for (PacketWriter lane : laneWriters)
+    {
+      if (lane != null)
+      {
+        count++;
+      }
+    }
+
+    return count;
+  }
+
+  /**
+   * @return True if the peer agreed to use bulk lanes
+   */
+  public boolean isLaneSupported()
+  {
+    return ProtocolFeatures.has(protocolFeatures, ProtocolFeatures.LANES);
+  }
+
+  /**
+   * @return True if lanes are not used or every bulk lane the client opens
+   * is open
+   */
+  boolean areLanesReady()
+  {
+    if (!isLaneSupported())
+    {
+      return true;
+    }
+
+    PacketWriter[] lanes = laneWriters;
+
+    for (PacketWriter lane : lanes)
+    {
+      if (lane == null)
+      {
+        return false;
+      }
+    }
+
+    return lanes.length != 0;
+  }
+
+  /**
+   * @return {@link LaneOptions} used to pick the lane of each packet
+   */
+  public LaneOptions getLaneOptions()
+  {
+    return laneOptions;
+  }
+
+  /**
+   * @param laneOptions Options used to pick the lane of each packet (and the
+   * number of bulk lanes a client opens)
+   */
+  public void setLaneOptions(LaneOptions laneOptions)
+  {
+    Preconditions.checkNotNull(laneOptions, "laneOptions");
+
+    this.laneOptions = laneOptions;
+  }
+
+  /**
+   * @param laneConnector Action that opens the missing bulk lanes (run once
+   * the peer agrees to use lanes)
+   */
+  void setLaneConnector(Runnable laneConnector)
+  {
+    this.laneConnector = laneConnector;
+  }
+
+  /**
+   * Informs the packet handler that the writability of the channel changed
+   */
+  public void onWritabilityChanged()
+  {
+    PacketWriter writer = packetWriter;
+
+    if (writer != null)
+    {
+      writer.onWritabilityChanged();
+    }
+
+    // The lanes share the handler, so the event may be for any of them
+    for (PacketWriter lane : laneWriters)
+    {
+      if (lane != null)
+      {
+        lane.onWritabilityChanged();
+      }
+    }
+
+    synchronized (writabilityLock)
+    {
+      writabilityLock.notifyAll();
+    }
+  }
+
+  /**
+   * @return Protocol features negotiated for the active channel
+   */
+  public int getProtocolFeatures()
+  {
+    return protocolFeatures;
+  }
+
+  /**
+   * Sets the features negotiated during registration
+   *
+   * @param protocolFeatures Features both sides support
+   */
+  protected void setProtocolFeatures(int protocolFeatures)
+  {
+    this.protocolFeatures = protocolFeatures;
+
+    updateAutoBatching();
+
+    Runnable connector = laneConnector;
+
+    if (connector != null && isLaneSupported())
+    {
+      connector.run();
+    }
+  }
+
+  /**
+   * @return True if packets written from other threads in the same event
+   * loop turn are packed into one batch frame (if the peer supports batching)
+   */
+  public boolean isAutoBatching()
+  {
+    return autoBatching;
+  }
+
+  /**
+   * @param autoBatching True to pack packets written from other threads in
+   * the same event loop turn into one batch frame (if the peer supports batching)
+   */
+  public void setAutoBatching(boolean autoBatching)
+  {
+    this.autoBatching = autoBatching;
+
+    updateAutoBatching();
+  }
+
+  /**
+   * @return True if the peer can read {@link PacketBatch} frames
+   */
+  protected boolean isBatchingSupported()
+  {
+    return ProtocolFeatures.has(protocolFeatures, ProtocolFeatures.BATCHING);
+  }
+
+  /**
+   * @return True if the peer can send and receive streams
+   */
+  public boolean isStreamingSupported()
+  {
+    // Velocity relays each chunk on the lane picked by the stream ID, so
+    // streams wait until the lanes stop changing
+    return ProtocolFeatures.has(protocolFeatures, ProtocolFeatures.STREAMS) && areLanesReady();
+  }
+
+  private void updateAutoBatching()
+  {
+    PacketWriter writer = packetWriter;
+
+    if (writer != null)
+    {
+      writer.setBatching(autoBatching && isBatchingSupported());
+    }
+
+    // Lanes negotiate batching with the same peer, so it is supported on them too
+    for (PacketWriter lane : laneWriters)
+    {
+      if (lane != null)
+      {
+        lane.setBatching(autoBatching && isBatchingSupported());
+      }
+    }
+  }
+
+  /**
+   * @return {@link FlushPolicy} used for packets written by this handler
+   */
+  public FlushPolicy getFlushPolicy()
+  {
+    return flushPolicy;
+  }
+
+  /**
+   * @return Counters of packets written and flushes made by this handler
+   */
+  public FlushStatistics getFlushStatistics()
+  {
+    return flushStatistics;
+  }
+
+  /**
+   * @return {@link PriorityOptions} used to queue the packets of each class
+   */
+  public PriorityOptions getPriorityOptions()
+  {
+    return priorityOptions;
+  }
+
+  /**
+   * @param priorityOptions Options used to queue the packets of each class
+   * (used by channels that become active from now on)
+   */
+  public void setPriorityOptions(PriorityOptions priorityOptions)
+  {
+    Preconditions.checkNotNull(priorityOptions, "priorityOptions");
+
+    this.priorityOptions = priorityOptions;
+  }
+
+  /**
+   * @return Queue depth and wait time of each class of packets written by
+   * this handler
+   */
+  public PriorityStatistics getPriorityStatistics()
+  {
+    return priorityStatistics;
+  }
+
+  /**
+   * @return {@link BackpressurePolicy} used when the write buffer is full
+   */
+  public BackpressurePolicy getBackpressurePolicy()
+  {
+    return backpressurePolicy;
+  }
+
+  /**
+   * @return Estimated number of bytes queued for the connection but not yet
+   * written to its channels (0 if there is no active channel)
+   */
+  public long getQueuedBytes()
+  {
+    PacketWriter writer = packetWriter;
+    long queuedBytes = writer == null ? 0 : writer.getQueuedBytes();
+
+    for (PacketWriter lane : laneWriters)
+    {
+      if (lane != null)
+      {
+        queuedBytes += lane.getQueuedBytes();
+      }
+    }
+
+    return queuedBytes;
+  }
+
+  /**
+   * @return Number of packets dropped or failed because the write buffer was full
+   */
+  public long getRejectedWriteCount()
+  {
+    return rejectedWrites.get();
+  }
+
+  /**
+   * Writes a packet to the active channel (if any) and lets the
+   * {@link FlushPolicy} decide when to flush it
+   * <p>
+   * If the write buffer is above its high water mark, the
+   * {@link BackpressurePolicy} decides if the packet is discarded or if the
+   * caller waits for the buffer to drain.
+   * </p>
+   *
+   * @param packet Packet to write (not released if it is not written)
+   *
+   * @return True if the packet was written or false if there was no active
+   * channel or the write buffer was full
+   */
+  protected boolean writePacket(Object packet)
+  {
+    return writePacket(packet, priorityOptions.getPriority(packet));
+  }
+
+  /**
+   * Same as {@link #writePacket(Object)}, but queues the packet in the
+   * passed class (for encoded packets whose channel is no longer known)
+   * <p>
+   * {@link PacketPriority#CONTROL} packets, responses and keep alives are
+   * written even if the write buffer is full (see {@link #isExemptFromBackpressure}).
+   * </p>
+   *
+   * @param packet Packet to write (not released if it is not written)
+   * @param priority Class of the packet
+   *
+   * @return True if the packet was written or false if there was no active
+   * channel or the write buffer was full
+   */
+  protected boolean writePacket(Object packet, PacketPriority priority)
+  {
+    Preconditions.checkNotNull(priority, "priority");
+
+    PacketWriter writer = getWriter(packet, priority);
+
+    if (writer == null)
+    {
+      return false;
+    }
+
+    if (packet instanceof PacketToAnyResponse &&
+      !ProtocolFeatures.has(protocolFeatures, ProtocolFeatures.EXTENDED_STATUSES))
+    {
+      // Older peers fail to read statuses they do not know
+      PacketToAnyResponse response = (PacketToAnyResponse) packet;
+      response.setResponseStatus(response.getResponseStatus().toLegacyStatus());
+    }
+
+    // Requests with a consumer are checked once before the consumer is saved
+    boolean admitted = packet instanceof AbstractPacket &&
+      ((AbstractPacket) packet).isWriteAdmitted();
+
+    if (!admitted && !isExemptFromBackpressure(packet, priority) && !awaitWritable(writer))
+    {
+      rejectedWrites.incrementAndGet();
+      return false;
+    }
+
+    writer.write(packet, writer.getChannel().voidPromise(), priority);
+    return true;
+  }
+
+  /**
+   * Only new requests and messages are refused when the write buffer is full
+   * <p>
+   * A response answers a request the peer already accepted, so dropping it
+   * would leave the requester waiting for the whole timeout. Keep alives are
+   * small and tell the peer the connection is still alive.
+   * </p>
+   *
+   * @param packet Packet to write
+   * @param priority Class of the packet
+   *
+   * @return True if the packet skips the {@link BackpressurePolicy}
+   */
+  private static boolean isExemptFromBackpressure(Object packet, PacketPriority priority)
+  {
+    if (priority == PacketPriority.CONTROL || packet instanceof PacketToAnyResponse)
+    {
+      return true;
+    }
+
+    return packet instanceof AbstractPacket &&
+      Channels.KEEP_ALIVE.equals(((AbstractPacket) packet).getChannelName());
+  }
+
+  /**
+   * Writes a packet of a stream to the active channel (if any) even if the
+   * write buffer is full, since stream flow control already bounds the bytes
+   * a stream has in flight
+   *
+   * @param packet Packet to write (not released if it is not written)
+   *
+   * @return True if the packet was written or false if there was no active channel
+   */
+  boolean writeStreamPacket(Object packet)
+  {
+    PacketWriter writer = packetWriter;
+
+    if (writer == null)
+    {
+      return false;
+    }
+
+    writer.write(packet);
+    return true;
+  }
+
+  /**
+   * Same as {@link #writeStreamPacket(Object)}, but writes the packet on the
+   * lane of the stream (so the open and the chunks of a stream stay in order)
+   *
+   * @param packet Packet to write (not released if it is not written)
+   * @param streamId ID of the stream
+   *
+   * @return True if the packet was written or false if there was no active channel
+   */
+  boolean writeStreamPacket(Object packet, long streamId)
+  {
+    PacketWriter writer = getStreamWriter(streamId);
+
+    if (writer == null)
+    {
+      return false;
+    }
+
+    // Chunks relayed by Velocity are encoded buffers, so the class is passed
+    writer.write(packet, writer.getChannel().voidPromise(), PacketPriority.BULK);
+    return true;
+  }
+
+  /**
+   * @param streamId ID of the stream
+   *
+   * @return Writer of the lane that carries the stream or null if there is
+   * no active channel
+   */
+  PacketWriter getStreamWriter(long streamId)
+  {
+    PacketWriter[] lanes = laneWriters;
+
+    if (lanes.length == 0 || !areLanesReady())
+    {
+      return packetWriter;
+    }
+
+    return lanes[(int) Math.floorMod(streamId, (long) lanes.length)];
+  }
+
+  /**
+   * Picks the lane of a packet using the {@link LaneOptions} (bulk packets
+   * are always sent on a bulk lane)
+   *
+   * @param packet Packet to write
+   * @param priority Class of the packet
+   *
+   * @return Writer of the lane or null if there is no active channel
+   */
+  private PacketWriter getWriter(Object packet, PacketPriority priority)
+  {
+    PacketWriter writer = packetWriter;
+    PacketWriter[] lanes = laneWriters;
+
+    if (writer == null || lanes.length == 0)
+    {
+      return writer;
+    }
+
+    String channelName = null;
+    long size;
+
+    if (packet instanceof AbstractPacket)
+    {
+      channelName = ((AbstractPacket) packet).getChannelName();
+      size = ((AbstractPacket) packet).estimateSize();
+    }
+    else if (packet instanceof ByteBuf)
+    {
+      size = ((ByteBuf) packet).readableBytes();
+    }
+    else
+    {
+      return writer;
+    }
+
+    if (priority != PacketPriority.BULK && !laneOptions.isBulk(channelName, size))
+    {
+      return writer;
+    }
+
+    // Messages of a channel use the same lane (or the next open one)
+    int start = Math.floorMod(channelName == null ? 0 : channelName.hashCode(), lanes.length);
+
+    for (int i = 0; i < lanes.length; i++)
+    {
+      PacketWriter lane = lanes[(start + i) % lanes.length];
+
+      if (lane != null)
+      {
+        return lane;
+      }
+    }
+
+    return writer;
+  }
+
+  private boolean isActiveWriter(PacketWriter writer)
+  {
+    if (writer == packetWriter)
+    {
+      return true;
+    }
+
+    for (PacketWriter lane : laneWriters)
+    {
+      if (lane == writer)
+      {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Fails a request before it is sent if the write buffer is full and the
+   * {@link BackpressurePolicy} is not {@link BackpressurePolicy.Mode#DROP}
+   * <p>
+   * If the request may be sent, it is marked as admitted so
+   * {@link #writePacket(Object)} does not check (or wait for) the write
+   * buffer a second time.
+   * </p>
+   *
+   * @param executor Executor to run the consumer with
+   * @param consumer Consumer of the request
+   * @param packet Request to check the lane of
+   *
+   * @return True if the consumer was run with
+   * {@link ResponseStatus#WRITE_BUFFER_FULL} or false if the request may be sent
+   */
+  protected boolean executeConsumerIfWriteBufferFull(
+    Executor executor, Consumer<ResponseMessage> consumer, AbstractPacket packet)
+  {
+    PacketPriority priority = priorityOptions.getPriority(packet);
+    PacketWriter writer = getWriter(packet, priority);
+
+    // Dropped requests are left to time out (and checked when they are written)
+    if (writer == null || backpressurePolicy.getMode() == BackpressurePolicy.Mode.DROP ||
+      isExemptFromBackpressure(packet, priority))
+    {
+      return false;
+    }
+
+    if (awaitWritable(writer))
+    {
+      packet.setWriteAdmitted(true);
+      return false;
+    }
+
+    rejectedWrites.incrementAndGet();
+
+    executor.execute(() ->
+    {
+      consumer.accept(new ResponseMessage(ResponseStatus.WRITE_BUFFER_FULL));
+    });
+
+    return true;
+  }
+
+  private boolean awaitWritable(PacketWriter writer)
+  {
+    if (writer.isWritable())
+    {
+      return true;
+    }
+
+    // Waiting on a Netty thread could stop the buffer from draining
+    if (backpressurePolicy.getMode() != BackpressurePolicy.Mode.BLOCK ||
+      writer.inEventLoopGroup())
+    {
+      return false;
+    }
+
+    long deadline = System.nanoTime() +
+      TimeUnit.MILLISECONDS.toNanos(backpressurePolicy.getMaxBlockMillis());
+
+    synchronized (writabilityLock)
+    {
+      while (!writer.isWritable())
+      {
+        long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+
+        if (remainingMillis <= 0 || !isActiveWriter(writer))
+        {
+          return false;
+        }
+
+        try
+        {
+          // Queued bytes drain without a writability event, so check periodically
+          writabilityLock.wait(Math.min(remainingMillis, 10));
+        }
+        catch (InterruptedException ex)
+        {
+          Thread.currentThread().interrupt();
+          return false;
+        }
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Creates a {@link ResponseMessage} from a response packet
+   * <p>
+   * If the packet retained its payload, the response takes its own reference
+   * to the payload and must be released with {@link ResponseMessage#release()}.
+   * </p>
+   *
+   * @param packet Packet to convert
+   *
+   * @return New response message
+   */
+  protected static ResponseMessage toResponseMessage(PacketToAnyResponse packet)
+  {
+    ByteBuf messageBuffer = packet.getMessageBuffer();
+
+    if (messageBuffer != null)
+    {
+      return new ResponseMessage(packet.getResponseStatus(), messageBuffer.retain());
+    }
+
+    return new ResponseMessage(packet.getResponseStatus(), packet.getMessageBytes());
+  }
+
+  /**
+   * Runs a response consumer using the executor and releases the response
+   * once the consumer returns (or right away if the executor rejects the task)
+   *
+   * @param executor Executor to run the consumer with
+   * @param consumer Consumer to run
+   * @param responseMessage Response to pass to the consumer
+   */
+  protected static void executeResponseConsumer(
+    Executor executor, Consumer<ResponseMessage> consumer, ResponseMessage responseMessage)
+  {
+    Runnable runnable = () ->
+    {
+      try
+      {
+        consumer.accept(responseMessage);
+      }
+      finally
+      {
+        responseMessage.release();
+      }
+    };
+
+    if (executor instanceof AwaitableExecutor)
+    {
+      if (!((AwaitableExecutor) executor).submit(runnable))
+      {
+        responseMessage.release();
+      }
+    }
+    else
+    {
+      executor.execute(runnable);
+    }
+  }
+
+  /**
+   * Notifies the consumers of a received message
+   * <p>
+   * If the channel name was received as a symbol, the consumer set is found
+   * by indexing an array with the symbol instead of looking up the name.
+   * </p>
+   *
+   * @param notifier Notifier the consumers are registered with
+   * @param packet Packet the message was read from
+   * @param channelName Name of the channel
+   * @param receivedMessage Message to pass to the consumers
+   */
+  protected void notifyConsumers(
+    ReceivedMessageNotifier notifier, AbstractPacket packet, String channelName,
+    ReceivedMessage receivedMessage)
+  {
+    int channelSymbol = packet.getChannelSymbol();
+
+    if (channelSymbol == 0)
+    {
+      notifier.notify(channelName, receivedMessage);
+      return;
+    }
+
+    while (consumerSetsBySymbol.size() <= channelSymbol)
+    {
+      consumerSetsBySymbol.add(null);
+    }
+
+    Set<Consumer<ReceivedMessage>> consumerSet = consumerSetsBySymbol.get(channelSymbol);
+
+    if (consumerSet == null)
+    {
+      consumerSet = notifier.getConsumerSet(channelName);
+      consumerSetsBySymbol.set(channelSymbol, consumerSet);
+    }
+
+    notifier.notify(consumerSet, receivedMessage);
+  }
+
+  /**
+   * Lets a {@link ResponseFuture} remove its pending entry when it is cancelled
+   *
+   * @param consumer Consumer that was saved for the response
+   * @param consumerMap Map the consumer was saved in
+   * @param consumerId ID assigned to the consumer
+   */
+  protected static void bindCancellation(
+    Consumer<ResponseMessage> consumer, LongIdCounterMap<?> consumerMap, long consumerId)
+  {
+    if (consumer instanceof ResponseFuture)
+    {
+      ((ResponseFuture) consumer).setOnCancel(() -> consumerMap.remove(consumerId));
+    }
   }
 
   /**
@@ -112,6 +990,65 @@ public abstract class AbstractPacketHandler
       "Received an unsupported packet. Type: " + PacketToVelocityForward.class.getName());
   }
 
+  /**
+   * Handles scatter-gather packets
+   *
+   * @param packet Packet to handle
+   */
+  public void handle(PacketToVelocityGather packet)
+  {
+    throw new IllegalArgumentException(
+      "Received an unsupported packet. Type: " + PacketToVelocityGather.class.getName());
+  }
+
+  /**
+   * Handles batches that are forwarded to another server
+   * <p>
+   * Batches without a destination are unpacked by the decoder and each
+   * packet is passed to its own handle method.
+   * </p>
+   *
+   * @param packet Packet to handle
+   */
+  public void handle(PacketBatch packet)
+  {
+    throw new IllegalArgumentException(
+      "Received an unsupported packet. Type: " + PacketBatch.class.getName());
+  }
+
+  /**
+   * Handles the start of a stream
+   *
+   * @param packet Packet to handle
+   */
+  public void handle(PacketStreamOpen packet)
+  {
+    throw new IllegalArgumentException(
+      "Received an unsupported packet. Type: " + PacketStreamOpen.class.getName());
+  }
+
+  /**
+   * Handles chunks of a stream
+   *
+   * @param packet Packet to handle
+   */
+  public void handle(PacketStreamChunk packet)
+  {
+    throw new IllegalArgumentException(
+      "Received an unsupported packet. Type: " + PacketStreamChunk.class.getName());
+  }
+
+  /**
+   * Handles credit and close acks of a stream
+   *
+   * @param packet Packet to handle
+   */
+  public void handle(PacketStreamAck packet)
+  {
+    throw new IllegalArgumentException(
+      "Received an unsupported packet. Type: " + PacketStreamAck.class.getName());
+  }
+
   /**
    * Handles response packets
    *
@@ -0,0 +1,169 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import com.google.common.base.Preconditions;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for buffers allocated by the packet encoders
+ * <p>
+ * Per-second rates are updated by {@link #sample()} which the client and
+ * server run once a second.
+ * </p>
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class AllocationStatistics
+{
+  private final BufferAllocatorType allocatorType;
+  private final LongAdder allocations = new LongAdder();
+  private final LongAdder allocatedBytes = new LongAdder();
+
+  private long lastSampleNanos = System.nanoTime();
+  private long lastSampleAllocations;
+  private long lastSampleBytes;
+  private volatile double allocationsPerSecond;
+  private volatile double bytesPerSecond;
+
+  public AllocationStatistics(BufferAllocatorType allocatorType)
+  {
+    Preconditions.checkNotNull(allocatorType, "allocatorType");
+
+    this.allocatorType = allocatorType;
+  }
+
+  void recordAllocation(int bytes)
+  {
+    allocations.increment();
+    allocatedBytes.add(bytes);
+  }
+
+  synchronized void sample()
+  {
+    long now = System.nanoTime();
+    long currentAllocations = allocations.sum();
+    long currentBytes = allocatedBytes.sum();
+    double elapsedSeconds = (now - lastSampleNanos) / 1_000_000_000.0;
+
+    if (elapsedSeconds > 0)
+    {
+      allocationsPerSecond = (currentAllocations - lastSampleAllocations) / elapsedSeconds;
+      bytesPerSecond = (currentBytes - lastSampleBytes) / elapsedSeconds;
+    }
+
+    lastSampleNanos = now;
+    lastSampleAllocations = currentAllocations;
+    lastSampleBytes = currentBytes;
+  }
+
+  /**
+   * @return Type of allocator used by the channels
+   */
+  public BufferAllocatorType getAllocatorType()
+  {
+    return allocatorType;
+  }
+
+  /**
+   * @return Allocator used by the channels
+   */
+  public ByteBufAllocator getAllocator()
+  {
+    return allocatorType.getAllocator();
+  }
+
+  /**
+   * @return Number of buffers allocated by the packet encoders
+   */
+  public long getAllocations()
+  {
+    return allocations.sum();
+  }
+
+  /**
+   * @return Number of bytes allocated by the packet encoders
+   */
+  public long getAllocatedBytes()
+  {
+    return allocatedBytes.sum();
+  }
+
+  /**
+   * @return Allocations per second over the last sample interval
+   */
+  public double getAllocationsPerSecond()
+  {
+    return allocationsPerSecond;
+  }
+
+  /**
+   * @return Allocated bytes per second over the last sample interval
+   */
+  public double getAllocatedBytesPerSecond()
+  {
+    return bytesPerSecond;
+  }
+
+  /**
+   * Describes the arenas of a pooled allocator (chunk usage per arena)
+   * <p>
+   * Netty 4.0 does not expose arena metrics as objects, so this is the
+   * description produced by the allocator itself.
+   * </p>
+   *
+   * @return Arena description or a short note for unpooled allocators
+   */
+  public String getArenaSummary()
+  {
+    ByteBufAllocator allocator = allocatorType.getAllocator();
+
+    if (allocator instanceof PooledByteBufAllocator)
+    {
+      return allocator.toString();
+    }
+
+    return "Unpooled allocator (no arenas)";
+  }
+
+  public void reset()
+  {
+    allocations.reset();
+    allocatedBytes.reset();
+
+    synchronized (this)
+    {
+      lastSampleNanos = System.nanoTime();
+      lastSampleAllocations = 0;
+      lastSampleBytes = 0;
+      allocationsPerSecond = 0;
+      bytesPerSecond = 0;
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return String.format(
+      "AllocationStatistics{allocator=%s, allocations=%d, bytes=%d, allocationsPerSecond=%.1f, bytesPerSecond=%.1f}",
+      allocatorType, getAllocations(), getAllocatedBytes(), allocationsPerSecond, bytesPerSecond);
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Decides what happens to packets written to a connection whose write buffer
+ * is above its high water mark
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public final class BackpressurePolicy
+{
+  public enum Mode
+  {
+    /**
+     * Discard the packet (requests wait for their timeout)
+     */
+    DROP,
+    /**
+     * Make the sender wait for the buffer to drain, then fail like
+     * {@link #FAIL} if it did not drain in time
+     */
+    BLOCK,
+    /**
+     * Discard the packet and respond to requests with
+     * {@link com.gmail.tracebachi.SockExchange.Messages.ResponseStatus#WRITE_BUFFER_FULL}
+     */
+    FAIL;
+
+    public static Mode fromName(String name)
+    {
+      Preconditions.checkNotNull(name, "name");
+
+      switch (name.toLowerCase())
+      {
+        case "drop":
+          return DROP;
+        case "block":
+          return BLOCK;
+        case "fail":
+          return FAIL;
+      }
+
+      throw new IllegalArgumentException("Unknown backpressure policy: " + name);
+    }
+  }
+
+  public static final BackpressurePolicy DROP = new BackpressurePolicy(Mode.DROP, 0);
+  public static final BackpressurePolicy FAIL = new BackpressurePolicy(Mode.FAIL, 0);
+
+  private final Mode mode;
+  private final long maxBlockMillis;
+
+  private BackpressurePolicy(Mode mode, long maxBlockMillis)
+  {
+    this.mode = mode;
+    this.maxBlockMillis = maxBlockMillis;
+  }
+
+  /**
+   * @param maxBlockMillis Milliseconds a sender may wait for the buffer to drain
+   *
+   * @return Policy that blocks the sender
+   */
+  public static BackpressurePolicy block(long maxBlockMillis)
+  {
+    Preconditions.checkArgument(maxBlockMillis > 0, "maxBlockMillis must be > 0");
+
+    return new BackpressurePolicy(Mode.BLOCK, maxBlockMillis);
+  }
+
+  /**
+   * @param modeName Name of the {@link Mode}
+   * @param maxBlockMillis Only used by {@link Mode#BLOCK}
+   *
+   * @return Policy matching the configured values
+   */
+  public static BackpressurePolicy fromConfig(String modeName, long maxBlockMillis)
+  {
+    Mode mode = Mode.fromName(modeName);
+
+    switch (mode)
+    {
+      case DROP:
+        return DROP;
+      case FAIL:
+        return FAIL;
+      default:
+        return block(maxBlockMillis);
+    }
+  }
+
+  public Mode getMode()
+  {
+    return mode;
+  }
+
+  public long getMaxBlockMillis()
+  {
+    return maxBlockMillis;
+  }
+
+  @Override
+  public String toString()
+  {
+    if (mode == Mode.BLOCK)
+    {
+      return mode + "(" + maxBlockMillis + " ms)";
+    }
+
+    return mode.toString();
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import com.google.common.base.Preconditions;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+
+/**
+ * Allocators that can be used for the buffers of SockExchange channels
+ * <p>
+ * Netty 4.0 defaults to an unpooled allocator unless a system property is
+ * set, so large payloads would otherwise be allocated (and zeroed) per packet.
+ * </p>
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public enum BufferAllocatorType
+{
+  POOLED_DIRECT,
+  POOLED_HEAP,
+  UNPOOLED_DIRECT,
+  UNPOOLED_HEAP;
+
+  private volatile ByteBufAllocator allocator;
+
+  /**
+   * @return True if the allocator keeps buffers in pooled arenas
+   */
+  public boolean isPooled()
+  {
+    return this == POOLED_DIRECT || this == POOLED_HEAP;
+  }
+
+  /**
+   * @return True if the allocator prefers direct (off-heap) buffers
+   */
+  public boolean isDirect()
+  {
+    return this == POOLED_DIRECT || this == UNPOOLED_DIRECT;
+  }
+
+  /**
+   * @return Allocator shared by all channels using this type
+   */
+  public ByteBufAllocator getAllocator()
+  {
+    ByteBufAllocator result = allocator;
+
+    if (result == null)
+    {
+      synchronized (this)
+      {
+        result = allocator;
+
+        if (result == null)
+        {
+          result = isPooled()
+            ? new PooledByteBufAllocator(isDirect())
+            : new UnpooledByteBufAllocator(isDirect());
+          allocator = result;
+        }
+      }
+    }
+
+    return result;
+  }
+
+  public static BufferAllocatorType fromName(String name)
+  {
+    Preconditions.checkNotNull(name, "name");
+
+    switch (name.replace("_", "").toLowerCase())
+    {
+      case "pooleddirect":
+        return POOLED_DIRECT;
+      case "pooledheap":
+        return POOLED_HEAP;
+      case "unpooleddirect":
+        return UNPOOLED_DIRECT;
+      case "unpooledheap":
+        return UNPOOLED_HEAP;
+    }
+
+    throw new IllegalArgumentException("Unknown buffer allocator: " + name);
+  }
+}
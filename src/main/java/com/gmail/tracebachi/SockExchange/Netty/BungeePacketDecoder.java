@@ -17,10 +17,9 @@
  */
 package com.gmail.tracebachi.SockExchange.Netty;
 
-import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketToAnyResponse;
-import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketToVelocityForward;
-import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketToVelocityRegister;
-import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketToVelocityRequest;
+import com.gmail.tracebachi.SockExchange.Netty.Packets.AbstractPacket;
+import com.gmail.tracebachi.SockExchange.Netty.Packets.ChannelSymbolTable;
+import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketBatch;
 import com.google.common.base.Preconditions;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
@@ -28,20 +27,54 @@ import io.netty.handler.codec.MessageToMessageDecoder;
 
 import java.util.List;
 
-import static com.gmail.tracebachi.SockExchange.Netty.Packets.PacketIdMapping.isIdForPacket;
-
 /**
  * @author GeeItsZee (tracebachi@gmail.com)
  */
 public class BungeePacketDecoder extends MessageToMessageDecoder<ByteBuf>
 {
+  private final boolean zeroCopyPayloads;
+  private final ChannelSymbolTable channelSymbols;
   private volatile AbstractPacketHandler packetHandler;
 
   public BungeePacketDecoder(AbstractPacketHandler packetHandler)
+  {
+    this(packetHandler, false);
+  }
+
+  /**
+   * @param packetHandler Handler for decoded packets
+   * @param zeroCopyPayloads True if message payloads should be passed to the
+   * handler as retained slices of the frame instead of copied byte arrays
+   */
+  public BungeePacketDecoder(AbstractPacketHandler packetHandler, boolean zeroCopyPayloads)
+  {
+    this(packetHandler, zeroCopyPayloads, new ChannelSymbolTable());
+  }
+
+  /**
+   * @param packetHandler Handler for decoded packets
+   * @param zeroCopyPayloads True if message payloads should be passed to the
+   * handler as retained slices of the frame instead of copied byte arrays
+   * @param channelSymbols Symbol table of the connection (shared with the encoder)
+   */
+  public BungeePacketDecoder(
+    AbstractPacketHandler packetHandler, boolean zeroCopyPayloads,
+    ChannelSymbolTable channelSymbols)
   {
     Preconditions.checkNotNull(packetHandler, "packetHandler");
+    Preconditions.checkNotNull(channelSymbols, "channelSymbols");
 
     this.packetHandler = packetHandler;
+    this.zeroCopyPayloads = zeroCopyPayloads;
+    this.channelSymbols = channelSymbols;
+  }
+
+  /**
+   * @return Symbol table of the connection
+   */
+  public ChannelSymbolTable getChannelSymbols()
+  {
+    return channelSymbols;
   }
 
   public void setPacketHandler(AbstractPacketHandler packetHandler)
@@ -56,38 +89,34 @@ public class BungeePacketDecoder extends MessageToMessageDecoder<ByteBuf>
     ChannelHandlerContext ctx, ByteBuf in, List<Object> list) throws Exception
   {
     byte packetId = in.readByte();
+    PacketRegistry.Entry<?> entry = PacketRegistry.getVelocityBound(packetId);
 
-    if (isIdForPacket(packetId, PacketToVelocityRegister.class))
-    {
-      PacketToVelocityRegister packet = new PacketToVelocityRegister();
-      packet.read(in);
-
-      packetHandler.handle(packet);
-    }
-    else if (isIdForPacket(packetId, PacketToVelocityRequest.class))
-    {
-      PacketToVelocityRequest packet = new PacketToVelocityRequest();
-      packet.read(in);
-
-      packetHandler.handle(packet);
-    }
-    else if (isIdForPacket(packetId, PacketToAnyResponse.class))
-    {
-      PacketToAnyResponse packet = new PacketToAnyResponse();
-      packet.read(in);
-
-      packetHandler.handle(packet);
-    }
-    else if (isIdForPacket(packetId, PacketToVelocityForward.class))
+    if (entry != null)
     {
-      PacketToVelocityForward packet = new PacketToVelocityForward();
+      AbstractPacket packet = entry.newPacket();
+      packet.setChannelSymbols(channelSymbols);
+      packet.setRetainingPayload(zeroCopyPayloads);
       packet.read(in);
 
-      packetHandler.handle(packet);
+      try
+      {
+        if (packet instanceof PacketBatch && !((PacketBatch) packet).hasDestination())
+        {
+          dispatchBatch(ctx, (PacketBatch) packet);
+        }
+        else
+        {
+          entry.dispatch(packetHandler, packet);
+        }
+      }
+      finally
+      {
+        packet.release();
+      }
     }
     else
     {
-      // All acceptable packet (IDs) have been checked.
+      // The packet is not registered (or is not sent in this direction).
       System.err.println("[BungeePacketDecoder] Unexpected packetId: " + packetId);
       ctx.close();
     }
@@ -100,6 +129,48 @@ public class BungeePacketDecoder extends MessageToMessageDecoder<ByteBuf>
     }
   }
 
+  private void dispatchBatch(ChannelHandlerContext ctx, PacketBatch batch)
+  {
+    ByteBuf frames = batch.getFrames();
+
+    while (frames.isReadable())
+    {
+      ByteBuf subFrame = PacketBatch.readSubFrame(frames);
+      byte packetId = subFrame.readByte();
+      PacketRegistry.Entry<?> entry = PacketRegistry.getVelocityBound(packetId);
+
+      // Batches are not nested
+      if (entry == null || entry.getPacketClass() == PacketBatch.class)
+      {
+        System.err.println("[BungeePacketDecoder] Unexpected packetId in batch: " + packetId);
+        ctx.close();
+        return;
+      }
+
+      AbstractPacket packet = entry.newPacket();
+      packet.setChannelSymbols(channelSymbols);
+      packet.setRetainingPayload(zeroCopyPayloads);
+      packet.read(subFrame);
+
+      try
+      {
+        if (subFrame.isReadable())
+        {
+          // There should not be any leftover bytes.
+          System.err.println("[BungeePacketDecoder] Unexpected extra bytes in batch. packetId: " + packetId);
+          ctx.close();
+          return;
+        }
+
+        entry.dispatch(packetHandler, packet);
+      }
+      finally
+      {
+        packet.release();
+      }
+    }
+  }
+
   @Override
   public void channelActive(ChannelHandlerContext ctx) throws Exception
   {
@@ -110,10 +181,17 @@ public class BungeePacketDecoder extends MessageToMessageDecoder<ByteBuf>
   @Override
   public void channelInactive(ChannelHandlerContext ctx) throws Exception
   {
-    packetHandler.onChannelInactive();
+    packetHandler.onChannelInactive(ctx.channel());
     super.channelInactive(ctx);
   }
 
+  @Override
+  public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception
+  {
+    packetHandler.onWritabilityChanged();
+    super.channelWritabilityChanged(ctx);
+  }
+
   @Override
   public void exceptionCaught(ChannelHandlerContext ctx, Throwable throwable) throws Exception
   {
@@ -19,33 +19,120 @@ package com.gmail.tracebachi.SockExchange.Netty;
 
 import com.gmail.tracebachi.SockExchange.Netty.Packets.*;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToByteEncoder;
 
-import static com.gmail.tracebachi.SockExchange.Netty.Packets.PacketIdMapping.isIdForPacket;
-
 /**
  * @author GeeItsZee (tracebachi@gmail.com)
  */
 public class BungeePacketEncoder extends MessageToByteEncoder<AbstractPacket>
 {
+  /**
+   * Serializes a packet into a new buffer in the same format used by the encoder
+   * <p>
+   * The returned buffer can be written to many channels by writing a retained
+   * duplicate to each of them. The caller must release the returned buffer.
+   * </p>
+   *
+   * @param allocator Allocator to use for the buffer
+   * @param packet Packet to serialize
+   *
+   * @return Buffer with a reference count of 1
+   */
+  public static ByteBuf encodeToBuffer(ByteBufAllocator allocator, AbstractPacket packet)
+  {
+    byte packetId = PacketRegistry.packetToId(packet.getClass());
+    ByteBuf buffer = allocator.ioBuffer(1 + packet.estimateSize());
+
+    try
+    {
+      buffer.writeByte(packetId);
+      packet.write(buffer);
+      return buffer;
+    }
+    catch (RuntimeException ex)
+    {
+      buffer.release();
+      throw ex;
+    }
+  }
+
+  private final AllocationStatistics allocationStatistics;
+  private final ChannelSymbolTable channelSymbols;
+  private final FrameCompressor frameCompressor;
+
+  public BungeePacketEncoder()
+  {
+    this(null, null, null);
+  }
+
+  /**
+   * @param allocationStatistics Statistics to record allocations in or null
+   * @param channelSymbols Symbol table of the connection or null to always
+   * send channel names as strings
+   */
+  public BungeePacketEncoder(
+    AllocationStatistics allocationStatistics, ChannelSymbolTable channelSymbols)
+  {
+    this(allocationStatistics, channelSymbols, null);
+  }
+
+  /**
+   * @param allocationStatistics Statistics to record allocations in or null
+   * @param channelSymbols Symbol table of the connection or null to always
+   * send channel names as strings
+   * @param frameCompressor Compressor of the connection or null if
+   * compression is disabled
+   */
+  public BungeePacketEncoder(
+    AllocationStatistics allocationStatistics, ChannelSymbolTable channelSymbols,
+    FrameCompressor frameCompressor)
+  {
+    this.allocationStatistics = allocationStatistics;
+    this.channelSymbols = channelSymbols;
+    this.frameCompressor = frameCompressor;
+  }
+
+  @Override
+  protected ByteBuf allocateBuffer(
+    ChannelHandlerContext ctx, AbstractPacket packet, boolean preferDirect) throws Exception
+  {
+    // Set before computing the size, since channel names may be sent as IDs
+    packet.setChannelSymbols(channelSymbols);
+
+    // Packet ID and the exact size of the packet, so the buffer never has to grow
+    int size = 1 + packet.estimateSize();
+
+    if (allocationStatistics != null)
+    {
+      allocationStatistics.recordAllocation(size);
+    }
+
+    return preferDirect ? ctx.alloc().ioBuffer(size) : ctx.alloc().heapBuffer(size);
+  }
+
   @Override
   protected void encode(ChannelHandlerContext ctx, AbstractPacket packet, ByteBuf out)
     throws Exception
   {
-    byte packetId = PacketIdMapping.packetToId(packet.getClass());
+    PacketRegistry.Entry<?> entry = PacketRegistry.getEntry(packet.getClass());
+
+    // The compressor runs right after this encoder for the same frame
+    if (frameCompressor != null)
+    {
+      frameCompressor.prepareDictionary(packet.getChannelName());
+    }
 
-    if (isIdForPacket(packetId, PacketToSpigotRegister.class) ||
-      isIdForPacket(packetId, PacketToSpigotRequest.class) ||
-      isIdForPacket(packetId, PacketToAnyResponse.class))
+    if (entry != null && entry.getDirection().isReceivedBySpigot())
     {
-      out.writeByte(packetId);
+      out.writeByte(entry.getId());
       packet.write(out);
     }
     else
     {
-      // All acceptable packet (IDs) have been checked.
-      System.err.println("[BungeePacketEncoder] Unexpected packetId: " + packetId);
+      // The packet is not registered (or is not sent in this direction).
+      System.err.println("[BungeePacketEncoder] Unexpected packet: " + packet.getClass().getName());
       ctx.close();
     }
   }
@@ -18,6 +18,7 @@
 package com.gmail.tracebachi.SockExchange.Netty;
 
 import com.gmail.tracebachi.SockExchange.Velocity.VelocityTieIn;
+import com.gmail.tracebachi.SockExchange.Netty.Packets.ChannelSymbolTable;
 import com.google.common.base.Preconditions;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
@@ -36,6 +37,8 @@ public class BungeePipelineInitializer extends ChannelInitializer
   private static final String READ_TIMEOUT_HANDLER = "read-timeout-handler";
   private static final String FRAME_DECODER = "frame-decoder";
   private static final String FRAME_PREPENDER = "frame-prepender";
+  private static final String FRAME_COMPRESSOR = "frame-compressor";
+  private static final String FRAME_DECOMPRESSOR = "frame-decompressor";
   private static final String PACKET_DECODER = "packet-decoder";
   private static final String PACKET_ENCODER = "packet-encoder";
   private static final int MAX_FRAME_SIZE = 4 * 1024 * 1024; // 4 MB
@@ -44,12 +47,36 @@ public class BungeePipelineInitializer extends ChannelInitializer
   private static final int FRAME_LENGTH_ADJUSTMENT = 0;
 
   private final VelocityTieIn tieIn;
+  private final boolean zeroCopyPayloads;
+  private final AllocationStatistics allocationStatistics;
+  private final CompressionOptions compressionOptions;
+  private final CompressionStatistics compressionStatistics;
 
   public BungeePipelineInitializer(VelocityTieIn tieIn)
+  {
+    this(tieIn, false, null);
+  }
+
+  public BungeePipelineInitializer(
+    VelocityTieIn tieIn, boolean zeroCopyPayloads, AllocationStatistics allocationStatistics)
+  {
+    this(tieIn, zeroCopyPayloads, allocationStatistics, new CompressionOptions(),
+      new CompressionStatistics());
+  }
+
+  public BungeePipelineInitializer(
+    VelocityTieIn tieIn, boolean zeroCopyPayloads, AllocationStatistics allocationStatistics,
+    CompressionOptions compressionOptions, CompressionStatistics compressionStatistics)
   {
     Preconditions.checkNotNull(tieIn, "tieIn");
+    Preconditions.checkNotNull(compressionOptions, "compressionOptions");
+    Preconditions.checkNotNull(compressionStatistics, "compressionStatistics");
 
     this.tieIn = tieIn;
+    this.zeroCopyPayloads = zeroCopyPayloads;
+    this.allocationStatistics = allocationStatistics;
+    this.compressionOptions = compressionOptions;
+    this.compressionStatistics = compressionStatistics;
   }
 
   @Override
@@ -68,11 +95,27 @@ public class BungeePipelineInitializer extends ChannelInitializer
       FRAME_LENGTH_FIELD_LENGTH);
     pipeline.addLast(FRAME_DECODER, frameDecoder);
 
+    // Add a frame decompressor (frames without the compressed flag pass through)
+    pipeline.addLast(FRAME_DECOMPRESSOR, new FrameDecompressor(MAX_FRAME_SIZE,
+      compressionStatistics));
+
     // Add a frame prepender
     pipeline.addLast(FRAME_PREPENDER, new LengthFieldPrepender(FRAME_LENGTH_FIELD_LENGTH, false));
 
-    // Add a packet decoder and encoder
-    pipeline.addLast(PACKET_DECODER, new BungeePacketDecoder(packetHandler));
-    pipeline.addLast(PACKET_ENCODER, new BungeePacketEncoder());
+    // Add a frame compressor (enabled once both sides agree to use compression)
+    FrameCompressor frameCompressor = null;
+
+    if (compressionOptions.isEnabled())
+    {
+      frameCompressor = new FrameCompressor(compressionOptions, compressionStatistics);
+      pipeline.addLast(FRAME_COMPRESSOR, frameCompressor);
+    }
+
+    // Add a packet decoder and encoder (sharing the symbol table of the connection)
+    ChannelSymbolTable channelSymbols = new ChannelSymbolTable();
+    pipeline.addLast(PACKET_DECODER, new BungeePacketDecoder(packetHandler, zeroCopyPayloads,
+      channelSymbols));
+    pipeline.addLast(PACKET_ENCODER, new BungeePacketEncoder(allocationStatistics, channelSymbols,
+      frameCompressor));
   }
 }
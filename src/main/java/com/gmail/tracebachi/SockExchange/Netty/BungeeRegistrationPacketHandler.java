@@ -17,12 +17,18 @@
  */
 package com.gmail.tracebachi.SockExchange.Netty;
 
+import com.gmail.tracebachi.SockExchange.Netty.Packets.ChannelSymbolTable;
 import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketToVelocityRegister;
 import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketToSpigotRegister;
 import com.gmail.tracebachi.SockExchange.Velocity.SockExchangeApi;
 import com.gmail.tracebachi.SockExchange.Velocity.SockExchangePlugin;
 import com.gmail.tracebachi.SockExchange.Velocity.VelocityTieIn;
 import com.google.common.base.Preconditions;
+import io.netty.channel.Channel;
+import io.netty.handler.timeout.ReadTimeoutHandler;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * @author GeeItsZee (tracebachi@gmail.com)
@@ -64,6 +70,12 @@ public class BungeeRegistrationPacketHandler extends AbstractPacketHandler
       return;
     }
 
+    if (packet.getLane() != 0)
+    {
+      registerLane(packet, connection, response);
+      return;
+    }
+
     if (connection.hasChannel())
     {
       response.setResult(PacketToSpigotRegister.Result.ALREADY_REGISTERED);
@@ -77,7 +89,77 @@ public class BungeeRegistrationPacketHandler extends AbstractPacketHandler
     // Replace the decoder's packet handler with the BungeeToSpigotConnection
     channel.pipeline().get(BungeePacketDecoder.class).setPacketHandler(connection);
 
+    // Respond with the features both sides support
+    int features = packet.getFeatures() & ProtocolFeatures.getSupported(channel);
+    ChannelSymbolTable channelSymbols = channel.pipeline().get(BungeePacketDecoder.class)
+      .getChannelSymbols();
+
     response.setResult(PacketToSpigotRegister.Result.SUCCESS);
+    response.setFeatures(features);
+
+    // Send the server directory so the client can address servers by ID
+    if (ProtocolFeatures.has(features, ProtocolFeatures.SERVER_IDS))
+    {
+      List<String> serverNames = new ArrayList<>();
+      BungeeToSpigotConnection other;
+
+      for (int id = 0; (other = velocityTieIn.getConnection(id)) != null; id++)
+      {
+        serverNames.add(other.getServerName());
+      }
+
+      response.setServerId(connection.getServerId());
+      response.setServerNames(serverNames);
+    }
+
     channel.writeAndFlush(response);
+
+    // The response was already encoded, so IDs are only sent once the client knows about them
+    if (ProtocolFeatures.has(features, ProtocolFeatures.CHANNEL_SYMBOLS))
+    {
+      channelSymbols.enableOutgoing();
+    }
+
+    ProtocolFeatures.enableFrameFeatures(channel, features);
+
+    connection.setProtocolFeatures(features);
+  }
+
+  private void registerLane(
+    PacketToVelocityRegister packet, BungeeToSpigotConnection connection,
+    PacketToSpigotRegister response)
+  {
+    Channel controlChannel = connection.channel;
+    Channel laneChannel = channel;
+
+    // Bulk lanes join a registered connection that agreed to use lanes
+    if (controlChannel == null || !connection.isLaneSupported())
+    {
+      response.setResult(PacketToSpigotRegister.Result.NOT_REGISTERED);
+      laneChannel.writeAndFlush(response).addListener((future) -> laneChannel.close());
+      return;
+    }
+
+    int features = packet.getFeatures() & ProtocolFeatures.getSupported(laneChannel) &
+      connection.getProtocolFeatures() & ProtocolFeatures.LANE_FEATURES;
+
+    // The control lane times out idle connections, so bulk lanes may stay idle
+    laneChannel.pipeline().remove(ReadTimeoutHandler.class);
+
+    // Replace the decoder's packet handler with the BungeeToSpigotConnection
+    laneChannel.pipeline().get(BungeePacketDecoder.class).setPacketHandler(connection);
+
+    response.setResult(PacketToSpigotRegister.Result.SUCCESS);
+    response.setFeatures(features);
+
+    laneChannel.writeAndFlush(response);
+
+    ProtocolFeatures.enableFrameFeatures(laneChannel, features);
+
+    if (!connection.addLane(controlChannel, laneChannel, packet.getLane(), packet.getLaneCount(),
+      features))
+    {
+      laneChannel.close();
+    }
   }
 }
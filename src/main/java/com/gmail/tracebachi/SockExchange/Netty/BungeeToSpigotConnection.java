@@ -18,8 +18,11 @@
 package com.gmail.tracebachi.SockExchange.Netty;
 
 import com.gmail.tracebachi.SockExchange.ExpirableConsumer;
+import com.gmail.tracebachi.SockExchange.Messages.AggregatedResponseMessage;
+import com.gmail.tracebachi.SockExchange.Messages.MessageBatch;
 import com.gmail.tracebachi.SockExchange.Messages.ReceivedMessage;
 import com.gmail.tracebachi.SockExchange.Messages.ReceivedMessageNotifier;
+import com.gmail.tracebachi.SockExchange.Messages.ReceivedStreamNotifier;
 import com.gmail.tracebachi.SockExchange.Messages.ResponseMessage;
 import com.gmail.tracebachi.SockExchange.Messages.ResponseStatus;
 import com.gmail.tracebachi.SockExchange.Netty.Packets.*;
@@ -28,10 +31,18 @@ import com.gmail.tracebachi.SockExchange.Utilities.ExtraPreconditions;
 import com.gmail.tracebachi.SockExchange.Utilities.LongIdCounterMap;
 import com.gmail.tracebachi.SockExchange.Velocity.VelocityTieIn;
 import com.google.common.base.Preconditions;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import org.slf4j.Logger;
 
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 
@@ -41,30 +52,53 @@ import java.util.function.Consumer;
 public class BungeeToSpigotConnection extends AbstractPacketHandler
 {
   private final String serverName;
+  private final int serverId;
   private final Executor executor;
   private final ReceivedMessageNotifier receivedMessageNotifier;
   private final LongIdCounterMap<ExpirableConsumer<ResponseMessage>> waitingForResponse;
   private final Logger basicLogger;
   private final VelocityTieIn velocityTieIn;
+  private final StreamEndpoint streamEndpoint;
 
   public BungeeToSpigotConnection(
-    String serverName, Executor executor, ReceivedMessageNotifier receivedMessageNotifier,
+    String serverName, int serverId, Executor executor,
+    ReceivedMessageNotifier receivedMessageNotifier,
     LongIdCounterMap<ExpirableConsumer<ResponseMessage>> waitingForResponse,
-    Logger basicLogger, VelocityTieIn velocityTieIn)
+    Logger basicLogger, VelocityTieIn velocityTieIn, FlushPolicy flushPolicy,
+    BackpressurePolicy backpressurePolicy)
   {
+    this(serverName, serverId, executor, receivedMessageNotifier,
+      new ReceivedStreamNotifier(executor), waitingForResponse, basicLogger, velocityTieIn,
+      flushPolicy, backpressurePolicy);
+  }
+
+  public BungeeToSpigotConnection(
+    String serverName, int serverId, Executor executor,
+    ReceivedMessageNotifier receivedMessageNotifier, ReceivedStreamNotifier streamNotifier,
+    LongIdCounterMap<ExpirableConsumer<ResponseMessage>> waitingForResponse,
+    Logger basicLogger, VelocityTieIn velocityTieIn, FlushPolicy flushPolicy,
+    BackpressurePolicy backpressurePolicy)
+  {
+    super(flushPolicy, backpressurePolicy);
+
     ExtraPreconditions.checkNotEmpty(serverName, "serverName");
+    Preconditions.checkArgument(serverId >= 0, "serverId must be >= 0");
     Preconditions.checkNotNull(executor, "executor");
     Preconditions.checkNotNull(receivedMessageNotifier, "receivedMessageNotifier");
+    Preconditions.checkNotNull(streamNotifier, "streamNotifier");
     Preconditions.checkNotNull(waitingForResponse, "waitingForResponse");
     Preconditions.checkNotNull(basicLogger, "basicLogger");
     Preconditions.checkNotNull(velocityTieIn, "VelocityTieIn");
 
     this.serverName = serverName;
+    this.serverId = serverId;
     this.executor = executor;
     this.receivedMessageNotifier = receivedMessageNotifier;
     this.waitingForResponse = waitingForResponse;
     this.basicLogger = basicLogger;
     this.velocityTieIn = velocityTieIn;
+    this.streamEndpoint = new StreamEndpoint(this, serverName, executor, streamNotifier,
+      waitingForResponse);
   }
 
   public String getServerName()
@@ -72,6 +106,14 @@ public class BungeeToSpigotConnection extends AbstractPacketHandler
     return serverName;
   }
 
+  /**
+   * @return Dense ID assigned to the server by the proxy
+   */
+  public int getServerId()
+  {
+    return serverId;
+  }
+
   @Override
   public void onChannelActive(Channel channel)
   {
@@ -86,6 +128,8 @@ public class BungeeToSpigotConnection extends AbstractPacketHandler
     basicLogger.debug("[%s connection] Channel is now inactive", serverName);
 
     super.onChannelInactive();
+
+    streamEndpoint.close();
   }
 
   @Override
@@ -103,7 +147,7 @@ public class BungeeToSpigotConnection extends AbstractPacketHandler
       basicLogger.debug(
         "[%s connection] Received request. DestinationType: '%s'. ChannelName: '%s'. NumBytes: '%s'. ConsumerId: '%s'.",
         serverName, destinationType.name(), packet.getChannelName(),
-        packet.getMessageBytes().length, consumerId);
+        packet.getMessageLength(), consumerId);
 
       handleRequestForBungee(packet);
       return;
@@ -117,7 +161,7 @@ public class BungeeToSpigotConnection extends AbstractPacketHandler
       basicLogger.debug(
         "[%s connection] Received request. DestinationType: '%s'. ServerName: '%s'. ChannelName: '%s'. NumBytes: '%s'. ConsumerId: '%s'.",
         serverName, destinationType.name(), destServerName, packet.getChannelName(),
-        packet.getMessageBytes().length, consumerId);
+        packet.getMessageLength(), consumerId);
 
       BungeeToSpigotConnection connection = velocityTieIn.getConnection(destServerName);
 
@@ -140,26 +184,26 @@ public class BungeeToSpigotConnection extends AbstractPacketHandler
       return;
     }
 
-    if (destinationType == PacketToVelocityRequest.DestinationType.PLAYER_NAME)
+    if (destinationType == PacketToVelocityRequest.DestinationType.SERVER_ID)
     {
-      String playerName = packet.getServerOrPlayerName();
+      int destServerId = packet.getServerId();
 
       // Debug
       basicLogger.debug(
-        "[%s connection] Received request. DestinationType: '%s'. PlayerName: '%s'. ChannelName: '%s'. NumBytes: '%s'. ConsumerId: '%s'.",
-        serverName, destinationType.name(), playerName, packet.getChannelName(),
-        packet.getMessageBytes().length, consumerId);
+        "[%s connection] Received request. DestinationType: '%s'. ServerId: '%s'. ChannelName: '%s'. NumBytes: '%s'. ConsumerId: '%s'.",
+        serverName, destinationType.name(), destServerId, packet.getChannelName(),
+        packet.getMessageLength(), consumerId);
 
-      String destServerName = velocityTieIn.getServerNameForPlayer(playerName);
+      BungeeToSpigotConnection connection = velocityTieIn.getConnection(destServerId);
 
-      // If the player does not exist, respond with PLAYER_NOT_FOUND.
-      if (destServerName == null)
+      // If the connection does not exist, respond with SERVER_NOT_FOUND.
+      if (connection == null)
       {
         if (packet.hasConsumer())
         {
           PacketToAnyResponse responsePacket = new PacketToAnyResponse();
           responsePacket.setConsumerId(packet.getConsumerId());
-          responsePacket.setResponseStatus(ResponseStatus.PLAYER_NOT_FOUND);
+          responsePacket.setResponseStatus(ResponseStatus.SERVER_NOT_FOUND);
           responsePacket.setMessageBytes(null);
 
           sendPacket(responsePacket);
@@ -167,16 +211,30 @@ public class BungeeToSpigotConnection extends AbstractPacketHandler
         return;
       }
 
-      BungeeToSpigotConnection connection = velocityTieIn.getConnection(destServerName);
+      handleRequestForSpigot(packet, connection);
+      return;
+    }
 
-      // If the connection does not exist, respond with SERVER_NOT_FOUND.
+    if (destinationType == PacketToVelocityRequest.DestinationType.PLAYER_NAME)
+    {
+      String playerName = packet.getServerOrPlayerName();
+
+      // Debug
+      basicLogger.debug(
+        "[%s connection] Received request. DestinationType: '%s'. PlayerName: '%s'. ChannelName: '%s'. NumBytes: '%s'. ConsumerId: '%s'.",
+        serverName, destinationType.name(), playerName, packet.getChannelName(),
+        packet.getMessageLength(), consumerId);
+
+      BungeeToSpigotConnection connection = velocityTieIn.getConnectionForPlayer(playerName);
+
+      // If the player (or their server) does not exist, respond with PLAYER_NOT_FOUND.
       if (connection == null)
       {
         if (packet.hasConsumer())
         {
           PacketToAnyResponse responsePacket = new PacketToAnyResponse();
           responsePacket.setConsumerId(packet.getConsumerId());
-          responsePacket.setResponseStatus(ResponseStatus.SERVER_NOT_FOUND);
+          responsePacket.setResponseStatus(ResponseStatus.PLAYER_NOT_FOUND);
           responsePacket.setMessageBytes(null);
 
           sendPacket(responsePacket);
@@ -196,11 +254,10 @@ public class BungeeToSpigotConnection extends AbstractPacketHandler
 
     long consumerId = packet.getConsumerId();
     ResponseStatus responseStatus = packet.getResponseStatus();
-    byte[] messageBytes = packet.getMessageBytes();
     ExpirableConsumer<ResponseMessage> responseConsumer = waitingForResponse.remove(consumerId);
 
     // Debug
-    int bytesLen = messageBytes == null ? -1 : messageBytes.length;
+    int bytesLen = packet.getMessageLength();
     boolean foundConsumer = responseConsumer != null;
     basicLogger.debug(
       "[%s connection] Received response. ConsumerId: '%s'. ResponseStatus: '%s'. NumBytes: '%s'. FoundConsumer: '%s'.",
@@ -208,11 +265,7 @@ public class BungeeToSpigotConnection extends AbstractPacketHandler
 
     if (foundConsumer)
     {
-      executor.execute(() ->
-      {
-        ResponseMessage responseMessage = new ResponseMessage(responseStatus, messageBytes);
-        responseConsumer.accept(responseMessage);
-      });
+      executeResponseConsumer(executor, responseConsumer, toResponseMessage(packet));
     }
   }
 
@@ -231,40 +284,346 @@ public class BungeeToSpigotConnection extends AbstractPacketHandler
       "[%s connection] Received forward request. ChannelName: '%s'. NumBytes: '%s'. ServerNamesCount: '%s'.",
       serverName, channelName, messageBytes.length, serverNames.size());
 
-    PacketToSpigotRequest packetToForward = new PacketToSpigotRequest();
-    packetToForward.setChannelName(channelName);
-    packetToForward.setMessageBytes(messageBytes);
-    packetToForward.setConsumerId(null);
-
     if (serverNames.isEmpty())
     {
       // An empty set should send to all servers excluding source.
+      sendToServers(channelName, messageBytes, velocityTieIn.getConnections(), this);
+    }
+    else
+    {
+      // If a set is specified, forward to all matched servers.
+      List<BungeeToSpigotConnection> connections = new ArrayList<>(serverNames.size());
+
+      for (String serverName : serverNames)
+      {
+        BungeeToSpigotConnection connection = velocityTieIn.getConnection(serverName);
+
+        if (connection != null)
+        {
+          connections.add(connection);
+        }
+      }
+
+      sendToServers(channelName, messageBytes, connections, null);
+    }
+  }
+
+  @Override
+  public void handle(PacketBatch packet)
+  {
+    Preconditions.checkNotNull(packet, "packet");
+    Preconditions.checkState(channel != null, "Channel is not active");
+
+    String destServerName = packet.getDestServerName();
+    ByteBuf frames = packet.getFrames();
+
+    // Debug
+    basicLogger.debug(
+      "[%s connection] Received batch. DestServerName: '%s'. NumBytes: '%s'.",
+      serverName, destServerName, frames.readableBytes());
+
+    BungeeToSpigotConnection connection = velocityTieIn.getConnection(destServerName);
+    Channel connectionChannel = connection == null ? null : connection.channel;
+
+    // Batched messages have no consumers, so there is no one to respond to
+    if (connectionChannel == null)
+    {
+      return;
+    }
+
+    // Each sub-frame is an encoded packet, so older clients are sent them one by one
+    if (!connection.isBatchingSupported())
+    {
+      while (frames.isReadable())
+      {
+        ByteBuf subFrame = PacketBatch.readSubFrame(frames).retain();
+
+        if (!connection.writePacket(subFrame))
+        {
+          subFrame.release();
+        }
+      }
+      return;
+    }
+
+    // The sub-frames are forwarded as they are behind a new header (without a destination)
+    ByteBuf header = connectionChannel.alloc().ioBuffer(2);
+    header.writeByte(PacketRegistry.packetToId(PacketBatch.class));
+    header.writeByte(0);
+
+    ByteBuf forwarded = Unpooled.wrappedBuffer(header, frames.retain());
+
+    if (!connection.writePacket(forwarded))
+    {
+      forwarded.release();
+    }
+  }
+
+  @Override
+  public void handle(PacketStreamOpen packet)
+  {
+    Preconditions.checkNotNull(packet, "packet");
+    Preconditions.checkState(channel != null, "Channel is not active");
+
+    String destServerName = packet.getServerName();
+
+    // Debug
+    basicLogger.debug(
+      "[%s connection] Received stream. ChannelName: '%s'. DestServerName: '%s'. StreamId: '%s'.",
+      serverName, packet.getChannelName(), destServerName, packet.getStreamId());
+
+    if (destServerName.isEmpty())
+    {
+      streamEndpoint.handle(packet);
+      return;
+    }
+
+    BungeeToSpigotConnection connection = getStreamDestination(destServerName,
+      packet.getStreamId());
+
+    if (connection != null)
+    {
+      // The destination acks to the source server
+      packet.setServerName(serverName);
+      connection.writeStreamPacket(packet, packet.getStreamId());
+    }
+  }
+
+  @Override
+  public void handle(PacketStreamChunk packet)
+  {
+    Preconditions.checkNotNull(packet, "packet");
+    Preconditions.checkState(channel != null, "Channel is not active");
+
+    String destServerName = packet.getServerName();
+
+    if (destServerName.isEmpty())
+    {
+      streamEndpoint.handle(packet);
+      return;
+    }
+
+    BungeeToSpigotConnection connection = getStreamDestination(destServerName,
+      packet.getStreamId());
+    Channel connectionChannel = connection == null ? null : connection.channel;
+
+    if (connectionChannel == null)
+    {
+      return;
+    }
+
+    // The data is forwarded as it is behind a new header
+    ByteBuf forwarded = packet.forward(connectionChannel.alloc(), serverName);
+
+    if (!connection.writeStreamPacket(forwarded, packet.getStreamId()))
+    {
+      forwarded.release();
+    }
+  }
+
+  @Override
+  public void handle(PacketStreamAck packet)
+  {
+    Preconditions.checkNotNull(packet, "packet");
+    Preconditions.checkState(channel != null, "Channel is not active");
+
+    String destServerName = packet.getServerName();
+
+    if (destServerName.isEmpty())
+    {
+      streamEndpoint.handle(packet);
+      return;
+    }
+
+    BungeeToSpigotConnection connection = velocityTieIn.getConnection(destServerName);
+
+    // If the sender went offline, its streams were already failed
+    if (connection != null)
+    {
+      packet.setServerName(serverName);
+      connection.writeStreamPacket(packet);
+    }
+  }
+
+  @Override
+  public void handle(PacketToVelocityGather packet)
+  {
+    Preconditions.checkNotNull(packet, "packet");
+    Preconditions.checkState(channel != null, "Channel is not active");
+
+    long consumerId = packet.getConsumerId();
+    List<String> serverNames = packet.getServerNames();
+
+    // Debug
+    basicLogger.debug(
+      "[%s connection] Received gather request. ChannelName: '%s'. NumBytes: '%s'. ServerNamesCount: '%s'. Quorum: '%s'. ConsumerId: '%s'.",
+      serverName, packet.getChannelName(), packet.getMessageBytes().length, serverNames.size(),
+      packet.getQuorum(), consumerId);
+
+    // ServerA makes the gather request and sends it to Bungee
+    // Bungee makes a request to every server on behalf of ServerA
+    // Every server responds to Bungee
+    // Bungee responds to ServerA once with all of the responses
+    gatherFromServers(packet.getChannelName(), packet.getMessageBytes(), serverNames,
+      velocityTieIn, this, packet.getQuorum(), packet.getTimeoutInMillis(), (responses) ->
+      {
+        PacketToAnyResponse responsePacket = new PacketToAnyResponse();
+        responsePacket.setConsumerId(consumerId);
+        responsePacket.setResponseStatus(ResponseStatus.OK);
+        responsePacket.setMessageBytes(AggregatedResponseMessage.encode(responses));
+
+        sendPacket(responsePacket);
+      });
+  }
+
+  /**
+   * Sends the same request to many servers and collects the responses
+   * <p>
+   * The consumer runs once, either when every server responded (servers that
+   * are offline or unknown respond right away) or when the quorum of OK
+   * responses is reached. Servers that do not respond before the timeout are
+   * included with {@link ResponseStatus#TIMED_OUT}.
+   * </p>
+   *
+   * @param channelName Name of channel to send bytes to
+   * @param messageBytes Bytes to send
+   * @param serverNames Names of servers to send to or an empty list for all servers
+   * @param velocityTieIn Tie-in used to find connections
+   * @param excluded Connection to skip when sending to all servers or null
+   * @param quorum Number of OK responses to complete with or 0 to wait for all servers
+   * @param timeoutInMillis Milliseconds to wait for each server to respond
+   * @param consumer Consumer to run with the map of server name to response
+   */
+  public static void gatherFromServers(
+    String channelName, byte[] messageBytes, List<String> serverNames,
+    VelocityTieIn velocityTieIn, BungeeToSpigotConnection excluded, int quorum,
+    long timeoutInMillis, Consumer<Map<String, ResponseMessage>> consumer)
+  {
+    ExtraPreconditions.checkNotEmpty(channelName, "channelName");
+    Preconditions.checkNotNull(messageBytes, "messageBytes");
+    Preconditions.checkNotNull(serverNames, "serverNames");
+    Preconditions.checkNotNull(velocityTieIn, "velocityTieIn");
+    Preconditions.checkArgument(timeoutInMillis > 0, "timeoutInMillis must be > 0");
+    Preconditions.checkNotNull(consumer, "consumer");
+
+    // Null values are unknown servers
+    Map<String, BungeeToSpigotConnection> targets = new LinkedHashMap<>();
+
+    if (serverNames.isEmpty())
+    {
       for (BungeeToSpigotConnection connection : velocityTieIn.getConnections())
       {
-        if (connection != this)
+        if (connection != excluded)
         {
-          connection.sendPacket(packetToForward);
+          targets.put(connection.getServerName(), connection);
         }
       }
     }
     else
     {
-      // If a set is specified, forward to all matched servers.
+      Set<String> seenServerNames = new HashSet<>(serverNames.size());
+
       for (String serverName : serverNames)
       {
-        BungeeToSpigotConnection connection = velocityTieIn.getConnection(serverName);
+        if (seenServerNames.add(serverName.toLowerCase()))
+        {
+          targets.put(serverName, velocityTieIn.getConnection(serverName));
+        }
+      }
+    }
 
-        if (connection != null)
+    ResponseGatherer gatherer = new ResponseGatherer(targets.size(), quorum, consumer);
+
+    for (Map.Entry<String, BungeeToSpigotConnection> entry : targets.entrySet())
+    {
+      BungeeToSpigotConnection connection = entry.getValue();
+
+      if (connection == null)
+      {
+        gatherer.accept(entry.getKey(), new ResponseMessage(ResponseStatus.SERVER_NOT_FOUND));
+        continue;
+      }
+
+      connection.sendToServer(channelName, messageBytes, gatherer.newConsumer(entry.getKey()),
+        timeoutInMillis);
+    }
+  }
+
+  /**
+   * Sends the same message to many servers without expecting a response
+   * <p>
+   * The request is serialized once into a reference counted buffer and each
+   * connection is given a retained duplicate of it, so the cost per server is
+   * a reference count increment instead of a full serialization and copy.
+   * </p>
+   *
+   * @param channelName Name of channel to send bytes to
+   * @param messageBytes Bytes to send
+   * @param connections Connections to send to (offline connections are skipped)
+   * @param excluded Connection to skip or null
+   */
+  public static void sendToServers(
+    String channelName, byte[] messageBytes, Iterable<BungeeToSpigotConnection> connections,
+    BungeeToSpigotConnection excluded)
+  {
+    ExtraPreconditions.checkNotEmpty(channelName, "channelName");
+    Preconditions.checkNotNull(messageBytes, "messageBytes");
+    Preconditions.checkNotNull(connections, "connections");
+
+    ByteBuf encodedPacket = null;
+
+    try
+    {
+      for (BungeeToSpigotConnection connection : connections)
+      {
+        Channel connectionChannel = connection.channel;
+
+        if (connection == excluded || connectionChannel == null)
+        {
+          continue;
+        }
+
+        // Serialize lazily so nothing is allocated when every server is offline
+        if (encodedPacket == null)
+        {
+          PacketToSpigotRequest packet = new PacketToSpigotRequest();
+          packet.setChannelName(channelName);
+          packet.setMessageBytes(messageBytes);
+          packet.setConsumerId(null);
+
+          encodedPacket = BungeePacketEncoder.encodeToBuffer(connectionChannel.alloc(), packet);
+        }
+
+        // Each duplicate has its own indexes but shares the reference count
+        ByteBuf duplicate = encodedPacket.duplicate().retain();
+
+        PacketPriority priority = connection.getPriorityOptions().getChannelPriority(channelName);
+
+        if (!connection.writePacket(duplicate, priority))
         {
-          connection.sendPacket(packetToForward);
+          duplicate.release();
         }
       }
     }
+    finally
+    {
+      if (encodedPacket != null)
+      {
+        encodedPacket.release();
+      }
+    }
   }
 
   public void sendToServer(
     String channelName, byte[] messageBytes, Consumer<ResponseMessage> consumer,
     long timeoutInMillis)
+  {
+    sendToServer(channelName, messageBytes, consumer, timeoutInMillis, null);
+  }
+
+  public void sendToServer(
+    String channelName, byte[] messageBytes, Consumer<ResponseMessage> consumer,
+    long timeoutInMillis, PacketPriority priority)
   {
     ExtraPreconditions.checkNotEmpty(channelName, "channelName");
     Preconditions.checkNotNull(messageBytes, "messageBytes");
@@ -287,35 +646,123 @@ public class BungeeToSpigotConnection extends AbstractPacketHandler
     PacketToSpigotRequest packetToSend = new PacketToSpigotRequest();
     packetToSend.setChannelName(channelName);
     packetToSend.setMessageBytes(messageBytes);
+    packetToSend.setPriority(priority);
 
     // If the consumer is specified, save the consumer.
     if (consumer != null)
     {
       Preconditions.checkArgument(timeoutInMillis > 0, "timeoutInMillis must be > 0");
 
+      // If the write buffer is full, the consumer may be run with WRITE_BUFFER_FULL.
+      if (executeConsumerIfWriteBufferFull(executor, consumer, packetToSend))
+      {
+        return;
+      }
+
       ExpirableConsumer<ResponseMessage> responseConsumer = new ExpirableConsumer<>(consumer,
         System.currentTimeMillis() + timeoutInMillis);
 
-      packetToSend.setConsumerId(waitingForResponse.put(responseConsumer));
+      long consumerId = waitingForResponse.put(responseConsumer, timeoutInMillis);
+      bindCancellation(consumer, waitingForResponse, consumerId);
+
+      packetToSend.setConsumerId(consumerId);
     }
 
     // Send the packet
     sendPacket(packetToSend);
   }
 
-  private void sendPacket(AbstractPacket packet)
+  public void sendBatch(MessageBatch batch)
   {
-    if (channel != null)
+    Preconditions.checkNotNull(batch, "batch");
+
+    // If the connection does not have a channel, the server is offline.
+    if (batch.isEmpty() || !hasChannel())
+    {
+      return;
+    }
+
+    // Older versions of the client can not read batches
+    if (!isBatchingSupported())
     {
-      channel.writeAndFlush(packet);
+      for (int i = 0; i < batch.size(); i++)
+      {
+        sendToServer(batch.getChannelName(i), batch.getMessageBytes(i), null, 0);
+      }
+      return;
+    }
+
+    PacketBatch packet = new PacketBatch();
+
+    for (int i = 0; i < batch.size(); i++)
+    {
+      PacketToSpigotRequest request = new PacketToSpigotRequest();
+      request.setChannelName(batch.getChannelName(i));
+      request.setMessageBytes(batch.getMessageBytes(i));
+      request.setConsumerId(null);
+
+      packet.addPacket(request);
     }
+
+    sendPacket(packet);
+  }
+
+  public void sendStream(
+    String channelName, InputStream source, Consumer<ResponseMessage> consumer,
+    long timeoutInMillis)
+  {
+    streamEndpoint.send(channelName, "", source, consumer, timeoutInMillis);
+  }
+
+  /**
+   * Finds the connection to forward a stream to or closes the stream on the
+   * source server if the destination can not receive it
+   *
+   * @param destServerName Name of the destination server
+   * @param streamId ID of the stream on the source server
+   *
+   * @return Connection to forward the stream to or null
+   */
+  private BungeeToSpigotConnection getStreamDestination(String destServerName, long streamId)
+  {
+    BungeeToSpigotConnection connection = velocityTieIn.getConnection(destServerName);
+    ResponseStatus closeStatus;
+
+    if (connection == null)
+    {
+      closeStatus = ResponseStatus.SERVER_NOT_FOUND;
+    }
+    else if (!connection.hasChannel())
+    {
+      closeStatus = ResponseStatus.SERVER_OFFLINE;
+    }
+    else if (!connection.isStreamingSupported())
+    {
+      closeStatus = ResponseStatus.CANCELLED;
+    }
+    else
+    {
+      return connection;
+    }
+
+    PacketStreamAck packet = new PacketStreamAck();
+    packet.setStreamId(streamId);
+    packet.setServerName(destServerName);
+    packet.setCloseStatus(closeStatus);
+
+    writeStreamPacket(packet);
+    return null;
+  }
+
+  private void sendPacket(AbstractPacket packet)
+  {
+    writePacket(packet);
   }
 
   private void handleRequestForBungee(PacketToVelocityRequest packet)
   {
     Consumer<byte[]> onResponseConsumer = null;
     String channelName = packet.getChannelName();
-    byte[] messageBytes = packet.getMessageBytes();
 
     // If there is no consumer, there is no need to construct a response consumer.
     if (packet.hasConsumer())
@@ -335,10 +782,23 @@ public class BungeeToSpigotConnection extends AbstractPacketHandler
       };
     }
 
-    // Notify channel listeners of the request
-    ReceivedMessage receivedMessage = new ReceivedMessage(channelName, messageBytes,
-      onResponseConsumer);
-    receivedMessageNotifier.notify(channelName, receivedMessage);
+    // Notify channel listeners of the request. In zero-copy mode, the message takes its
+    // own reference to the payload which is released once the listeners finish.
+    ReceivedMessage receivedMessage;
+    ByteBuf messageBuffer = packet.getMessageBuffer();
+
+    if (messageBuffer != null)
+    {
+      receivedMessage = new ReceivedMessage(channelName, messageBuffer.retain(),
+        onResponseConsumer);
+    }
+    else
+    {
+      receivedMessage = new ReceivedMessage(channelName, packet.getMessageBytes(),
+        onResponseConsumer);
+    }
+
+    notifyConsumers(receivedMessageNotifier, packet, channelName, receivedMessage);
   }
 
   private void handleRequestForSpigot(
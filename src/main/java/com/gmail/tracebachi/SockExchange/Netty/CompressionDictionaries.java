@@ -0,0 +1,156 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import com.gmail.tracebachi.SockExchange.Utilities.ExtraPreconditions;
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Adler32;
+
+/**
+ * Preset dictionaries used to compress the messages of a channel
+ * <p>
+ * A dictionary holds byte sequences that are common in the messages of a
+ * channel, so even the first occurrence in a frame can be compressed. The
+ * compressed stream names its dictionary by checksum, so the proxy and every
+ * server must register the same dictionaries. A compressed frame that needs
+ * an unknown dictionary closes the connection.
+ * </p>
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public final class CompressionDictionaries
+{
+  /**
+   * Deflate only looks back 32 KB, so longer dictionaries are not useful
+   */
+  public static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+  private static final Map<String, byte[]> dictionaryByChannel = new ConcurrentHashMap<>();
+  private static final Map<Integer, byte[]> dictionaryByChecksum = new ConcurrentHashMap<>();
+
+  private CompressionDictionaries()
+  {
+  }
+
+  /**
+   * Registers the dictionary used for the messages of a channel
+   *
+   * @param channelName Name of the channel
+   * @param dictionary Dictionary bytes (up to {@link #MAX_DICTIONARY_SIZE})
+   */
+  public static void register(String channelName, byte[] dictionary)
+  {
+    ExtraPreconditions.checkNotEmpty(channelName, "channelName");
+    Preconditions.checkNotNull(dictionary, "dictionary");
+    Preconditions.checkArgument(dictionary.length > 0 && dictionary.length <= MAX_DICTIONARY_SIZE,
+      "dictionary must have between 1 and " + MAX_DICTIONARY_SIZE + " bytes");
+
+    byte[] copy = dictionary.clone();
+    dictionaryByChecksum.put(checksum(copy), copy);
+    dictionaryByChannel.put(channelName, copy);
+  }
+
+  /**
+   * Stops using a dictionary for the messages of a channel
+   * <p>
+   * The dictionary can still be used to decompress frames from peers that
+   * have not unregistered it.
+   * </p>
+   *
+   * @param channelName Name of the channel
+   */
+  public static void unregister(String channelName)
+  {
+    dictionaryByChannel.remove(channelName);
+  }
+
+  /**
+   * Builds a dictionary from sample messages of a channel
+   * <p>
+   * Deflate finds matches closer to the end of the dictionary with shorter
+   * codes, so the most recent samples are kept at the end and older samples
+   * are dropped once the dictionary is full.
+   * </p>
+   *
+   * @param samples Sample messages (oldest first)
+   * @param maxSize Size limit of the dictionary (up to {@link #MAX_DICTIONARY_SIZE})
+   *
+   * @return Dictionary bytes
+   */
+  public static byte[] train(List<byte[]> samples, int maxSize)
+  {
+    Preconditions.checkNotNull(samples, "samples");
+    Preconditions.checkArgument(maxSize > 0 && maxSize <= MAX_DICTIONARY_SIZE,
+      "maxSize must be between 1 and " + MAX_DICTIONARY_SIZE);
+
+    List<byte[]> kept = new ArrayList<>();
+    int size = 0;
+
+    for (int i = samples.size() - 1; i >= 0 && size < maxSize; i--)
+    {
+      byte[] sample = samples.get(i);
+      int length = Math.min(sample.length, maxSize - size);
+      byte[] tail = new byte[length];
+
+      // Keep the end of a sample that does not fit completely
+      System.arraycopy(sample, sample.length - length, tail, 0, length);
+      kept.add(tail);
+      size += length;
+    }
+
+    byte[] dictionary = new byte[size];
+    int offset = 0;
+
+    for (int i = kept.size() - 1; i >= 0; i--)
+    {
+      byte[] sample = kept.get(i);
+      System.arraycopy(sample, 0, dictionary, offset, sample.length);
+      offset += sample.length;
+    }
+
+    return dictionary;
+  }
+
+  static boolean isEmpty()
+  {
+    return dictionaryByChannel.isEmpty();
+  }
+
+  static byte[] getForChannel(String channelName)
+  {
+    return channelName == null ? null : dictionaryByChannel.get(channelName);
+  }
+
+  static byte[] getByChecksum(int checksum)
+  {
+    return dictionaryByChecksum.get(checksum);
+  }
+
+  private static int checksum(byte[] dictionary)
+  {
+    // Same checksum zlib uses to name the dictionary of a stream
+    Adler32 adler32 = new Adler32();
+    adler32.update(dictionary, 0, dictionary.length);
+    return (int) adler32.getValue();
+  }
+}
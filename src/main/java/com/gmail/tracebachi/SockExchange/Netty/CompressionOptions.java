@@ -0,0 +1,87 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import com.google.common.base.Preconditions;
+
+import java.util.zip.Deflater;
+
+/**
+ * Options for compressing frames sent by {@link SockExchangeClient} and
+ * {@link SockExchangeServer}
+ * <p>
+ * Compression is only used if both sides enable it. Frames smaller than the
+ * threshold are never compressed.
+ * </p>
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class CompressionOptions
+{
+  private boolean enabled = false;
+  private int threshold = 8 * 1024;
+  private int level = Deflater.BEST_SPEED;
+
+  public boolean isEnabled()
+  {
+    return enabled;
+  }
+
+  public void setEnabled(boolean enabled)
+  {
+    this.enabled = enabled;
+  }
+
+  /**
+   * @return Smallest frame (in bytes) that is compressed
+   */
+  public int getThreshold()
+  {
+    return threshold;
+  }
+
+  public void setThreshold(int threshold)
+  {
+    Preconditions.checkArgument(threshold > 0, "threshold must be > 0");
+
+    this.threshold = threshold;
+  }
+
+  /**
+   * @return Deflate level from 1 (fastest) to 9 (smallest)
+   */
+  public int getLevel()
+  {
+    return level;
+  }
+
+  public void setLevel(int level)
+  {
+    Preconditions.checkArgument(level >= Deflater.BEST_SPEED && level <= Deflater.BEST_COMPRESSION,
+      "level must be between 1 and 9");
+
+    this.level = level;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "CompressionOptions{enabled=" + enabled + ", threshold=" + threshold +
+      ", level=" + level + "}";
+  }
+}
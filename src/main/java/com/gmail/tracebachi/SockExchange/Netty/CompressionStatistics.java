@@ -0,0 +1,143 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for frames compressed and decompressed by the connections
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class CompressionStatistics
+{
+  private final LongAdder compressedFrames = new LongAdder();
+  private final LongAdder incompressibleFrames = new LongAdder();
+  private final LongAdder uncompressedBytes = new LongAdder();
+  private final LongAdder compressedBytes = new LongAdder();
+  private final LongAdder compressNanos = new LongAdder();
+  private final LongAdder decompressedFrames = new LongAdder();
+  private final LongAdder decompressNanos = new LongAdder();
+
+  void recordCompression(int inputBytes, int outputBytes, long nanos)
+  {
+    compressedFrames.increment();
+    uncompressedBytes.add(inputBytes);
+    compressedBytes.add(outputBytes);
+    compressNanos.add(nanos);
+  }
+
+  void recordIncompressible(long nanos)
+  {
+    incompressibleFrames.increment();
+    compressNanos.add(nanos);
+  }
+
+  void recordDecompression(long nanos)
+  {
+    decompressedFrames.increment();
+    decompressNanos.add(nanos);
+  }
+
+  /**
+   * @return Number of frames sent compressed
+   */
+  public long getCompressedFrames()
+  {
+    return compressedFrames.sum();
+  }
+
+  /**
+   * @return Number of frames above the threshold that were sent uncompressed
+   * because compressing did not make them smaller
+   */
+  public long getIncompressibleFrames()
+  {
+    return incompressibleFrames.sum();
+  }
+
+  /**
+   * @return Size of the compressed frames before compression
+   */
+  public long getUncompressedBytes()
+  {
+    return uncompressedBytes.sum();
+  }
+
+  /**
+   * @return Size of the compressed frames after compression
+   */
+  public long getCompressedBytes()
+  {
+    return compressedBytes.sum();
+  }
+
+  /**
+   * @return Compressed bytes divided by uncompressed bytes (1 if nothing was compressed)
+   */
+  public double getCompressionRatio()
+  {
+    long uncompressed = uncompressedBytes.sum();
+    return uncompressed == 0 ? 1 : (double) compressedBytes.sum() / uncompressed;
+  }
+
+  /**
+   * @return Nanoseconds spent compressing (including incompressible frames)
+   */
+  public long getCompressNanos()
+  {
+    return compressNanos.sum();
+  }
+
+  /**
+   * @return Number of compressed frames received
+   */
+  public long getDecompressedFrames()
+  {
+    return decompressedFrames.sum();
+  }
+
+  /**
+   * @return Nanoseconds spent decompressing
+   */
+  public long getDecompressNanos()
+  {
+    return decompressNanos.sum();
+  }
+
+  public void reset()
+  {
+    compressedFrames.reset();
+    incompressibleFrames.reset();
+    uncompressedBytes.reset();
+    compressedBytes.reset();
+    compressNanos.reset();
+    decompressedFrames.reset();
+    decompressNanos.reset();
+  }
+
+  @Override
+  public String toString()
+  {
+    return String.format(
+      "CompressionStatistics{compressedFrames=%d, incompressibleFrames=%d, uncompressedBytes=%d, compressedBytes=%d, ratio=%.3f, compressMillis=%d, decompressedFrames=%d, decompressMillis=%d}",
+      getCompressedFrames(), getIncompressibleFrames(), getUncompressedBytes(),
+      getCompressedBytes(), getCompressionRatio(), getCompressNanos() / 1_000_000,
+      getDecompressedFrames(), getDecompressNanos() / 1_000_000);
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketStreamChunk;
+import com.gmail.tracebachi.SockExchange.Netty.Packets.StreamChunk;
+import io.netty.channel.DefaultFileRegion;
+import io.netty.channel.FileRegion;
+
+import java.nio.channels.FileChannel;
+
+/**
+ * Stream chunk whose data is a range of a file
+ * <p>
+ * The chunk is framed exactly like a {@link PacketStreamChunk}, so the
+ * receiver (and Velocity) cannot tell the two apart. It is encoded by
+ * {@link FileRegionChunkEncoder} after the frame compressor, so the data is
+ * never copied into a buffer.
+ * </p>
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+class FileRegionChunk implements StreamChunk
+{
+  private final long streamId;
+  private final String serverName;
+  private final int flags;
+  private final FileChannel fileChannel;
+  private final long position;
+  private final int count;
+
+  FileRegionChunk(
+    long streamId, String serverName, int flags, FileChannel fileChannel, long position,
+    int count)
+  {
+    this.streamId = streamId;
+    this.serverName = serverName;
+    this.flags = flags;
+    this.fileChannel = fileChannel;
+    this.position = position;
+    this.count = count;
+  }
+
+  long getStreamId()
+  {
+    return streamId;
+  }
+
+  String getServerName()
+  {
+    return serverName;
+  }
+
+  int getFlags()
+  {
+    return flags;
+  }
+
+  @Override
+  public int getDataLength()
+  {
+    return count;
+  }
+
+  @Override
+  public boolean isLast()
+  {
+    return (flags & PacketStreamChunk.LAST_FLAG) != 0;
+  }
+
+  /**
+   * @return Size of the frame without its length prefix
+   */
+  int getFrameSize()
+  {
+    return PacketStreamChunk.getHeaderSize(serverName) + count;
+  }
+
+  /**
+   * @return Region of the file holding the data of the chunk
+   */
+  FileRegion newRegion()
+  {
+    return new SharedFileRegion(fileChannel, position, count);
+  }
+
+  /**
+   * {@link DefaultFileRegion} that does not close the file once written, as
+   * every chunk of a stream shares it (the stream closes it once completed)
+   */
+  private static final class SharedFileRegion extends DefaultFileRegion
+  {
+    private SharedFileRegion(FileChannel fileChannel, long position, long count)
+    {
+      super(fileChannel, position, count);
+    }
+
+    @Override
+    protected void deallocate()
+    {
+      // The file is closed by the stream
+    }
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketStreamChunk;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageEncoder;
+
+import java.util.List;
+
+/**
+ * Encodes a {@link FileRegionChunk} as a frame holding the header of a
+ * {@link PacketStreamChunk} followed by a region of the file
+ * <p>
+ * The encoder sits between the frame prepender and the transport, so it
+ * writes the length prefix itself. The region is written with sendfile where
+ * the transport supports it.
+ * </p>
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+class FileRegionChunkEncoder extends MessageToMessageEncoder<FileRegionChunk>
+{
+  private static final int FRAME_LENGTH_FIELD_LENGTH = 3;
+
+  @Override
+  protected void encode(ChannelHandlerContext ctx, FileRegionChunk chunk, List<Object> out)
+    throws Exception
+  {
+    String serverName = chunk.getServerName();
+    int headerSize = PacketStreamChunk.getHeaderSize(serverName);
+    ByteBuf header = ctx.alloc().ioBuffer(FRAME_LENGTH_FIELD_LENGTH + headerSize);
+
+    header.writeMedium(chunk.getFrameSize());
+    PacketStreamChunk.writeHeader(header, chunk.getStreamId(), serverName, chunk.getFlags());
+
+    out.add(header);
+    out.add(chunk.newRegion());
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Decides when packets written through a {@link PacketWriter} are flushed
+ * to the socket
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public final class FlushPolicy
+{
+  public enum Mode
+  {
+    /**
+     * Flush after every packet (one syscall per packet)
+     */
+    IMMEDIATE,
+    /**
+     * Flush once at the end of the current event loop task
+     */
+    END_OF_TASK,
+    /**
+     * Flush after a number of packets or after a delay, whichever is first
+     */
+    BATCHED;
+
+    public static Mode fromName(String name)
+    {
+      Preconditions.checkNotNull(name, "name");
+
+      switch (name.replace("_", "").toLowerCase())
+      {
+        case "immediate":
+          return IMMEDIATE;
+        case "endoftask":
+          return END_OF_TASK;
+        case "batched":
+          return BATCHED;
+      }
+
+      throw new IllegalArgumentException("Unknown flush policy: " + name);
+    }
+  }
+
+  public static final FlushPolicy IMMEDIATE = new FlushPolicy(Mode.IMMEDIATE, 1, 0);
+  public static final FlushPolicy END_OF_TASK = new FlushPolicy(Mode.END_OF_TASK, 1, 0);
+
+  private final Mode mode;
+  private final int maxPackets;
+  private final long maxDelayMicros;
+
+  private FlushPolicy(Mode mode, int maxPackets, long maxDelayMicros)
+  {
+    this.mode = mode;
+    this.maxPackets = maxPackets;
+    this.maxDelayMicros = maxDelayMicros;
+  }
+
+  /**
+   * @param maxPackets Number of unflushed packets that triggers a flush
+   * @param maxDelayMicros Microseconds an unflushed packet may wait before a flush
+   *
+   * @return Policy that flushes after N packets or M microseconds
+   */
+  public static FlushPolicy batched(int maxPackets, long maxDelayMicros)
+  {
+    Preconditions.checkArgument(maxPackets > 0, "maxPackets must be > 0");
+    Preconditions.checkArgument(maxDelayMicros > 0, "maxDelayMicros must be > 0");
+
+    return new FlushPolicy(Mode.BATCHED, maxPackets, maxDelayMicros);
+  }
+
+  /**
+   * @param modeName Name of the {@link Mode}
+   * @param maxPackets Only used by {@link Mode#BATCHED}
+   * @param maxDelayMicros Only used by {@link Mode#BATCHED}
+   *
+   * @return Policy matching the configured values
+   */
+  public static FlushPolicy fromConfig(String modeName, int maxPackets, long maxDelayMicros)
+  {
+    Mode mode = Mode.fromName(modeName);
+
+    switch (mode)
+    {
+      case IMMEDIATE:
+        return IMMEDIATE;
+      case END_OF_TASK:
+        return END_OF_TASK;
+      default:
+        return batched(maxPackets, maxDelayMicros);
+    }
+  }
+
+  public Mode getMode()
+  {
+    return mode;
+  }
+
+  public int getMaxPackets()
+  {
+    return maxPackets;
+  }
+
+  public long getMaxDelayMicros()
+  {
+    return maxDelayMicros;
+  }
+
+  @Override
+  public String toString()
+  {
+    if (mode == Mode.BATCHED)
+    {
+      return mode + "(" + maxPackets + " packets, " + maxDelayMicros + " us)";
+    }
+
+    return mode.toString();
+  }
+}
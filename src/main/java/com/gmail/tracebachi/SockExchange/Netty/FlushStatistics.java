@@ -0,0 +1,79 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for tuning a {@link FlushPolicy} under real load
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class FlushStatistics
+{
+  private final LongAdder packetsWritten = new LongAdder();
+  private final LongAdder flushes = new LongAdder();
+
+  void recordPacket()
+  {
+    packetsWritten.increment();
+  }
+
+  void recordFlush()
+  {
+    flushes.increment();
+  }
+
+  /**
+   * @return Number of packets written to the channel
+   */
+  public long getPacketsWritten()
+  {
+    return packetsWritten.sum();
+  }
+
+  /**
+   * @return Number of flushes (roughly the number of write syscalls)
+   */
+  public long getFlushes()
+  {
+    return flushes.sum();
+  }
+
+  /**
+   * @return Average number of packets sent per flush
+   */
+  public double getPacketsPerFlush()
+  {
+    long flushCount = flushes.sum();
+    return flushCount == 0 ? 0 : (double) packetsWritten.sum() / flushCount;
+  }
+
+  public void reset()
+  {
+    packetsWritten.reset();
+    flushes.reset();
+  }
+
+  @Override
+  public String toString()
+  {
+    return String.format("FlushStatistics{packets=%d, flushes=%d, packetsPerFlush=%.2f}",
+      getPacketsWritten(), getFlushes(), getPacketsPerFlush());
+  }
+}
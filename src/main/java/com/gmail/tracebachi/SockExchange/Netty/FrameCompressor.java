@@ -0,0 +1,190 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import com.google.common.base.Preconditions;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageEncoder;
+
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses encoded packets above a size threshold
+ * <p>
+ * A compressed frame starts with the packet ID with the high bit set,
+ * followed by the uncompressed size of the packet (4 bytes) and the packet
+ * compressed with Deflate. Packet IDs never use the high bit, so other frames
+ * pass through unchanged. Compression stays disabled until both sides agree
+ * to use it during registration.
+ * </p>
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class FrameCompressor extends MessageToMessageEncoder<ByteBuf>
+{
+  static final int COMPRESSED_FLAG = 0x80;
+
+  /**
+   * Smaller frames can not get smaller than the compressed frame header
+   */
+  private static final int MIN_THRESHOLD = 64;
+
+  private final int threshold;
+  private final Deflater deflater;
+  private final CompressionStatistics statistics;
+  private volatile boolean enabled;
+
+  // Only accessed from the event loop
+  private byte[] nextDictionary;
+
+  public FrameCompressor(CompressionOptions options, CompressionStatistics statistics)
+  {
+    Preconditions.checkNotNull(options, "options");
+    Preconditions.checkNotNull(statistics, "statistics");
+
+    this.threshold = Math.max(options.getThreshold(), MIN_THRESHOLD);
+    this.deflater = new Deflater(options.getLevel());
+    this.statistics = statistics;
+  }
+
+  public boolean isEnabled()
+  {
+    return enabled;
+  }
+
+  /**
+   * @param enabled True once both sides agreed to use compression
+   */
+  public void setEnabled(boolean enabled)
+  {
+    this.enabled = enabled;
+  }
+
+  /**
+   * Selects the dictionary for the next frame
+   * <p>
+   * The packet encoders call this before writing each packet. Frames that
+   * skip the encoders (already encoded buffers) are compressed without a
+   * dictionary.
+   * </p>
+   *
+   * @param channelName Channel of the message in the packet or null
+   */
+  void prepareDictionary(String channelName)
+  {
+    nextDictionary = enabled && !CompressionDictionaries.isEmpty() ?
+      CompressionDictionaries.getForChannel(channelName) : null;
+  }
+
+  @Override
+  protected void encode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception
+  {
+    byte[] dictionary = nextDictionary;
+    nextDictionary = null;
+
+    int length = in.readableBytes();
+
+    if (!enabled || length < threshold)
+    {
+      out.add(in.retain());
+      return;
+    }
+
+    long startNanos = System.nanoTime();
+    int packetId = in.getUnsignedByte(in.readerIndex());
+    int bodyLength = length - 1;
+    ByteBuf heapCopy = null;
+    byte[] input;
+    int inputOffset;
+
+    // Deflater only reads arrays
+    if (in.hasArray())
+    {
+      input = in.array();
+      inputOffset = in.arrayOffset() + in.readerIndex() + 1;
+    }
+    else
+    {
+      // Borrowed for this frame only, so a large frame is not kept alive by the handler
+      heapCopy = ctx.alloc().heapBuffer(bodyLength, bodyLength);
+      input = heapCopy.array();
+      inputOffset = heapCopy.arrayOffset();
+      in.getBytes(in.readerIndex() + 1, input, inputOffset, bodyLength);
+    }
+
+    ByteBuf compressed = null;
+
+    try
+    {
+      deflater.reset();
+
+      if (dictionary != null)
+      {
+        deflater.setDictionary(dictionary);
+      }
+
+      deflater.setInput(input, inputOffset, bodyLength);
+      deflater.finish();
+
+      // Give up once the output is as large as the input
+      compressed = ctx.alloc().heapBuffer(length, length);
+      compressed.writeByte(packetId | COMPRESSED_FLAG);
+      compressed.writeInt(bodyLength);
+
+      while (!deflater.finished() && compressed.isWritable())
+      {
+        int written = deflater.deflate(compressed.array(),
+          compressed.arrayOffset() + compressed.writerIndex(), compressed.writableBytes());
+        compressed.writerIndex(compressed.writerIndex() + written);
+      }
+
+      long nanos = System.nanoTime() - startNanos;
+
+      if (!deflater.finished())
+      {
+        statistics.recordIncompressible(nanos);
+        out.add(in.retain());
+        return;
+      }
+
+      statistics.recordCompression(length, compressed.readableBytes(), nanos);
+      out.add(compressed.retain());
+    }
+    finally
+    {
+      if (compressed != null)
+      {
+        compressed.release();
+      }
+
+      if (heapCopy != null)
+      {
+        heapCopy.release();
+      }
+    }
+  }
+
+  @Override
+  public void handlerRemoved(ChannelHandlerContext ctx) throws Exception
+  {
+    deflater.end();
+    super.handlerRemoved(ctx);
+  }
+}
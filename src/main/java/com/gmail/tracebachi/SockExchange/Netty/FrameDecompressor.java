@@ -0,0 +1,177 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import com.google.common.base.Preconditions;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageDecoder;
+
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decompresses frames written by {@link FrameCompressor}
+ * <p>
+ * Frames without the compressed flag pass through unchanged.
+ * </p>
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class FrameDecompressor extends MessageToMessageDecoder<ByteBuf>
+{
+  private final int maxFrameSize;
+  private final Inflater inflater = new Inflater();
+  private final byte[] trailerBuffer = new byte[1];
+  private final CompressionStatistics statistics;
+
+  /**
+   * @param maxFrameSize Largest size of a packet after decompression
+   * @param statistics Statistics to record decompression in
+   */
+  public FrameDecompressor(int maxFrameSize, CompressionStatistics statistics)
+  {
+    Preconditions.checkArgument(maxFrameSize > 0, "maxFrameSize must be > 0");
+    Preconditions.checkNotNull(statistics, "statistics");
+
+    this.maxFrameSize = maxFrameSize;
+    this.statistics = statistics;
+  }
+
+  @Override
+  protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception
+  {
+    int packetId = in.getUnsignedByte(in.readerIndex());
+
+    if ((packetId & FrameCompressor.COMPRESSED_FLAG) == 0)
+    {
+      out.add(in.retain());
+      return;
+    }
+
+    long startNanos = System.nanoTime();
+
+    in.skipBytes(1);
+    int bodyLength = in.readInt();
+
+    if (bodyLength < 0 || bodyLength >= maxFrameSize)
+    {
+      throw new DataFormatException("Invalid uncompressed size: " + bodyLength);
+    }
+
+    int inputLength = in.readableBytes();
+    ByteBuf heapCopy = null;
+    byte[] input;
+    int inputOffset;
+
+    // Inflater only reads arrays
+    if (in.hasArray())
+    {
+      input = in.array();
+      inputOffset = in.arrayOffset() + in.readerIndex();
+    }
+    else
+    {
+      // Borrowed for this frame only, so a large frame is not kept alive by the handler
+      heapCopy = ctx.alloc().heapBuffer(inputLength, inputLength);
+      input = heapCopy.array();
+      inputOffset = heapCopy.arrayOffset();
+      in.getBytes(in.readerIndex(), input, inputOffset, inputLength);
+    }
+
+    in.skipBytes(inputLength);
+
+    ByteBuf decompressed = null;
+
+    try
+    {
+      inflater.reset();
+      inflater.setInput(input, inputOffset, inputLength);
+
+      decompressed = ctx.alloc().heapBuffer(1 + bodyLength, 1 + bodyLength);
+      decompressed.writeByte(packetId & ~FrameCompressor.COMPRESSED_FLAG);
+
+      while (decompressed.isWritable())
+      {
+        int read = inflater.inflate(decompressed.array(),
+          decompressed.arrayOffset() + decompressed.writerIndex(), decompressed.writableBytes());
+        decompressed.writerIndex(decompressed.writerIndex() + read);
+
+        if (read != 0)
+        {
+          continue;
+        }
+
+        if (inflater.needsDictionary())
+        {
+          byte[] dictionary = CompressionDictionaries.getByChecksum(inflater.getAdler());
+
+          if (dictionary == null)
+          {
+            throw new DataFormatException("Unknown compression dictionary: " + inflater.getAdler());
+          }
+
+          inflater.setDictionary(dictionary);
+        }
+        else if (inflater.finished() || inflater.needsInput())
+        {
+          break;
+        }
+      }
+
+      if (decompressed.isWritable() || !isStreamFinished())
+      {
+        throw new DataFormatException("Uncompressed size does not match. Expected: " + bodyLength);
+      }
+
+      statistics.recordDecompression(System.nanoTime() - startNanos);
+      out.add(decompressed.retain());
+    }
+    finally
+    {
+      if (decompressed != null)
+      {
+        decompressed.release();
+      }
+
+      if (heapCopy != null)
+      {
+        heapCopy.release();
+      }
+    }
+  }
+
+  private boolean isStreamFinished() throws DataFormatException
+  {
+    if (inflater.finished())
+    {
+      return true;
+    }
+
+    // The end of the stream may not be read until after the last output byte
+    return inflater.inflate(trailerBuffer) == 0 && inflater.finished();
+  }
+
+  @Override
+  public void handlerRemoved(ChannelHandlerContext ctx) throws Exception
+  {
+    inflater.end();
+    super.handlerRemoved(ctx);
+  }
+}
@@ -0,0 +1,36 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+/**
+ * Implemented by the client-side handler of a connection that can open bulk
+ * lanes (the proxy only accepts lanes, so its handlers do not implement it)
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+interface LaneHandlerFactory
+{
+  /**
+   * Creates the handler that registers a bulk lane of this connection
+   *
+   * @param lane Index of the lane (from 1 to the number of bulk lanes)
+   *
+   * @return Handler for the channel of the lane
+   */
+  AbstractPacketHandler newLaneHandler(int lane);
+}
@@ -0,0 +1,118 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Options for the lanes of a connection
+ * <p>
+ * Every connection has a control lane. A client can also open bulk lanes,
+ * which are extra connections registered under the same server name, so a
+ * large message does not delay the small messages queued behind it. The
+ * proxy treats all lanes of a server as one connection.
+ * </p>
+ * <p>
+ * Messages for a bulk channel and messages of at least the bulk threshold
+ * are sent on a bulk lane (picked by channel name, so a bulk channel keeps
+ * its order). Everything else, including responses and stream acks, is sent
+ * on the control lane. Each stream is sent on one bulk lane.
+ * </p>
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class LaneOptions
+{
+  /**
+   * Most bulk lanes a client can open
+   */
+  public static final int MAX_BULK_LANES = 8;
+
+  private int bulkLanes = 0;
+  private int bulkThreshold = 64 * 1024;
+  private Set<String> bulkChannels = Collections.emptySet();
+
+  /**
+   * @return Number of bulk lanes the client opens (only used by the client)
+   */
+  public int getBulkLanes()
+  {
+    return bulkLanes;
+  }
+
+  public void setBulkLanes(int bulkLanes)
+  {
+    Preconditions.checkArgument(bulkLanes >= 0 && bulkLanes <= MAX_BULK_LANES,
+      "bulkLanes must be between 0 and " + MAX_BULK_LANES);
+
+    this.bulkLanes = bulkLanes;
+  }
+
+  /**
+   * @return Smallest (estimated) message in bytes that is sent on a bulk lane
+   */
+  public int getBulkThreshold()
+  {
+    return bulkThreshold;
+  }
+
+  public void setBulkThreshold(int bulkThreshold)
+  {
+    Preconditions.checkArgument(bulkThreshold > 0, "bulkThreshold must be > 0");
+
+    this.bulkThreshold = bulkThreshold;
+  }
+
+  /**
+   * @return Names of the channels whose messages are always sent on a bulk lane
+   */
+  public Set<String> getBulkChannels()
+  {
+    return bulkChannels;
+  }
+
+  public void setBulkChannels(Collection<String> bulkChannels)
+  {
+    Preconditions.checkNotNull(bulkChannels, "bulkChannels");
+
+    this.bulkChannels = Collections.unmodifiableSet(new HashSet<>(bulkChannels));
+  }
+
+  /**
+   * @param channelName Name of the channel of a message or null
+   * @param size Estimated size of the message in bytes
+   *
+   * @return True if the message should be sent on a bulk lane
+   */
+  boolean isBulk(String channelName, long size)
+  {
+    return size >= bulkThreshold || (channelName != null && bulkChannels.contains(channelName));
+  }
+
+  @Override
+  public String toString()
+  {
+    return "LaneOptions{bulkLanes=" + bulkLanes + ", bulkThreshold=" + bulkThreshold +
+      ", bulkChannels=" + bulkChannels + "}";
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+/**
+ * Classes of outbound packets
+ * <p>
+ * Each connection queues the packets of each class separately and drains
+ * the queues by weight (see {@link PriorityOptions}), so a burst of bulk
+ * packets does not delay keep alives or chat messages queued behind it.
+ * Packets of one class are written in the order they are queued.
+ * </p>
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public enum PacketPriority
+{
+  /**
+   * Keep alives and stream acks (written even if the write buffer is full)
+   */
+  CONTROL,
+
+  /**
+   * Messages a player or an operator is waiting for (the default)
+   */
+  INTERACTIVE,
+
+  /**
+   * Large or background transfers like streams
+   */
+  BULK
+}
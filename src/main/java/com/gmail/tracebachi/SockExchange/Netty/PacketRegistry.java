@@ -0,0 +1,292 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import com.gmail.tracebachi.SockExchange.Netty.Packets.*;
+import com.google.common.base.Preconditions;
+
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Maps packet IDs to factories and handler invokers
+ * <p>
+ * Packets are stored in arrays indexed by packet ID, so the decoders create
+ * and dispatch a packet with one array read. Plugins can register their own
+ * packets with IDs from {@link #MIN_CUSTOM_ID} to {@link #MAX_ID} before the
+ * connections are started.
+ * </p>
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class PacketRegistry
+{
+  /**
+   * Lowest ID available for custom packets (lower IDs are reserved)
+   */
+  public static final int MIN_CUSTOM_ID = 64;
+
+  /**
+   * Highest packet ID (the high bit of the ID byte is reserved for flags)
+   */
+  public static final int MAX_ID = 127;
+
+  public enum Direction
+  {
+    /**
+     * Sent by Spigot and received by Velocity
+     */
+    TO_VELOCITY,
+
+    /**
+     * Sent by Velocity and received by Spigot
+     */
+    TO_SPIGOT,
+
+    /**
+     * Sent and received by both sides
+     */
+    BOTH;
+
+    boolean isReceivedByVelocity()
+    {
+      return this != TO_SPIGOT;
+    }
+
+    boolean isReceivedBySpigot()
+    {
+      return this != TO_VELOCITY;
+    }
+  }
+
+  public static final class Entry<T extends AbstractPacket>
+  {
+    private final byte id;
+    private final Class<T> packetClass;
+    private final Direction direction;
+    private final Supplier<T> factory;
+    private final BiConsumer<AbstractPacketHandler, T> invoker;
+
+    private Entry(
+      byte id, Class<T> packetClass, Direction direction, Supplier<T> factory,
+      BiConsumer<AbstractPacketHandler, T> invoker)
+    {
+      this.id = id;
+      this.packetClass = packetClass;
+      this.direction = direction;
+      this.factory = factory;
+      this.invoker = invoker;
+    }
+
+    public byte getId()
+    {
+      return id;
+    }
+
+    public Class<T> getPacketClass()
+    {
+      return packetClass;
+    }
+
+    public Direction getDirection()
+    {
+      return direction;
+    }
+
+    /**
+     * @return New empty packet to read into
+     */
+    public T newPacket()
+    {
+      return factory.get();
+    }
+
+    /**
+     * Passes a packet of this type to the handler
+     *
+     * @param handler Handler of the connection
+     * @param packet Packet created by {@link #newPacket()}
+     */
+    @SuppressWarnings("unchecked")
+    public void dispatch(AbstractPacketHandler handler, AbstractPacket packet)
+    {
+      invoker.accept(handler, (T) packet);
+    }
+  }
+
+  private static final Object lock = new Object();
+  private static final ClassValue<Entry<?>> entryByClass = new ClassValue<Entry<?>>()
+  {
+    @Override
+    protected Entry<?> computeValue(Class<?> type)
+    {
+      for (Entry<?> entry : entries)
+      {
+        if (entry != null && entry.packetClass == type)
+        {
+          return entry;
+        }
+      }
+      return null;
+    }
+  };
+  private static volatile Entry<?>[] entries = new Entry<?>[MAX_ID + 1];
+  private static volatile Entry<?>[] velocityBound = new Entry<?>[MAX_ID + 1];
+  private static volatile Entry<?>[] spigotBound = new Entry<?>[MAX_ID + 1];
+
+  static
+  {
+    byte packetId = 0;
+
+    // Registration packets
+    add(++packetId, PacketToVelocityRegister.class, Direction.TO_VELOCITY,
+      PacketToVelocityRegister::new, AbstractPacketHandler::handle);
+    add(++packetId, PacketToSpigotRegister.class, Direction.TO_SPIGOT,
+      PacketToSpigotRegister::new, AbstractPacketHandler::handle);
+
+    // Request and response packets
+    add(++packetId, PacketToVelocityRequest.class, Direction.TO_VELOCITY,
+      PacketToVelocityRequest::new, AbstractPacketHandler::handle);
+    add(++packetId, PacketToSpigotRequest.class, Direction.TO_SPIGOT,
+      PacketToSpigotRequest::new, AbstractPacketHandler::handle);
+    add(++packetId, PacketToAnyResponse.class, Direction.BOTH,
+      PacketToAnyResponse::new, AbstractPacketHandler::handle);
+
+    // Forward packet
+    add(++packetId, PacketToVelocityForward.class, Direction.TO_VELOCITY,
+      PacketToVelocityForward::new, AbstractPacketHandler::handle);
+
+    // Scatter-gather packet
+    add(++packetId, PacketToVelocityGather.class, Direction.TO_VELOCITY,
+      PacketToVelocityGather::new, AbstractPacketHandler::handle);
+
+    // Batch packet
+    add(++packetId, PacketBatch.class, Direction.BOTH,
+      PacketBatch::new, AbstractPacketHandler::handle);
+
+    // Stream packets
+    add(++packetId, PacketStreamOpen.class, Direction.BOTH,
+      PacketStreamOpen::new, AbstractPacketHandler::handle);
+    add(++packetId, PacketStreamChunk.class, Direction.BOTH,
+      PacketStreamChunk::new, AbstractPacketHandler::handle);
+    add(++packetId, PacketStreamAck.class, Direction.BOTH,
+      PacketStreamAck::new, AbstractPacketHandler::handle);
+  }
+
+  /**
+   * Registers a custom packet
+   * <p>
+   * Both sides must register the same packets with the same IDs before the
+   * connections are started.
+   * </p>
+   *
+   * @param id ID of the packet from {@link #MIN_CUSTOM_ID} to {@link #MAX_ID}
+   * @param packetClass Class of the packet
+   * @param direction Which side(s) receive the packet
+   * @param factory Creates empty packets to read into
+   * @param invoker Called with the connection's handler and each decoded packet
+   * @param <T> Type of the packet
+   */
+  public static <T extends AbstractPacket> void register(
+    int id, Class<T> packetClass, Direction direction, Supplier<T> factory,
+    BiConsumer<AbstractPacketHandler, T> invoker)
+  {
+    Preconditions.checkArgument(id >= MIN_CUSTOM_ID && id <= MAX_ID,
+      "id must be between " + MIN_CUSTOM_ID + " and " + MAX_ID);
+
+    add((byte) id, packetClass, direction, factory, invoker);
+  }
+
+  /**
+   * @param id Packet ID read from a frame received by Velocity
+   * @return Entry for the ID or null if Velocity does not receive packets with the ID
+   */
+  public static Entry<?> getVelocityBound(byte id)
+  {
+    return id < 0 ? null : velocityBound[id];
+  }
+
+  /**
+   * @param id Packet ID read from a frame received by Spigot
+   * @return Entry for the ID or null if Spigot does not receive packets with the ID
+   */
+  public static Entry<?> getSpigotBound(byte id)
+  {
+    return id < 0 ? null : spigotBound[id];
+  }
+
+  /**
+   * @param clazz Class of the packet
+   * @return Entry for the class or null if the class is not registered
+   */
+  public static Entry<?> getEntry(Class<? extends AbstractPacket> clazz)
+  {
+    return entryByClass.get(clazz);
+  }
+
+  /**
+   * @param clazz Class of the packet
+   * @return ID of the packet
+   * @throws IllegalArgumentException If the class is not registered
+   */
+  public static byte packetToId(Class<? extends AbstractPacket> clazz)
+  {
+    Entry<?> entry = entryByClass.get(clazz);
+    if (entry != null)
+    {
+      return entry.id;
+    }
+
+    throw new IllegalArgumentException("Unknown packet class: " + clazz);
+  }
+
+  private static <T extends AbstractPacket> void add(
+    byte id, Class<T> packetClass, Direction direction, Supplier<T> factory,
+    BiConsumer<AbstractPacketHandler, T> invoker)
+  {
+    Preconditions.checkNotNull(packetClass, "packetClass");
+    Preconditions.checkNotNull(direction, "direction");
+    Preconditions.checkNotNull(factory, "factory");
+    Preconditions.checkNotNull(invoker, "invoker");
+
+    synchronized (lock)
+    {
+      Preconditions.checkArgument(entries[id] == null, "Duplicate packet ID: " + id);
+      Preconditions.checkArgument(entryByClass.get(packetClass) == null,
+        "Duplicate packet class: " + packetClass.getName());
+
+      Entry<T> entry = new Entry<>(id, packetClass, direction, factory, invoker);
+
+      // Copy on write, so the decoders never need to lock
+      Entry<?>[] newEntries = entries.clone();
+      Entry<?>[] newVelocityBound = velocityBound.clone();
+      Entry<?>[] newSpigotBound = spigotBound.clone();
+
+      newEntries[id] = entry;
+      newVelocityBound[id] = direction.isReceivedByVelocity() ? entry : null;
+      newSpigotBound[id] = direction.isReceivedBySpigot() ? entry : null;
+
+      entries = newEntries;
+      velocityBound = newVelocityBound;
+      spigotBound = newSpigotBound;
+
+      // The class may have been looked up (and cached as unknown) before
+      entryByClass.remove(packetClass);
+    }
+  }
+}
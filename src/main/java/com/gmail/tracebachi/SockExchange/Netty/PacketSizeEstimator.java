@@ -0,0 +1,61 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import io.netty.channel.DefaultMessageSizeEstimator;
+import io.netty.channel.MessageSizeEstimator;
+
+/**
+ * Estimates the size of packets that are not encoded yet, so the outbound
+ * buffer of a channel counts them against its water marks
+ * <p>
+ * Netty counts a message written from outside the event loop with its
+ * estimated size until the message is encoded. The default estimator only
+ * knows buffers and file regions, so it would count each packet as a few bytes.
+ * </p>
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class PacketSizeEstimator implements MessageSizeEstimator
+{
+  public static final PacketSizeEstimator INSTANCE = new PacketSizeEstimator();
+
+  private static final Handle HANDLE = new Handle()
+  {
+    private final Handle defaultHandle = DefaultMessageSizeEstimator.DEFAULT.newHandle();
+
+    @Override
+    public int size(Object message)
+    {
+      long size = PacketWriter.getQueuedSize(message);
+
+      return size >= 0 ? (int) Math.min(size, Integer.MAX_VALUE) :
+        defaultHandle.size(message);
+    }
+  };
+
+  private PacketSizeEstimator()
+  {
+  }
+
+  @Override
+  public Handle newHandle()
+  {
+    return HANDLE;
+  }
+}
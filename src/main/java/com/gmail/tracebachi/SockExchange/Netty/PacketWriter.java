@@ -0,0 +1,579 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import com.google.common.base.Preconditions;
+import com.gmail.tracebachi.SockExchange.Netty.Packets.AbstractPacket;
+import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketBatch;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.EventLoop;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes packets to a channel and lets a {@link FlushPolicy} decide when to flush
+ * <p>
+ * Each {@link PacketPriority} has its own queue. A packet is written right
+ * away if nothing of its class is queued and the channel is writable (from
+ * the event loop or with {@link FlushPolicy.Mode#IMMEDIATE}). Otherwise it is
+ * queued and a single task on the event loop drains the queues by weight
+ * (see {@link PriorityOptions}), so a flush is never scheduled ahead of the
+ * write it is meant to cover. While the outbound buffer of the channel is
+ * full, only {@link PacketPriority#CONTROL} packets are written and the
+ * other queues wait for the channel to become writable again.
+ * </p>
+ * <p>
+ * The writer also counts the bytes of the messages still queued for the
+ * event loop, which Netty's outbound buffer does not know about yet. Once a
+ * message is written to the channel, the outbound buffer counts it (see
+ * {@link PacketSizeEstimator}), so together they let callers apply
+ * backpressure before the buffer grows without limit. No promise is created
+ * per packet to keep the count.
+ * </p>
+ * <p>
+ * If batching is enabled, packets of the same class that are drained in the
+ * same event loop turn are packed into {@link PacketBatch} frames.
+ * </p>
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class PacketWriter
+{
+  /**
+   * Most packets packed into one batch
+   */
+  private static final int MAX_BATCH_PACKETS = 256;
+
+  /**
+   * Most (estimated) bytes packed into one batch
+   */
+  private static final long MAX_BATCH_BYTES = 64 * 1024;
+
+  private static final PacketPriority[] PRIORITIES = PacketPriority.values();
+
+  private final Channel channel;
+  private final EventLoop eventLoop;
+  private final FlushPolicy flushPolicy;
+  private final FlushStatistics statistics;
+  private final PriorityOptions priorityOptions;
+  private final PriorityStatistics priorityStatistics;
+  private final ClassQueue[] queues = new ClassQueue[PRIORITIES.length];
+  private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+  private final Runnable drainTask = this::drainPendingWrites;
+  private final Runnable flushTask = this::flushIfNeeded;
+  private final AtomicLong queuedBytes = new AtomicLong(0);
+  private volatile boolean batching = false;
+
+  // Only accessed from the event loop
+  private final List<PendingWrite> batch = new ArrayList<>();
+  private int unflushedPackets = 0;
+  private boolean flushScheduled = false;
+  private ScheduledFuture<?> flushTimer = null;
+
+  public PacketWriter(Channel channel, FlushPolicy flushPolicy, FlushStatistics statistics)
+  {
+    this(channel, flushPolicy, statistics, new PriorityOptions(), new PriorityStatistics());
+  }
+
+  public PacketWriter(
+    Channel channel, FlushPolicy flushPolicy, FlushStatistics statistics,
+    PriorityOptions priorityOptions, PriorityStatistics priorityStatistics)
+  {
+    Preconditions.checkNotNull(channel, "channel");
+    Preconditions.checkNotNull(flushPolicy, "flushPolicy");
+    Preconditions.checkNotNull(statistics, "statistics");
+    Preconditions.checkNotNull(priorityOptions, "priorityOptions");
+    Preconditions.checkNotNull(priorityStatistics, "priorityStatistics");
+
+    this.channel = channel;
+    this.eventLoop = channel.eventLoop();
+    this.flushPolicy = flushPolicy;
+    this.statistics = statistics;
+    this.priorityOptions = priorityOptions;
+    this.priorityStatistics = priorityStatistics;
+
+    for (int i = 0; i < queues.length; i++)
+    {
+      queues[i] = new ClassQueue();
+    }
+
+    // Packets still queued when the channel closes are released by the drain task
+    channel.closeFuture().addListener((ChannelFutureListener) future -> scheduleDrain());
+  }
+
+  public Channel getChannel()
+  {
+    return channel;
+  }
+
+  /**
+   * @param batching True to pack packets drained in the same event loop turn
+   * into batch frames (the peer must support batching)
+   */
+  public void setBatching(boolean batching)
+  {
+    this.batching = batching;
+  }
+
+  /**
+   * @return Estimated number of bytes queued for the event loop but not yet
+   * written to the channel
+   */
+  public long getQueuedBytes()
+  {
+    return queuedBytes.get();
+  }
+
+  /**
+   * @return True if the channel is writable and the queued bytes are below
+   * the high water mark of the channel
+   */
+  public boolean isWritable()
+  {
+    return channel.isWritable() &&
+      queuedBytes.get() < channel.config().getWriteBufferHighWaterMark();
+  }
+
+  /**
+   * @return True if the current thread belongs to the event loop group of
+   * the channel (where waiting for the buffer to drain could deadlock)
+   */
+  public boolean inEventLoopGroup()
+  {
+    for (EventExecutor executor : eventLoop.parent().children())
+    {
+      if (executor.inEventLoop())
+      {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Writes a message to the channel, flushing according to the {@link FlushPolicy}
+   *
+   * @param message Message to write
+   */
+  public void write(Object message)
+  {
+    write(message, channel.voidPromise());
+  }
+
+  /**
+   * Writes a message to the channel, flushing according to the {@link FlushPolicy}
+   *
+   * @param message Message to write
+   * @param promise Promise to complete once the message is written
+   */
+  public void write(Object message, ChannelPromise promise)
+  {
+    Preconditions.checkNotNull(message, "message");
+
+    write(message, promise, priorityOptions.getPriority(message));
+  }
+
+  /**
+   * Writes a message to the channel, flushing according to the {@link FlushPolicy}
+   *
+   * @param message Message to write
+   * @param promise Promise to complete once the message is written
+   * @param priority Class of the message
+   */
+  public void write(Object message, ChannelPromise promise, PacketPriority priority)
+  {
+    Preconditions.checkNotNull(message, "message");
+    Preconditions.checkNotNull(priority, "priority");
+
+    long size = getQueuedSize(message);
+    ClassQueue queue = queues[priority.ordinal()];
+
+    // Writing ahead of queued packets of the same class would reorder them
+    boolean canWriteNow = queue.size.get() == 0 &&
+      (priority == PacketPriority.CONTROL || channel.isWritable());
+
+    if (canWriteNow && flushPolicy.getMode() == FlushPolicy.Mode.IMMEDIATE)
+    {
+      statistics.recordPacket();
+      statistics.recordFlush();
+      priorityStatistics.recordWritten(priority);
+      channel.writeAndFlush(message, promise);
+      return;
+    }
+
+    if (canWriteNow && eventLoop.inEventLoop())
+    {
+      priorityStatistics.recordWritten(priority);
+      writeInEventLoop(message, promise);
+      scheduleFlushInEventLoop();
+      return;
+    }
+
+    queue.size.incrementAndGet();
+    queuedBytes.addAndGet(Math.max(0, size));
+    queue.writes.offer(new PendingWrite(message, promise, size, System.nanoTime()));
+    priorityStatistics.recordQueued(priority);
+
+    scheduleDrain();
+  }
+
+  /**
+   * Flushes any packets that have not been flushed yet
+   */
+  public void flush()
+  {
+    if (eventLoop.inEventLoop())
+    {
+      flushIfNeeded();
+    }
+    else
+    {
+      eventLoop.execute(flushTask);
+    }
+  }
+
+  /**
+   * Resumes writing the queued packets if the channel is writable again
+   * (called when the writability of the channel changes)
+   */
+  void onWritabilityChanged()
+  {
+    if (!channel.isWritable())
+    {
+      return;
+    }
+
+    for (ClassQueue queue : queues)
+    {
+      if (queue.size.get() != 0)
+      {
+        scheduleDrain();
+        return;
+      }
+    }
+  }
+
+  private void scheduleDrain()
+  {
+    if (drainScheduled.compareAndSet(false, true))
+    {
+      try
+      {
+        eventLoop.execute(drainTask);
+      }
+      catch (RejectedExecutionException ex)
+      {
+        // The event loop is shutting down so nothing will be written
+        releasePendingWrites(ex);
+      }
+    }
+  }
+
+  private void drainPendingWrites()
+  {
+    drainScheduled.set(false);
+
+    if (!channel.isOpen())
+    {
+      releasePendingWrites(new ClosedChannelException());
+      return;
+    }
+
+    boolean backlogged = true;
+
+    // Deficit round robin: each round adds the quantum of a class to its
+    // deficit, which it spends on the bytes of its queued packets
+    while (backlogged)
+    {
+      backlogged = false;
+
+      for (PacketPriority priority : PRIORITIES)
+      {
+        ClassQueue queue = queues[priority.ordinal()];
+
+        if (queue.writes.isEmpty())
+        {
+          queue.deficit = 0;
+          continue;
+        }
+
+        // The other classes wait for a writability change
+        if (priority != PacketPriority.CONTROL && !channel.isWritable())
+        {
+          continue;
+        }
+
+        queue.deficit += (long) priorityOptions.getWeight(priority) * PriorityOptions.QUANTUM_BYTES;
+        drainQueue(priority, queue);
+        backlogged |= !queue.writes.isEmpty();
+      }
+    }
+
+    if (flushPolicy.getMode() == FlushPolicy.Mode.BATCHED)
+    {
+      scheduleFlushInEventLoop();
+    }
+    else
+    {
+      // The drain task is a task of its own, so this is the end of it
+      flushIfNeeded();
+    }
+  }
+
+  private void drainQueue(PacketPriority priority, ClassQueue queue)
+  {
+    long batchBytes = 0;
+    long now = System.nanoTime();
+    PendingWrite pendingWrite;
+
+    // Only the event loop polls, so the peeked write is the one polled
+    while ((pendingWrite = queue.writes.peek()) != null)
+    {
+      long cost = Math.max(1, pendingWrite.size);
+
+      if (cost > queue.deficit)
+      {
+        break;
+      }
+
+      // Written to the channel below (batches before the drain returns), so
+      // the outbound buffer of the channel counts the bytes from here on
+      queue.writes.poll();
+      queue.size.decrementAndGet();
+      queuedBytes.addAndGet(-Math.max(0, pendingWrite.size));
+      queue.deficit -= cost;
+      priorityStatistics.recordDequeued(priority, now - pendingWrite.queuedAt);
+
+      // Encoded buffers and batches are written as they are (keeping the order)
+      if (!batching || !(pendingWrite.message instanceof AbstractPacket) ||
+        pendingWrite.message instanceof PacketBatch)
+      {
+        writeBatch();
+        batchBytes = 0;
+
+        writeInEventLoop(pendingWrite.message, pendingWrite.promise);
+
+        if (priority != PacketPriority.CONTROL && !channel.isWritable())
+        {
+          break;
+        }
+        continue;
+      }
+
+      if (batch.size() >= MAX_BATCH_PACKETS || batchBytes + pendingWrite.size > MAX_BATCH_BYTES)
+      {
+        writeBatch();
+        batchBytes = 0;
+      }
+
+      batch.add(pendingWrite);
+      batchBytes += pendingWrite.size;
+    }
+
+    if (queue.writes.isEmpty())
+    {
+      queue.deficit = 0;
+    }
+
+    writeBatch();
+  }
+
+  private void writeBatch()
+  {
+    if (batch.isEmpty())
+    {
+      return;
+    }
+
+    if (batch.size() == 1)
+    {
+      PendingWrite pendingWrite = batch.get(0);
+      writeInEventLoop(pendingWrite.message, pendingWrite.promise);
+      batch.clear();
+      return;
+    }
+
+    List<AbstractPacket> packets = new ArrayList<>(batch.size());
+    List<ChannelPromise> promises = new ArrayList<>(batch.size());
+
+    for (PendingWrite pendingWrite : batch)
+    {
+      packets.add((AbstractPacket) pendingWrite.message);
+      promises.add(pendingWrite.promise);
+    }
+
+    batch.clear();
+
+    // The batch completes the promises of its packets
+    ChannelPromise batchPromise = channel.newPromise();
+    batchPromise.addListener((ChannelFutureListener) future ->
+    {
+      for (ChannelPromise promise : promises)
+      {
+        if (future.isSuccess())
+        {
+          promise.trySuccess();
+        }
+        else
+        {
+          promise.tryFailure(future.cause());
+        }
+      }
+    });
+
+    writeInEventLoop(new PacketBatch(packets), batchPromise);
+  }
+
+  private void writeInEventLoop(Object message, ChannelPromise promise)
+  {
+    statistics.recordPacket();
+    unflushedPackets++;
+    channel.write(message, promise);
+  }
+
+  private void scheduleFlushInEventLoop()
+  {
+    if (flushPolicy.getMode() == FlushPolicy.Mode.BATCHED &&
+      unflushedPackets >= flushPolicy.getMaxPackets())
+    {
+      flushIfNeeded();
+      return;
+    }
+
+    if (flushScheduled)
+    {
+      return;
+    }
+
+    flushScheduled = true;
+
+    if (flushPolicy.getMode() == FlushPolicy.Mode.BATCHED)
+    {
+      flushTimer = eventLoop.schedule(flushTask, flushPolicy.getMaxDelayMicros(),
+        TimeUnit.MICROSECONDS);
+    }
+    else
+    {
+      // Runs after the task that is currently executing on the event loop
+      eventLoop.execute(flushTask);
+    }
+  }
+
+  private void flushIfNeeded()
+  {
+    flushScheduled = false;
+
+    // A flush before the delay (enough packets) makes the pending timer useless
+    if (flushTimer != null)
+    {
+      flushTimer.cancel(false);
+      flushTimer = null;
+    }
+
+    if (unflushedPackets > 0)
+    {
+      unflushedPackets = 0;
+      statistics.recordFlush();
+      channel.flush();
+    }
+  }
+
+  /**
+   * @param message Message to write
+   *
+   * @return Estimated bytes the message takes in the outbound buffer or -1
+   * if the message is not known
+   */
+  static long getQueuedSize(Object message)
+  {
+    // Frame length prefix, packet ID and packet or the already encoded packet
+    if (message instanceof AbstractPacket)
+    {
+      return 3 + 1 + ((AbstractPacket) message).estimateSize();
+    }
+    else if (message instanceof ByteBuf)
+    {
+      return 3 + ((ByteBuf) message).readableBytes();
+    }
+    else if (message instanceof FileRegionChunk)
+    {
+      return 3 + ((FileRegionChunk) message).getFrameSize();
+    }
+
+    return -1;
+  }
+
+  private void releasePendingWrites(Throwable cause)
+  {
+    for (PacketPriority priority : PRIORITIES)
+    {
+      ClassQueue queue = queues[priority.ordinal()];
+      PendingWrite pendingWrite;
+
+      while ((pendingWrite = queue.writes.poll()) != null)
+      {
+        queue.size.decrementAndGet();
+        queuedBytes.addAndGet(-Math.max(0, pendingWrite.size));
+        priorityStatistics.recordDiscarded(priority);
+        ReferenceCountUtil.release(pendingWrite.message);
+        pendingWrite.promise.tryFailure(cause);
+      }
+    }
+  }
+
+  private static class ClassQueue
+  {
+    private final Queue<PendingWrite> writes = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger(0);
+
+    // Only accessed from the event loop
+    private long deficit = 0;
+  }
+
+  private static class PendingWrite
+  {
+    private final Object message;
+    private final ChannelPromise promise;
+    private final long size;
+    private final long queuedAt;
+
+    private PendingWrite(Object message, ChannelPromise promise, long size, long queuedAt)
+    {
+      this.message = message;
+      this.promise = promise;
+      this.size = size;
+      this.queuedAt = queuedAt;
+    }
+  }
+}
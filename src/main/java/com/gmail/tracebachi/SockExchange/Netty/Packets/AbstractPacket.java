@@ -17,15 +17,117 @@
  */
 package com.gmail.tracebachi.SockExchange.Netty.Packets;
 
+import com.gmail.tracebachi.SockExchange.Netty.PacketPriority;
 import io.netty.buffer.ByteBuf;
 
-import java.nio.charset.StandardCharsets;
-
 /**
  * @author GeeItsZee (tracebachi@gmail.com)
  */
 public abstract class AbstractPacket
 {
+  /**
+   * Decoded names are short, so longer strings skip the cache
+   */
+  private static final Utf8StringCache stringCache = new Utf8StringCache(512, 64);
+
+  private boolean retainingPayload;
+  private ChannelSymbolTable channelSymbols;
+  private int channelSymbol;
+  private PacketPriority priority;
+  private boolean writeAdmitted;
+
+  /**
+   * @return True if {@link #read(ByteBuf)} keeps a retained slice of the
+   * payload instead of copying it into a byte array
+   */
+  public boolean isRetainingPayload()
+  {
+    return retainingPayload;
+  }
+
+  /**
+   * @param retainingPayload True if {@link #read(ByteBuf)} should keep a
+   * retained slice of the payload instead of copying it into a byte array
+   */
+  public void setRetainingPayload(boolean retainingPayload)
+  {
+    this.retainingPayload = retainingPayload;
+  }
+
+  /**
+   * @param channelSymbols Symbol table of the connection the packet is read
+   * from or written to (null to always send channel names as strings)
+   */
+  public void setChannelSymbols(ChannelSymbolTable channelSymbols)
+  {
+    this.channelSymbols = channelSymbols;
+  }
+
+  /**
+   * @return ID the channel name was received as or 0 if it was received as a string
+   */
+  public int getChannelSymbol()
+  {
+    return channelSymbol;
+  }
+
+  /**
+   * @return Class the packet is queued in when it is written or null to use
+   * the class of its channel (not sent with the packet)
+   */
+  public PacketPriority getPriority()
+  {
+    return priority;
+  }
+
+  /**
+   * @param priority Class the packet is queued in when it is written or null
+   * to use the class of its channel
+   */
+  public void setPriority(PacketPriority priority)
+  {
+    this.priority = priority;
+  }
+
+  /**
+   * @return True if the write buffer was already checked for the packet, so
+   * it is written without checking it again (not sent with the packet)
+   */
+  public boolean isWriteAdmitted()
+  {
+    return writeAdmitted;
+  }
+
+  /**
+   * @param writeAdmitted True if the write buffer was already checked for
+   * the packet, so it is written without checking it again
+   */
+  public void setWriteAdmitted(boolean writeAdmitted)
+  {
+    this.writeAdmitted = writeAdmitted;
+  }
+
+  /**
+   * @return Name of the channel the packet carries a message for or null if
+   * the packet does not carry a message for a channel
+   */
+  public String getChannelName()
+  {
+    return null;
+  }
+
+  /**
+   * Releases any buffers retained by {@link #read(ByteBuf)}
+   * <p>
+   * The decoder calls this once the packet has been handled. Handlers that
+   * need a buffer for longer must retain it themselves.
+   * </p>
+   */
+  public void release()
+  {
+    // Most packets do not retain buffers
+  }
+
   /**
    * Reads the packet from a {@link ByteBuf}
    *
@@ -40,6 +142,48 @@ public abstract class AbstractPacket
    */
   public abstract void write(ByteBuf out);
 
+  /**
+   * Computes the number of bytes {@link #write(ByteBuf)} will write
+   * <p>
+   * The encoders use this to allocate a buffer of the exact size instead of
+   * growing (and copying) a buffer while writing large payloads.
+   * </p>
+   *
+   * @return Exact size of the serialized packet (excluding the packet ID)
+   */
+  public abstract int estimateSize();
+
+  /**
+   * Helper method to copy the readable bytes of a buffer
+   *
+   * @param buffer Buffer to copy from (indexes are not modified)
+   *
+   * @return Byte array with the readable bytes
+   */
+  protected static byte[] copyReadableBytes(ByteBuf buffer)
+  {
+    byte[] bytes = new byte[buffer.readableBytes()];
+    buffer.getBytes(buffer.readerIndex(), bytes);
+    return bytes;
+  }
+
+  /**
+   * Helper method to release a retained payload
+   *
+   * @param buffer Buffer to release or null
+   *
+   * @return Always null (for clearing the field)
+   */
+  protected static ByteBuf releasePayload(ByteBuf buffer)
+  {
+    if (buffer != null && buffer.refCnt() > 0)
+    {
+      buffer.release();
+    }
+
+    return null;
+  }
+
   /**
    * Helper method to write a VarShort
    *
@@ -90,6 +234,10 @@ public abstract class AbstractPacket
 
   /**
    * Helper method to write a string
+   * <p>
+   * The string is written as a VarInt of the UTF-8 byte length followed by
+   * the UTF-8 bytes, which are encoded straight into the buffer.
+   * </p>
    *
    * @param out Output ByteBuf
    * @param str Value to write
@@ -101,11 +249,208 @@ public abstract class AbstractPacket
       throw new NullPointerException("str");
     }
 
+    int utf8Length = getUtf8Length(str);
+    writeVarInt(out, utf8Length);
+
+    out.ensureWritable(utf8Length);
+
+    int length = str.length();
+
+    for (int i = 0; i < length; i++)
+    {
+      char c = str.charAt(i);
+
+      if (c < 0x80)
+      {
+        out.writeByte(c);
+      }
+      else if (c < 0x800)
+      {
+        out.writeByte(0xC0 | (c >> 6));
+        out.writeByte(0x80 | (c & 0x3F));
+      }
+      else if (Character.isHighSurrogate(c) && i + 1 < length &&
+        Character.isLowSurrogate(str.charAt(i + 1)))
+      {
+        int codePoint = Character.toCodePoint(c, str.charAt(++i));
+        out.writeByte(0xF0 | (codePoint >> 18));
+        out.writeByte(0x80 | ((codePoint >> 12) & 0x3F));
+        out.writeByte(0x80 | ((codePoint >> 6) & 0x3F));
+        out.writeByte(0x80 | (codePoint & 0x3F));
+      }
+      else if (Character.isSurrogate(c))
+      {
+        // Unpaired surrogates are replaced like String.getBytes does
+        out.writeByte('?');
+      }
+      else
+      {
+        out.writeByte(0xE0 | (c >> 12));
+        out.writeByte(0x80 | ((c >> 6) & 0x3F));
+        out.writeByte(0x80 | (c & 0x3F));
+      }
+    }
+  }
+
+  /**
+   * Helper method to write a channel name using the symbol table (if enabled)
+   * <p>
+   * A channel name with an ID is written as a zero byte followed by a VarInt
+   * of the ID. Plain strings never start with a zero byte since channel names
+   * are never empty, so channel names without an ID use the normal string
+   * format (which peers without a symbol table can read).
+   * </p>
+   *
+   * @param out Output ByteBuf
+   * @param channelName Channel name to write
+   */
+  protected void writeChannelName(ByteBuf out, String channelName)
+  {
+    ChannelSymbolTable symbols = channelSymbols;
+
+    if (symbols == null || !symbols.isOutgoingEnabled())
+    {
+      writeString(out, channelName);
+      return;
+    }
+
+    int id = symbols.getOutgoingId(channelName);
+
+    // Known ID (low bit set)
+    if (id != 0)
+    {
+      out.writeByte(0);
+      writeVarInt(out, (id << 1) | 1);
+      return;
+    }
+
+    id = symbols.defineOutgoing(channelName);
+
+    if (id == 0)
+    {
+      writeString(out, channelName);
+      return;
+    }
+
+    // New ID (low bit clear) followed by the channel name
+    out.writeByte(0);
+    writeVarInt(out, id << 1);
+    writeString(out, channelName);
+  }
+
+  /**
+   * Helper method to compute the size of a channel name
+   *
+   * @param channelName Channel name that would be written
+   *
+   * @return Most bytes {@link #writeChannelName(ByteBuf, String)} writes
+   */
+  protected int getChannelNameSize(String channelName)
+  {
+    ChannelSymbolTable symbols = channelSymbols;
+
+    if (symbols == null || !symbols.isOutgoingEnabled())
+    {
+      return getStringSize(channelName);
+    }
+
+    int id = symbols.getOutgoingId(channelName);
+
+    if (id != 0)
+    {
+      return 1 + getVarIntSize((id << 1) | 1);
+    }
+
+    if (symbols.peekNextOutgoingId() == 0)
+    {
+      return getStringSize(channelName);
+    }
+
+    // Packets of a batch may define other names before this one is written,
+    // so the ID is sized for the largest one it can get
+    return 1 + getVarIntSize(ChannelSymbolTable.MAX_SYMBOLS << 1) + getStringSize(channelName);
+  }
+
+  /**
+   * Helper method to compute the size of a VarInt
+   *
+   * @param value Value that would be written
+   *
+   * @return Number of bytes {@link #writeVarInt(ByteBuf, int)} writes
+   */
+  protected static int getVarIntSize(int value)
+  {
+    // Same unsigned conversion as writeVarInt
+    long unsignedValue = (((long) 1 << 32) - 1) & value;
+    int size = 1;
+
+    while ((unsignedValue >>>= 7) != 0)
+    {
+      size++;
+    }
+
+    return size;
+  }
+
+  /**
+   * Helper method to compute the size of a string
+   *
+   * @param str Value that would be written
+   *
+   * @return Number of bytes {@link #writeString(ByteBuf, String)} writes
+   */
+  protected static int getStringSize(String str)
+  {
+    if (str == null)
+    {
+      throw new NullPointerException("str");
+    }
+
+    int utf8Length = getUtf8Length(str);
+    return getVarIntSize(utf8Length) + utf8Length;
+  }
+
+  /**
+   * Helper method to compute the UTF-8 encoded length of a string without
+   * encoding it
+   *
+   * @param str String to measure
+   *
+   * @return Number of bytes in the UTF-8 encoding
+   */
+  private static int getUtf8Length(String str)
+  {
     int length = str.length();
-    writeVarInt(out, length);
+    int utf8Length = length;
 
-    byte[] strBytes = str.getBytes(StandardCharsets.UTF_8);
-    out.writeBytes(strBytes);
+    for (int i = 0; i < length; i++)
+    {
+      char c = str.charAt(i);
+
+      if (c < 0x80)
+      {
+        continue;
+      }
+
+      if (c < 0x800)
+      {
+        utf8Length += 1;
+      }
+      else if (Character.isHighSurrogate(c) && i + 1 < length &&
+        Character.isLowSurrogate(str.charAt(i + 1)))
+      {
+        // Surrogate pair (2 chars) is encoded using 4 bytes
+        utf8Length += 2;
+        i++;
+      }
+      else
+      {
+        // Includes unpaired surrogates which are replaced with '?' (1 byte)
+        utf8Length += Character.isSurrogate(c) ? 0 : 2;
+      }
+    }
+
+    return utf8Length;
   }
 
   /**
@@ -146,6 +491,10 @@ public abstract class AbstractPacket
 
   /**
    * Helper method to read a string
+   * <p>
+   * Short strings are looked up in a shared cache, so repeated names are
+   * returned without allocating.
+   * </p>
    *
    * @param in Input ByteBuf
    *
@@ -154,10 +503,49 @@ public abstract class AbstractPacket
   protected static String readString(ByteBuf in)
   {
     int length = readVarInt(in);
-    byte[] bytes = new byte[length];
 
-    in.readBytes(bytes);
-    return new String(bytes, StandardCharsets.UTF_8);
+    if (length < 0 || length > in.readableBytes())
+    {
+      throw new IllegalArgumentException("Invalid string length: " + length);
+    }
+
+    return stringCache.read(in, length);
+  }
+
+  /**
+   * Helper method to read a channel name written by
+   * {@link #writeChannelName(ByteBuf, String)}
+   *
+   * @param in Input ByteBuf
+   *
+   * @return Channel name
+   */
+  protected String readChannelName(ByteBuf in)
+  {
+    if (in.getByte(in.readerIndex()) != 0)
+    {
+      channelSymbol = 0;
+      return readString(in);
+    }
+
+    if (channelSymbols == null)
+    {
+      throw new IllegalStateException("Received a channel symbol without a symbol table");
+    }
+
+    in.skipBytes(1);
+
+    int reference = readVarInt(in);
+    int id = reference >>> 1;
+
+    channelSymbol = id;
+
+    if ((reference & 1) == 1)
+    {
+      return channelSymbols.getIncomingName(id);
+    }
+
+    return channelSymbols.defineIncoming(id, readString(in));
   }
 
   private static long readVarLong(ByteBuf out, int maxBytes)
@@ -0,0 +1,153 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty.Packets;
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-connection table of channel names that were assigned a small ID
+ * <p>
+ * The first packet that uses a channel name defines its ID and later packets
+ * only send the ID (as a VarInt). Each side keeps one table for the names it
+ * sends and one for the names it receives. Both are only accessed from the
+ * channel's event loop (by the encoder and the decoder).
+ * </p>
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class ChannelSymbolTable
+{
+  /**
+   * Maximum number of IDs per direction (other channel names are sent as strings)
+   */
+  public static final int MAX_SYMBOLS = 1024;
+
+  private final Map<String, Integer> outgoingIds = new HashMap<>();
+  private final List<String> incomingNames = new ArrayList<>();
+  private volatile boolean outgoingEnabled;
+
+  public ChannelSymbolTable()
+  {
+    // ID 0 is used for channel names sent as strings
+    incomingNames.add(null);
+  }
+
+  /**
+   * @return True if the encoder may assign IDs (the other side negotiated
+   * {@link com.gmail.tracebachi.SockExchange.Netty.ProtocolFeatures#CHANNEL_SYMBOLS})
+   */
+  public boolean isOutgoingEnabled()
+  {
+    return outgoingEnabled;
+  }
+
+  /**
+   * Allows the encoder to assign IDs to channel names
+   */
+  public void enableOutgoing()
+  {
+    outgoingEnabled = true;
+  }
+
+  /**
+   * @param channelName Channel name to find
+   *
+   * @return ID of the channel name or 0 if it does not have one
+   */
+  int getOutgoingId(String channelName)
+  {
+    Integer id = outgoingIds.get(channelName);
+    return id == null ? 0 : id;
+  }
+
+  /**
+   * @return ID the next channel name will be assigned or 0 if the table is full
+   */
+  int peekNextOutgoingId()
+  {
+    int nextId = outgoingIds.size() + 1;
+    return nextId > MAX_SYMBOLS ? 0 : nextId;
+  }
+
+  /**
+   * @param channelName Channel name without an ID
+   *
+   * @return Assigned ID or 0 if the table is full
+   */
+  int defineOutgoing(String channelName)
+  {
+    int nextId = peekNextOutgoingId();
+
+    if (nextId != 0)
+    {
+      outgoingIds.put(channelName, nextId);
+    }
+
+    return nextId;
+  }
+
+  /**
+   * @param id ID received from the other side
+   *
+   * @return Channel name of the ID
+   */
+  String getIncomingName(int id)
+  {
+    Preconditions.checkState(id > 0 && id < incomingNames.size(), "Unknown channel symbol: %s", id);
+
+    return incomingNames.get(id);
+  }
+
+  /**
+   * @param id ID defined by the other side (IDs are defined in order)
+   * @param channelName Channel name of the ID
+   *
+   * @return Channel name of the ID
+   */
+  String defineIncoming(int id, String channelName)
+  {
+    Preconditions.checkState(id == incomingNames.size() && id <= MAX_SYMBOLS,
+      "Unexpected channel symbol definition: %s", id);
+
+    // Interned so every packet of the channel shares one String (and its hash)
+    String internedName = channelName.intern();
+    incomingNames.add(internedName);
+    return internedName;
+  }
+
+  /**
+   * @return Number of IDs assigned to channel names sent by this side
+   */
+  public int getOutgoingCount()
+  {
+    return outgoingIds.size();
+  }
+
+  /**
+   * @return Number of IDs assigned to channel names received by this side
+   */
+  public int getIncomingCount()
+  {
+    return incomingNames.size() - 1;
+  }
+}
@@ -0,0 +1,207 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty.Packets;
+
+import com.gmail.tracebachi.SockExchange.Netty.PacketRegistry;
+import com.google.common.base.Preconditions;
+import io.netty.buffer.ByteBuf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Frame holding many packets
+ * <p>
+ * Each packet is written as a sub-frame: a 3 byte length followed by the
+ * packet ID and the packet. Batches without a destination are unpacked and
+ * dispatched by the decoder of the receiving side. Batches with a destination
+ * server are sent by Spigot and hold packets for that server, which Velocity
+ * forwards by copying the sub-frames as they are. Packets in those batches
+ * must not use channel symbols or consumers, since neither is valid on the
+ * destination connection.
+ * </p>
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class PacketBatch extends AbstractPacket
+{
+  /**
+   * Size of the length prefix of each sub-frame
+   */
+  private static final int SUB_FRAME_LENGTH_SIZE = 3;
+
+  private String destServerName = "";
+  private List<AbstractPacket> packets = Collections.emptyList();
+  private ByteBuf frames;
+
+  public PacketBatch()
+  {
+  }
+
+  /**
+   * @param packets Packets to write (in order)
+   */
+  public PacketBatch(List<AbstractPacket> packets)
+  {
+    setPackets(packets);
+  }
+
+  /**
+   * @return Name of the server the packets are forwarded to or an empty
+   * string if the packets are for the receiver
+   */
+  public String getDestServerName()
+  {
+    return destServerName;
+  }
+
+  public void setDestServerName(String destServerName)
+  {
+    this.destServerName = destServerName == null ? "" : destServerName;
+  }
+
+  public boolean hasDestination()
+  {
+    return !destServerName.isEmpty();
+  }
+
+  public List<AbstractPacket> getPackets()
+  {
+    return packets;
+  }
+
+  public void setPackets(List<AbstractPacket> packets)
+  {
+    Preconditions.checkNotNull(packets, "packets");
+
+    this.packets = new ArrayList<>(packets);
+  }
+
+  public void addPacket(AbstractPacket packet)
+  {
+    Preconditions.checkNotNull(packet, "packet");
+
+    if (packets.isEmpty())
+    {
+      packets = new ArrayList<>();
+    }
+
+    packets.add(packet);
+  }
+
+  /**
+   * @return Retained slice of the sub-frames read by {@link #read(ByteBuf)}
+   * or null if the batch was not read
+   */
+  public ByteBuf getFrames()
+  {
+    return frames;
+  }
+
+  @Override
+  public void setChannelSymbols(ChannelSymbolTable channelSymbols)
+  {
+    super.setChannelSymbols(channelSymbols);
+
+    // Forwarded packets are read with the symbol table of another connection
+    ChannelSymbolTable packetSymbols = hasDestination() ? null : channelSymbols;
+
+    for (AbstractPacket packet : packets)
+    {
+      packet.setChannelSymbols(packetSymbols);
+    }
+  }
+
+  @Override
+  public void release()
+  {
+    frames = releasePayload(frames);
+  }
+
+  @Override
+  public int estimateSize()
+  {
+    int size = getStringSize(destServerName);
+
+    if (frames != null)
+    {
+      return size + frames.readableBytes();
+    }
+
+    for (AbstractPacket packet : packets)
+    {
+      size += SUB_FRAME_LENGTH_SIZE + 1 + packet.estimateSize();
+    }
+
+    return size;
+  }
+
+  @Override
+  public void read(ByteBuf in)
+  {
+    destServerName = readString(in);
+    packets = Collections.emptyList();
+
+    // The sub-frames are kept as they are, so they can be forwarded or unpacked
+    frames = in.readSlice(in.readableBytes()).retain();
+  }
+
+  @Override
+  public void write(ByteBuf out)
+  {
+    writeString(out, destServerName);
+
+    if (frames != null)
+    {
+      out.writeBytes(frames, frames.readerIndex(), frames.readableBytes());
+      return;
+    }
+
+    for (AbstractPacket packet : packets)
+    {
+      int lengthIndex = out.writerIndex();
+
+      // The exact size is only known once the packet is written
+      out.writeMedium(0);
+      out.writeByte(PacketRegistry.packetToId(packet.getClass()));
+      packet.write(out);
+
+      out.setMedium(lengthIndex, out.writerIndex() - lengthIndex - SUB_FRAME_LENGTH_SIZE);
+    }
+  }
+
+  /**
+   * Reads the next sub-frame of a batch
+   *
+   * @param frames Sub-frames of a batch from {@link #getFrames()}
+   *
+   * @return Slice with the packet ID and the packet (not retained)
+   */
+  public static ByteBuf readSubFrame(ByteBuf frames)
+  {
+    int length = frames.readUnsignedMedium();
+
+    if (length < 1 || length > frames.readableBytes())
+    {
+      throw new IllegalArgumentException("Invalid sub-frame length: " + length);
+    }
+
+    return frames.readSlice(length);
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty.Packets;
+
+import com.gmail.tracebachi.SockExchange.Messages.ResponseStatus;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Grants the sender of a stream more credit or closes the stream
+ * <p>
+ * The receiver sends credit as the reader consumes data, so the sender
+ * never has more than one window of data in flight. Once the stream is
+ * closed, the ack carries the status the sender completes with instead.
+ * </p>
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class PacketStreamAck extends AbstractPacket
+{
+  private long streamId;
+  private String serverName = "";
+  private int credit;
+  private ResponseStatus closeStatus;
+
+  public long getStreamId()
+  {
+    return streamId;
+  }
+
+  public void setStreamId(long streamId)
+  {
+    this.streamId = streamId;
+  }
+
+  /**
+   * @return Name of the server that sent the stream (when sent to Velocity)
+   * or the receiving server (when received from Velocity) or an empty string
+   * for the peer itself
+   */
+  public String getServerName()
+  {
+    return serverName;
+  }
+
+  public void setServerName(String serverName)
+  {
+    this.serverName = serverName == null ? "" : serverName;
+  }
+
+  /**
+   * @return Number of bytes the sender may send in addition to the bytes it
+   * already had credit for
+   */
+  public int getCredit()
+  {
+    return credit;
+  }
+
+  public void setCredit(int credit)
+  {
+    this.credit = credit;
+  }
+
+  /**
+   * @return Status the stream was closed with or null if it is still open
+   */
+  public ResponseStatus getCloseStatus()
+  {
+    return closeStatus;
+  }
+
+  public void setCloseStatus(ResponseStatus closeStatus)
+  {
+    this.closeStatus = closeStatus;
+  }
+
+  @Override
+  public int estimateSize()
+  {
+    // Stream ID, server name, credit and close status
+    return 8 + getStringSize(serverName) + 4 + 1;
+  }
+
+  @Override
+  public void read(ByteBuf in)
+  {
+    streamId = in.readLong();
+    serverName = readString(in);
+    credit = in.readInt();
+
+    byte status = in.readByte();
+    closeStatus = status < 0 ? null : ResponseStatus.fromOrdinal(status);
+  }
+
+  @Override
+  public void write(ByteBuf out)
+  {
+    out.writeLong(streamId);
+    writeString(out, serverName);
+    out.writeInt(credit);
+    out.writeByte(closeStatus == null ? -1 : closeStatus.ordinal());
+  }
+}
@@ -0,0 +1,211 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty.Packets;
+
+import com.gmail.tracebachi.SockExchange.Netty.PacketRegistry;
+import com.google.common.base.Preconditions;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Carries the next chunk of a stream
+ * <p>
+ * The data fills the rest of the frame. Received chunks always keep a
+ * retained slice of the data, so the receiver can queue it for the reader
+ * and Velocity can forward it without copying.
+ * </p>
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class PacketStreamChunk extends AbstractPacket implements StreamChunk
+{
+  /**
+   * Set on the final chunk of a stream
+   */
+  public static final int LAST_FLAG = 1;
+
+  /**
+   * Set if the sender gave up on the stream (the chunk has no data)
+   */
+  public static final int ABORT_FLAG = 1 << 1;
+
+  private long streamId;
+  private String serverName = "";
+  private int flags;
+  private byte[] data;
+  private ByteBuf dataBuffer;
+
+  public long getStreamId()
+  {
+    return streamId;
+  }
+
+  public void setStreamId(long streamId)
+  {
+    this.streamId = streamId;
+  }
+
+  /**
+   * @return Name of the destination (when sent to Velocity) or source (when
+   * received from Velocity) server or an empty string for the peer itself
+   */
+  public String getServerName()
+  {
+    return serverName;
+  }
+
+  public void setServerName(String serverName)
+  {
+    this.serverName = serverName == null ? "" : serverName;
+  }
+
+  @Override
+  public boolean isLast()
+  {
+    return (flags & LAST_FLAG) != 0;
+  }
+
+  public boolean isAborted()
+  {
+    return (flags & ABORT_FLAG) != 0;
+  }
+
+  public void setFlags(int flags)
+  {
+    this.flags = flags;
+  }
+
+  /**
+   * @param data Bytes of the chunk to write
+   */
+  public void setData(byte[] data)
+  {
+    this.data = data;
+    this.dataBuffer = releasePayload(dataBuffer);
+  }
+
+  /**
+   * @return Retained slice of the data read by {@link #read(ByteBuf)} or
+   * null if the chunk was not read
+   */
+  public ByteBuf getDataBuffer()
+  {
+    return dataBuffer;
+  }
+
+  /**
+   * @return Number of bytes in the chunk
+   */
+  @Override
+  public int getDataLength()
+  {
+    if (dataBuffer != null)
+    {
+      return dataBuffer.readableBytes();
+    }
+
+    return data == null ? 0 : data.length;
+  }
+
+  /**
+   * Encodes a received chunk for another connection without copying its data
+   *
+   * @param allocator Allocator of the connection to write to
+   * @param serverName Name of the server the chunk came from
+   *
+   * @return Frame with the packet ID and the chunk (holding its own
+   * reference to the data)
+   */
+  public ByteBuf forward(ByteBufAllocator allocator, String serverName)
+  {
+    Preconditions.checkState(dataBuffer != null, "Chunk was not read");
+
+    ByteBuf header = allocator.ioBuffer(getHeaderSize(serverName));
+    writeHeader(header, streamId, serverName, flags);
+
+    return Unpooled.wrappedBuffer(header, dataBuffer.retain());
+  }
+
+  /**
+   * @param serverName Server name of the chunk
+   *
+   * @return Size of the packet ID and every field of a chunk before its data
+   */
+  public static int getHeaderSize(String serverName)
+  {
+    return 1 + 8 + getStringSize(serverName) + 1;
+  }
+
+  /**
+   * Writes the packet ID and every field of a chunk before its data, so the
+   * data can follow from another buffer or a file
+   *
+   * @param out Buffer to write to
+   * @param streamId ID of the stream
+   * @param serverName Server name of the chunk
+   * @param flags Flags of the chunk
+   */
+  public static void writeHeader(ByteBuf out, long streamId, String serverName, int flags)
+  {
+    out.writeByte(PacketRegistry.packetToId(PacketStreamChunk.class));
+    out.writeLong(streamId);
+    writeString(out, serverName);
+    out.writeByte(flags);
+  }
+
+  @Override
+  public void release()
+  {
+    dataBuffer = releasePayload(dataBuffer);
+  }
+
+  @Override
+  public int estimateSize()
+  {
+    // Stream ID, server name, flags and data
+    return 8 + getStringSize(serverName) + 1 + getDataLength();
+  }
+
+  @Override
+  public void read(ByteBuf in)
+  {
+    streamId = in.readLong();
+    serverName = readString(in);
+    flags = in.readUnsignedByte();
+    data = null;
+    dataBuffer = in.readSlice(in.readableBytes()).retain();
+  }
+
+  @Override
+  public void write(ByteBuf out)
+  {
+    out.writeLong(streamId);
+    writeString(out, serverName);
+    out.writeByte(flags);
+
+    if (dataBuffer != null)
+    {
+      out.writeBytes(dataBuffer, dataBuffer.readerIndex(), dataBuffer.readableBytes());
+    }
+    else if (data != null)
+    {
+      out.writeBytes(data);
+    }
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty.Packets;
+
+import com.gmail.tracebachi.SockExchange.Utilities.ExtraPreconditions;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Starts a stream of chunks from the sender to the receiver
+ * <p>
+ * Streams are addressed like batches: the sender sets the server name to
+ * the destination (or an empty string for the peer itself) and Velocity
+ * replaces it with the name of the source server when forwarding, so the
+ * receiver knows where to send acks.
+ * </p>
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class PacketStreamOpen extends AbstractPacket
+{
+  private long streamId;
+  private String serverName = "";
+  private String channelName;
+  private long length = -1;
+
+  /**
+   * @return ID assigned to the stream by the sender
+   */
+  public long getStreamId()
+  {
+    return streamId;
+  }
+
+  public void setStreamId(long streamId)
+  {
+    this.streamId = streamId;
+  }
+
+  /**
+   * @return Name of the destination (when sent to Velocity) or source (when
+   * received from Velocity) server or an empty string for the peer itself
+   */
+  public String getServerName()
+  {
+    return serverName;
+  }
+
+  public void setServerName(String serverName)
+  {
+    this.serverName = serverName == null ? "" : serverName;
+  }
+
+  @Override
+  public String getChannelName()
+  {
+    return channelName;
+  }
+
+  public void setChannelName(String channelName)
+  {
+    this.channelName = channelName;
+  }
+
+  /**
+   * @return Number of bytes in the stream or -1 if it is unknown
+   */
+  public long getLength()
+  {
+    return length;
+  }
+
+  public void setLength(long length)
+  {
+    this.length = length;
+  }
+
+  @Override
+  public int estimateSize()
+  {
+    ExtraPreconditions.checkNotEmpty(channelName, "channelName");
+
+    // Stream ID, server name, channel name and length
+    return 8 + getStringSize(serverName) + getChannelNameSize(channelName) + 8;
+  }
+
+  @Override
+  public void read(ByteBuf in)
+  {
+    streamId = in.readLong();
+    serverName = readString(in);
+    channelName = readChannelName(in);
+    length = in.readLong();
+  }
+
+  @Override
+  public void write(ByteBuf out)
+  {
+    ExtraPreconditions.checkNotEmpty(channelName, "channelName");
+
+    out.writeLong(streamId);
+    writeString(out, serverName);
+    writeChannelName(out, channelName);
+    out.writeLong(length);
+  }
+}
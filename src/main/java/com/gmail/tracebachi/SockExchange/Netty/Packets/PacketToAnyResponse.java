@@ -29,6 +29,7 @@ public class PacketToAnyResponse extends AbstractPacket
   private long consumerId;
   private ResponseStatus responseStatus;
   private byte[] messageBytes;
+  private ByteBuf messageBuffer;
 
   public long getConsumerId()
   {
@@ -50,14 +51,68 @@ public class PacketToAnyResponse extends AbstractPacket
     this.responseStatus = responseStatus;
   }
 
+  /**
+   * @return Message bytes (copied lazily from the retained payload if needed)
+   */
   public byte[] getMessageBytes()
   {
+    if (messageBytes == null && messageBuffer != null)
+    {
+      messageBytes = copyReadableBytes(messageBuffer);
+    }
+
     return messageBytes;
   }
 
   public void setMessageBytes(byte[] messageBytes)
   {
     this.messageBytes = messageBytes;
+    this.messageBuffer = releasePayload(messageBuffer);
+  }
+
+  /**
+   * @return Retained slice of the payload or null if the payload was copied
+   */
+  public ByteBuf getMessageBuffer()
+  {
+    return messageBuffer;
+  }
+
+  /**
+   * @return Number of bytes in the payload or -1 if there is no payload
+   */
+  public int getMessageLength()
+  {
+    if (messageBuffer != null)
+    {
+      return messageBuffer.readableBytes();
+    }
+
+    return messageBytes == null ? -1 : messageBytes.length;
+  }
+
+  @Override
+  public void release()
+  {
+    messageBuffer = releasePayload(messageBuffer);
+  }
+
+  @Override
+  public int estimateSize()
+  {
+    Preconditions.checkNotNull(responseStatus, "responseStatus");
+
+    // Consumer ID and ResponseStatus ordinal
+    int size = 8 + 1;
+
+    if (responseStatus.isOk())
+    {
+      Preconditions.checkNotNull(messageBytes, "messageBytes");
+
+      size += 4 + messageBytes.length;
+    }
+
+    return size;
   }
 
   @Override
@@ -73,8 +128,7 @@ public class PacketToAnyResponse extends AbstractPacket
     if (responseStatus.isOk())
     {
       int messageBytesCount = in.readInt();
-      messageBytes = new byte[messageBytesCount];
-      in.readBytes(messageBytes);
+      readMessagePayload(in, messageBytesCount);
     }
     else
     {
@@ -102,5 +156,18 @@ public class PacketToAnyResponse extends AbstractPacket
       out.writeBytes(messageBytes);
     }
   }
-}
 
+  private void readMessagePayload(ByteBuf in, int messageBytesCount)
+  {
+    if (isRetainingPayload())
+    {
+      messageBytes = null;
+      messageBuffer = in.readSlice(messageBytesCount).retain();
+    }
+    else
+    {
+      messageBytes = new byte[messageBytesCount];
+      in.readBytes(messageBytes);
+    }
+  }
+}
@@ -17,9 +17,14 @@
  */
 package com.gmail.tracebachi.SockExchange.Netty.Packets;
 
+import com.gmail.tracebachi.SockExchange.Netty.ProtocolFeatures;
 import com.google.common.base.Preconditions;
 import io.netty.buffer.ByteBuf;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * @author GeeItsZee (tracebachi@gmail.com)
  */
@@ -30,7 +35,13 @@ public class PacketToSpigotRegister extends AbstractPacket
     SUCCESS,
     INCORRECT_PASSWORD,
     ALREADY_REGISTERED,
-    UNKNOWN_SERVER_NAME;
+    UNKNOWN_SERVER_NAME,
+
+    /**
+     * A bulk lane was registered before the control lane of the server (only
+     * sent to clients that support lanes)
+     */
+    NOT_REGISTERED;
 
     public boolean isSuccess()
     {
@@ -49,6 +60,8 @@ public class PacketToSpigotRegister extends AbstractPacket
           return ALREADY_REGISTERED;
         case 3:
           return UNKNOWN_SERVER_NAME;
+        case 4:
+          return NOT_REGISTERED;
       }
 
       throw new IllegalArgumentException("Unknown mapping for ordinal");
@@ -56,6 +69,9 @@ public class PacketToSpigotRegister extends AbstractPacket
   }
 
   private Result result;
+  private int features;
+  private int serverId;
+  private List<String> serverNames = Collections.emptyList();
 
   public Result getResult()
   {
@@ -67,10 +83,94 @@ public class PacketToSpigotRegister extends AbstractPacket
     this.result = result;
   }
 
+  /**
+   * @return Bit mask of the protocol features supported by both sides
+   */
+  public int getFeatures()
+  {
+    return features;
+  }
+
+  public void setFeatures(int features)
+  {
+    this.features = features;
+  }
+
+  /**
+   * @return ID the proxy assigned to the registered server (only sent with
+   * {@link ProtocolFeatures#SERVER_IDS})
+   */
+  public int getServerId()
+  {
+    return serverId;
+  }
+
+  public void setServerId(int serverId)
+  {
+    this.serverId = serverId;
+  }
+
+  /**
+   * @return Server names indexed by server ID (only sent with
+   * {@link ProtocolFeatures#SERVER_IDS})
+   */
+  public List<String> getServerNames()
+  {
+    return serverNames;
+  }
+
+  public void setServerNames(List<String> serverNames)
+  {
+    this.serverNames = serverNames;
+  }
+
+  @Override
+  public int estimateSize()
+  {
+    // Result ordinal and the features (only written if there are any)
+    int size = 1 + (features != 0 ? 4 : 0);
+
+    if (ProtocolFeatures.has(features, ProtocolFeatures.SERVER_IDS))
+    {
+      Preconditions.checkNotNull(serverNames, "serverNames");
+
+      // Server ID and number of server names
+      size += 4 + 4;
+
+      for (String serverName : serverNames)
+      {
+        size += getStringSize(serverName);
+      }
+    }
+
+    return size;
+  }
+
   @Override
   public void read(ByteBuf in)
   {
     result = Result.fromOrdinal(in.readByte());
+
+    // Servers without protocol features do not send the bit mask
+    features = in.isReadable() ? in.readInt() : 0;
+
+    // Read the server ID and the directory of server names
+    if (ProtocolFeatures.has(features, ProtocolFeatures.SERVER_IDS))
+    {
+      serverId = in.readInt();
+
+      int serverNameCount = in.readInt();
+      serverNames = new ArrayList<>(serverNameCount);
+      for (int i = 0; i < serverNameCount; i++)
+      {
+        serverNames.add(readString(in));
+      }
+    }
+    else
+    {
+      serverId = 0;
+      serverNames = Collections.emptyList();
+    }
   }
 
   @Override
@@ -79,5 +179,23 @@ public class PacketToSpigotRegister extends AbstractPacket
     Preconditions.checkNotNull(result, "result");
 
     out.writeByte(result.ordinal());
+
+    if (features != 0)
+    {
+      out.writeInt(features);
+    }
+
+    // Write the server ID and the directory of server names
+    if (ProtocolFeatures.has(features, ProtocolFeatures.SERVER_IDS))
+    {
+      Preconditions.checkNotNull(serverNames, "serverNames");
+
+      out.writeInt(serverId);
+      out.writeInt(serverNames.size());
+      for (String serverName : serverNames)
+      {
+        writeString(out, serverName);
+      }
+    }
   }
 }
@@ -27,8 +27,10 @@ public class PacketToSpigotRequest extends AbstractPacket
 {
   private String channelName;
   private byte[] messageBytes;
+  private ByteBuf messageBuffer;
   private Long consumerId;
 
+  @Override
   public String getChannelName()
   {
     return channelName;
@@ -39,14 +41,50 @@ public class PacketToSpigotRequest extends AbstractPacket
     this.channelName = channelName;
   }
 
+  /**
+   * @return Message bytes (copied lazily from the retained payload if needed)
+   */
   public byte[] getMessageBytes()
   {
+    if (messageBytes == null && messageBuffer != null)
+    {
+      messageBytes = copyReadableBytes(messageBuffer);
+    }
+
     return messageBytes;
   }
 
   public void setMessageBytes(byte[] messageBytes)
   {
     this.messageBytes = messageBytes;
+    this.messageBuffer = releasePayload(messageBuffer);
+  }
+
+  /**
+   * @return Retained slice of the payload or null if the payload was copied
+   */
+  public ByteBuf getMessageBuffer()
+  {
+    return messageBuffer;
+  }
+
+  /**
+   * @return Number of bytes in the payload or -1 if there is no payload
+   */
+  public int getMessageLength()
+  {
+    if (messageBuffer != null)
+    {
+      return messageBuffer.readableBytes();
+    }
+
+    return messageBytes == null ? -1 : messageBytes.length;
+  }
+
+  @Override
+  public void release()
+  {
+    messageBuffer = releasePayload(messageBuffer);
   }
 
   public Long getConsumerId()
@@ -64,16 +102,26 @@ public class PacketToSpigotRequest extends AbstractPacket
     this.consumerId = consumerId;
   }
 
+  @Override
+  public int estimateSize()
+  {
+    Preconditions.checkNotNull(channelName, "channelName");
+    Preconditions.checkNotNull(messageBytes, "messageBytes");
+
+    // Channel name, message length and bytes, consumer flag and ID
+    return getChannelNameSize(channelName) + 4 + messageBytes.length + 1 +
+      (consumerId != null ? 8 : 0);
+  }
+
   @Override
   public void read(ByteBuf in)
   {
     // Read the channel name
-    channelName = readString(in);
+    channelName = readChannelName(in);
 
     // Read the message bytes
     int messageBytesCount = in.readInt();
-    messageBytes = new byte[messageBytesCount];
-    in.readBytes(messageBytes);
+    readMessagePayload(in, messageBytesCount);
 
     // Read the consumer ID and timeout if there is a consumer for a response
     if (in.readBoolean())
@@ -93,7 +141,7 @@ public class PacketToSpigotRequest extends AbstractPacket
     Preconditions.checkNotNull(messageBytes, "messageBytes");
 
     // Write the channel name
-    writeString(out, channelName);
+    writeChannelName(out, channelName);
 
     // Write the message bytes
     out.writeInt(messageBytes.length);
@@ -106,5 +154,18 @@ public class PacketToSpigotRequest extends AbstractPacket
       out.writeLong(consumerId);
     }
   }
-}
 
+  private void readMessagePayload(ByteBuf in, int messageBytesCount)
+  {
+    if (isRetainingPayload())
+    {
+      messageBytes = null;
+      messageBuffer = in.readSlice(messageBytesCount).retain();
+    }
+    else
+    {
+      messageBytes = new byte[messageBytesCount];
+      in.readBytes(messageBytes);
+    }
+  }
+}
@@ -32,6 +32,7 @@ public class PacketToVelocityForward extends AbstractPacket
   private List<String> serverNames;
   private String channelName;
   private byte[] messageBytes;
+  private ByteBuf messageBuffer;
 
   public List<String> getServerNames()
   {
@@ -43,6 +44,7 @@ public class PacketToVelocityForward extends AbstractPacket
     this.serverNames = serverNames;
   }
 
+  @Override
   public String getChannelName()
   {
     return channelName;
@@ -53,14 +55,69 @@ public class PacketToVelocityForward extends AbstractPacket
     this.channelName = channelName;
   }
 
+  /**
+   * @return Message bytes (copied lazily from the retained payload if needed)
+   */
   public byte[] getMessageBytes()
   {
+    if (messageBytes == null && messageBuffer != null)
+    {
+      messageBytes = copyReadableBytes(messageBuffer);
+    }
+
     return messageBytes;
   }
 
   public void setMessageBytes(byte[] messageBytes)
   {
     this.messageBytes = messageBytes;
+    this.messageBuffer = releasePayload(messageBuffer);
+  }
+
+  /**
+   * @return Retained slice of the payload or null if the payload was copied
+   */
+  public ByteBuf getMessageBuffer()
+  {
+    return messageBuffer;
+  }
+
+  /**
+   * @return Number of bytes in the payload or -1 if there is no payload
+   */
+  public int getMessageLength()
+  {
+    if (messageBuffer != null)
+    {
+      return messageBuffer.readableBytes();
+    }
+
+    return messageBytes == null ? -1 : messageBytes.length;
+  }
+
+  @Override
+  public void release()
+  {
+    messageBuffer = releasePayload(messageBuffer);
+  }
+
+  @Override
+  public int estimateSize()
+  {
+    Preconditions.checkNotNull(serverNames, "serverNames");
+    ExtraPreconditions.checkNotEmpty(channelName, "channelName");
+    Preconditions.checkNotNull(messageBytes, "messageBytes");
+
+    // Number of server names
+    int size = 4;
+
+    for (String serverName : serverNames)
+    {
+      size += getStringSize(serverName);
+    }
+
+    // Channel name, message length and bytes
+    return size + getChannelNameSize(channelName) + 4 + messageBytes.length;
   }
 
   @Override
@@ -75,12 +132,11 @@ public class PacketToVelocityForward extends AbstractPacket
     }
 
     // Read the channel name
-    channelName = readString(in);
+    channelName = readChannelName(in);
 
     // Read the message bytes
     int messageBytesCount = in.readInt();
-    messageBytes = new byte[messageBytesCount];
-    in.readBytes(messageBytes);
+    readMessagePayload(in, messageBytesCount);
   }
 
   @Override
@@ -99,11 +155,24 @@ public class PacketToVelocityForward extends AbstractPacket
     }
 
     // Write the channel name
-    writeString(out, channelName);
+    writeChannelName(out, channelName);
 
     // Write the message bytes
     out.writeInt(messageBytes.length);
     out.writeBytes(messageBytes);
   }
-}
 
+  private void readMessagePayload(ByteBuf in, int messageBytesCount)
+  {
+    if (isRetainingPayload())
+    {
+      messageBytes = null;
+      messageBuffer = in.readSlice(messageBytesCount).retain();
+    }
+    else
+    {
+      messageBytes = new byte[messageBytesCount];
+      in.readBytes(messageBytes);
+    }
+  }
+}
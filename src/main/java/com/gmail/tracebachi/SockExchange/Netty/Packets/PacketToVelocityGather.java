@@ -0,0 +1,178 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty.Packets;
+
+import com.gmail.tracebachi.SockExchange.Utilities.ExtraPreconditions;
+import com.google.common.base.Preconditions;
+import io.netty.buffer.ByteBuf;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Request that Bungee sends to many servers, answering with one response
+ * that holds the response of every server
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class PacketToVelocityGather extends AbstractPacket
+{
+  private long consumerId;
+  private long timeoutInMillis;
+  private int quorum;
+  private List<String> serverNames;
+  private String channelName;
+  private byte[] messageBytes;
+
+  public long getConsumerId()
+  {
+    return consumerId;
+  }
+
+  public void setConsumerId(long consumerId)
+  {
+    this.consumerId = consumerId;
+  }
+
+  public long getTimeoutInMillis()
+  {
+    return timeoutInMillis;
+  }
+
+  public void setTimeoutInMillis(long timeoutInMillis)
+  {
+    this.timeoutInMillis = timeoutInMillis;
+  }
+
+  /**
+   * @return Number of OK responses after which Bungee responds without
+   * waiting for the other servers or 0 to wait for all servers
+   */
+  public int getQuorum()
+  {
+    return quorum;
+  }
+
+  public void setQuorum(int quorum)
+  {
+    this.quorum = quorum;
+  }
+
+  public List<String> getServerNames()
+  {
+    return serverNames;
+  }
+
+  public void setServerNames(List<String> serverNames)
+  {
+    this.serverNames = serverNames;
+  }
+
+  @Override
+  public String getChannelName()
+  {
+    return channelName;
+  }
+
+  public void setChannelName(String channelName)
+  {
+    this.channelName = channelName;
+  }
+
+  public byte[] getMessageBytes()
+  {
+    return messageBytes;
+  }
+
+  public void setMessageBytes(byte[] messageBytes)
+  {
+    this.messageBytes = messageBytes;
+  }
+
+  @Override
+  public int estimateSize()
+  {
+    Preconditions.checkNotNull(serverNames, "serverNames");
+    ExtraPreconditions.checkNotEmpty(channelName, "channelName");
+    Preconditions.checkNotNull(messageBytes, "messageBytes");
+
+    // Consumer ID, timeout, quorum and number of server names
+    int size = 8 + 8 + 4 + 4;
+
+    for (String serverName : serverNames)
+    {
+      size += getStringSize(serverName);
+    }
+
+    // Channel name, message length and bytes
+    return size + getChannelNameSize(channelName) + 4 + messageBytes.length;
+  }
+
+  @Override
+  public void read(ByteBuf in)
+  {
+    // Read the consumer ID, timeout and quorum
+    consumerId = in.readLong();
+    timeoutInMillis = in.readLong();
+    quorum = in.readInt();
+
+    // Read the server names
+    int serverNameCount = in.readInt();
+    serverNames = new ArrayList<>(serverNameCount);
+    for (int i = 0; i < serverNameCount; i++)
+    {
+      serverNames.add(readString(in));
+    }
+
+    // Read the channel name
+    channelName = readChannelName(in);
+
+    // Read the message bytes
+    int messageBytesCount = in.readInt();
+    messageBytes = new byte[messageBytesCount];
+    in.readBytes(messageBytes);
+  }
+
+  @Override
+  public void write(ByteBuf out)
+  {
+    Preconditions.checkNotNull(serverNames, "serverNames");
+    ExtraPreconditions.checkNotEmpty(channelName, "channelName");
+    Preconditions.checkNotNull(messageBytes, "messageBytes");
+
+    // Write the consumer ID, timeout and quorum
+    out.writeLong(consumerId);
+    out.writeLong(timeoutInMillis);
+    out.writeInt(quorum);
+
+    // Write the server names
+    out.writeInt(serverNames.size());
+    for (String serverName : serverNames)
+    {
+      ExtraPreconditions.checkNotEmpty(serverName, "serverName");
+      writeString(out, serverName);
+    }
+
+    // Write the channel name
+    writeChannelName(out, channelName);
+
+    // Write the message bytes
+    out.writeInt(messageBytes.length);
+    out.writeBytes(messageBytes);
+  }
+}
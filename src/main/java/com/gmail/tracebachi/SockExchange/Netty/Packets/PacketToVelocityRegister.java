@@ -18,6 +18,7 @@
 package com.gmail.tracebachi.SockExchange.Netty.Packets;
 
 import com.gmail.tracebachi.SockExchange.Utilities.ExtraPreconditions;
+import com.google.common.base.Preconditions;
 import io.netty.buffer.ByteBuf;
 
 /**
@@ -27,6 +28,9 @@ public class PacketToVelocityRegister extends AbstractPacket
 {
   private String password;
   private String serverName;
+  private int features;
+  private int lane;
+  private int laneCount;
 
   public String getPassword()
   {
@@ -48,11 +52,70 @@ public class PacketToVelocityRegister extends AbstractPacket
     this.serverName = serverName;
   }
 
+  /**
+   * @return Bit mask of the protocol features supported by the client
+   */
+  public int getFeatures()
+  {
+    return features;
+  }
+
+  public void setFeatures(int features)
+  {
+    this.features = features;
+  }
+
+  /**
+   * @return Index of the bulk lane to register or 0 for the control lane
+   */
+  public int getLane()
+  {
+    return lane;
+  }
+
+  public void setLane(int lane)
+  {
+    Preconditions.checkArgument(lane >= 0 && lane <= 255, "lane must be between 0 and 255");
+
+    this.lane = lane;
+  }
+
+  /**
+   * @return Number of bulk lanes the client opens (only sent with a bulk lane)
+   */
+  public int getLaneCount()
+  {
+    return laneCount;
+  }
+
+  public void setLaneCount(int laneCount)
+  {
+    Preconditions.checkArgument(laneCount >= 0 && laneCount <= 255,
+      "laneCount must be between 0 and 255");
+
+    this.laneCount = laneCount;
+  }
+
+  @Override
+  public int estimateSize()
+  {
+    // Features are only written if there are any and the lanes only for a bulk lane
+    return getStringSize(password) + getStringSize(serverName) + (features != 0 ? 4 : 0) +
+      (lane != 0 ? 2 : 0);
+  }
+
   @Override
   public void read(ByteBuf in)
   {
     password = readString(in);
     serverName = readString(in);
+
+    // Clients without protocol features do not send the bit mask
+    features = in.isReadable() ? in.readInt() : 0;
+
+    // Only bulk lanes send the lane and the number of lanes
+    lane = in.isReadable() ? in.readUnsignedByte() : 0;
+    laneCount = in.isReadable() ? in.readUnsignedByte() : 0;
   }
 
   @Override
@@ -62,5 +125,19 @@ public class PacketToVelocityRegister extends AbstractPacket
 
     writeString(out, password);
     writeString(out, serverName);
+
+    // Bulk lanes are only registered by clients that support lanes
+    Preconditions.checkState(lane == 0 || features != 0, "Bulk lanes require features");
+
+    if (features != 0)
+    {
+      out.writeInt(features);
+    }
+
+    if (lane != 0)
+    {
+      out.writeByte(lane);
+      out.writeByte(laneCount);
+    }
   }
 }
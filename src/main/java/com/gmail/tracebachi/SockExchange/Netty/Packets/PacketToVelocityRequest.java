@@ -27,8 +27,10 @@ public class PacketToVelocityRequest extends AbstractPacket
 {
   private DestinationType destinationType;
   private String serverOrPlayerName;
+  private int serverId;
   private String channelName;
   private byte[] messageBytes;
+  private ByteBuf messageBuffer;
   private Long consumerId;
   private long timeoutInMillis;
 
@@ -52,6 +54,20 @@ public class PacketToVelocityRequest extends AbstractPacket
     this.serverOrPlayerName = serverOrPlayerName;
   }
 
+  /**
+   * @return ID of the destination server (only used by {@link DestinationType#SERVER_ID})
+   */
+  public int getServerId()
+  {
+    return serverId;
+  }
+
+  public void setServerId(int serverId)
+  {
+    this.serverId = serverId;
+  }
+
+  @Override
   public String getChannelName()
   {
     return channelName;
@@ -62,14 +78,50 @@ public class PacketToVelocityRequest extends AbstractPacket
     this.channelName = channelName;
   }
 
+  /**
+   * @return Message bytes (copied lazily from the retained payload if needed)
+   */
   public byte[] getMessageBytes()
   {
+    if (messageBytes == null && messageBuffer != null)
+    {
+      messageBytes = copyReadableBytes(messageBuffer);
+    }
+
     return messageBytes;
   }
 
   public void setMessageBytes(byte[] messageBytes)
   {
     this.messageBytes = messageBytes;
+    this.messageBuffer = releasePayload(messageBuffer);
+  }
+
+  /**
+   * @return Retained slice of the payload or null if the payload was copied
+   */
+  public ByteBuf getMessageBuffer()
+  {
+    return messageBuffer;
+  }
+
+  /**
+   * @return Number of bytes in the payload or -1 if there is no payload
+   */
+  public int getMessageLength()
+  {
+    if (messageBuffer != null)
+    {
+      return messageBuffer.readableBytes();
+    }
+
+    return messageBytes == null ? -1 : messageBytes.length;
+  }
+
+  @Override
+  public void release()
+  {
+    messageBuffer = releasePayload(messageBuffer);
   }
 
   public Long getConsumerId()
@@ -97,6 +149,32 @@ public class PacketToVelocityRequest extends AbstractPacket
     this.timeoutInMillis = timeoutInMillis;
   }
 
+  @Override
+  public int estimateSize()
+  {
+    Preconditions.checkNotNull(destinationType, "destinationType");
+    Preconditions.checkNotNull(channelName, "channelName");
+    Preconditions.checkNotNull(messageBytes, "messageBytes");
+
+    // DestinationType ordinal
+    int size = 1;
+
+    if (destinationType == DestinationType.SERVER_NAME || destinationType == DestinationType.PLAYER_NAME)
+    {
+      Preconditions.checkNotNull(serverOrPlayerName, "serverOrPlayerName");
+
+      size += getStringSize(serverOrPlayerName);
+    }
+    else if (destinationType == DestinationType.SERVER_ID)
+    {
+      size += 4;
+    }
+
+    // Channel name, message length and bytes, consumer flag, ID and timeout
+    return size + getChannelNameSize(channelName) + 4 + messageBytes.length + 1 +
+      (consumerId != null ? 16 : 0);
+  }
+
   @Override
   public void read(ByteBuf in)
   {
@@ -108,14 +186,17 @@ public class PacketToVelocityRequest extends AbstractPacket
     {
       serverOrPlayerName = readString(in);
     }
+    else if (destinationType == DestinationType.SERVER_ID)
+    {
+      serverId = in.readInt();
+    }
 
     // Read the channel name
-    channelName = readString(in);
+    channelName = readChannelName(in);
 
     // Read the message bytes
     int messageBytesCount = in.readInt();
-    messageBytes = new byte[messageBytesCount];
-    in.readBytes(messageBytes);
+    readMessagePayload(in, messageBytesCount);
 
     // Read the consumer ID and timeout if there is a consumer for a response
     if (in.readBoolean())
@@ -147,9 +228,13 @@ public class PacketToVelocityRequest extends AbstractPacket
 
       writeString(out, serverOrPlayerName);
     }
+    else if (destinationType == DestinationType.SERVER_ID)
+    {
+      out.writeInt(serverId);
+    }
 
     // Write the channel name
-    writeString(out, channelName);
+    writeChannelName(out, channelName);
 
     // Write the message bytes
     out.writeInt(messageBytes.length);
@@ -168,7 +253,8 @@ public class PacketToVelocityRequest extends AbstractPacket
   {
     BUNGEE,
     SERVER_NAME,
-    PLAYER_NAME;
+    PLAYER_NAME,
+    SERVER_ID;
 
     public static DestinationType fromOrdinal(int ordinal)
     {
@@ -180,10 +266,25 @@ public class PacketToVelocityRequest extends AbstractPacket
           return SERVER_NAME;
         case 2:
           return PLAYER_NAME;
+        case 3:
+          return SERVER_ID;
       }
 
       throw new IllegalArgumentException("Unknown mapping for ordinal");
     }
   }
-}
 
+  private void readMessagePayload(ByteBuf in, int messageBytesCount)
+  {
+    if (isRetainingPayload())
+    {
+      messageBytes = null;
+      messageBuffer = in.readSlice(messageBytesCount).retain();
+    }
+    else
+    {
+      messageBytes = new byte[messageBytesCount];
+      in.readBytes(messageBytes);
+    }
+  }
+}
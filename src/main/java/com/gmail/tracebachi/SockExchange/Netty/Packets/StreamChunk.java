@@ -0,0 +1,37 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty.Packets;
+
+/**
+ * Chunk of an outgoing stream, either a {@link PacketStreamChunk} or a chunk
+ * whose data is written straight from a file
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public interface StreamChunk
+{
+  /**
+   * @return Number of bytes of data in the chunk
+   */
+  int getDataLength();
+
+  /**
+   * @return True if this is the final chunk of the stream
+   */
+  boolean isLast();
+}
@@ -0,0 +1,150 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty.Packets;
+
+import com.google.common.base.Preconditions;
+import io.netty.buffer.ByteBuf;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Bounded cache of decoded UTF-8 strings
+ * <p>
+ * Server, player and channel names are decoded over and over again. The
+ * cache is a direct-mapped table keyed by a hash of the encoded bytes, so a
+ * repeated name is returned as the same {@link String} instance without
+ * allocating. Entries are immutable and replaced on collision, which makes
+ * the table safe to share between event loop threads without locking.
+ * </p>
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+class Utf8StringCache
+{
+  private final Entry[] entries;
+  private final int mask;
+  private final int maxLength;
+
+  /**
+   * @param size Number of slots (rounded up to a power of two)
+   * @param maxLength Longest encoded string (in bytes) that is cached
+   */
+  Utf8StringCache(int size, int maxLength)
+  {
+    Preconditions.checkArgument(size > 0, "size must be > 0");
+    Preconditions.checkArgument(maxLength > 0, "maxLength must be > 0");
+
+    int tableSize = Integer.highestOneBit(size - 1) << 1;
+    tableSize = Math.max(tableSize, 1);
+
+    this.entries = new Entry[tableSize];
+    this.mask = tableSize - 1;
+    this.maxLength = maxLength;
+  }
+
+  /**
+   * Reads a string of the given encoded length from the buffer
+   *
+   * @param in Buffer to read from
+   * @param length Number of bytes to read
+   *
+   * @return Decoded string (possibly a cached instance)
+   */
+  String read(ByteBuf in, int length)
+  {
+    if (length == 0)
+    {
+      return "";
+    }
+
+    if (length > maxLength)
+    {
+      return readUncached(in, length);
+    }
+
+    int start = in.readerIndex();
+    int hash = hash(in, start, length);
+    int slot = hash & mask;
+    Entry entry = entries[slot];
+
+    if (entry != null && entry.hash == hash && entry.matches(in, start, length))
+    {
+      in.skipBytes(length);
+      return entry.value;
+    }
+
+    byte[] bytes = new byte[length];
+    in.readBytes(bytes);
+
+    String value = new String(bytes, StandardCharsets.UTF_8);
+    entries[slot] = new Entry(hash, bytes, value);
+    return value;
+  }
+
+  private static String readUncached(ByteBuf in, int length)
+  {
+    byte[] bytes = new byte[length];
+    in.readBytes(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static int hash(ByteBuf in, int start, int length)
+  {
+    int hash = 1;
+
+    for (int i = start, end = start + length; i < end; i++)
+    {
+      hash = 31 * hash + in.getByte(i);
+    }
+
+    // Spread the high bits into the slot index
+    return hash ^ (hash >>> 16);
+  }
+
+  private static final class Entry
+  {
+    private final int hash;
+    private final byte[] bytes;
+    private final String value;
+
+    private Entry(int hash, byte[] bytes, String value)
+    {
+      this.hash = hash;
+      this.bytes = bytes;
+      this.value = value;
+    }
+
+    private boolean matches(ByteBuf in, int start, int length)
+    {
+      if (bytes.length != length)
+      {
+        return false;
+      }
+
+      for (int i = 0; i < length; i++)
+      {
+        if (bytes[i] != in.getByte(start + i))
+        {
+          return false;
+        }
+      }
+
+      return true;
+    }
+  }
+}
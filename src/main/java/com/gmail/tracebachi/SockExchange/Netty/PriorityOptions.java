@@ -0,0 +1,190 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import com.gmail.tracebachi.SockExchange.Netty.Packets.AbstractPacket;
+import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketStreamAck;
+import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketStreamOpen;
+import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketToAnyResponse;
+import com.gmail.tracebachi.SockExchange.Netty.Packets.StreamChunk;
+import com.google.common.base.Preconditions;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Options for the outbound queues of a connection
+ * <p>
+ * Each send picks a {@link PacketPriority}: the priority set on the packet,
+ * else the priority of its channel, else the default priority. Responses and
+ * stream acks are always {@link PacketPriority#CONTROL} and stream data is
+ * always {@link PacketPriority#BULK}.
+ * </p>
+ * <p>
+ * The queues are drained with deficit round robin. Each round, a class may
+ * write up to its weight times {@link #QUANTUM_BYTES} bytes, so with the
+ * default weights a backlogged interactive queue gets four times the bytes
+ * of a backlogged bulk queue. Only control packets are written while the
+ * outbound buffer of the channel is full.
+ * </p>
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class PriorityOptions
+{
+  /**
+   * Bytes a class with a weight of 1 may write per round
+   */
+  public static final int QUANTUM_BYTES = 4 * 1024;
+
+  /**
+   * Largest weight of a class
+   */
+  public static final int MAX_WEIGHT = 1024;
+
+  private final int[] weights = new int[] {16, 4, 1};
+  private PacketPriority defaultPriority = PacketPriority.INTERACTIVE;
+  private Map<String, PacketPriority> channelPriorities = Collections.emptyMap();
+
+  /**
+   * @param priority Class of packets
+   *
+   * @return Weight of the class in the round robin
+   */
+  public int getWeight(PacketPriority priority)
+  {
+    Preconditions.checkNotNull(priority, "priority");
+
+    return weights[priority.ordinal()];
+  }
+
+  public void setWeight(PacketPriority priority, int weight)
+  {
+    Preconditions.checkNotNull(priority, "priority");
+    Preconditions.checkArgument(weight >= 1 && weight <= MAX_WEIGHT,
+      "weight must be between 1 and " + MAX_WEIGHT);
+
+    weights[priority.ordinal()] = weight;
+  }
+
+  /**
+   * @return Class of packets whose channel has no priority
+   */
+  public PacketPriority getDefaultPriority()
+  {
+    return defaultPriority;
+  }
+
+  public void setDefaultPriority(PacketPriority defaultPriority)
+  {
+    Preconditions.checkNotNull(defaultPriority, "defaultPriority");
+
+    this.defaultPriority = defaultPriority;
+  }
+
+  /**
+   * @return Unmodifiable map of channel names to the class of their packets
+   */
+  public Map<String, PacketPriority> getChannelPriorities()
+  {
+    return channelPriorities;
+  }
+
+  /**
+   * Sets the class of the packets of some channels (replacing the class
+   * previously set for those channels)
+   *
+   * @param channelNames Names of the channels
+   * @param priority Class of their packets
+   */
+  public void setChannelPriority(Collection<String> channelNames, PacketPriority priority)
+  {
+    Preconditions.checkNotNull(channelNames, "channelNames");
+    Preconditions.checkNotNull(priority, "priority");
+
+    Map<String, PacketPriority> copy = new HashMap<>(channelPriorities);
+
+    for (String channelName : channelNames)
+    {
+      Preconditions.checkNotNull(channelName, "channelName");
+
+      copy.put(channelName, priority);
+    }
+
+    this.channelPriorities = Collections.unmodifiableMap(copy);
+  }
+
+  /**
+   * @param channelName Name of a channel or null
+   *
+   * @return Class of the packets of the channel
+   */
+  public PacketPriority getChannelPriority(String channelName)
+  {
+    if (channelName == null)
+    {
+      return defaultPriority;
+    }
+
+    return channelPriorities.getOrDefault(channelName, defaultPriority);
+  }
+
+  /**
+   * @param message Packet, encoded packet or stream chunk to write
+   *
+   * @return Class the message is queued in
+   */
+  PacketPriority getPriority(Object message)
+  {
+    // Responses answer requests the peer already accepted (and have no channel)
+    if (message instanceof PacketStreamAck || message instanceof PacketToAnyResponse)
+    {
+      return PacketPriority.CONTROL;
+    }
+    else if (message instanceof StreamChunk || message instanceof PacketStreamOpen)
+    {
+      return PacketPriority.BULK;
+    }
+    else if (message instanceof AbstractPacket)
+    {
+      AbstractPacket packet = (AbstractPacket) message;
+      PacketPriority priority = packet.getPriority();
+
+      return priority != null ? priority : getChannelPriority(packet.getChannelName());
+    }
+
+    return defaultPriority;
+  }
+
+  @Override
+  public String toString()
+  {
+    Map<PacketPriority, Integer> weightMap = new EnumMap<>(PacketPriority.class);
+
+    for (PacketPriority priority : PacketPriority.values())
+    {
+      weightMap.put(priority, weights[priority.ordinal()]);
+    }
+
+    return "PriorityOptions{weights=" + weightMap + ", defaultPriority=" + defaultPriority +
+      ", channelPriorities=" + channelPriorities + "}";
+  }
+}
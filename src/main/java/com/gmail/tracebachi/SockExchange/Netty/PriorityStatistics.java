@@ -0,0 +1,169 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Queue depth and wait time of each {@link PacketPriority} of a connection
+ * <p>
+ * The wait time of a packet is the time from the send call until the packet
+ * is written to the channel (packets written right away wait 0 nanoseconds).
+ * </p>
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class PriorityStatistics
+{
+  private final LongAdder[] depth = newAdders();
+  private final LongAdder[] written = newAdders();
+  private final LongAdder[] waitNanos = newAdders();
+  private final AtomicLong[] maxWaitNanos = new AtomicLong[PacketPriority.values().length];
+
+  public PriorityStatistics()
+  {
+    for (int i = 0; i < maxWaitNanos.length; i++)
+    {
+      maxWaitNanos[i] = new AtomicLong(0);
+    }
+  }
+
+  void recordQueued(PacketPriority priority)
+  {
+    depth[priority.ordinal()].increment();
+  }
+
+  void recordDequeued(PacketPriority priority, long queuedNanos)
+  {
+    int index = priority.ordinal();
+
+    depth[index].decrement();
+    written[index].increment();
+    waitNanos[index].add(queuedNanos);
+    maxWaitNanos[index].accumulateAndGet(queuedNanos, Math::max);
+  }
+
+  void recordWritten(PacketPriority priority)
+  {
+    written[priority.ordinal()].increment();
+  }
+
+  void recordDiscarded(PacketPriority priority)
+  {
+    depth[priority.ordinal()].decrement();
+  }
+
+  /**
+   * @param priority Class of packets
+   *
+   * @return Number of packets of the class waiting in a queue
+   */
+  public long getQueueDepth(PacketPriority priority)
+  {
+    Preconditions.checkNotNull(priority, "priority");
+
+    return depth[priority.ordinal()].sum();
+  }
+
+  /**
+   * @param priority Class of packets
+   *
+   * @return Number of packets of the class written to the channel
+   */
+  public long getPacketsWritten(PacketPriority priority)
+  {
+    Preconditions.checkNotNull(priority, "priority");
+
+    return written[priority.ordinal()].sum();
+  }
+
+  /**
+   * @param priority Class of packets
+   *
+   * @return Average time in microseconds a packet of the class waited
+   * before it was written
+   */
+  public double getAverageWaitMicros(PacketPriority priority)
+  {
+    Preconditions.checkNotNull(priority, "priority");
+
+    int index = priority.ordinal();
+    long count = written[index].sum();
+    return count == 0 ? 0 : waitNanos[index].sum() / 1000.0 / count;
+  }
+
+  /**
+   * @param priority Class of packets
+   *
+   * @return Longest time in microseconds a packet of the class waited
+   * before it was written
+   */
+  public long getMaxWaitMicros(PacketPriority priority)
+  {
+    Preconditions.checkNotNull(priority, "priority");
+
+    return TimeUnit.NANOSECONDS.toMicros(maxWaitNanos[priority.ordinal()].get());
+  }
+
+  public void reset()
+  {
+    // The queue depth is not a counter, so it is kept
+    for (int i = 0; i < maxWaitNanos.length; i++)
+    {
+      written[i].reset();
+      waitNanos[i].reset();
+      maxWaitNanos[i].set(0);
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    StringBuilder builder = new StringBuilder("PriorityStatistics{");
+
+    for (PacketPriority priority : PacketPriority.values())
+    {
+      if (priority.ordinal() != 0)
+      {
+        builder.append(", ");
+      }
+
+      builder.append(String.format("%s={depth=%d, written=%d, avgWaitMicros=%.1f, maxWaitMicros=%d}",
+        priority, getQueueDepth(priority), getPacketsWritten(priority),
+        getAverageWaitMicros(priority), getMaxWaitMicros(priority)));
+    }
+
+    return builder.append('}').toString();
+  }
+
+  private static LongAdder[] newAdders()
+  {
+    LongAdder[] adders = new LongAdder[PacketPriority.values().length];
+
+    for (int i = 0; i < adders.length; i++)
+    {
+      adders[i] = new LongAdder();
+    }
+
+    return adders;
+  }
+}
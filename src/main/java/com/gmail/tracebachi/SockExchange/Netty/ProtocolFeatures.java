@@ -0,0 +1,134 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import io.netty.channel.Channel;
+
+/**
+ * Optional protocol features negotiated during registration
+ * <p>
+ * The client sends the features it supports and the server responds with the
+ * features both sides support. Features are only used if both sides support
+ * them.
+ * </p>
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public final class ProtocolFeatures
+{
+  /**
+   * Channel names are sent as IDs from a per-connection symbol table
+   */
+  public static final int CHANNEL_SYMBOLS = 1;
+
+  /**
+   * The proxy assigns each server a dense ID and sends the directory of IDs
+   * during registration, so requests can address servers by ID
+   */
+  public static final int SERVER_IDS = 1 << 1;
+
+  /**
+   * Many packets can be sent in one batch frame
+   */
+  public static final int BATCHING = 1 << 2;
+
+  /**
+   * Frames above a size threshold are compressed (only offered by a side
+   * that has compression enabled)
+   */
+  public static final int COMPRESSION = 1 << 3;
+
+  /**
+   * Payloads can be sent as flow controlled streams of chunks
+   */
+  public static final int STREAMS = 1 << 4;
+
+  /**
+   * A client can open bulk lanes (extra connections registered under the same
+   * server name), so large messages do not delay the control lane
+   */
+  public static final int LANES = 1 << 5;
+
+  /**
+   * The peer knows the response statuses added after
+   * {@link com.gmail.tracebachi.SockExchange.Messages.ResponseStatus#PLAYER_NOT_FOUND}
+   * (other peers get {@link com.gmail.tracebachi.SockExchange.Messages.ResponseStatus#toLegacyStatus()})
+   */
+  public static final int EXTENDED_STATUSES = 1 << 6;
+
+  /**
+   * Features supported by this version
+   */
+  public static final int SUPPORTED = CHANNEL_SYMBOLS | SERVER_IDS | BATCHING | COMPRESSION |
+    STREAMS | LANES | EXTENDED_STATUSES;
+
+  /**
+   * Features that are negotiated again for each bulk lane (channel symbols and
+   * server IDs are only used on the control lane)
+   */
+  public static final int LANE_FEATURES = BATCHING | COMPRESSION | STREAMS | LANES |
+    EXTENDED_STATUSES;
+
+  private ProtocolFeatures()
+  {
+  }
+
+  /**
+   * @param channel Channel to offer the features on
+   *
+   * @return Features supported by this version and enabled for the channel
+   */
+  public static int getSupported(Channel channel)
+  {
+    int features = SUPPORTED;
+
+    if (channel.pipeline().get(FrameCompressor.class) == null)
+    {
+      features &= ~COMPRESSION;
+    }
+
+    return features;
+  }
+
+  /**
+   * Starts using the negotiated features that change how frames are written
+   *
+   * @param channel Channel the features were negotiated for
+   * @param features Negotiated features
+   */
+  public static void enableFrameFeatures(Channel channel, int features)
+  {
+    FrameCompressor frameCompressor = channel.pipeline().get(FrameCompressor.class);
+
+    if (frameCompressor != null)
+    {
+      frameCompressor.setEnabled(has(features, COMPRESSION));
+    }
+  }
+
+  /**
+   * @param features Negotiated features
+   * @param feature Feature to check
+   *
+   * @return True if the feature is in the negotiated features
+   */
+  public static boolean has(int features, int feature)
+  {
+    return (features & feature) == feature;
+  }
+}
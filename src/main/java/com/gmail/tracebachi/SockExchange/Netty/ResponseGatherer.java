@@ -0,0 +1,168 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import com.gmail.tracebachi.SockExchange.Messages.ResponseFuture;
+import com.gmail.tracebachi.SockExchange.Messages.ResponseMessage;
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Collects the responses of a request sent to many servers and completes
+ * once every server responded or once enough servers responded with OK
+ * <p>
+ * The deadline is enforced by the requests themselves, since each request
+ * responds with a timeout response when it expires.
+ * </p>
+ * <p>
+ * The consumer of each server is a {@link ResponseFuture}, so the pending
+ * request is removed when the future is cancelled (see
+ * {@link AbstractPacketHandler#bindCancellation}). Once the gather
+ * completes, the requests still waiting for a response are cancelled
+ * instead of waiting for their timeout.
+ * </p>
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class ResponseGatherer
+{
+  private final int expectedCount;
+  private final int quorum;
+  private final Consumer<Map<String, ResponseMessage>> onComplete;
+  private final Map<String, ResponseMessage> responses;
+  private final List<ResponseFuture> serverFutures;
+  private int okCount;
+  private boolean completed;
+
+  /**
+   * @param expectedCount Number of servers the request is sent to
+   * @param quorum Number of OK responses to complete with or 0 to wait for all servers
+   * @param onComplete Consumer to run once with the collected responses
+   */
+  public ResponseGatherer(
+    int expectedCount, int quorum, Consumer<Map<String, ResponseMessage>> onComplete)
+  {
+    Preconditions.checkArgument(expectedCount >= 0, "expectedCount must be >= 0");
+    Preconditions.checkArgument(quorum >= 0, "quorum must be >= 0");
+    Preconditions.checkNotNull(onComplete, "onComplete");
+
+    this.expectedCount = expectedCount;
+    this.quorum = quorum;
+    this.onComplete = onComplete;
+    this.responses = new LinkedHashMap<>(expectedCount);
+    this.serverFutures = new ArrayList<>(expectedCount);
+
+    if (expectedCount == 0)
+    {
+      completed = true;
+      onComplete.accept(new LinkedHashMap<>());
+    }
+  }
+
+  /**
+   * @param serverName Name of the server the request is sent to
+   *
+   * @return Consumer for the response of the server (cancelled once the
+   * gather completes without it)
+   */
+  public ResponseFuture newConsumer(String serverName)
+  {
+    Preconditions.checkNotNull(serverName, "serverName");
+
+    ResponseFuture future = new ResponseFuture();
+    future.thenAccept((responseMessage) -> accept(serverName, responseMessage));
+
+    boolean alreadyCompleted;
+
+    synchronized (this)
+    {
+      alreadyCompleted = completed;
+
+      if (!alreadyCompleted)
+      {
+        serverFutures.add(future);
+      }
+    }
+
+    if (alreadyCompleted)
+    {
+      future.cancel(false);
+    }
+
+    return future;
+  }
+
+  /**
+   * Records the response of a server
+   * <p>
+   * Buffer backed responses are copied since they are released once the
+   * consumer returns.
+   * </p>
+   *
+   * @param serverName Name of the server
+   * @param responseMessage Response of the server
+   */
+  public void accept(String serverName, ResponseMessage responseMessage)
+  {
+    Preconditions.checkNotNull(serverName, "serverName");
+    Preconditions.checkNotNull(responseMessage, "responseMessage");
+
+    ResponseMessage copy = new ResponseMessage(responseMessage.getResponseStatus(),
+      responseMessage.getMessageBytes());
+    Map<String, ResponseMessage> result;
+
+    synchronized (this)
+    {
+      if (completed)
+      {
+        return;
+      }
+
+      responses.put(serverName, copy);
+
+      if (copy.getResponseStatus().isOk())
+      {
+        okCount++;
+      }
+
+      boolean quorumReached = quorum > 0 && okCount >= quorum;
+
+      if (!quorumReached && responses.size() < expectedCount)
+      {
+        return;
+      }
+
+      completed = true;
+      result = new LinkedHashMap<>(responses);
+    }
+
+    // Stop waiting for the servers that did not respond (no-op for the others)
+    for (ResponseFuture future : serverFutures)
+    {
+      future.cancel(false);
+    }
+
+    serverFutures.clear();
+    onComplete.accept(result);
+  }
+}
@@ -20,12 +20,13 @@ package com.gmail.tracebachi.SockExchange.Netty;
 import com.google.common.base.Preconditions;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.util.concurrent.Future;
 
 import java.net.ConnectException;
+import java.net.SocketAddress;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -38,23 +39,143 @@ public class SockExchangeClient
   private final String hostname;
   private final int port;
   private final Bootstrap bootstrap;
-  private final EventLoopGroup workerGroup = new NioEventLoopGroup(1);
+  private final AbstractPacketHandler packetHandler;
+  private final boolean zeroCopyPayloads;
+  private final AllocationStatistics allocationStatistics;
+  private final TransportOptions transportOptions;
+  private final CompressionOptions compressionOptions;
+  private final CompressionStatistics compressionStatistics;
+  private final EventLoopGroup workerGroup;
+  private final SocketAddress domainSocketAddress;
   private final ScheduledExecutorService executorService = new ScheduledThreadPoolExecutor(1);
 
   private ConnectionState connectionState = ConnectionState.INITIAL;
+  private Bootstrap[] laneBootstraps = new Bootstrap[0];
+  private ConnectionState[] laneStates = new ConnectionState[0];
 
   public SockExchangeClient(String hostname, int port, AbstractPacketHandler packetHandler)
+  {
+    this(hostname, port, packetHandler, false,
+      new AllocationStatistics(BufferAllocatorType.POOLED_DIRECT));
+  }
+
+  public SockExchangeClient(
+    String hostname, int port, AbstractPacketHandler packetHandler, boolean zeroCopyPayloads,
+    AllocationStatistics allocationStatistics)
+  {
+    this(hostname, port, packetHandler, zeroCopyPayloads, allocationStatistics,
+      new TransportOptions());
+  }
+
+  public SockExchangeClient(
+    String hostname, int port, AbstractPacketHandler packetHandler, boolean zeroCopyPayloads,
+    AllocationStatistics allocationStatistics, TransportOptions transportOptions)
+  {
+    this(hostname, port, packetHandler, zeroCopyPayloads, allocationStatistics, transportOptions,
+      new CompressionOptions(), new CompressionStatistics());
+  }
+
+  public SockExchangeClient(
+    String hostname, int port, AbstractPacketHandler packetHandler, boolean zeroCopyPayloads,
+    AllocationStatistics allocationStatistics, TransportOptions transportOptions,
+    CompressionOptions compressionOptions, CompressionStatistics compressionStatistics)
   {
     Preconditions.checkArgument(hostname != null && !hostname.isEmpty(), "hostname");
     Preconditions.checkArgument(port > 0, "port");
     Preconditions.checkNotNull(packetHandler, "packetHandler");
+    Preconditions.checkNotNull(allocationStatistics, "allocationStatistics");
+    Preconditions.checkNotNull(transportOptions, "transportOptions");
+    Preconditions.checkNotNull(compressionOptions, "compressionOptions");
+    Preconditions.checkNotNull(compressionStatistics, "compressionStatistics");
+
+    TransportType transportType = transportOptions.getTransportType();
 
     this.hostname = hostname;
     this.port = port;
+    this.packetHandler = packetHandler;
+    this.zeroCopyPayloads = zeroCopyPayloads;
+    this.allocationStatistics = allocationStatistics;
+    this.transportOptions = transportOptions;
+    this.compressionOptions = compressionOptions;
+    this.compressionStatistics = compressionStatistics;
+    this.workerGroup = transportType.newEventLoopGroup(1);
     this.bootstrap = new Bootstrap()
       .group(workerGroup)
-      .channel(NioSocketChannel.class)
-      .handler(new SpigotPipelineInitializer(packetHandler));
+      .option(ChannelOption.ALLOCATOR, allocationStatistics.getAllocator())
+      .option(ChannelOption.MESSAGE_SIZE_ESTIMATOR, PacketSizeEstimator.INSTANCE)
+      .handler(new SpigotPipelineInitializer(packetHandler, zeroCopyPayloads,
+        allocationStatistics, compressionOptions, compressionStatistics));
+
+    int lowWaterMark = transportOptions.getWriteBufferLowWaterMark();
+    int highWaterMark = transportOptions.getWriteBufferHighWaterMark();
+
+    // Netty checks each water mark against the other, so the order matters
+    if (transportOptions.setLowWaterMarkFirst())
+    {
+      this.bootstrap
+        .option(ChannelOption.WRITE_BUFFER_LOW_WATER_MARK, lowWaterMark)
+        .option(ChannelOption.WRITE_BUFFER_HIGH_WATER_MARK, highWaterMark);
+    }
+    else
+    {
+      this.bootstrap
+        .option(ChannelOption.WRITE_BUFFER_HIGH_WATER_MARK, highWaterMark)
+        .option(ChannelOption.WRITE_BUFFER_LOW_WATER_MARK, lowWaterMark);
+    }
+
+    if (transportOptions.useDomainSocket())
+    {
+      // Same-host connection to the proxy (socket options do not apply)
+      this.domainSocketAddress = transportType.newDomainSocketAddress(
+        transportOptions.getDomainSocketPath());
+      this.bootstrap.channel(transportType.getDomainSocketChannelClass());
+      return;
+    }
+
+    if (transportOptions.getDomainSocketPath() != null)
+    {
+      System.err.println("[SockExchange] Domain sockets require the epoll transport. Using TCP.");
+    }
+
+    this.domainSocketAddress = null;
+    this.bootstrap
+      .channel(transportType.getSocketChannelClass())
+      .option(ChannelOption.TCP_NODELAY, transportOptions.isTcpNoDelay())
+      .option(ChannelOption.SO_KEEPALIVE, transportOptions.isKeepAlive());
+
+    if (transportOptions.getSendBufferSize() > 0)
+    {
+      this.bootstrap.option(ChannelOption.SO_SNDBUF, transportOptions.getSendBufferSize());
+    }
+
+    if (transportOptions.getReceiveBufferSize() > 0)
+    {
+      this.bootstrap.option(ChannelOption.SO_RCVBUF, transportOptions.getReceiveBufferSize());
+    }
+  }
+
+  /**
+   * @return {@link TransportOptions} used by the client
+   */
+  public TransportOptions getTransportOptions()
+  {
+    return transportOptions;
+  }
+
+  /**
+   * @return {@link AllocationStatistics} of the buffers allocated by the client
+   */
+  public AllocationStatistics getAllocationStatistics()
+  {
+    return allocationStatistics;
+  }
+
+  /**
+   * @return {@link CompressionStatistics} of the frames sent and received by the client
+   */
+  public CompressionStatistics getCompressionStatistics()
+  {
+    return compressionStatistics;
   }
 
   public synchronized void start() throws Exception
@@ -66,9 +187,33 @@ public class SockExchangeClient
 
     connectionState = ConnectionState.NOT_CONNECTED;
 
+    // Each bulk lane connects like the control lane but registers with its own handler
+    // (handlers that can not create lane handlers do not open lanes)
+    int bulkLanes = packetHandler instanceof LaneHandlerFactory ?
+      packetHandler.getLaneOptions().getBulkLanes() : 0;
+    laneBootstraps = new Bootstrap[bulkLanes];
+    laneStates = new ConnectionState[bulkLanes];
+
+    for (int i = 0; i < bulkLanes; i++)
+    {
+      AbstractPacketHandler laneHandler =
+        ((LaneHandlerFactory) packetHandler).newLaneHandler(i + 1);
+
+      laneBootstraps[i] = bootstrap.clone().handler(new SpigotPipelineInitializer(
+        laneHandler, zeroCopyPayloads, allocationStatistics, compressionOptions,
+        compressionStatistics));
+      laneStates[i] = ConnectionState.NOT_CONNECTED;
+    }
+
+    // Open the lanes as soon as the control lane is registered
+    packetHandler.setLaneConnector(this::requestLanes);
+
     // Schedule task to try and connect if disconnected
     executorService.scheduleAtFixedRate(this::connect, 1, 1, TimeUnit.SECONDS);
 
+    // Schedule task to update the per-second allocation rates
+    executorService.scheduleAtFixedRate(allocationStatistics::sample, 1, 1, TimeUnit.SECONDS);
+
     // Connect
     connectNow();
   }
@@ -92,10 +237,46 @@ public class SockExchangeClient
       connectionState = ConnectionState.CONNECTING;
 
       // Use the bootstrap to start
-      ChannelFuture future = bootstrap.connect(hostname, port);
+      ChannelFuture future = connectBootstrap(bootstrap);
       future.addListener(this::handleChannelConnectFuture);
       future.channel().closeFuture().addListener(this::handleChannelCloseFuture);
     }
+
+    connectLanes();
+  }
+
+  private void requestLanes()
+  {
+    try
+    {
+      executorService.execute(this::connectLanes);
+    }
+    catch (RejectedExecutionException ex)
+    {
+      // The client is shutting down
+    }
+  }
+
+  private synchronized void connectLanes()
+  {
+    // Bulk lanes join the registered control lane
+    if (connectionState != ConnectionState.CONNECTED || !packetHandler.isLaneSupported())
+    {
+      return;
+    }
+
+    for (int i = 0; i < laneStates.length; i++)
+    {
+      if (laneStates[i] == ConnectionState.NOT_CONNECTED)
+      {
+        int laneIndex = i;
+        laneStates[laneIndex] = ConnectionState.CONNECTING;
+
+        ChannelFuture future = connectBootstrap(laneBootstraps[laneIndex]);
+        future.addListener((f) -> handleLaneConnectFuture(laneIndex, f));
+        future.channel().closeFuture().addListener((f) -> handleLaneCloseFuture(laneIndex));
+      }
+    }
   }
 
   private synchronized void connectNow() throws Exception
@@ -106,7 +287,7 @@ public class SockExchangeClient
       connectionState = ConnectionState.CONNECTING;
 
       // Use the bootstrap to start
-      ChannelFuture future = bootstrap.connect(hostname, port);
+      ChannelFuture future = connectBootstrap(bootstrap);
       future.addListener(this::handleChannelConnectFuture);
       future.channel().closeFuture().addListener(this::handleChannelCloseFuture);
 
@@ -115,6 +296,16 @@ public class SockExchangeClient
     }
   }
 
+  private ChannelFuture connectBootstrap(Bootstrap bootstrap)
+  {
+    if (domainSocketAddress != null)
+    {
+      return bootstrap.connect(domainSocketAddress);
+    }
+
+    return bootstrap.connect(hostname, port);
+  }
+
   private synchronized void handleChannelConnectFuture(Future<? super Void> future)
   {
     if (future.isSuccess())
@@ -135,6 +326,26 @@ public class SockExchangeClient
     connectionState = ConnectionState.NOT_CONNECTED;
   }
 
+  private synchronized void handleLaneConnectFuture(int laneIndex, Future<? super Void> future)
+  {
+    if (future.isSuccess())
+    {
+      laneStates[laneIndex] = ConnectionState.CONNECTED;
+    }
+    else
+    {
+      laneStates[laneIndex] = ConnectionState.NOT_CONNECTED;
+
+      Throwable cause = future.cause();
+      printCauseToSystemErr(cause);
+    }
+  }
+
+  private synchronized void handleLaneCloseFuture(int laneIndex)
+  {
+    laneStates[laneIndex] = ConnectionState.NOT_CONNECTED;
+  }
+
   private void printCauseToSystemErr(Throwable cause)
   {
     if ((cause instanceof ConnectException))
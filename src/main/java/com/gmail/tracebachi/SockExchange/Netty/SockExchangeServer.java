@@ -23,8 +23,10 @@ import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author GeeItsZee (tracebachi@gmail.com)
@@ -34,21 +36,125 @@ public class SockExchangeServer
   private final int port;
   private final ServerBootstrap bootstrap;
   private final EventLoopGroup bossAndWorkerGroup;
+  private final AllocationStatistics allocationStatistics;
+  private final TransportOptions transportOptions;
+  private final CompressionStatistics compressionStatistics;
+  private final ServerBootstrap domainSocketBootstrap;
 
   private boolean started = false;
 
   public SockExchangeServer(int port, int threads, VelocityTieIn tieIn)
+  {
+    this(port, threads, tieIn, false,
+      new AllocationStatistics(BufferAllocatorType.POOLED_DIRECT));
+  }
+
+  public SockExchangeServer(
+    int port, int threads, VelocityTieIn tieIn, boolean zeroCopyPayloads,
+    AllocationStatistics allocationStatistics)
+  {
+    this(port, threads, tieIn, zeroCopyPayloads, allocationStatistics, new TransportOptions());
+  }
+
+  public SockExchangeServer(
+    int port, int threads, VelocityTieIn tieIn, boolean zeroCopyPayloads,
+    AllocationStatistics allocationStatistics, TransportOptions transportOptions)
+  {
+    this(port, threads, tieIn, zeroCopyPayloads, allocationStatistics, transportOptions,
+      new CompressionOptions(), new CompressionStatistics());
+  }
+
+  public SockExchangeServer(
+    int port, int threads, VelocityTieIn tieIn, boolean zeroCopyPayloads,
+    AllocationStatistics allocationStatistics, TransportOptions transportOptions,
+    CompressionOptions compressionOptions, CompressionStatistics compressionStatistics)
   {
     Preconditions.checkArgument(port > 0, "port");
     Preconditions.checkNotNull(tieIn, "tieIn");
+    Preconditions.checkNotNull(allocationStatistics, "allocationStatistics");
+    Preconditions.checkNotNull(transportOptions, "transportOptions");
+    Preconditions.checkNotNull(compressionOptions, "compressionOptions");
+    Preconditions.checkNotNull(compressionStatistics, "compressionStatistics");
+
+    TransportType transportType = transportOptions.getTransportType();
+    BungeePipelineInitializer pipelineInitializer = new BungeePipelineInitializer(tieIn,
+      zeroCopyPayloads, allocationStatistics, compressionOptions, compressionStatistics);
 
     this.port = port;
-    this.bossAndWorkerGroup = new NioEventLoopGroup(Math.max(1, threads));
+    this.allocationStatistics = allocationStatistics;
+    this.transportOptions = transportOptions;
+    this.compressionStatistics = compressionStatistics;
+    this.bossAndWorkerGroup = transportType.newEventLoopGroup(Math.max(1, threads));
     this.bootstrap = new ServerBootstrap()
       .group(bossAndWorkerGroup)
-      .channel(NioServerSocketChannel.class)
-      .childHandler(new BungeePipelineInitializer(tieIn))
-      .option(ChannelOption.SO_BACKLOG, 16);
+      .channel(transportType.getServerSocketChannelClass())
+      .childHandler(pipelineInitializer)
+      .option(ChannelOption.SO_BACKLOG, 16)
+      .option(ChannelOption.ALLOCATOR, allocationStatistics.getAllocator())
+      .childOption(ChannelOption.ALLOCATOR, allocationStatistics.getAllocator())
+      .childOption(ChannelOption.MESSAGE_SIZE_ESTIMATOR, PacketSizeEstimator.INSTANCE)
+      .childOption(ChannelOption.TCP_NODELAY, transportOptions.isTcpNoDelay())
+      .childOption(ChannelOption.SO_KEEPALIVE, transportOptions.isKeepAlive());
+
+    setWriteBufferWaterMarks(this.bootstrap, transportOptions);
+
+    if (transportOptions.getSendBufferSize() > 0)
+    {
+      this.bootstrap.childOption(ChannelOption.SO_SNDBUF, transportOptions.getSendBufferSize());
+    }
+
+    if (transportOptions.getReceiveBufferSize() > 0)
+    {
+      // Set on the listening socket so it applies before the TCP window is negotiated
+      this.bootstrap.option(ChannelOption.SO_RCVBUF, transportOptions.getReceiveBufferSize());
+    }
+
+    // Same-host servers can also connect through a Unix domain socket
+    if (transportOptions.useDomainSocket())
+    {
+      this.domainSocketBootstrap = new ServerBootstrap()
+        .group(bossAndWorkerGroup)
+        .channel(transportType.getServerDomainSocketChannelClass())
+        .childHandler(pipelineInitializer)
+        .option(ChannelOption.ALLOCATOR, allocationStatistics.getAllocator())
+        .childOption(ChannelOption.ALLOCATOR, allocationStatistics.getAllocator())
+        .childOption(ChannelOption.MESSAGE_SIZE_ESTIMATOR, PacketSizeEstimator.INSTANCE);
+
+      setWriteBufferWaterMarks(this.domainSocketBootstrap, transportOptions);
+    }
+    else
+    {
+      if (transportOptions.getDomainSocketPath() != null)
+      {
+        System.err.println("[SockExchange] Domain sockets require the epoll transport. Using TCP only.");
+      }
+
+      this.domainSocketBootstrap = null;
+    }
+  }
+
+  /**
+   * @return {@link TransportOptions} used by the server
+   */
+  public TransportOptions getTransportOptions()
+  {
+    return transportOptions;
+  }
+
+  /**
+   * @return {@link AllocationStatistics} of the buffers allocated by the server
+   */
+  public AllocationStatistics getAllocationStatistics()
+  {
+    return allocationStatistics;
+  }
+
+  /**
+   * @return {@link CompressionStatistics} of the frames sent and received by the server
+   */
+  public CompressionStatistics getCompressionStatistics()
+  {
+    return compressionStatistics;
   }
 
   public synchronized void start() throws Exception
@@ -64,10 +170,29 @@ public class SockExchangeServer
     {
       throw new Exception(bindFuture.cause());
     }
-    else
+
+    if (domainSocketBootstrap != null)
     {
-      started = true;
+      String path = transportOptions.getDomainSocketPath();
+
+      // Remove a socket file left behind by an unclean shutdown
+      Files.deleteIfExists(Paths.get(path));
+
+      ChannelFuture domainBindFuture = domainSocketBootstrap.bind(
+        transportOptions.getTransportType().newDomainSocketAddress(path));
+      domainBindFuture.await();
+
+      if (!domainBindFuture.isSuccess())
+      {
+        bindFuture.channel().close();
+        throw new Exception(domainBindFuture.cause());
+      }
     }
+
+    started = true;
+
+    // Schedule task to update the per-second allocation rates
+    bossAndWorkerGroup.scheduleAtFixedRate(allocationStatistics::sample, 1, 1, TimeUnit.SECONDS);
   }
 
   public synchronized void shutdown()
@@ -76,4 +201,25 @@ public class SockExchangeServer
 
     bossAndWorkerGroup.shutdownGracefully();
   }
+
+  private static void setWriteBufferWaterMarks(
+    ServerBootstrap serverBootstrap, TransportOptions transportOptions)
+  {
+    int lowWaterMark = transportOptions.getWriteBufferLowWaterMark();
+    int highWaterMark = transportOptions.getWriteBufferHighWaterMark();
+
+    // Netty checks each water mark against the other, so the order matters
+    if (transportOptions.setLowWaterMarkFirst())
+    {
+      serverBootstrap
+        .childOption(ChannelOption.WRITE_BUFFER_LOW_WATER_MARK, lowWaterMark)
+        .childOption(ChannelOption.WRITE_BUFFER_HIGH_WATER_MARK, highWaterMark);
+    }
+    else
+    {
+      serverBootstrap
+        .childOption(ChannelOption.WRITE_BUFFER_HIGH_WATER_MARK, highWaterMark)
+        .childOption(ChannelOption.WRITE_BUFFER_LOW_WATER_MARK, lowWaterMark);
+    }
+  }
 }
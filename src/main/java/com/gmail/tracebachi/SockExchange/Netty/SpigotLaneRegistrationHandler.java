@@ -0,0 +1,117 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketToSpigotRegister;
+import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketToVelocityRegister;
+import com.gmail.tracebachi.SockExchange.Utilities.BasicLogger;
+import com.google.common.base.Preconditions;
+import io.netty.channel.Channel;
+import io.netty.handler.timeout.ReadTimeoutHandler;
+
+/**
+ * Registers a bulk lane of a {@link SpigotToVelocityConnection}
+ * <p>
+ * Once Velocity accepts the lane, the decoder of the lane passes packets to
+ * the connection and this handler is ready for the next channel of the lane.
+ * </p>
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+class SpigotLaneRegistrationHandler extends AbstractPacketHandler
+{
+  private final SpigotToVelocityConnection connection;
+  private final String password;
+  private final int lane;
+  private final BasicLogger basicLogger;
+  private volatile Channel controlChannel;
+
+  SpigotLaneRegistrationHandler(
+    SpigotToVelocityConnection connection, String password, int lane, BasicLogger basicLogger)
+  {
+    Preconditions.checkNotNull(connection, "connection");
+    Preconditions.checkArgument(lane > 0, "lane must be > 0");
+    Preconditions.checkNotNull(basicLogger, "basicLogger");
+
+    this.connection = connection;
+    this.password = password;
+    this.lane = lane;
+    this.basicLogger = basicLogger;
+  }
+
+  @Override
+  public void onChannelActive(Channel channel)
+  {
+    super.onChannelActive(channel);
+
+    controlChannel = connection.channel;
+
+    // Lanes are only opened for a registered connection that agreed to use them
+    if (controlChannel == null || !connection.isLaneSupported())
+    {
+      channel.close();
+      return;
+    }
+
+    PacketToVelocityRegister packet = new PacketToVelocityRegister();
+    packet.setPassword(password);
+    packet.setServerName(connection.getServerName());
+    packet.setFeatures(connection.getProtocolFeatures() &
+      ProtocolFeatures.getSupported(channel) & ProtocolFeatures.LANE_FEATURES);
+    packet.setLane(lane);
+    packet.setLaneCount(connection.getLaneOptions().getBulkLanes());
+
+    channel.writeAndFlush(packet);
+  }
+
+  @Override
+  public void handle(PacketToSpigotRegister packet)
+  {
+    Preconditions.checkNotNull(packet, "packet");
+    Preconditions.checkState(channel != null, "Channel is not active");
+
+    Channel laneChannel = channel;
+
+    if (!packet.getResult().isSuccess())
+    {
+      laneChannel.close();
+      basicLogger.severe("Lane %s registration failed: %s", lane, packet.getResult());
+      return;
+    }
+
+    ProtocolFeatures.enableFrameFeatures(laneChannel, packet.getFeatures());
+
+    // The control lane times out idle connections, so bulk lanes may stay idle
+    laneChannel.pipeline().remove(ReadTimeoutHandler.class);
+
+    // Replace the decoder's packet handler with the connection
+    laneChannel.pipeline().get(SpigotPacketDecoder.class).setPacketHandler(connection);
+
+    // The decoder informs the connection once the lane is inactive
+    super.onChannelInactive();
+
+    if (!connection.addLane(controlChannel, laneChannel, lane,
+      connection.getLaneOptions().getBulkLanes(), packet.getFeatures()))
+    {
+      laneChannel.close();
+      return;
+    }
+
+    basicLogger.debug("Lane %s is now registered. Features: '%s'.", lane, packet.getFeatures());
+  }
+}
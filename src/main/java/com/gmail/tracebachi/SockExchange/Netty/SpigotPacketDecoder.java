@@ -17,9 +17,9 @@
  */
 package com.gmail.tracebachi.SockExchange.Netty;
 
-import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketToAnyResponse;
-import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketToSpigotRegister;
-import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketToSpigotRequest;
+import com.gmail.tracebachi.SockExchange.Netty.Packets.AbstractPacket;
+import com.gmail.tracebachi.SockExchange.Netty.Packets.ChannelSymbolTable;
+import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketBatch;
 import com.google.common.base.Preconditions;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
@@ -27,16 +27,57 @@ import io.netty.handler.codec.MessageToMessageDecoder;
 
 import java.util.List;
 
-import static com.gmail.tracebachi.SockExchange.Netty.Packets.PacketIdMapping.isIdForPacket;
-
 /**
  * @author GeeItsZee (tracebachi@gmail.com)
  */
 public class SpigotPacketDecoder extends MessageToMessageDecoder<ByteBuf>
 {
-  private final AbstractPacketHandler packetHandler;
+  private final boolean zeroCopyPayloads;
+  private final ChannelSymbolTable channelSymbols;
+  private volatile AbstractPacketHandler packetHandler;
 
   public SpigotPacketDecoder(AbstractPacketHandler packetHandler)
+  {
+    this(packetHandler, false);
+  }
+
+  /**
+   * @param packetHandler Handler for decoded packets
+   * @param zeroCopyPayloads True if message payloads should be passed to the
+   * handler as retained slices of the frame instead of copied byte arrays
+   */
+  public SpigotPacketDecoder(AbstractPacketHandler packetHandler, boolean zeroCopyPayloads)
+  {
+    this(packetHandler, zeroCopyPayloads, new ChannelSymbolTable());
+  }
+
+  /**
+   * @param packetHandler Handler for decoded packets
+   * @param zeroCopyPayloads True if message payloads should be passed to the
+   * handler as retained slices of the frame instead of copied byte arrays
+   * @param channelSymbols Symbol table of the connection (shared with the encoder)
+   */
+  public SpigotPacketDecoder(
+    AbstractPacketHandler packetHandler, boolean zeroCopyPayloads,
+    ChannelSymbolTable channelSymbols)
+  {
+    Preconditions.checkNotNull(packetHandler, "packetHandler");
+    Preconditions.checkNotNull(channelSymbols, "channelSymbols");
+
+    this.packetHandler = packetHandler;
+    this.zeroCopyPayloads = zeroCopyPayloads;
+    this.channelSymbols = channelSymbols;
+  }
+
+  /**
+   * @return Symbol table of the connection
+   */
+  public ChannelSymbolTable getChannelSymbols()
+  {
+    return channelSymbols;
+  }
+
+  public void setPacketHandler(AbstractPacketHandler packetHandler)
   {
     Preconditions.checkNotNull(packetHandler, "packetHandler");
 
@@ -47,31 +88,34 @@ public class SpigotPacketDecoder extends MessageToMessageDecoder<ByteBuf>
   protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> list) throws Exception
   {
     byte packetId = in.readByte();
+    PacketRegistry.Entry<?> entry = PacketRegistry.getSpigotBound(packetId);
 
-    if (isIdForPacket(packetId, PacketToSpigotRegister.class))
-    {
-      PacketToSpigotRegister packet = new PacketToSpigotRegister();
-      packet.read(in);
-
-      packetHandler.handle(packet);
-    }
-    else if (isIdForPacket(packetId, PacketToSpigotRequest.class))
-    {
-      PacketToSpigotRequest packet = new PacketToSpigotRequest();
-      packet.read(in);
-
-      packetHandler.handle(packet);
-    }
-    else if (isIdForPacket(packetId, PacketToAnyResponse.class))
+    if (entry != null)
     {
-      PacketToAnyResponse packet = new PacketToAnyResponse();
+      AbstractPacket packet = entry.newPacket();
+      packet.setChannelSymbols(channelSymbols);
+      packet.setRetainingPayload(zeroCopyPayloads);
       packet.read(in);
 
-      packetHandler.handle(packet);
+      try
+      {
+        if (packet instanceof PacketBatch && !((PacketBatch) packet).hasDestination())
+        {
+          dispatchBatch(ctx, (PacketBatch) packet);
+        }
+        else
+        {
+          entry.dispatch(packetHandler, packet);
+        }
+      }
+      finally
+      {
+        packet.release();
+      }
     }
     else
     {
-      // All acceptable packet (IDs) have been checked.
+      // The packet is not registered (or is not sent in this direction).
       System.err.println("[SpigotPacketDecoder] Unexpected packetId: " + packetId);
       ctx.close();
     }
@@ -84,6 +128,48 @@ public class SpigotPacketDecoder extends MessageToMessageDecoder<ByteBuf>
     }
   }
 
+  private void dispatchBatch(ChannelHandlerContext ctx, PacketBatch batch)
+  {
+    ByteBuf frames = batch.getFrames();
+
+    while (frames.isReadable())
+    {
+      ByteBuf subFrame = PacketBatch.readSubFrame(frames);
+      byte packetId = subFrame.readByte();
+      PacketRegistry.Entry<?> entry = PacketRegistry.getSpigotBound(packetId);
+
+      // Batches are not nested
+      if (entry == null || entry.getPacketClass() == PacketBatch.class)
+      {
+        System.err.println("[SpigotPacketDecoder] Unexpected packetId in batch: " + packetId);
+        ctx.close();
+        return;
+      }
+
+      AbstractPacket packet = entry.newPacket();
+      packet.setChannelSymbols(channelSymbols);
+      packet.setRetainingPayload(zeroCopyPayloads);
+      packet.read(subFrame);
+
+      try
+      {
+        if (subFrame.isReadable())
+        {
+          // There should not be any leftover bytes.
+          System.err.println("[SpigotPacketDecoder] Unexpected extra bytes in batch. packetId: " + packetId);
+          ctx.close();
+          return;
+        }
+
+        entry.dispatch(packetHandler, packet);
+      }
+      finally
+      {
+        packet.release();
+      }
+    }
+  }
+
   @Override
   public void channelActive(ChannelHandlerContext ctx) throws Exception
   {
@@ -94,10 +180,17 @@ public class SpigotPacketDecoder extends MessageToMessageDecoder<ByteBuf>
   @Override
   public void channelInactive(ChannelHandlerContext ctx) throws Exception
   {
-    packetHandler.onChannelInactive();
+    packetHandler.onChannelInactive(ctx.channel());
     super.channelInactive(ctx);
   }
 
+  @Override
+  public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception
+  {
+    packetHandler.onWritabilityChanged();
+    super.channelWritabilityChanged(ctx);
+  }
+
   @Override
   public void exceptionCaught(ChannelHandlerContext ctx, Throwable throwable) throws Exception
   {
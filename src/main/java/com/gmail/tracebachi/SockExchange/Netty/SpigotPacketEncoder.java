@@ -22,31 +22,86 @@ import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToByteEncoder;
 
-import static com.gmail.tracebachi.SockExchange.Netty.Packets.PacketIdMapping.isIdForPacket;
-
 /**
  * @author GeeItsZee (tracebachi@gmail.com)
  */
 public class SpigotPacketEncoder extends MessageToByteEncoder<AbstractPacket>
 {
+  private final AllocationStatistics allocationStatistics;
+  private final ChannelSymbolTable channelSymbols;
+  private final FrameCompressor frameCompressor;
+
+  public SpigotPacketEncoder()
+  {
+    this(null, null, null);
+  }
+
+  /**
+   * @param allocationStatistics Statistics to record allocations in or null
+   * @param channelSymbols Symbol table of the connection or null to always
+   * send channel names as strings
+   */
+  public SpigotPacketEncoder(
+    AllocationStatistics allocationStatistics, ChannelSymbolTable channelSymbols)
+  {
+    this(allocationStatistics, channelSymbols, null);
+  }
+
+  /**
+   * @param allocationStatistics Statistics to record allocations in or null
+   * @param channelSymbols Symbol table of the connection or null to always
+   * send channel names as strings
+   * @param frameCompressor Compressor of the connection or null if
+   * compression is disabled
+   */
+  public SpigotPacketEncoder(
+    AllocationStatistics allocationStatistics, ChannelSymbolTable channelSymbols,
+    FrameCompressor frameCompressor)
+  {
+    this.allocationStatistics = allocationStatistics;
+    this.channelSymbols = channelSymbols;
+    this.frameCompressor = frameCompressor;
+  }
+
+  @Override
+  protected ByteBuf allocateBuffer(
+    ChannelHandlerContext ctx, AbstractPacket packet, boolean preferDirect) throws Exception
+  {
+    // Set before computing the size, since channel names may be sent as IDs
+    packet.setChannelSymbols(channelSymbols);
+
+    // Packet ID and the exact size of the packet, so the buffer never has to grow
+    int size = 1 + packet.estimateSize();
+
+    if (allocationStatistics != null)
+    {
+      allocationStatistics.recordAllocation(size);
+    }
+
+    return preferDirect ? ctx.alloc().ioBuffer(size) : ctx.alloc().heapBuffer(size);
+  }
+
   @Override
   protected void encode(ChannelHandlerContext ctx, AbstractPacket packet, ByteBuf out)
     throws Exception
   {
-    byte packetId = PacketIdMapping.packetToId(packet.getClass());
+    PacketRegistry.Entry<?> entry = PacketRegistry.getEntry(packet.getClass());
+
+    // The compressor runs right after this encoder for the same frame
+    if (frameCompressor != null)
+    {
+      frameCompressor.prepareDictionary(packet.getChannelName());
+    }
 
-    if (isIdForPacket(packetId, PacketToVelocityRegister.class) ||
-      isIdForPacket(packetId, PacketToVelocityRequest.class) ||
-      isIdForPacket(packetId, PacketToAnyResponse.class) ||
-      isIdForPacket(packetId, PacketToVelocityForward.class))
+    if (entry != null && entry.getDirection().isReceivedByVelocity())
     {
-      out.writeByte(packetId);
+      out.writeByte(entry.getId());
       packet.write(out);
     }
     else
     {
-      // All acceptable packet (IDs) have been checked.
-      System.err.println("[SpigotPacketEncoder] Unexpected packetId: " + packetId);
+      // The packet is not registered (or is not sent in this direction).
+      System.err.println("[SpigotPacketEncoder] Unexpected packet: " + packet.getClass().getName());
       ctx.close();
     }
   }
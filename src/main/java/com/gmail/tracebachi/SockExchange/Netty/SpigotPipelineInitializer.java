@@ -17,6 +17,7 @@
  */
 package com.gmail.tracebachi.SockExchange.Netty;
 
+import com.gmail.tracebachi.SockExchange.Netty.Packets.ChannelSymbolTable;
 import com.google.common.base.Preconditions;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
@@ -35,6 +36,9 @@ public class SpigotPipelineInitializer extends ChannelInitializer
   private static final String READ_TIMEOUT_HANDLER = "read-timeout-handler";
   private static final String FRAME_DECODER = "frame-decoder";
   private static final String FRAME_PREPENDER = "frame-prepender";
+  private static final String FILE_REGION_ENCODER = "file-region-encoder";
+  private static final String FRAME_COMPRESSOR = "frame-compressor";
+  private static final String FRAME_DECOMPRESSOR = "frame-decompressor";
   private static final String PACKET_DECODER = "packet-decoder";
   private static final String PACKET_ENCODER = "packet-encoder";
   private static final int MAX_FRAME_SIZE = 4 * 1024 * 1024; // 4 MB
@@ -43,12 +47,38 @@ public class SpigotPipelineInitializer extends ChannelInitializer
   private static final int FRAME_LENGTH_ADJUSTMENT = 0;
 
   private final AbstractPacketHandler packetHandler;
+  private final boolean zeroCopyPayloads;
+  private final AllocationStatistics allocationStatistics;
+  private final CompressionOptions compressionOptions;
+  private final CompressionStatistics compressionStatistics;
 
   public SpigotPipelineInitializer(AbstractPacketHandler packetHandler)
+  {
+    this(packetHandler, false, null);
+  }
+
+  public SpigotPipelineInitializer(
+    AbstractPacketHandler packetHandler, boolean zeroCopyPayloads,
+    AllocationStatistics allocationStatistics)
+  {
+    this(packetHandler, zeroCopyPayloads, allocationStatistics, new CompressionOptions(),
+      new CompressionStatistics());
+  }
+
+  public SpigotPipelineInitializer(
+    AbstractPacketHandler packetHandler, boolean zeroCopyPayloads,
+    AllocationStatistics allocationStatistics,
+    CompressionOptions compressionOptions, CompressionStatistics compressionStatistics)
   {
     Preconditions.checkNotNull(packetHandler, "packetHandler");
+    Preconditions.checkNotNull(compressionOptions, "compressionOptions");
+    Preconditions.checkNotNull(compressionStatistics, "compressionStatistics");
 
     this.packetHandler = packetHandler;
+    this.zeroCopyPayloads = zeroCopyPayloads;
+    this.allocationStatistics = allocationStatistics;
+    this.compressionOptions = compressionOptions;
+    this.compressionStatistics = compressionStatistics;
   }
 
   @Override
@@ -66,11 +96,30 @@ public class SpigotPipelineInitializer extends ChannelInitializer
       FRAME_LENGTH_FIELD_LENGTH);
     pipeline.addLast(FRAME_DECODER, frameDecoder);
 
+    // Add a frame decompressor (frames without the compressed flag pass through)
+    pipeline.addLast(FRAME_DECOMPRESSOR, new FrameDecompressor(MAX_FRAME_SIZE,
+      compressionStatistics));
+
+    // Add a file region encoder (writes its own frames, so it is not compressed)
+    pipeline.addLast(FILE_REGION_ENCODER, new FileRegionChunkEncoder());
+
     // Add a frame prepender
     pipeline.addLast(FRAME_PREPENDER, new LengthFieldPrepender(FRAME_LENGTH_FIELD_LENGTH, false));
 
-    // Add a packet decoder and encoder
-    pipeline.addLast(PACKET_DECODER, new SpigotPacketDecoder(packetHandler));
-    pipeline.addLast(PACKET_ENCODER, new SpigotPacketEncoder());
+    // Add a frame compressor (enabled once both sides agree to use compression)
+    FrameCompressor frameCompressor = null;
+
+    if (compressionOptions.isEnabled())
+    {
+      frameCompressor = new FrameCompressor(compressionOptions, compressionStatistics);
+      pipeline.addLast(FRAME_COMPRESSOR, frameCompressor);
+    }
+
+    // Add a packet decoder and encoder (sharing the symbol table of the connection)
+    ChannelSymbolTable channelSymbols = new ChannelSymbolTable();
+    pipeline.addLast(PACKET_DECODER, new SpigotPacketDecoder(packetHandler, zeroCopyPayloads,
+      channelSymbols));
+    pipeline.addLast(PACKET_ENCODER, new SpigotPacketEncoder(allocationStatistics, channelSymbols,
+      frameCompressor));
   }
 }
@@ -18,19 +18,28 @@
 package com.gmail.tracebachi.SockExchange.Netty;
 
 import com.gmail.tracebachi.SockExchange.ExpirableConsumer;
+import com.gmail.tracebachi.SockExchange.Messages.AggregatedResponseMessage;
+import com.gmail.tracebachi.SockExchange.Messages.MessageBatch;
 import com.gmail.tracebachi.SockExchange.Messages.ReceivedMessage;
 import com.gmail.tracebachi.SockExchange.Messages.ReceivedMessageNotifier;
+import com.gmail.tracebachi.SockExchange.Messages.ReceivedStreamNotifier;
 import com.gmail.tracebachi.SockExchange.Messages.ResponseMessage;
 import com.gmail.tracebachi.SockExchange.Messages.ResponseStatus;
 import com.gmail.tracebachi.SockExchange.Netty.Packets.*;
 import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketToVelocityRequest.DestinationType;
 import com.gmail.tracebachi.SockExchange.Utilities.BasicLogger;
+import com.gmail.tracebachi.SockExchange.Utilities.CaseInsensitiveMap;
 import com.gmail.tracebachi.SockExchange.Utilities.ExtraPreconditions;
 import com.gmail.tracebachi.SockExchange.Utilities.LongIdCounterMap;
 import com.google.common.base.Preconditions;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.function.Consumer;
@@ -39,24 +48,47 @@ import java.util.function.Consumer;
  * @author GeeItsZee (tracebachi@gmail.com)
  */
 public class SpigotToVelocityConnection extends AbstractPacketHandler
+  implements LaneHandlerFactory
 {
+  /**
+   * Extra time to wait for an aggregated response, so Bungee can respond with
+   * the timeouts of its own requests before this request times out
+   */
+  private static final long GATHER_TIMEOUT_GRACE_MILLIS = 1000;
+
   private final String serverName;
   private final String password;
   private final Executor executor;
   private final ReceivedMessageNotifier messageNotifier;
   private final LongIdCounterMap<ExpirableConsumer<ResponseMessage>> responseConsumerMap;
   private final BasicLogger basicLogger;
+  private final StreamEndpoint streamEndpoint;
   private volatile boolean registered;
+  private volatile int serverId = -1;
+  private volatile CaseInsensitiveMap<Integer> serverIdsByName;
+
+  public SpigotToVelocityConnection(
+    String serverName, String password, Executor executor, ReceivedMessageNotifier messageNotifier,
+    LongIdCounterMap<ExpirableConsumer<ResponseMessage>> responseConsumerMap,
+    BasicLogger basicLogger, FlushPolicy flushPolicy, BackpressurePolicy backpressurePolicy)
+  {
+    this(serverName, password, executor, messageNotifier, new ReceivedStreamNotifier(executor),
+      responseConsumerMap, basicLogger, flushPolicy, backpressurePolicy);
+  }
 
   public SpigotToVelocityConnection(
     String serverName, String password, Executor executor, ReceivedMessageNotifier messageNotifier,
+    ReceivedStreamNotifier streamNotifier,
     LongIdCounterMap<ExpirableConsumer<ResponseMessage>> responseConsumerMap,
-    BasicLogger basicLogger)
+    BasicLogger basicLogger, FlushPolicy flushPolicy, BackpressurePolicy backpressurePolicy)
   {
+    super(flushPolicy, backpressurePolicy);
+
     ExtraPreconditions.checkNotEmpty(serverName, "serverName");
     ExtraPreconditions.checkNotEmpty(password, "password");
     Preconditions.checkNotNull(executor, "executor");
     Preconditions.checkNotNull(messageNotifier, "messageNotifier");
+    Preconditions.checkNotNull(streamNotifier, "streamNotifier");
     Preconditions.checkNotNull(responseConsumerMap, "responseConsumerMap");
     Preconditions.checkNotNull(basicLogger, "basicLogger");
 
@@ -66,6 +98,8 @@ public class SpigotToVelocityConnection extends AbstractPacketHandler
     this.messageNotifier = messageNotifier;
     this.responseConsumerMap = responseConsumerMap;
     this.basicLogger = basicLogger;
+    this.streamEndpoint = new StreamEndpoint(this, null, executor, streamNotifier,
+      responseConsumerMap);
   }
 
   public String getServerName()
@@ -73,6 +107,24 @@ public class SpigotToVelocityConnection extends AbstractPacketHandler
     return serverName;
   }
 
+  /**
+   * @param serverName Name of the server to look up
+   * @return ID assigned to the server by Velocity or -1 if it is unknown
+   *   or the connection is not registered
+   */
+  public int getServerId(String serverName)
+  {
+    CaseInsensitiveMap<Integer> idsByName = serverIdsByName;
+
+    if (serverName == null || idsByName == null)
+    {
+      return -1;
+    }
+
+    Integer id = idsByName.get(serverName);
+    return id == null ? -1 : id;
+  }
+
   @Override
   public void onChannelActive(Channel channel)
   {
@@ -81,20 +133,44 @@ public class SpigotToVelocityConnection extends AbstractPacketHandler
     PacketToVelocityRegister packet = new PacketToVelocityRegister();
     packet.setPassword(password);
     packet.setServerName(serverName);
+    packet.setFeatures(getOfferedFeatures(channel));
 
     this.channel.writeAndFlush(packet);
 
     basicLogger.debug("Channel is now active.");
   }
 
+  @Override
+  public AbstractPacketHandler newLaneHandler(int lane)
+  {
+    return new SpigotLaneRegistrationHandler(this, password, lane, basicLogger);
+  }
+
+  private int getOfferedFeatures(Channel channel)
+  {
+    int features = ProtocolFeatures.getSupported(channel);
+
+    // Lanes are only offered if the client opens any
+    if (getLaneOptions().getBulkLanes() == 0)
+    {
+      features &= ~ProtocolFeatures.LANES;
+    }
+
+    return features;
+  }
+
   @Override
   public void onChannelInactive()
   {
     basicLogger.debug("Channel is now inactive.");
 
     registered = false;
+    serverId = -1;
+    serverIdsByName = null;
 
     super.onChannelInactive();
+
+    streamEndpoint.close();
   }
 
   @Override
@@ -115,8 +191,31 @@ public class SpigotToVelocityConnection extends AbstractPacketHandler
     }
     else
     {
+      if (ProtocolFeatures.has(packet.getFeatures(), ProtocolFeatures.CHANNEL_SYMBOLS))
+      {
+        channel.pipeline().get(SpigotPacketDecoder.class).getChannelSymbols().enableOutgoing();
+      }
+
+      if (ProtocolFeatures.has(packet.getFeatures(), ProtocolFeatures.SERVER_IDS))
+      {
+        List<String> serverNames = packet.getServerNames();
+        CaseInsensitiveMap<Integer> idsByName = new CaseInsensitiveMap<>(
+          new HashMap<>(serverNames.size() * 2));
+
+        for (int i = 0; i < serverNames.size(); i++)
+        {
+          idsByName.put(serverNames.get(i), i);
+        }
+
+        serverIdsByName = idsByName;
+        serverId = packet.getServerId();
+      }
+
+      ProtocolFeatures.enableFrameFeatures(channel, packet.getFeatures());
+      setProtocolFeatures(packet.getFeatures());
+
       registered = true;
-      basicLogger.debug("Channel is now registered.");
+      basicLogger.debug("Channel is now registered. Features: '%s'.", packet.getFeatures());
     }
   }
 
@@ -127,11 +226,10 @@ public class SpigotToVelocityConnection extends AbstractPacketHandler
 
     Consumer<byte[]> onResponseConsumer = null;
     String channelName = packet.getChannelName();
-    byte[] messageBytes = packet.getMessageBytes();
     Long consumerId = packet.getConsumerId();
 
     basicLogger.debug("Received request. ChannelName '%s'. NumBytes: '%s'. ConsumerId: '%s'.",
-      channelName, messageBytes.length, consumerId);
+      channelName, packet.getMessageLength(), consumerId);
 
     // If there is a consumer, construct a response consumer.
     if (packet.hasConsumer())
@@ -147,8 +245,21 @@ public class SpigotToVelocityConnection extends AbstractPacketHandler
       };
     }
 
-    ReceivedMessage message = new ReceivedMessage(channelName, messageBytes, onResponseConsumer);
-    messageNotifier.notify(channelName, message);
+    ReceivedMessage message;
+    ByteBuf messageBuffer = packet.getMessageBuffer();
+
+    // In zero-copy mode, the message takes its own reference to the payload
+    // which is released by the notifier once the listeners finish.
+    if (messageBuffer != null)
+    {
+      message = new ReceivedMessage(channelName, messageBuffer.retain(), onResponseConsumer);
+    }
+    else
+    {
+      message = new ReceivedMessage(channelName, packet.getMessageBytes(), onResponseConsumer);
+    }
+
+    notifyConsumers(messageNotifier, packet, channelName, message);
   }
 
   @Override
@@ -158,8 +269,7 @@ public class SpigotToVelocityConnection extends AbstractPacketHandler
 
     long consumerId = packet.getConsumerId();
     ResponseStatus responseStatus = packet.getResponseStatus();
-    byte[] messageBytes = packet.getMessageBytes();
-    int numBytes = messageBytes != null ? messageBytes.length : -1;
+    int numBytes = packet.getMessageLength();
     ExpirableConsumer<ResponseMessage> responseConsumer = responseConsumerMap.remove(consumerId);
     boolean hasConsumer = responseConsumer != null;
 
@@ -170,17 +280,47 @@ public class SpigotToVelocityConnection extends AbstractPacketHandler
     // If there is a consumer, execute it with the response.
     if (hasConsumer)
     {
-      executor.execute(() ->
-      {
-        ResponseMessage responseMessage = new ResponseMessage(responseStatus, messageBytes);
-        responseConsumer.accept(responseMessage);
-      });
+      executeResponseConsumer(executor, responseConsumer, toResponseMessage(packet));
     }
   }
 
+  @Override
+  public void handle(PacketStreamOpen packet)
+  {
+    checkPacketAndRegistered(packet);
+
+    basicLogger.debug("Received stream. ChannelName: '%s'. ServerName: '%s'. StreamId: '%s'.",
+      packet.getChannelName(), packet.getServerName(), packet.getStreamId());
+
+    streamEndpoint.handle(packet);
+  }
+
+  @Override
+  public void handle(PacketStreamChunk packet)
+  {
+    checkPacketAndRegistered(packet);
+
+    streamEndpoint.handle(packet);
+  }
+
+  @Override
+  public void handle(PacketStreamAck packet)
+  {
+    checkPacketAndRegistered(packet);
+
+    streamEndpoint.handle(packet);
+  }
+
   public void sendToVelocity(
     String channelName, byte[] messageBytes, Consumer<ResponseMessage> consumer,
     long timeoutInMillis)
+  {
+    sendToVelocity(channelName, messageBytes, consumer, timeoutInMillis, null);
+  }
+
+  public void sendToVelocity(
+    String channelName, byte[] messageBytes, Consumer<ResponseMessage> consumer,
+    long timeoutInMillis, PacketPriority priority)
   {
     ExtraPreconditions.checkNotEmpty(channelName, "channelName");
     Preconditions.checkNotNull(messageBytes, "messageBytes");
@@ -189,11 +329,13 @@ public class SpigotToVelocityConnection extends AbstractPacketHandler
     packet.setDestinationType(DestinationType.BUNGEE);
     packet.setChannelName(channelName);
     packet.setMessageBytes(messageBytes);
+    packet.setPriority(priority);
 
     // Check if there is a consumer for a response
     if (consumer != null)
     {
-      if (executeConsumerIfNotConnected(consumer))
+      if (executeConsumerIfNotConnected(consumer) ||
+        executeConsumerIfWriteBufferFull(executor, consumer, packet))
       {
         return;
       }
@@ -207,6 +349,13 @@ public class SpigotToVelocityConnection extends AbstractPacketHandler
   public void sendToServer(
     String channelName, byte[] messageBytes, String destServerName,
     Consumer<ResponseMessage> consumer, long timeoutInMillis)
+  {
+    sendToServer(channelName, messageBytes, destServerName, consumer, timeoutInMillis, null);
+  }
+
+  public void sendToServer(
+    String channelName, byte[] messageBytes, String destServerName,
+    Consumer<ResponseMessage> consumer, long timeoutInMillis, PacketPriority priority)
   {
     ExtraPreconditions.checkNotEmpty(channelName, "channelName");
     Preconditions.checkNotNull(messageBytes, "messageBytes");
@@ -220,15 +369,65 @@ public class SpigotToVelocityConnection extends AbstractPacketHandler
     }
 
     PacketToVelocityRequest packet = new PacketToVelocityRequest();
-    packet.setDestinationType(DestinationType.SERVER_NAME);
-    packet.setServerOrPlayerName(destServerName);
+    int destServerId = getServerId(destServerName);
+
+    // Prefer the ID so Velocity can skip the name lookup
+    if (destServerId >= 0)
+    {
+      packet.setDestinationType(DestinationType.SERVER_ID);
+      packet.setServerId(destServerId);
+    }
+    else
+    {
+      packet.setDestinationType(DestinationType.SERVER_NAME);
+      packet.setServerOrPlayerName(destServerName);
+    }
+
     packet.setChannelName(channelName);
     packet.setMessageBytes(messageBytes);
+    packet.setPriority(priority);
 
     // Check if there is a consumer for a response
     if (consumer != null)
     {
-      if (executeConsumerIfNotConnected(consumer))
+      if (executeConsumerIfNotConnected(consumer) ||
+        executeConsumerIfWriteBufferFull(executor, consumer, packet))
+      {
+        return;
+      }
+
+      saveConsumerAndUpdatePacket(consumer, timeoutInMillis, packet);
+    }
+
+    sendPacketIfRegistered(packet);
+  }
+
+  public void sendToServer(
+    String channelName, byte[] messageBytes, int destServerId,
+    Consumer<ResponseMessage> consumer, long timeoutInMillis)
+  {
+    ExtraPreconditions.checkNotEmpty(channelName, "channelName");
+    Preconditions.checkNotNull(messageBytes, "messageBytes");
+    Preconditions.checkArgument(destServerId >= 0, "destServerId must be >= 0");
+
+    // Handle special case of sending a request to the current server
+    if (destServerId == serverId)
+    {
+      sendMessageToCurrentServer(consumer, channelName, messageBytes, timeoutInMillis);
+      return;
+    }
+
+    PacketToVelocityRequest packet = new PacketToVelocityRequest();
+    packet.setDestinationType(DestinationType.SERVER_ID);
+    packet.setServerId(destServerId);
+    packet.setChannelName(channelName);
+    packet.setMessageBytes(messageBytes);
+
+    // Check if there is a consumer for a response
+    if (consumer != null)
+    {
+      if (executeConsumerIfNotConnected(consumer) ||
+        executeConsumerIfWriteBufferFull(executor, consumer, packet))
       {
         return;
       }
@@ -256,7 +455,8 @@ public class SpigotToVelocityConnection extends AbstractPacketHandler
     // Check if there is a consumer for a response
     if (consumer != null)
     {
-      if (executeConsumerIfNotConnected(consumer))
+      if (executeConsumerIfNotConnected(consumer) ||
+        executeConsumerIfWriteBufferFull(executor, consumer, packet))
       {
         return;
       }
@@ -287,6 +487,158 @@ public class SpigotToVelocityConnection extends AbstractPacketHandler
     sendPacketIfRegistered(packet);
   }
 
+  public void sendBatchToVelocity(MessageBatch batch)
+  {
+    Preconditions.checkNotNull(batch, "batch");
+
+    if (batch.isEmpty())
+    {
+      return;
+    }
+
+    // Older versions of Velocity can not read batches
+    if (!isBatchingSupported())
+    {
+      for (int i = 0; i < batch.size(); i++)
+      {
+        sendToVelocity(batch.getChannelName(i), batch.getMessageBytes(i), null, 0);
+      }
+      return;
+    }
+
+    PacketBatch packet = new PacketBatch();
+
+    for (int i = 0; i < batch.size(); i++)
+    {
+      PacketToVelocityRequest request = new PacketToVelocityRequest();
+      request.setDestinationType(DestinationType.BUNGEE);
+      request.setChannelName(batch.getChannelName(i));
+      request.setMessageBytes(batch.getMessageBytes(i));
+
+      packet.addPacket(request);
+    }
+
+    sendPacketIfRegistered(packet);
+  }
+
+  public void sendBatchToServer(MessageBatch batch, String destServerName)
+  {
+    Preconditions.checkNotNull(batch, "batch");
+    ExtraPreconditions.checkNotEmpty(destServerName, "destServerName");
+
+    if (batch.isEmpty())
+    {
+      return;
+    }
+
+    // Handle special case of sending a batch to the current server
+    if (destServerName.equalsIgnoreCase(serverName))
+    {
+      for (int i = 0; i < batch.size(); i++)
+      {
+        sendMessageToCurrentServer(null, batch.getChannelName(i), batch.getMessageBytes(i), 0);
+      }
+      return;
+    }
+
+    // Older versions of Velocity can not read batches
+    if (!isBatchingSupported())
+    {
+      for (int i = 0; i < batch.size(); i++)
+      {
+        sendToServer(batch.getChannelName(i), batch.getMessageBytes(i), destServerName, null, 0);
+      }
+      return;
+    }
+
+    // The packets are encoded for the destination, so Velocity forwards them as they are
+    PacketBatch packet = new PacketBatch();
+    packet.setDestServerName(destServerName);
+
+    for (int i = 0; i < batch.size(); i++)
+    {
+      PacketToSpigotRequest request = new PacketToSpigotRequest();
+      request.setChannelName(batch.getChannelName(i));
+      request.setMessageBytes(batch.getMessageBytes(i));
+      request.setConsumerId(null);
+
+      packet.addPacket(request);
+    }
+
+    sendPacketIfRegistered(packet);
+  }
+
+  public void sendStreamToVelocity(
+    String channelName, InputStream source, Consumer<ResponseMessage> consumer,
+    long timeoutInMillis)
+  {
+    streamEndpoint.send(channelName, "", source, consumer, timeoutInMillis);
+  }
+
+  public void sendStreamToServer(
+    String channelName, InputStream source, String destServerName,
+    Consumer<ResponseMessage> consumer, long timeoutInMillis)
+  {
+    ExtraPreconditions.checkNotEmpty(destServerName, "destServerName");
+    Preconditions.checkArgument(!destServerName.equalsIgnoreCase(serverName),
+      "Streams can not be sent to the current server");
+
+    streamEndpoint.send(channelName, destServerName, source, consumer, timeoutInMillis);
+  }
+
+  public void sendFileToServer(
+    String channelName, FileChannel fileChannel, String destServerName,
+    Consumer<ResponseMessage> consumer, long timeoutInMillis) throws IOException
+  {
+    ExtraPreconditions.checkNotEmpty(destServerName, "destServerName");
+    Preconditions.checkArgument(!destServerName.equalsIgnoreCase(serverName),
+      "Files can not be sent to the current server");
+
+    streamEndpoint.sendFile(channelName, destServerName, fileChannel, consumer,
+      timeoutInMillis);
+  }
+
+  public void gatherFromServers(
+    String channelName, byte[] messageBytes, List<String> serverNameList, int quorum,
+    Consumer<AggregatedResponseMessage> consumer, long timeoutInMillis)
+  {
+    ExtraPreconditions.checkNotEmpty(channelName, "channelName");
+    Preconditions.checkNotNull(messageBytes, "messageBytes");
+    Preconditions.checkArgument(quorum >= 0, "quorum must be >= 0");
+    Preconditions.checkNotNull(consumer, "consumer");
+    Preconditions.checkArgument(timeoutInMillis > 0, "timeoutInMillis must be > 0");
+
+    // Null or empty lists are used to send to all connected servers.
+    serverNameList = serverNameList == null ? Collections.emptyList() : serverNameList;
+
+    ExtraPreconditions.checkElements(serverNameList, (str) -> str != null && !str.isEmpty(),
+      "Null or empty string in serverNameList");
+
+    Consumer<ResponseMessage> responseConsumer = (responseMessage) ->
+      consumer.accept(AggregatedResponseMessage.decode(responseMessage));
+
+    PacketToVelocityGather packet = new PacketToVelocityGather();
+    packet.setTimeoutInMillis(timeoutInMillis);
+    packet.setQuorum(quorum);
+    packet.setServerNames(serverNameList);
+    packet.setChannelName(channelName);
+    packet.setMessageBytes(messageBytes);
+
+    if (executeConsumerIfNotConnected(responseConsumer) ||
+      executeConsumerIfWriteBufferFull(executor, responseConsumer, packet))
+    {
+      return;
+    }
+
+    long consumerTimeoutInMillis = timeoutInMillis + GATHER_TIMEOUT_GRACE_MILLIS;
+    ExpirableConsumer<ResponseMessage> expirableConsumer = new ExpirableConsumer<>(
+      responseConsumer, System.currentTimeMillis() + consumerTimeoutInMillis);
+    long consumerId = responseConsumerMap.put(expirableConsumer, consumerTimeoutInMillis);
+    packet.setConsumerId(consumerId);
+
+    sendPacketIfRegistered(packet);
+  }
+
   private void checkPacketAndRegistered(AbstractPacket packet)
   {
     Preconditions.checkNotNull(packet, "packet");
@@ -303,9 +655,9 @@ public class SpigotToVelocityConnection extends AbstractPacketHandler
 
   private void sendPacketIfRegistered(AbstractPacket packet)
   {
-    if (registered && channel != null)
+    if (registered)
     {
-      channel.writeAndFlush(packet);
+      writePacket(packet);
     }
   }
 
@@ -321,7 +673,8 @@ public class SpigotToVelocityConnection extends AbstractPacketHandler
       long expiresAtMillis = System.currentTimeMillis() + timeoutInMillis;
       ExpirableConsumer<ResponseMessage> responseConsumer = new ExpirableConsumer<>(consumer,
         expiresAtMillis);
-      long consumerId = responseConsumerMap.put(responseConsumer);
+      long consumerId = responseConsumerMap.put(responseConsumer, timeoutInMillis);
+      bindCancellation(consumer, responseConsumerMap, consumerId);
 
       onResponseConsumer = (bytes) ->
       {
@@ -364,7 +717,8 @@ public class SpigotToVelocityConnection extends AbstractPacketHandler
 
     ExpirableConsumer<ResponseMessage> responseConsumer = new ExpirableConsumer<>(
       consumer, System.currentTimeMillis() + timeoutInMillis);
-    long assignedConsumerId = responseConsumerMap.put(responseConsumer);
+    long assignedConsumerId = responseConsumerMap.put(responseConsumer, timeoutInMillis);
+    bindCancellation(consumer, responseConsumerMap, assignedConsumerId);
 
     // Update the packet
     packet.setConsumerId(assignedConsumerId);
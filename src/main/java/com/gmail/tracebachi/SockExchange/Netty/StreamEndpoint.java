@@ -0,0 +1,673 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import com.gmail.tracebachi.SockExchange.ExpirableConsumer;
+import com.gmail.tracebachi.SockExchange.Messages.ReceivedStream;
+import com.gmail.tracebachi.SockExchange.Messages.ReceivedStreamNotifier;
+import com.gmail.tracebachi.SockExchange.Messages.ResponseFuture;
+import com.gmail.tracebachi.SockExchange.Messages.ResponseMessage;
+import com.gmail.tracebachi.SockExchange.Messages.ResponseStatus;
+import com.gmail.tracebachi.SockExchange.Messages.TransferFuture;
+import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketStreamAck;
+import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketStreamChunk;
+import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketStreamOpen;
+import com.gmail.tracebachi.SockExchange.Netty.Packets.StreamChunk;
+import com.gmail.tracebachi.SockExchange.Scheduler.AwaitableExecutor;
+import com.gmail.tracebachi.SockExchange.Utilities.ExtraPreconditions;
+import com.gmail.tracebachi.SockExchange.Utilities.LongIdCounterMap;
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.FileRegion;
+import io.netty.util.concurrent.Future;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Sends and receives the streams of one connection
+ * <p>
+ * A sender may have {@link #WINDOW_SIZE} bytes of a stream in flight. The
+ * receiver grants more credit as the bytes are read, so a slow reader stops
+ * the sender instead of filling the heap or the write buffer. Chunks are
+ * read from the source on the executor and are only written while the write
+ * buffer is below its high water mark, so streams never push out requests
+ * and responses sent on the same connection.
+ * </p>
+ * <p>
+ * Stream IDs are taken from the map of response consumers, which also fails
+ * streams that do not finish before their timeout.
+ * </p>
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+class StreamEndpoint
+{
+  /**
+   * Most bytes of data sent in one chunk
+   */
+  static final int CHUNK_SIZE = 32 * 1024;
+
+  /**
+   * Bytes a sender may send before it is granted more credit (the same on
+   * both sides, so it is not negotiated)
+   */
+  static final int WINDOW_SIZE = 256 * 1024;
+
+  /**
+   * How long to wait before checking the write buffer again when the stream
+   * has no writes of its own that could wake it up
+   */
+  private static final long RETRY_DELAY_MILLIS = 10;
+
+  private final AbstractPacketHandler handler;
+  private final String peerServerName;
+  private final Executor executor;
+  private final ReceivedStreamNotifier streamNotifier;
+  private final LongIdCounterMap<ExpirableConsumer<ResponseMessage>> consumerMap;
+  private final ConcurrentHashMap<Long, OutgoingStream> outgoingStreams = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<StreamKey, IncomingStream> incomingStreams = new ConcurrentHashMap<>();
+
+  /**
+   * @param handler Handler of the connection
+   * @param peerServerName Name of the server on the other end of the
+   * connection or null if it is the proxy
+   * @param executor Executor to read sources and run consumers with
+   * @param streamNotifier Notifier received streams are passed to
+   * @param consumerMap Map to assign stream IDs and timeouts with
+   */
+  StreamEndpoint(
+    AbstractPacketHandler handler, String peerServerName, Executor executor,
+    ReceivedStreamNotifier streamNotifier,
+    LongIdCounterMap<ExpirableConsumer<ResponseMessage>> consumerMap)
+  {
+    Preconditions.checkNotNull(handler, "handler");
+    Preconditions.checkNotNull(executor, "executor");
+    Preconditions.checkNotNull(streamNotifier, "streamNotifier");
+    Preconditions.checkNotNull(consumerMap, "consumerMap");
+
+    this.handler = handler;
+    this.peerServerName = peerServerName;
+    this.executor = executor;
+    this.streamNotifier = streamNotifier;
+    this.consumerMap = consumerMap;
+  }
+
+  /**
+   * Starts sending a stream
+   *
+   * @param channelName Name of the channel
+   * @param destServerName Name of the server to send to or an empty string
+   * to send to the other end of the connection
+   * @param source Stream to read the data from (closed once the stream completes)
+   * @param consumer Consumer to run once the receiver has read (or cancelled)
+   * the stream or null
+   * @param timeoutInMillis Time the whole stream may take
+   */
+  void send(
+    String channelName, String destServerName, InputStream source,
+    Consumer<ResponseMessage> consumer, long timeoutInMillis)
+  {
+    Preconditions.checkNotNull(source, "source");
+
+    start(channelName, destServerName, new InputStreamChunkSource(source), -1, consumer,
+      timeoutInMillis);
+  }
+
+  /**
+   * Starts sending a file
+   * <p>
+   * The data of each chunk is written as a {@link FileRegion}, so the kernel
+   * copies it from the file to the socket where the transport supports it.
+   * </p>
+   *
+   * @param channelName Name of the channel
+   * @param destServerName Name of the server to send to or an empty string
+   * to send to the other end of the connection
+   * @param fileChannel File to send from its start (closed once the stream completes)
+   * @param consumer Consumer to run once the receiver has read (or cancelled)
+   * the file or null
+   * @param timeoutInMillis Time the whole transfer may take
+   *
+   * @throws IOException If the size of the file could not be read
+   */
+  void sendFile(
+    String channelName, String destServerName, FileChannel fileChannel,
+    Consumer<ResponseMessage> consumer, long timeoutInMillis) throws IOException
+  {
+    Preconditions.checkNotNull(fileChannel, "fileChannel");
+
+    long length = fileChannel.size();
+
+    start(channelName, destServerName, new FileChunkSource(fileChannel, length), length,
+      consumer, timeoutInMillis);
+  }
+
+  private void start(
+    String channelName, String destServerName, ChunkSource source, long length,
+    Consumer<ResponseMessage> consumer, long timeoutInMillis)
+  {
+    ExtraPreconditions.checkNotEmpty(channelName, "channelName");
+    Preconditions.checkNotNull(destServerName, "destServerName");
+    Preconditions.checkArgument(timeoutInMillis > 0, "timeoutInMillis must be > 0");
+
+    // Streams need the peer (and Velocity for other servers) to support them
+    if (!handler.isStreamingSupported())
+    {
+      closeQuietly(source);
+
+      ResponseStatus status = handler.hasChannel() ? ResponseStatus.CANCELLED :
+        ResponseStatus.NOT_CONNECTED;
+      runConsumer(consumer, status);
+      return;
+    }
+
+    OutgoingStream stream = new OutgoingStream(destServerName, source, consumer);
+    ExpirableConsumer<ResponseMessage> expirableConsumer = new ExpirableConsumer<>(
+      (responseMessage) -> stream.complete(responseMessage.getResponseStatus(), true),
+      System.currentTimeMillis() + timeoutInMillis);
+
+    stream.id = consumerMap.put(expirableConsumer, timeoutInMillis);
+    outgoingStreams.put(stream.id, stream);
+
+    // Cancelling the future cancels the stream
+    if (consumer instanceof ResponseFuture)
+    {
+      ((ResponseFuture) consumer).setOnCancel(
+        () -> stream.complete(ResponseStatus.CANCELLED, true));
+    }
+
+    PacketStreamOpen packet = new PacketStreamOpen();
+    packet.setStreamId(stream.id);
+    packet.setServerName(destServerName);
+    packet.setChannelName(channelName);
+    packet.setLength(length);
+
+    // Every packet of the stream is written on one lane, so they stay in order
+    PacketWriter writer = handler.getStreamWriter(stream.id);
+
+    if (writer == null)
+    {
+      stream.complete(ResponseStatus.NOT_CONNECTED, false);
+      return;
+    }
+
+    stream.writer = writer;
+    writer.write(packet);
+    stream.wakeUp();
+  }
+
+  void handle(PacketStreamOpen packet)
+  {
+    StreamKey key = new StreamKey(packet.getServerName(), packet.getStreamId());
+    String sourceServerName = packet.getServerName().isEmpty() ? peerServerName :
+      packet.getServerName();
+    IncomingStream incomingStream = new IncomingStream(key);
+
+    incomingStream.receivedStream = new ReceivedStream(packet.getChannelName(),
+      sourceServerName, packet.getLength(), incomingStream);
+
+    if (incomingStreams.putIfAbsent(key, incomingStream) != null)
+    {
+      return;
+    }
+
+    // Streams without a consumer are cancelled right away
+    if (!streamNotifier.notify(incomingStream.receivedStream))
+    {
+      incomingStream.receivedStream.close();
+    }
+  }
+
+  void handle(PacketStreamChunk packet)
+  {
+    IncomingStream incomingStream = incomingStreams.get(
+      new StreamKey(packet.getServerName(), packet.getStreamId()));
+
+    // Chunks that were in flight when the stream was closed are dropped
+    if (incomingStream == null)
+    {
+      return;
+    }
+
+    ReceivedStream receivedStream = incomingStream.receivedStream;
+
+    if (packet.isAborted())
+    {
+      receivedStream.abort("Sender aborted the stream");
+      return;
+    }
+
+    ByteBuf dataBuffer = packet.getDataBuffer();
+
+    if (dataBuffer != null && dataBuffer.isReadable())
+    {
+      receivedStream.offer(dataBuffer.retain());
+    }
+
+    if (packet.isLast())
+    {
+      receivedStream.finish();
+    }
+  }
+
+  void handle(PacketStreamAck packet)
+  {
+    OutgoingStream stream = outgoingStreams.get(packet.getStreamId());
+
+    if (stream == null || !stream.destServerName.equalsIgnoreCase(packet.getServerName()))
+    {
+      return;
+    }
+
+    if (packet.getCloseStatus() != null)
+    {
+      stream.complete(packet.getCloseStatus(), false);
+      return;
+    }
+
+    stream.credit.addAndGet(packet.getCredit());
+    stream.wakeUp();
+  }
+
+  /**
+   * Fails every stream of the connection (called once the channel is inactive)
+   */
+  void close()
+  {
+    for (OutgoingStream stream : outgoingStreams.values())
+    {
+      stream.complete(ResponseStatus.NOT_CONNECTED, false);
+    }
+
+    for (IncomingStream incomingStream : incomingStreams.values())
+    {
+      incomingStream.receivedStream.abort("Connection closed");
+    }
+
+    incomingStreams.clear();
+  }
+
+  private void sendAck(StreamKey key, int credit, ResponseStatus closeStatus)
+  {
+    PacketStreamAck packet = new PacketStreamAck();
+    packet.setStreamId(key.streamId);
+    packet.setServerName(key.serverName);
+    packet.setCredit(credit);
+    packet.setCloseStatus(closeStatus);
+
+    handler.writeStreamPacket(packet);
+  }
+
+  private void runConsumer(Consumer<ResponseMessage> consumer, ResponseStatus status)
+  {
+    if (consumer != null)
+    {
+      execute(() -> consumer.accept(new ResponseMessage(status)));
+    }
+  }
+
+  private boolean execute(Runnable runnable)
+  {
+    if (executor instanceof AwaitableExecutor)
+    {
+      return ((AwaitableExecutor) executor).submit(runnable);
+    }
+
+    executor.execute(runnable);
+    return true;
+  }
+
+  private static void closeQuietly(Closeable source)
+  {
+    try
+    {
+      source.close();
+    }
+    catch (IOException ignored)
+    {
+    }
+  }
+
+  private final class OutgoingStream
+  {
+    private final String destServerName;
+    private final ChunkSource source;
+    private final Consumer<ResponseMessage> consumer;
+    private final AtomicLong credit = new AtomicLong(WINDOW_SIZE);
+    private final AtomicInteger pendingWrites = new AtomicInteger(0);
+    private final AtomicBoolean pumping = new AtomicBoolean(false);
+    private final AtomicBoolean done = new AtomicBoolean(false);
+    private volatile boolean wakeUpRequested;
+    private volatile boolean sentLast;
+    private volatile PacketWriter writer;
+    private long id;
+
+    private OutgoingStream(
+      String destServerName, ChunkSource source, Consumer<ResponseMessage> consumer)
+    {
+      this.destServerName = destServerName;
+      this.source = source;
+      this.consumer = consumer;
+    }
+
+    /**
+     * Starts reading and writing chunks on the executor (unless already running)
+     */
+    private void wakeUp()
+    {
+      wakeUpRequested = true;
+
+      if (done.get() || sentLast || !pumping.compareAndSet(false, true))
+      {
+        return;
+      }
+
+      if (!execute(this::pump))
+      {
+        pumping.set(false);
+        complete(ResponseStatus.NOT_CONNECTED, false);
+      }
+    }
+
+    private void pump()
+    {
+      do
+      {
+        wakeUpRequested = false;
+        writeChunks();
+        pumping.set(false);
+      }
+      while (wakeUpRequested && !done.get() && !sentLast && pumping.compareAndSet(false, true));
+    }
+
+    private void writeChunks()
+    {
+      while (!done.get() && !sentLast && credit.get() > 0)
+      {
+        PacketWriter writer = this.writer;
+
+        // The stream is woken up again once its open packet is written
+        if (writer == null)
+        {
+          return;
+        }
+
+        if (handler.packetWriter == null || !writer.getChannel().isActive())
+        {
+          complete(ResponseStatus.NOT_CONNECTED, false);
+          return;
+        }
+
+        // Leave the rest of the write buffer to other packets
+        if (!writer.isWritable())
+        {
+          // Completed writes wake the stream up, so only retry if there are none
+          if (pendingWrites.get() == 0)
+          {
+            writer.getChannel().eventLoop().schedule(this::wakeUp, RETRY_DELAY_MILLIS,
+              TimeUnit.MILLISECONDS);
+          }
+          return;
+        }
+
+        int size = (int) Math.min(CHUNK_SIZE, credit.get());
+        StreamChunk chunk;
+
+        try
+        {
+          chunk = source.nextChunk(id, destServerName, size);
+        }
+        catch (IOException ex)
+        {
+          complete(ResponseStatus.CANCELLED, true);
+          return;
+        }
+
+        int dataLength = chunk.getDataLength();
+
+        credit.addAndGet(-dataLength);
+        sentLast = chunk.isLast();
+        pendingWrites.incrementAndGet();
+
+        ChannelPromise promise = writer.getChannel().newPromise();
+        promise.addListener((future) -> onChunkWritten(future, dataLength));
+        writer.write(chunk, promise);
+      }
+    }
+
+    private void onChunkWritten(Future<? super Void> future, int dataLength)
+    {
+      pendingWrites.decrementAndGet();
+
+      if (future.isSuccess())
+      {
+        if (consumer instanceof TransferFuture)
+        {
+          ((TransferFuture) consumer).recordBytesSent(dataLength);
+        }
+
+        wakeUp();
+      }
+      else
+      {
+        complete(ResponseStatus.NOT_CONNECTED, false);
+      }
+    }
+
+    /**
+     * Completes the stream once (later calls are ignored)
+     *
+     * @param status Status to run the consumer with
+     * @param abortReceiver True if the receiver has to be told the stream will not finish
+     */
+    private void complete(ResponseStatus status, boolean abortReceiver)
+    {
+      if (!done.compareAndSet(false, true))
+      {
+        return;
+      }
+
+      outgoingStreams.remove(id);
+      consumerMap.remove(id);
+      closeQuietly(source);
+
+      PacketWriter writer = this.writer;
+
+      if (abortReceiver && writer != null)
+      {
+        PacketStreamChunk packet = new PacketStreamChunk();
+        packet.setStreamId(id);
+        packet.setServerName(destServerName);
+        packet.setFlags(PacketStreamChunk.ABORT_FLAG);
+
+        writer.write(packet);
+      }
+
+      runConsumer(consumer, status);
+    }
+  }
+
+  /**
+   * Source of the chunks of an outgoing stream (only used by one thread at a time)
+   */
+  private interface ChunkSource extends Closeable
+  {
+    /**
+     * @param streamId ID of the stream
+     * @param destServerName Server name to address the chunk to
+     * @param maxBytes Most bytes of data in the chunk
+     *
+     * @return Next chunk (marked as the last chunk once the source is exhausted)
+     *
+     * @throws IOException If the source could not be read
+     */
+    StreamChunk nextChunk(long streamId, String destServerName, int maxBytes) throws IOException;
+  }
+
+  private static final class InputStreamChunkSource implements ChunkSource
+  {
+    private final InputStream inputStream;
+
+    private InputStreamChunkSource(InputStream inputStream)
+    {
+      this.inputStream = inputStream;
+    }
+
+    @Override
+    public StreamChunk nextChunk(long streamId, String destServerName, int maxBytes)
+      throws IOException
+    {
+      byte[] data = new byte[maxBytes];
+      int read = ByteStreams.read(inputStream, data, 0, maxBytes);
+
+      // A short read means the end of the stream was reached
+      boolean last = read < maxBytes;
+
+      PacketStreamChunk packet = new PacketStreamChunk();
+      packet.setStreamId(streamId);
+      packet.setServerName(destServerName);
+      packet.setFlags(last ? PacketStreamChunk.LAST_FLAG : 0);
+      packet.setData(last ? Arrays.copyOf(data, read) : data);
+      return packet;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+      inputStream.close();
+    }
+  }
+
+  private static final class FileChunkSource implements ChunkSource
+  {
+    private final FileChannel fileChannel;
+    private final long length;
+    private long position;
+
+    private FileChunkSource(FileChannel fileChannel, long length)
+    {
+      this.fileChannel = fileChannel;
+      this.length = length;
+    }
+
+    @Override
+    public StreamChunk nextChunk(long streamId, String destServerName, int maxBytes)
+    {
+      int count = (int) Math.min(maxBytes, length - position);
+      long chunkPosition = position;
+
+      position += count;
+
+      int flags = position == length ? PacketStreamChunk.LAST_FLAG : 0;
+      return new FileRegionChunk(streamId, destServerName, flags, fileChannel, chunkPosition,
+        count);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+      fileChannel.close();
+    }
+  }
+
+  private final class IncomingStream implements ReceivedStream.Control
+  {
+    private final StreamKey key;
+    private final AtomicInteger unacknowledged = new AtomicInteger(0);
+    private ReceivedStream receivedStream;
+
+    private IncomingStream(StreamKey key)
+    {
+      this.key = key;
+    }
+
+    @Override
+    public void onConsumed(int bytes)
+    {
+      // Credit is granted in large steps, so acks stay rare
+      if (unacknowledged.addAndGet(bytes) < WINDOW_SIZE / 2)
+      {
+        return;
+      }
+
+      int credit = unacknowledged.getAndSet(0);
+
+      if (credit > 0)
+      {
+        sendAck(key, credit, null);
+      }
+    }
+
+    @Override
+    public void onClosed(boolean complete)
+    {
+      if (incomingStreams.remove(key, this))
+      {
+        sendAck(key, 0, complete ? ResponseStatus.OK : ResponseStatus.CANCELLED);
+      }
+    }
+  }
+
+  private static final class StreamKey
+  {
+    private final String serverName;
+    private final long streamId;
+
+    private StreamKey(String serverName, long streamId)
+    {
+      this.serverName = serverName;
+      this.streamId = streamId;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+      if (this == o)
+      {
+        return true;
+      }
+
+      if (!(o instanceof StreamKey))
+      {
+        return false;
+      }
+
+      StreamKey other = (StreamKey) o;
+      return streamId == other.streamId && serverName.equals(other.serverName);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return 31 * serverName.hashCode() + Long.hashCode(streamId);
+    }
+  }
+}
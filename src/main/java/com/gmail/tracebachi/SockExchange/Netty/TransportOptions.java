@@ -0,0 +1,183 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Transport and socket options for {@link SockExchangeClient} and
+ * {@link SockExchangeServer}
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class TransportOptions
+{
+  // Netty's default write buffer low water mark
+  private static final int DEFAULT_LOW_WATER_MARK = 32 * 1024;
+
+  private TransportType transportType = TransportType.AUTO;
+  private boolean tcpNoDelay = true;
+  private boolean keepAlive = true;
+  private int sendBufferSize = 0;
+  private int receiveBufferSize = 0;
+  private String domainSocketPath = null;
+  private int writeBufferHighWaterMark = 1024 * 1024;
+  private int writeBufferLowWaterMark = 512 * 1024;
+
+  public TransportType getTransportType()
+  {
+    return transportType;
+  }
+
+  public void setTransportType(TransportType transportType)
+  {
+    Preconditions.checkNotNull(transportType, "transportType");
+
+    this.transportType = transportType;
+  }
+
+  public boolean isTcpNoDelay()
+  {
+    return tcpNoDelay;
+  }
+
+  public void setTcpNoDelay(boolean tcpNoDelay)
+  {
+    this.tcpNoDelay = tcpNoDelay;
+  }
+
+  public boolean isKeepAlive()
+  {
+    return keepAlive;
+  }
+
+  public void setKeepAlive(boolean keepAlive)
+  {
+    this.keepAlive = keepAlive;
+  }
+
+  /**
+   * @return SO_SNDBUF in bytes or 0 to use the OS default
+   */
+  public int getSendBufferSize()
+  {
+    return sendBufferSize;
+  }
+
+  public void setSendBufferSize(int sendBufferSize)
+  {
+    Preconditions.checkArgument(sendBufferSize >= 0, "sendBufferSize must be >= 0");
+
+    this.sendBufferSize = sendBufferSize;
+  }
+
+  /**
+   * @return SO_RCVBUF in bytes or 0 to use the OS default
+   */
+  public int getReceiveBufferSize()
+  {
+    return receiveBufferSize;
+  }
+
+  public void setReceiveBufferSize(int receiveBufferSize)
+  {
+    Preconditions.checkArgument(receiveBufferSize >= 0, "receiveBufferSize must be >= 0");
+
+    this.receiveBufferSize = receiveBufferSize;
+  }
+
+  /**
+   * @return Path of the Unix domain socket or null if domain sockets are not used
+   */
+  public String getDomainSocketPath()
+  {
+    return domainSocketPath;
+  }
+
+  /**
+   * @param domainSocketPath Path of the Unix domain socket (null or empty to disable)
+   */
+  public void setDomainSocketPath(String domainSocketPath)
+  {
+    this.domainSocketPath =
+      (domainSocketPath == null || domainSocketPath.isEmpty()) ? null : domainSocketPath;
+  }
+
+  /**
+   * @return True if a domain socket path is set and the transport supports it
+   */
+  public boolean useDomainSocket()
+  {
+    return domainSocketPath != null && transportType.supportsDomainSockets();
+  }
+
+  /**
+   * @return Queued bytes above which a connection is not writable
+   */
+  public int getWriteBufferHighWaterMark()
+  {
+    return writeBufferHighWaterMark;
+  }
+
+  /**
+   * @return Queued bytes below which a connection is writable again
+   */
+  public int getWriteBufferLowWaterMark()
+  {
+    return writeBufferLowWaterMark;
+  }
+
+  /**
+   * @param lowWaterMark Queued bytes below which a connection is writable again
+   * @param highWaterMark Queued bytes above which a connection is not writable
+   */
+  public void setWriteBufferWaterMarks(int lowWaterMark, int highWaterMark)
+  {
+    Preconditions.checkArgument(lowWaterMark > 0, "lowWaterMark must be > 0");
+    Preconditions.checkArgument(highWaterMark >= lowWaterMark,
+      "highWaterMark must be >= lowWaterMark");
+
+    this.writeBufferLowWaterMark = lowWaterMark;
+    this.writeBufferHighWaterMark = highWaterMark;
+  }
+
+  /**
+   * @return True if the low water mark has to be set before the high water
+   * mark (Netty rejects a high water mark below the current low water mark)
+   */
+  boolean setLowWaterMarkFirst()
+  {
+    return writeBufferHighWaterMark < DEFAULT_LOW_WATER_MARK;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "TransportOptions{" +
+      "transportType=" + transportType +
+      ", resolvedType=" + transportType.resolve() +
+      ", tcpNoDelay=" + tcpNoDelay +
+      ", keepAlive=" + keepAlive +
+      ", sendBufferSize=" + sendBufferSize +
+      ", receiveBufferSize=" + receiveBufferSize +
+      ", domainSocketPath=" + domainSocketPath +
+      ", writeBufferLowWaterMark=" + writeBufferLowWaterMark +
+      ", writeBufferHighWaterMark=" + writeBufferHighWaterMark +
+      '}';
+  }
+}
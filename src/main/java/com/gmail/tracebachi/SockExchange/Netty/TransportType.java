@@ -0,0 +1,204 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import com.google.common.base.Preconditions;
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+
+import java.lang.reflect.Constructor;
+import java.net.SocketAddress;
+
+/**
+ * Netty transports that SockExchange can run on
+ * <p>
+ * The domain socket classes are looked up by name because they are not
+ * part of every Netty version bundled by Spigot.
+ * </p>
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public enum TransportType
+{
+  /**
+   * Use epoll if it is available or NIO otherwise
+   */
+  AUTO,
+  NIO,
+  /**
+   * Native Linux transport (falls back to NIO if unavailable)
+   */
+  EPOLL;
+
+  private static final String DOMAIN_SOCKET_CHANNEL =
+    "io.netty.channel.epoll.EpollDomainSocketChannel";
+  private static final String SERVER_DOMAIN_SOCKET_CHANNEL =
+    "io.netty.channel.epoll.EpollServerDomainSocketChannel";
+  private static final String DOMAIN_SOCKET_ADDRESS =
+    "io.netty.channel.unix.DomainSocketAddress";
+
+  /**
+   * @return Transport that will be used (AUTO and unavailable EPOLL resolve to NIO)
+   */
+  public TransportType resolve()
+  {
+    if (this != NIO && isEpollAvailable())
+    {
+      return EPOLL;
+    }
+
+    return NIO;
+  }
+
+  /**
+   * @param threads Number of threads for the group
+   *
+   * @return New event loop group for the resolved transport
+   */
+  public EventLoopGroup newEventLoopGroup(int threads)
+  {
+    if (resolve() == EPOLL)
+    {
+      return new EpollEventLoopGroup(threads);
+    }
+
+    return new NioEventLoopGroup(threads);
+  }
+
+  /**
+   * @return TCP client channel class for the resolved transport
+   */
+  public Class<? extends Channel> getSocketChannelClass()
+  {
+    return resolve() == EPOLL ? EpollSocketChannel.class : NioSocketChannel.class;
+  }
+
+  /**
+   * @return TCP server channel class for the resolved transport
+   */
+  public Class<? extends ServerChannel> getServerSocketChannelClass()
+  {
+    return resolve() == EPOLL ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+  }
+
+  /**
+   * @return True if Unix domain sockets can be used with this transport
+   */
+  public boolean supportsDomainSockets()
+  {
+    return resolve() == EPOLL && findClass(DOMAIN_SOCKET_CHANNEL) != null &&
+      findClass(SERVER_DOMAIN_SOCKET_CHANNEL) != null && findClass(DOMAIN_SOCKET_ADDRESS) != null;
+  }
+
+  /**
+   * @return Domain socket client channel class
+   *
+   * @throws IllegalStateException If domain sockets are not supported
+   */
+  public Class<? extends Channel> getDomainSocketChannelClass()
+  {
+    Preconditions.checkState(supportsDomainSockets(), "Domain sockets are not supported");
+
+    return findClass(DOMAIN_SOCKET_CHANNEL).asSubclass(Channel.class);
+  }
+
+  /**
+   * @return Domain socket server channel class
+   *
+   * @throws IllegalStateException If domain sockets are not supported
+   */
+  public Class<? extends ServerChannel> getServerDomainSocketChannelClass()
+  {
+    Preconditions.checkState(supportsDomainSockets(), "Domain sockets are not supported");
+
+    return findClass(SERVER_DOMAIN_SOCKET_CHANNEL).asSubclass(ServerChannel.class);
+  }
+
+  /**
+   * @param path Path of the socket file
+   *
+   * @return Address of the domain socket
+   *
+   * @throws IllegalStateException If domain sockets are not supported
+   */
+  public SocketAddress newDomainSocketAddress(String path)
+  {
+    Preconditions.checkState(supportsDomainSockets(), "Domain sockets are not supported");
+    Preconditions.checkArgument(path != null && !path.isEmpty(), "path");
+
+    try
+    {
+      Constructor<?> constructor = findClass(DOMAIN_SOCKET_ADDRESS).getConstructor(String.class);
+      return (SocketAddress) constructor.newInstance(path);
+    }
+    catch (ReflectiveOperationException ex)
+    {
+      throw new IllegalStateException("Failed to create domain socket address", ex);
+    }
+  }
+
+  public static TransportType fromName(String name)
+  {
+    Preconditions.checkNotNull(name, "name");
+
+    switch (name.toLowerCase())
+    {
+      case "auto":
+        return AUTO;
+      case "nio":
+        return NIO;
+      case "epoll":
+        return EPOLL;
+    }
+
+    throw new IllegalArgumentException("Unknown transport: " + name);
+  }
+
+  private static boolean isEpollAvailable()
+  {
+    try
+    {
+      return Epoll.isAvailable();
+    }
+    catch (Throwable ex)
+    {
+      // Missing classes or native library
+      return false;
+    }
+  }
+
+  private static Class<?> findClass(String className)
+  {
+    try
+    {
+      return Class.forName(className, false, TransportType.class.getClassLoader());
+    }
+    catch (ClassNotFoundException | LinkageError ex)
+    {
+      return null;
+    }
+  }
+}
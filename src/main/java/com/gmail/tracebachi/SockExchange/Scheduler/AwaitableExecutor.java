@@ -19,31 +19,49 @@ package com.gmail.tracebachi.SockExchange.Scheduler;
 
 import com.google.common.base.Preconditions;
 
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
+ * Executor that can stop accepting tasks and wait for the submitted tasks
+ * to finish before the plugin shuts down
+ * <p>
+ * Submitting a task does not take a lock. Tasks in flight are tracked with
+ * two striped counters (submitted and finished) instead of a set of task IDs.
+ * Both counters only grow, so reading finished before submitted and finding
+ * them equal proves there was a moment with no task in flight.
+ * </p>
+ * <p>
+ * Any number of threads may wait in {@link #awaitTasks(long, TimeUnit)} at
+ * once. Waiters share one latch that the task which drains the executor
+ * counts down and clears, so the next waiter installs a new one.
+ * </p>
+ *
  * @author GeeItsZee (tracebachi@gmail.com)
  */
 public class AwaitableExecutor implements Executor
 {
-  private static final byte ACCEPTING = 1;
-  private static final byte NOT_ACCEPTING = 2;
-  private static final byte SHUTDOWN = 3;
+  private static final int ACCEPTING = 1;
+  private static final int NOT_ACCEPTING = 2;
+  private static final int SHUTDOWN = 3;
 
-  private final Object lock = new Object();
   private final ExecutorService executorService;
-  private final ConcurrentHashMap.KeySetView<Integer, Boolean> submittedTaskSet;
-  private int taskCounter = 1;
-  private byte stateByte = ACCEPTING;
+  private final AtomicInteger state = new AtomicInteger(ACCEPTING);
+  private final LongAdder submittedTasks = new LongAdder();
+  private final LongAdder finishedTasks = new LongAdder();
+  private final AtomicReference<CountDownLatch> drainedLatch = new AtomicReference<>();
 
   public AwaitableExecutor(ExecutorService executorService)
   {
     Preconditions.checkNotNull(executorService, "executorService");
 
     this.executorService = executorService;
-    this.submittedTaskSet = ConcurrentHashMap.newKeySet();
   }
 
   /**
@@ -61,28 +79,35 @@ public class AwaitableExecutor implements Executor
    */
   public boolean submit(Runnable runnable)
   {
-    synchronized (lock)
-    {
-      if (stateByte != ACCEPTING)
-      {
-        return false;
-      }
+    // Counted before the state is checked, so a waiter that changed the
+    // state either sees this task or this task sees the new state
+    submittedTasks.increment();
 
-      // If the underlying executorService has shutdown, we must shutdown
-      // this executor.
-      if (executorService.isShutdown())
-      {
-        shutdown();
-        return false;
-      }
+    if (state.get() != ACCEPTING)
+    {
+      onTaskFinished();
+      return false;
+    }
 
-      int taskId = taskCounter++;
-      Runnable wrappedTask = wrapTask(runnable, taskId);
+    // If the underlying executorService has shutdown, we must shutdown
+    // this executor.
+    if (executorService.isShutdown())
+    {
+      onTaskFinished();
+      shutdown();
+      return false;
+    }
 
-      submittedTaskSet.add(taskId);
-      executorService.execute(wrappedTask);
+    try
+    {
+      executorService.execute(wrapTask(runnable));
       return true;
     }
+    catch (RejectedExecutionException ex)
+    {
+      onTaskFinished();
+      throw ex;
+    }
   }
 
   /**
@@ -90,10 +115,7 @@ public class AwaitableExecutor implements Executor
    */
   public boolean isAcceptingTasks()
   {
-    synchronized (lock)
-    {
-      return stateByte == ACCEPTING;
-    }
+    return state.get() == ACCEPTING;
   }
 
   /**
@@ -101,9 +123,14 @@ public class AwaitableExecutor implements Executor
    */
   public void setAcceptingTasks(boolean acceptingTasks)
   {
-    synchronized (lock)
+    int newState = (acceptingTasks) ? ACCEPTING : NOT_ACCEPTING;
+    int current;
+
+    do
     {
-      if (stateByte == SHUTDOWN)
+      current = state.get();
+
+      if (current == SHUTDOWN)
       {
         // If the new value was going to stop accepting tasks, then
         // shutdown is like a successful value change.
@@ -111,9 +138,8 @@ public class AwaitableExecutor implements Executor
         // shutdown is like a failed value change.
         return;
       }
-
-      stateByte = (acceptingTasks) ? ACCEPTING : NOT_ACCEPTING;
     }
+    while (!state.compareAndSet(current, newState));
   }
 
   /**
@@ -121,10 +147,16 @@ public class AwaitableExecutor implements Executor
    */
   public boolean isShutdown()
   {
-    synchronized (lock)
-    {
-      return stateByte == SHUTDOWN;
-    }
+    return state.get() == SHUTDOWN;
+  }
+
+  /**
+   * @return Number of submitted tasks that have not finished yet
+   */
+  public long getTasksInFlight()
+  {
+    long finished = finishedTasks.sum();
+    return Math.max(0, submittedTasks.sum() - finished);
   }
 
   /**
@@ -132,15 +164,63 @@ public class AwaitableExecutor implements Executor
    * <p>
    * This will prevent the executor from accepting any tasks and will NOT
    * await tasks. The executor will not be able to switch back into
-   * accepting tasks.
+   * accepting tasks. Threads waiting in {@link #awaitTasks(long, TimeUnit)}
+   * stop waiting.
    * </p>
    */
   public void shutdown()
   {
-    synchronized (lock)
+    state.set(SHUTDOWN);
+
+    CountDownLatch latch = drainedLatch.getAndSet(null);
+
+    if (latch != null)
     {
-      stateByte = SHUTDOWN;
-      submittedTaskSet.clear();
+      latch.countDown();
+    }
+  }
+
+  /**
+   * Waits for the submitted tasks to finish
+   * <p>
+   * Call {@link #setAcceptingTasks(boolean)} with false first, or new tasks
+   * may keep the executor busy until the timeout. Safe to call from several
+   * threads at once.
+   * </p>
+   *
+   * @param timeout Most time to wait
+   * @param unit Unit of the timeout
+   *
+   * @return True if there are no more tasks running (or the executor is
+   * shutdown) or false if the timeout elapsed first
+   *
+   * @throws InterruptedException If the thread is interrupted while waiting
+   */
+  public boolean awaitTasks(long timeout, TimeUnit unit) throws InterruptedException
+  {
+    Preconditions.checkNotNull(unit, "unit");
+
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+    while (true)
+    {
+      // Published before checking, so a task finishing now sees the latch
+      CountDownLatch latch = getOrCreateDrainedLatch();
+
+      if (isDrained())
+      {
+        return true;
+      }
+
+      long remainingNanos = deadline - System.nanoTime();
+
+      if (remainingNanos <= 0)
+      {
+        return false;
+      }
+
+      // Tasks submitted after the latch was counted down are checked again
+      latch.await(remainingNanos, TimeUnit.NANOSECONDS);
     }
   }
 
@@ -152,29 +232,63 @@ public class AwaitableExecutor implements Executor
    *
    * @return True if there are no more tasks running or false otherwise
    *
-   * @throws InterruptedException If {@link Thread#sleep(long)} is interrupted
+   * @throws InterruptedException If the wait is interrupted
+   *
+   * @deprecated Use {@link #awaitTasks(long, TimeUnit)}, which returns as
+   * soon as the last task finishes instead of polling
    */
+  @Deprecated
   public boolean awaitTasksWithSleep(int maxLoops, long millisToSleep) throws InterruptedException
   {
-    int remainingTasks = submittedTaskSet.size();
+    return awaitTasks(Math.max(0, maxLoops) * Math.max(0, millisToSleep), TimeUnit.MILLISECONDS);
+  }
 
-    if (remainingTasks <= 0)
+  private boolean isDrained()
+  {
+    if (state.get() == SHUTDOWN)
     {
       return true;
     }
 
-    for (int i = 0; i < maxLoops && remainingTasks > 0; i++)
+    // Finished is read first, so equal sums mean nothing was in flight at
+    // the moment the finished count was read
+    long finished = finishedTasks.sum();
+    return submittedTasks.sum() == finished;
+  }
+
+  private CountDownLatch getOrCreateDrainedLatch()
+  {
+    CountDownLatch latch = drainedLatch.get();
+
+    while (latch == null)
     {
-      // It is documented that we are using a blocking call to Thread.sleep()
-      Thread.sleep(millisToSleep);
+      CountDownLatch newLatch = new CountDownLatch(1);
 
-      remainingTasks = submittedTaskSet.size();
+      if (drainedLatch.compareAndSet(null, newLatch))
+      {
+        return newLatch;
+      }
+
+      latch = drainedLatch.get();
     }
 
-    return remainingTasks <= 0;
+    return latch;
+  }
+
+  private void onTaskFinished()
+  {
+    finishedTasks.increment();
+
+    CountDownLatch latch = drainedLatch.get();
+
+    // Only one finishing task clears the latch and wakes every waiter
+    if (latch != null && isDrained() && drainedLatch.compareAndSet(latch, null))
+    {
+      latch.countDown();
+    }
   }
 
-  private Runnable wrapTask(Runnable task, int taskId)
+  private Runnable wrapTask(Runnable task)
   {
     return () -> {
       try
@@ -187,7 +301,7 @@ public class AwaitableExecutor implements Executor
       }
       finally
       {
-        submittedTaskSet.remove(taskId);
+        onTaskFinished();
       }
     };
   }
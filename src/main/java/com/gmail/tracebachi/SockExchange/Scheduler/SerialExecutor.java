@@ -0,0 +1,171 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Scheduler;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Runs tasks one at a time, in the order they are submitted, on a shared executor
+ * <p>
+ * No thread is owned by the serial executor. While it has tasks, one drain
+ * task is submitted to the shared executor, and that task runs the queued
+ * tasks back to back. Submitting does not take a lock.
+ * </p>
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class SerialExecutor implements Executor
+{
+  /**
+   * Most tasks run by one drain task before it yields the pool thread
+   */
+  private static final int MAX_TASKS_PER_DRAIN = 64;
+
+  private final Executor executor;
+  private final Consumer<Runnable> discardHandler;
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+  private final Runnable drainTask = this::drain;
+
+  public SerialExecutor(Executor executor)
+  {
+    this(executor, (task) -> {});
+  }
+
+  /**
+   * @param executor Shared executor to run the tasks on
+   * @param discardHandler Handler passed the queued tasks that are dropped
+   * because the shared executor rejected the drain task
+   */
+  public SerialExecutor(Executor executor, Consumer<Runnable> discardHandler)
+  {
+    Preconditions.checkNotNull(executor, "executor");
+    Preconditions.checkNotNull(discardHandler, "discardHandler");
+
+    this.executor = executor;
+    this.discardHandler = discardHandler;
+  }
+
+  /**
+   * @param runnable Task to execute
+   */
+  @Override
+  public void execute(Runnable runnable)
+  {
+    submit(runnable);
+  }
+
+  /**
+   * @param runnable Task to execute
+   * @return True if submitted or false if the shared executor rejected it
+   * (the task is passed to the discard handler)
+   */
+  public boolean submit(Runnable runnable)
+  {
+    Preconditions.checkNotNull(runnable, "runnable");
+
+    tasks.offer(runnable);
+    return scheduleDrain();
+  }
+
+  private boolean scheduleDrain()
+  {
+    // A drain task is queued or running and will see the new task
+    if (!drainScheduled.compareAndSet(false, true))
+    {
+      return true;
+    }
+
+    boolean submitted;
+
+    try
+    {
+      if (executor instanceof AwaitableExecutor)
+      {
+        submitted = ((AwaitableExecutor) executor).submit(drainTask);
+      }
+      else
+      {
+        executor.execute(drainTask);
+        submitted = true;
+      }
+    }
+    catch (RejectedExecutionException ex)
+    {
+      submitted = false;
+    }
+
+    if (submitted)
+    {
+      return true;
+    }
+
+    Runnable task;
+    while ((task = tasks.poll()) != null)
+    {
+      discardHandler.accept(task);
+    }
+
+    drainScheduled.set(false);
+
+    // Tasks queued while discarding saw a scheduled drain, so try again for them
+    if (!tasks.isEmpty())
+    {
+      scheduleDrain();
+    }
+
+    return false;
+  }
+
+  private void drain()
+  {
+    for (int i = 0; i < MAX_TASKS_PER_DRAIN; i++)
+    {
+      Runnable task = tasks.poll();
+
+      if (task == null)
+      {
+        break;
+      }
+
+      try
+      {
+        task.run();
+      }
+      catch (Exception ex)
+      {
+        ex.printStackTrace();
+      }
+    }
+
+    drainScheduled.set(false);
+
+    // Tasks queued after the last poll (or left by the limit) need a new drain
+    if (!tasks.isEmpty())
+    {
+      scheduleDrain();
+    }
+  }
+}
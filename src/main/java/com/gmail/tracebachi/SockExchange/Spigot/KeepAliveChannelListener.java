@@ -17,6 +17,7 @@
  */
 package com.gmail.tracebachi.SockExchange.Spigot;
 
+import com.gmail.tracebachi.SockExchange.Messages.DispatchMode;
 import com.gmail.tracebachi.SockExchange.Messages.ReceivedMessage;
 import com.gmail.tracebachi.SockExchange.SockExchangeConstants.Channels;
 import com.gmail.tracebachi.SockExchange.SpigotServerInfo;
@@ -51,7 +52,8 @@ public class KeepAliveChannelListener implements Registerable
   @Override
   public void register()
   {
-    api.getMessageNotifier().register(Channels.KEEP_ALIVE, onChannelMessage);
+    // Only swaps a volatile field, so it runs on the Netty thread
+    api.getMessageNotifier().register(Channels.KEEP_ALIVE, onChannelMessage, DispatchMode.INLINE);
   }
 
   @Override
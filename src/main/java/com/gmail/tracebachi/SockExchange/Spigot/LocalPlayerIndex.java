@@ -0,0 +1,146 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Spigot;
+
+import com.gmail.tracebachi.SockExchange.Utilities.Registerable;
+import com.google.common.base.Preconditions;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.plugin.Plugin;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Case-insensitive index of the players online on this server that can be
+ * read from any thread
+ * <p>
+ * The index is only written on the main thread (from join and quit events),
+ * so a lookup may briefly lag behind the server during a join or quit.
+ * </p>
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class LocalPlayerIndex implements Listener, Registerable
+{
+  private final Plugin plugin;
+  private final ConcurrentHashMap<String, String> playerNames = new ConcurrentHashMap<>();
+
+  public LocalPlayerIndex(Plugin plugin)
+  {
+    this.plugin = Preconditions.checkNotNull(plugin, "plugin");
+  }
+
+  /**
+   * Registers the event listeners and indexes the players that are already
+   * online (must be called on the main thread)
+   */
+  @Override
+  public void register()
+  {
+    plugin.getServer().getPluginManager().registerEvents(this, plugin);
+
+    // Players that joined before the plugin was enabled (such as on reload)
+    for (Player player : plugin.getServer().getOnlinePlayers())
+    {
+      add(player.getName());
+    }
+  }
+
+  @Override
+  public void unregister()
+  {
+    HandlerList.unregisterAll(this);
+    playerNames.clear();
+  }
+
+  /**
+   * @param playerName Name of the player to look for (case-insensitive)
+   *
+   * @return True if the player is online on this server or false
+   */
+  public boolean isOnline(String playerName)
+  {
+    Preconditions.checkNotNull(playerName, "playerName");
+
+    return playerNames.containsKey(toKey(playerName));
+  }
+
+  /**
+   * @param playerName Name of the player to look for (case-insensitive)
+   *
+   * @return Name of the player with the correct case if the player is online
+   * on this server or null
+   */
+  public String getExactName(String playerName)
+  {
+    Preconditions.checkNotNull(playerName, "playerName");
+
+    return playerNames.get(toKey(playerName));
+  }
+
+  /**
+   * @return Unmodifiable view of the names of the players online on this server
+   */
+  public Collection<String> getPlayerNames()
+  {
+    return Collections.unmodifiableCollection(playerNames.values());
+  }
+
+  /**
+   * @return Number of players online on this server
+   */
+  public int size()
+  {
+    return playerNames.size();
+  }
+
+  @EventHandler(priority = EventPriority.LOWEST)
+  public void onPlayerJoin(PlayerJoinEvent event)
+  {
+    // Added as early as possible so messages sent by other join listeners
+    // are routed to this server
+    add(event.getPlayer().getName());
+  }
+
+  @EventHandler(priority = EventPriority.MONITOR)
+  public void onPlayerQuit(PlayerQuitEvent event)
+  {
+    // Removed as late as possible so messages sent by other quit listeners
+    // are still routed to this server
+    String playerName = event.getPlayer().getName();
+    playerNames.remove(toKey(playerName), playerName);
+  }
+
+  private void add(String playerName)
+  {
+    playerNames.put(toKey(playerName), playerName);
+  }
+
+  private static String toKey(String playerName)
+  {
+    return playerName.toLowerCase(Locale.ENGLISH);
+  }
+}
@@ -0,0 +1,241 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Spigot;
+
+import com.gmail.tracebachi.SockExchange.Utilities.BasicLogger;
+import com.google.common.base.Preconditions;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs tasks on the main thread from one repeating task instead of
+ * scheduling a Bukkit task per message
+ * <p>
+ * Tasks are queued in a lock-free queue and run in order once per tick
+ * until the tick budget is spent. Tasks that do not fit are carried over
+ * to the next tick. At least one task runs every tick, so a task that takes
+ * longer than the budget does not stop the queue.
+ * </p>
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+public class MainThreadDispatcher implements Executor
+{
+  private final Plugin plugin;
+  private final BasicLogger basicLogger;
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger queueDepth = new AtomicInteger(0);
+  private final LongAdder tasksRun = new LongAdder();
+  private final LongAdder ticks = new LongAdder();
+  private final LongAdder tickNanos = new LongAdder();
+  private volatile long tickBudgetNanos;
+  private volatile long lastTickNanos = 0;
+  private volatile long maxTickNanos = 0;
+  private BukkitTask bukkitTask;
+
+  public MainThreadDispatcher(Plugin plugin, BasicLogger basicLogger, long tickBudgetMillis)
+  {
+    Preconditions.checkNotNull(plugin, "plugin");
+    Preconditions.checkNotNull(basicLogger, "basicLogger");
+
+    this.plugin = plugin;
+    this.basicLogger = basicLogger;
+
+    setTickBudgetMillis(tickBudgetMillis);
+  }
+
+  /**
+   * Starts the repeating task (must be called on the main thread)
+   */
+  public void start()
+  {
+    Preconditions.checkState(bukkitTask == null, "Dispatcher is started");
+
+    bukkitTask = plugin.getServer().getScheduler().runTaskTimer(plugin, this::runTick, 1L, 1L);
+  }
+
+  /**
+   * Stops the repeating task and runs the queued tasks (must be called on
+   * the main thread)
+   */
+  public void stop()
+  {
+    if (bukkitTask != null)
+    {
+      bukkitTask.cancel();
+      bukkitTask = null;
+    }
+
+    // Work queued before the plugin was disabled is not dropped
+    Runnable task;
+    while ((task = tasks.poll()) != null)
+    {
+      queueDepth.decrementAndGet();
+      runTask(task);
+    }
+  }
+
+  /**
+   * Queues a task to run on the main thread (from any thread)
+   *
+   * @param runnable Task to run
+   */
+  @Override
+  public void execute(Runnable runnable)
+  {
+    Preconditions.checkNotNull(runnable, "runnable");
+
+    queueDepth.incrementAndGet();
+    tasks.offer(runnable);
+  }
+
+  public long getTickBudgetMillis()
+  {
+    return TimeUnit.NANOSECONDS.toMillis(tickBudgetNanos);
+  }
+
+  /**
+   * @param tickBudgetMillis Milliseconds of each tick the queued tasks may use
+   */
+  public void setTickBudgetMillis(long tickBudgetMillis)
+  {
+    Preconditions.checkArgument(tickBudgetMillis > 0, "tickBudgetMillis must be > 0");
+
+    this.tickBudgetNanos = TimeUnit.MILLISECONDS.toNanos(tickBudgetMillis);
+  }
+
+  /**
+   * @return Number of tasks waiting for the main thread
+   */
+  public int getQueueDepth()
+  {
+    return Math.max(0, queueDepth.get());
+  }
+
+  /**
+   * @return Number of tasks run
+   */
+  public long getTasksRun()
+  {
+    return tasksRun.sum();
+  }
+
+  /**
+   * @return Microseconds spent running tasks in the last tick that had tasks
+   */
+  public long getLastTickMicros()
+  {
+    return TimeUnit.NANOSECONDS.toMicros(lastTickNanos);
+  }
+
+  /**
+   * @return Average microseconds spent running tasks per tick that had tasks
+   */
+  public double getAverageTickMicros()
+  {
+    long tickCount = ticks.sum();
+    return tickCount == 0 ? 0 : tickNanos.sum() / 1000.0 / tickCount;
+  }
+
+  /**
+   * @return Most microseconds spent running tasks in one tick
+   */
+  public long getMaxTickMicros()
+  {
+    return TimeUnit.NANOSECONDS.toMicros(maxTickNanos);
+  }
+
+  public void resetStatistics()
+  {
+    tasksRun.reset();
+    ticks.reset();
+    tickNanos.reset();
+    lastTickNanos = 0;
+    maxTickNanos = 0;
+  }
+
+  @Override
+  public String toString()
+  {
+    return String.format(
+      "MainThreadDispatcher{queueDepth=%d, tasksRun=%d, lastTickMicros=%d, avgTickMicros=%.1f, maxTickMicros=%d}",
+      getQueueDepth(), getTasksRun(), getLastTickMicros(), getAverageTickMicros(),
+      getMaxTickMicros());
+  }
+
+  private void runTick()
+  {
+    if (queueDepth.get() <= 0)
+    {
+      return;
+    }
+
+    long startNanos = System.nanoTime();
+    long deadlineNanos = startNanos + tickBudgetNanos;
+    int count = 0;
+    Runnable task;
+
+    do
+    {
+      task = tasks.poll();
+
+      if (task == null)
+      {
+        break;
+      }
+
+      queueDepth.decrementAndGet();
+      runTask(task);
+      count++;
+    }
+    while (System.nanoTime() - deadlineNanos < 0);
+
+    long elapsedNanos = System.nanoTime() - startNanos;
+
+    // Only the main thread writes the tick times
+    tasksRun.add(count);
+    ticks.increment();
+    tickNanos.add(elapsedNanos);
+    lastTickNanos = elapsedNanos;
+
+    if (elapsedNanos > maxTickNanos)
+    {
+      maxTickNanos = elapsedNanos;
+    }
+  }
+
+  private void runTask(Runnable task)
+  {
+    try
+    {
+      task.run();
+    }
+    catch (Exception ex)
+    {
+      basicLogger.severe("A task on the main thread failed: %s", ex);
+      ex.printStackTrace();
+    }
+  }
+}
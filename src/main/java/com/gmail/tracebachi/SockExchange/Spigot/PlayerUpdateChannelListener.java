@@ -17,6 +17,7 @@
  */
 package com.gmail.tracebachi.SockExchange.Spigot;
 
+import com.gmail.tracebachi.SockExchange.Messages.DispatchMode;
 import com.gmail.tracebachi.SockExchange.Messages.ReceivedMessage;
 import com.gmail.tracebachi.SockExchange.SockExchangeConstants.Channels;
 import com.gmail.tracebachi.SockExchange.Utilities.Registerable;
@@ -48,7 +49,10 @@ public class PlayerUpdateChannelListener implements Registerable
   @Override
   public void register()
   {
-    api.getMessageNotifier().register(Channels.PLAYER_UPDATE, onChannelMessage);
+    // Each update replaces the whole set, so an older update must not run last
+    // (inline consumers run one at a time on the Netty thread of the connection)
+    api.getMessageNotifier().register(
+      Channels.PLAYER_UPDATE, onChannelMessage, DispatchMode.INLINE);
   }
 
   @Override
@@ -17,8 +17,19 @@
  */
 package com.gmail.tracebachi.SockExchange.Spigot;
 
+import com.gmail.tracebachi.SockExchange.Messages.AggregatedResponseMessage;
+import com.gmail.tracebachi.SockExchange.Messages.MessageBatch;
 import com.gmail.tracebachi.SockExchange.Messages.ReceivedMessageNotifier;
+import com.gmail.tracebachi.SockExchange.Messages.ReceivedStreamNotifier;
+import com.gmail.tracebachi.SockExchange.Messages.ResponseFuture;
 import com.gmail.tracebachi.SockExchange.Messages.ResponseMessage;
+import com.gmail.tracebachi.SockExchange.Messages.ResponseStatus;
+import com.gmail.tracebachi.SockExchange.Messages.TransferFuture;
+import com.gmail.tracebachi.SockExchange.Netty.AllocationStatistics;
+import com.gmail.tracebachi.SockExchange.Netty.CompressionStatistics;
+import com.gmail.tracebachi.SockExchange.Netty.FlushStatistics;
+import com.gmail.tracebachi.SockExchange.Netty.PacketPriority;
+import com.gmail.tracebachi.SockExchange.Netty.PriorityStatistics;
 import com.gmail.tracebachi.SockExchange.Netty.SpigotToVelocityConnection;
 import com.gmail.tracebachi.SockExchange.SockExchangeConstants.Channels;
 import com.gmail.tracebachi.SockExchange.SpigotServerInfo;
@@ -27,7 +38,14 @@ import com.google.common.base.Preconditions;
 import com.google.common.io.ByteArrayDataOutput;
 import com.google.common.io.ByteStreams;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.function.Consumer;
 
@@ -55,21 +73,32 @@ public class SockExchangeApi
   private final SpigotTieIn spigotTieIn;
   private final ScheduledExecutorService scheduledExecutorService;
   private final ReceivedMessageNotifier messageNotifier;
+  private final ReceivedStreamNotifier streamNotifier;
   private final SpigotToVelocityConnection connection;
+  private final AllocationStatistics allocationStatistics;
+  private final CompressionStatistics compressionStatistics;
 
   protected SockExchangeApi(
     SpigotTieIn spigotTieIn, ScheduledExecutorService scheduledExecutorService,
-    ReceivedMessageNotifier messageNotifier, SpigotToVelocityConnection connection)
+    ReceivedMessageNotifier messageNotifier, ReceivedStreamNotifier streamNotifier,
+    SpigotToVelocityConnection connection,
+    AllocationStatistics allocationStatistics, CompressionStatistics compressionStatistics)
   {
     Preconditions.checkNotNull(spigotTieIn, "spigotTieIn");
     Preconditions.checkNotNull(scheduledExecutorService, "scheduledExecutorService");
     Preconditions.checkNotNull(messageNotifier, "messageNotifier");
+    Preconditions.checkNotNull(streamNotifier, "streamNotifier");
     Preconditions.checkNotNull(connection, "connection");
+    Preconditions.checkNotNull(allocationStatistics, "allocationStatistics");
+    Preconditions.checkNotNull(compressionStatistics, "compressionStatistics");
 
     this.spigotTieIn = spigotTieIn;
     this.scheduledExecutorService = scheduledExecutorService;
     this.messageNotifier = messageNotifier;
+    this.streamNotifier = streamNotifier;
     this.connection = connection;
+    this.allocationStatistics = allocationStatistics;
+    this.compressionStatistics = compressionStatistics;
   }
 
   /**
@@ -125,6 +154,75 @@ public class SockExchangeApi
     return messageNotifier;
   }
 
+  /**
+   * @return {@link ReceivedStreamNotifier} used for registering and
+   * un-registering stream consumers
+   */
+  public ReceivedStreamNotifier getStreamNotifier()
+  {
+    return streamNotifier;
+  }
+
+  /**
+   * @return {@link LocalPlayerIndex} of the players online on this server
+   * (safe to read from any thread)
+   */
+  public LocalPlayerIndex getLocalPlayerIndex()
+  {
+    return spigotTieIn.getLocalPlayerIndex();
+  }
+
+  /**
+   * @return {@link MainThreadDispatcher} that runs SockExchange work on the
+   * main thread (other plugins may queue their own tasks with it)
+   */
+  public MainThreadDispatcher getMainThreadDispatcher()
+  {
+    return spigotTieIn.getMainThreadDispatcher();
+  }
+
+  /**
+   * @return {@link FlushStatistics} of the connection to Velocity
+   */
+  public FlushStatistics getFlushStatistics()
+  {
+    return connection.getFlushStatistics();
+  }
+
+  /**
+   * @return {@link PriorityStatistics} of the outbound queues of the
+   * connection to Velocity
+   */
+  public PriorityStatistics getPriorityStatistics()
+  {
+    return connection.getPriorityStatistics();
+  }
+
+  /**
+   * @return Estimated number of bytes queued for Velocity but not yet
+   * written to the channel (0 if not connected)
+   */
+  public long getQueuedBytes()
+  {
+    return connection.getQueuedBytes();
+  }
+
+  /**
+   * @return {@link AllocationStatistics} of the network buffers
+   */
+  public AllocationStatistics getAllocationStatistics()
+  {
+    return allocationStatistics;
+  }
+
+  /**
+   * @return {@link CompressionStatistics} of the frames sent to and received from Bungee
+   */
+  public CompressionStatistics getCompressionStatistics()
+  {
+    return compressionStatistics;
+  }
+
   /**
    * Sends bytes to Bungee (if connected)
    * <p>
@@ -157,6 +255,71 @@ public class SockExchangeApi
     connection.sendToVelocity(channelName, messageBytes, consumer, timeoutInMillis);
   }
 
+  /**
+   * Sends bytes to Bungee (if connected) in the passed class instead of the
+   * class of the channel
+   * <p>
+   * Messages sent in another class than the rest of their channel may arrive
+   * out of order. The class is not sent to Velocity.
+   * </p>
+   * To avoid extra memory usage, the API assumes the following parameters
+   * are not modified after this method is called: messageBytes
+   *
+   * @param channelName Name of channel to send bytes to
+   * @param messageBytes Bytes to send
+   * @param priority Class to queue the message in
+   */
+  public void sendToVelocity(String channelName, byte[] messageBytes, PacketPriority priority)
+  {
+    Preconditions.checkNotNull(priority, "priority");
+
+    connection.sendToVelocity(channelName, messageBytes, null, 0, priority);
+  }
+
+  /**
+   * Sends bytes to Bungee (if connected) and returns a future for the response
+   * <p>
+   * The future completes on the SockExchange executor. Cancelling it removes
+   * the pending request.
+   * </p>
+   * To avoid extra memory usage, the API assumes the following parameters
+   * are not modified after this method is called: messageBytes
+   *
+   * @param channelName Name of channel to send bytes to
+   * @param messageBytes Bytes to send
+   * @param timeoutInMillis Milliseconds to wait for a response before returning a timeout response
+   *
+   * @return {@link ResponseFuture} completed with the response (or a failure)
+   */
+  public ResponseFuture sendToVelocityAsync(
+    String channelName, byte[] messageBytes, long timeoutInMillis)
+  {
+    return sendToVelocityAsync(channelName, messageBytes, timeoutInMillis, null);
+  }
+
+  /**
+   * Sends bytes to Bungee (if connected) and returns a future for the response
+   * <p>
+   * Cancelling the future removes the pending request.
+   * </p>
+   * To avoid extra memory usage, the API assumes the following parameters
+   * are not modified after this method is called: messageBytes
+   *
+   * @param channelName Name of channel to send bytes to
+   * @param messageBytes Bytes to send
+   * @param timeoutInMillis Milliseconds to wait for a response before returning a timeout response
+   * @param executor Executor to complete the future on or null for the SockExchange executor
+   *
+   * @return {@link ResponseFuture} completed with the response (or a failure)
+   */
+  public ResponseFuture sendToVelocityAsync(
+    String channelName, byte[] messageBytes, long timeoutInMillis, Executor executor)
+  {
+    ResponseFuture future = new ResponseFuture(executor);
+    sendToVelocity(channelName, messageBytes, future, timeoutInMillis);
+    return future;
+  }
+
   /**
    * Sends bytes to a server (if online)
    * <p>
@@ -191,6 +354,126 @@ public class SockExchangeApi
     connection.sendToServer(channelName, messageBytes, destServerName, consumer, timeoutInMillis);
   }
 
+  /**
+   * Sends bytes to a server (if online) in the passed class instead of the
+   * class of the channel
+   * <p>
+   * Messages sent in another class than the rest of their channel may arrive
+   * out of order. Velocity forwards the message in the class of the channel.
+   * </p>
+   * To avoid extra memory usage, the API assumes the following parameters
+   * are not modified after this method is called: messageBytes
+   *
+   * @param channelName Name of channel to send bytes to
+   * @param messageBytes Bytes to send
+   * @param destServerName Name of the server to send bytes to
+   * @param priority Class to queue the message in
+   */
+  public void sendToServer(
+    String channelName, byte[] messageBytes, String destServerName, PacketPriority priority)
+  {
+    Preconditions.checkNotNull(priority, "priority");
+
+    connection.sendToServer(channelName, messageBytes, destServerName, null, 0, priority);
+  }
+
+  /**
+   * Looks up the ID Velocity assigned to a server
+   * <p>
+   * IDs are sent by Velocity on registration and stay the same until Velocity
+   * restarts, so they can be cached until the connection is lost.
+   * </p>
+   *
+   * @param serverName Name of the server
+   * @return ID of the server or -1 if it is unknown (or the Velocity version
+   *   does not support server IDs)
+   */
+  public int getServerId(String serverName)
+  {
+    return connection.getServerId(serverName);
+  }
+
+  /**
+   * Sends bytes to a server by ID (if online)
+   * <p>
+   * To avoid extra memory usage, the API assumes the following parameters
+   * are not modified after this method is called: messageBytes
+   *
+   * @param channelName Name of channel to send bytes to
+   * @param messageBytes Bytes to send
+   * @param destServerId ID of the server from {@link #getServerId(String)}
+   */
+  public void sendToServer(String channelName, byte[] messageBytes, int destServerId)
+  {
+    sendToServer(channelName, messageBytes, destServerId, null, 0);
+  }
+
+  /**
+   * Sends bytes to a server by ID (if online) and expects a response
+   * <p>
+   * To avoid extra memory usage, the API assumes the following parameters
+   * are not modified after this method is called: messageBytes
+   *
+   * @param channelName Name of channel to send bytes to
+   * @param messageBytes Bytes to send
+   * @param destServerId ID of the server from {@link #getServerId(String)}
+   * @param consumer Consumer to run once there is a response (or a failure)
+   * @param timeoutInMillis Milliseconds to wait for a response before returning a timeout response
+   */
+  public void sendToServer(
+    String channelName, byte[] messageBytes, int destServerId,
+    Consumer<ResponseMessage> consumer, long timeoutInMillis)
+  {
+    connection.sendToServer(channelName, messageBytes, destServerId, consumer, timeoutInMillis);
+  }
+
+  /**
+   * Sends bytes to a server (if online) and returns a future for the response
+   * <p>
+   * The future completes on the SockExchange executor. Cancelling it removes
+   * the pending request.
+   * </p>
+   * To avoid extra memory usage, the API assumes the following parameters
+   * are not modified after this method is called: messageBytes
+   *
+   * @param channelName Name of channel to send bytes to
+   * @param messageBytes Bytes to send
+   * @param destServerName Name of the server to send bytes to
+   * @param timeoutInMillis Milliseconds to wait for a response before returning a timeout response
+   *
+   * @return {@link ResponseFuture} completed with the response (or a failure)
+   */
+  public ResponseFuture sendToServerAsync(
+    String channelName, byte[] messageBytes, String destServerName, long timeoutInMillis)
+  {
+    return sendToServerAsync(channelName, messageBytes, destServerName, timeoutInMillis, null);
+  }
+
+  /**
+   * Sends bytes to a server (if online) and returns a future for the response
+   * <p>
+   * Cancelling the future removes the pending request.
+   * </p>
+   * To avoid extra memory usage, the API assumes the following parameters
+   * are not modified after this method is called: messageBytes
+   *
+   * @param channelName Name of channel to send bytes to
+   * @param messageBytes Bytes to send
+   * @param destServerName Name of the server to send bytes to
+   * @param timeoutInMillis Milliseconds to wait for a response before returning a timeout response
+   * @param executor Executor to complete the future on or null for the SockExchange executor
+   *
+   * @return {@link ResponseFuture} completed with the response (or a failure)
+   */
+  public ResponseFuture sendToServerAsync(
+    String channelName, byte[] messageBytes, String destServerName, long timeoutInMillis,
+    Executor executor)
+  {
+    ResponseFuture future = new ResponseFuture(executor);
+    sendToServer(channelName, messageBytes, destServerName, future, timeoutInMillis);
+    return future;
+  }
+
   /**
    * Sends bytes to a server (if online)
    * <p>
@@ -222,20 +505,214 @@ public class SockExchangeApi
     String channelName, byte[] messageBytes, String playerName, Consumer<ResponseMessage> consumer,
     long timeoutInMillis)
   {
-    spigotTieIn.isPlayerOnServer(playerName, (online) ->
+    // The local index is safe to read here, so there is no need to wait
+    // for the main thread to look the player up
+    if (spigotTieIn.getLocalPlayerIndex().isOnline(playerName))
+    {
+      // Send the message to the current server
+      connection.sendToServer(channelName, messageBytes, getServerName(), consumer,
+        timeoutInMillis);
+    }
+    else
+    {
+      connection.sendToServerOfPlayer(channelName, messageBytes, playerName, consumer,
+        timeoutInMillis);
+    }
+  }
+
+  /**
+   * Sends bytes to the server of a player (if online) and returns a future for the response
+   * <p>
+   * The future completes on the SockExchange executor. Cancelling it removes
+   * the pending request.
+   * </p>
+   * To avoid extra memory usage, the API assumes the following parameters
+   * are not modified after this method is called: messageBytes
+   *
+   * @param channelName Name of channel to send bytes to
+   * @param messageBytes Bytes to send
+   * @param playerName Name of the player to find and then their server to send bytes to
+   * @param timeoutInMillis Milliseconds to wait for a response before returning a timeout response
+   *
+   * @return {@link ResponseFuture} completed with the response (or a failure)
+   */
+  public ResponseFuture sendToServerOfPlayerAsync(
+    String channelName, byte[] messageBytes, String playerName, long timeoutInMillis)
+  {
+    return sendToServerOfPlayerAsync(channelName, messageBytes, playerName, timeoutInMillis, null);
+  }
+
+  /**
+   * Sends bytes to the server of a player (if online) and returns a future for the response
+   * <p>
+   * Cancelling the future removes the pending request.
+   * </p>
+   * To avoid extra memory usage, the API assumes the following parameters
+   * are not modified after this method is called: messageBytes
+   *
+   * @param channelName Name of channel to send bytes to
+   * @param messageBytes Bytes to send
+   * @param playerName Name of the player to find and then their server to send bytes to
+   * @param timeoutInMillis Milliseconds to wait for a response before returning a timeout response
+   * @param executor Executor to complete the future on or null for the SockExchange executor
+   *
+   * @return {@link ResponseFuture} completed with the response (or a failure)
+   */
+  public ResponseFuture sendToServerOfPlayerAsync(
+    String channelName, byte[] messageBytes, String playerName, long timeoutInMillis,
+    Executor executor)
+  {
+    ResponseFuture future = new ResponseFuture(executor);
+    sendToServerOfPlayer(channelName, messageBytes, playerName, future, timeoutInMillis);
+    return future;
+  }
+
+  /**
+   * Sends a batch of messages to Velocity in one network frame
+   * <p>
+   * If Velocity runs an older version of SockExchange, the messages are sent
+   * one by one.
+   * </p>
+   *
+   * @param batch Messages to send
+   */
+  public void sendBatchToVelocity(MessageBatch batch)
+  {
+    connection.sendBatchToVelocity(batch);
+  }
+
+  /**
+   * Sends a batch of messages to a server (if online) in one network frame
+   * <p>
+   * Velocity forwards the frame without decoding the messages. If Velocity
+   * runs an older version of SockExchange, the messages are sent one by one.
+   * </p>
+   *
+   * @param batch Messages to send
+   * @param destServerName Name of the server to send the messages to
+   */
+  public void sendBatchToServer(MessageBatch batch, String destServerName)
+  {
+    connection.sendBatchToServer(batch, destServerName);
+  }
+
+  /**
+   * Streams bytes to Velocity (if connected) in chunks
+   * <p>
+   * The source is read on a SockExchange thread as Velocity reads the
+   * stream, so payloads of any size can be sent without holding them in
+   * memory. The source is closed once the stream completes.
+   * </p>
+   *
+   * @param channelName Name of channel to stream bytes to
+   * @param source Stream to read the bytes from
+   * @param consumer Consumer to run with {@link ResponseStatus#OK} once Velocity
+   * has read the whole stream (or with the reason it failed) or null
+   * @param timeoutInMillis Milliseconds the whole stream may take
+   */
+  public void sendStreamToVelocity(
+    String channelName, InputStream source, Consumer<ResponseMessage> consumer,
+    long timeoutInMillis)
+  {
+    connection.sendStreamToVelocity(channelName, source, consumer, timeoutInMillis);
+  }
+
+  /**
+   * Same as {@link #sendStreamToVelocity(String, InputStream, Consumer, long)}
+   * for a {@link ReadableByteChannel}
+   */
+  public void sendStreamToVelocity(
+    String channelName, ReadableByteChannel source, Consumer<ResponseMessage> consumer,
+    long timeoutInMillis)
+  {
+    Preconditions.checkNotNull(source, "source");
+
+    // SockExchangeConstants.Channels hides java.nio.channels.Channels
+    InputStream inputStream = java.nio.channels.Channels.newInputStream(source);
+    sendStreamToVelocity(channelName, inputStream, consumer, timeoutInMillis);
+  }
+
+  /**
+   * Streams bytes to a server (if online) in chunks
+   * <p>
+   * Velocity forwards the chunks without copying them. The source is read on
+   * a SockExchange thread as the destination reads the stream, so payloads of
+   * any size can be sent without holding them in memory. The source is
+   * closed once the stream completes.
+   * </p>
+   *
+   * @param channelName Name of channel to stream bytes to
+   * @param source Stream to read the bytes from
+   * @param destServerName Name of the server to stream bytes to (not the current server)
+   * @param consumer Consumer to run with {@link ResponseStatus#OK} once the
+   * server has read the whole stream (or with the reason it failed) or null
+   * @param timeoutInMillis Milliseconds the whole stream may take
+   */
+  public void sendStreamToServer(
+    String channelName, InputStream source, String destServerName,
+    Consumer<ResponseMessage> consumer, long timeoutInMillis)
+  {
+    connection.sendStreamToServer(channelName, source, destServerName, consumer,
+      timeoutInMillis);
+  }
+
+  /**
+   * Same as {@link #sendStreamToServer(String, InputStream, String, Consumer, long)}
+   * for a {@link ReadableByteChannel}
+   */
+  public void sendStreamToServer(
+    String channelName, ReadableByteChannel source, String destServerName,
+    Consumer<ResponseMessage> consumer, long timeoutInMillis)
+  {
+    Preconditions.checkNotNull(source, "source");
+
+    // SockExchangeConstants.Channels hides java.nio.channels.Channels
+    InputStream inputStream = java.nio.channels.Channels.newInputStream(source);
+    sendStreamToServer(channelName, inputStream, destServerName, consumer, timeoutInMillis);
+  }
+
+  /**
+   * Sends a file to a server (if online)
+   * <p>
+   * The file is sent as a stream (see
+   * {@link #sendStreamToServer(String, InputStream, String, Consumer, long)}),
+   * but each chunk is written straight from the file to the connection, so
+   * the data is never copied into memory where the transport supports it.
+   * The destination can write the chunks straight to a file with
+   * {@link com.gmail.tracebachi.SockExchange.Messages.ReceivedStream#saveTo(Path)}.
+   * </p>
+   *
+   * @param channelName Name of channel to send the file to
+   * @param path File to send
+   * @param destServerName Name of the server to send the file to (not the current server)
+   * @param timeoutInMillis Milliseconds the whole transfer may take
+   *
+   * @return Future that tracks the bytes sent and completes with
+   * {@link ResponseStatus#OK} once the server has read the whole file (or with
+   * the reason it failed)
+   *
+   * @throws IOException If the file could not be opened
+   */
+  public TransferFuture sendFile(
+    String channelName, Path path, String destServerName, long timeoutInMillis)
+    throws IOException
+  {
+    Preconditions.checkNotNull(path, "path");
+
+    FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ);
+
+    try
+    {
+      TransferFuture future = new TransferFuture(fileChannel.size());
+      connection.sendFileToServer(channelName, fileChannel, destServerName, future,
+        timeoutInMillis);
+      return future;
+    }
+    catch (IOException | RuntimeException ex)
     {
-      if (online)
-      {
-        // Send the message to the current server
-        connection.sendToServer(channelName, messageBytes, getServerName(), consumer,
-          timeoutInMillis);
-      }
-      else
-      {
-        connection.sendToServerOfPlayer(channelName, messageBytes, playerName, consumer,
-          timeoutInMillis);
-      }
-    });
+      fileChannel.close();
+      throw ex;
+    }
   }
 
   /**
@@ -268,6 +745,33 @@ public class SockExchangeApi
     connection.sendToServers(channelName, messageBytes, serverNames);
   }
 
+  /**
+   * Sends bytes to a list of servers (if online) through Bungee and expects
+   * one response holding the response of every server
+   * <p>
+   * Bungee responds once every server responded or once the quorum of OK
+   * responses is reached. Servers that do not respond before the timeout are
+   * included with a timeout response.
+   * </p>
+   * To avoid extra memory usage, the API assumes the following parameters
+   * are not modified after this method is called: messageBytes, serverNames
+   *
+   * @param channelName Name of channel to send bytes to
+   * @param messageBytes Bytes to send
+   * @param serverNames List of server names to send bytes to or null (or
+   * an empty list) for all servers except the current server
+   * @param quorum Number of OK responses to respond with or 0 to wait for all servers
+   * @param consumer Consumer to run once there is a response (or a failure)
+   * @param timeoutInMillis Milliseconds to wait for each server to respond
+   */
+  public void gatherFromServers(
+    String channelName, byte[] messageBytes, List<String> serverNames, int quorum,
+    Consumer<AggregatedResponseMessage> consumer, long timeoutInMillis)
+  {
+    connection.gatherFromServers(channelName, messageBytes, serverNames, quorum, consumer,
+      timeoutInMillis);
+  }
+
   /**
    * Sends players (if they are online) to the server (if the server is online)
    *
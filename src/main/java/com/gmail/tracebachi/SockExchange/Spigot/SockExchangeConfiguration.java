@@ -17,6 +17,15 @@
  */
 package com.gmail.tracebachi.SockExchange.Spigot;
 
+import com.gmail.tracebachi.SockExchange.Netty.BackpressurePolicy;
+import com.gmail.tracebachi.SockExchange.Netty.BufferAllocatorType;
+import com.gmail.tracebachi.SockExchange.Netty.CompressionOptions;
+import com.gmail.tracebachi.SockExchange.Netty.FlushPolicy;
+import com.gmail.tracebachi.SockExchange.Netty.LaneOptions;
+import com.gmail.tracebachi.SockExchange.Netty.PacketPriority;
+import com.gmail.tracebachi.SockExchange.Netty.PriorityOptions;
+import com.gmail.tracebachi.SockExchange.Netty.TransportOptions;
+import com.gmail.tracebachi.SockExchange.Netty.TransportType;
 import com.gmail.tracebachi.SockExchange.Utilities.MessageFormatMap;
 import net.md_5.bungee.api.ChatColor;
 import org.bukkit.configuration.ConfigurationSection;
@@ -30,6 +39,17 @@ class SockExchangeConfiguration
   private int port;
   private String serverName;
   private String registrationPassword;
+  private FlushPolicy flushPolicy;
+  private boolean autoBatching;
+  private boolean zeroCopyPayloads;
+  private BufferAllocatorType bufferAllocatorType;
+  private TransportOptions transportOptions;
+  private CompressionOptions compressionOptions;
+  private LaneOptions laneOptions;
+  private PriorityOptions priorityOptions;
+  private BackpressurePolicy backpressurePolicy;
+  private long timeoutTickMillis;
+  private long mainThreadBudgetMillis;
   private MessageFormatMap messageFormatMap;
   private boolean debugMode;
 
@@ -39,6 +59,63 @@ class SockExchangeConfiguration
     port = configuration.getInt("SockExchangeClient.Port", 20000);
     serverName = configuration.getString("SockExchangeClient.ServerName", "");
     registrationPassword = configuration.getString("SockExchangeClient.Password", "FreshSocks");
+    flushPolicy = FlushPolicy.fromConfig(
+      configuration.getString("SockExchangeClient.Flush.Policy", "EndOfTask"),
+      configuration.getInt("SockExchangeClient.Flush.MaxPackets", 32),
+      configuration.getLong("SockExchangeClient.Flush.MaxDelayMicros", 200));
+    autoBatching = configuration.getBoolean("SockExchangeClient.Flush.AutoBatch", false);
+    zeroCopyPayloads = configuration.getBoolean("SockExchangeClient.ZeroCopyPayloads", false);
+    bufferAllocatorType = BufferAllocatorType.fromName(
+      configuration.getString("SockExchangeClient.BufferAllocator", "PooledDirect"));
+    timeoutTickMillis = Math.max(1, configuration.getLong("SockExchangeClient.TimeoutTickMillis", 10));
+    mainThreadBudgetMillis = Math.max(1,
+      configuration.getLong("SockExchangeClient.MainThreadBudgetMillis", 5));
+    transportOptions = new TransportOptions();
+    transportOptions.setTransportType(TransportType.fromName(
+      configuration.getString("SockExchangeClient.Transport.Type", "Auto")));
+    transportOptions.setTcpNoDelay(
+      configuration.getBoolean("SockExchangeClient.Transport.TcpNoDelay", true));
+    transportOptions.setKeepAlive(
+      configuration.getBoolean("SockExchangeClient.Transport.KeepAlive", true));
+    transportOptions.setSendBufferSize(
+      configuration.getInt("SockExchangeClient.Transport.SendBufferSize", 0));
+    transportOptions.setReceiveBufferSize(
+      configuration.getInt("SockExchangeClient.Transport.ReceiveBufferSize", 0));
+    transportOptions.setDomainSocketPath(
+      configuration.getString("SockExchangeClient.Transport.DomainSocketPath", ""));
+    transportOptions.setWriteBufferWaterMarks(
+      configuration.getInt("SockExchangeClient.WriteBuffer.LowWaterMark", 524288),
+      configuration.getInt("SockExchangeClient.WriteBuffer.HighWaterMark", 1048576));
+    compressionOptions = new CompressionOptions();
+    compressionOptions.setEnabled(
+      configuration.getBoolean("SockExchangeClient.Compression.Enabled", false));
+    compressionOptions.setThreshold(
+      Math.max(1, configuration.getInt("SockExchangeClient.Compression.Threshold", 8192)));
+    compressionOptions.setLevel(
+      Math.min(9, Math.max(1, configuration.getInt("SockExchangeClient.Compression.Level", 1))));
+    laneOptions = new LaneOptions();
+    laneOptions.setBulkLanes(Math.min(LaneOptions.MAX_BULK_LANES,
+      Math.max(0, configuration.getInt("SockExchangeClient.Lanes.BulkLanes", 0))));
+    laneOptions.setBulkThreshold(
+      Math.max(1, configuration.getInt("SockExchangeClient.Lanes.BulkThreshold", 65536)));
+    laneOptions.setBulkChannels(
+      configuration.getStringList("SockExchangeClient.Lanes.BulkChannels"));
+    priorityOptions = new PriorityOptions();
+    priorityOptions.setWeight(PacketPriority.CONTROL, Math.min(PriorityOptions.MAX_WEIGHT,
+      Math.max(1, configuration.getInt("SockExchangeClient.Priorities.ControlWeight", 16))));
+    priorityOptions.setWeight(PacketPriority.INTERACTIVE, Math.min(PriorityOptions.MAX_WEIGHT,
+      Math.max(1, configuration.getInt("SockExchangeClient.Priorities.InteractiveWeight", 4))));
+    priorityOptions.setWeight(PacketPriority.BULK, Math.min(PriorityOptions.MAX_WEIGHT,
+      Math.max(1, configuration.getInt("SockExchangeClient.Priorities.BulkWeight", 1))));
+    priorityOptions.setChannelPriority(
+      configuration.getStringList("SockExchangeClient.Priorities.ControlChannels"),
+      PacketPriority.CONTROL);
+    priorityOptions.setChannelPriority(
+      configuration.getStringList("SockExchangeClient.Priorities.BulkChannels"),
+      PacketPriority.BULK);
+    backpressurePolicy = BackpressurePolicy.fromConfig(
+      configuration.getString("SockExchangeClient.WriteBuffer.Backpressure", "Fail"),
+      configuration.getLong("SockExchangeClient.WriteBuffer.MaxBlockMillis", 50));
     debugMode = configuration.getBoolean("DebugMode", false);
     messageFormatMap = new MessageFormatMap();
 
@@ -73,6 +150,61 @@ class SockExchangeConfiguration
     return registrationPassword;
   }
 
+  FlushPolicy getFlushPolicy()
+  {
+    return flushPolicy;
+  }
+
+  boolean useAutoBatching()
+  {
+    return autoBatching;
+  }
+
+  boolean useZeroCopyPayloads()
+  {
+    return zeroCopyPayloads;
+  }
+
+  BufferAllocatorType getBufferAllocatorType()
+  {
+    return bufferAllocatorType;
+  }
+
+  TransportOptions getTransportOptions()
+  {
+    return transportOptions;
+  }
+
+  CompressionOptions getCompressionOptions()
+  {
+    return compressionOptions;
+  }
+
+  LaneOptions getLaneOptions()
+  {
+    return laneOptions;
+  }
+
+  PriorityOptions getPriorityOptions()
+  {
+    return priorityOptions;
+  }
+
+  BackpressurePolicy getBackpressurePolicy()
+  {
+    return backpressurePolicy;
+  }
+
+  long getTimeoutTickMillis()
+  {
+    return timeoutTickMillis;
+  }
+
+  long getMainThreadBudgetMillis()
+  {
+    return mainThreadBudgetMillis;
+  }
+
   MessageFormatMap getMessageFormatMap()
   {
     return messageFormatMap;
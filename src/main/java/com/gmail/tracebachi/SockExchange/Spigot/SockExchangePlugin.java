@@ -19,8 +19,11 @@ package com.gmail.tracebachi.SockExchange.Spigot;
 
 import com.gmail.tracebachi.SockExchange.ExpirableConsumer;
 import com.gmail.tracebachi.SockExchange.Messages.ReceivedMessageNotifier;
+import com.gmail.tracebachi.SockExchange.Messages.ReceivedStreamNotifier;
 import com.gmail.tracebachi.SockExchange.Messages.ResponseMessage;
 import com.gmail.tracebachi.SockExchange.Messages.ResponseStatus;
+import com.gmail.tracebachi.SockExchange.Netty.AllocationStatistics;
+import com.gmail.tracebachi.SockExchange.Netty.CompressionStatistics;
 import com.gmail.tracebachi.SockExchange.Netty.SockExchangeClient;
 import com.gmail.tracebachi.SockExchange.Netty.SpigotToVelocityConnection;
 import com.gmail.tracebachi.SockExchange.Scheduler.AwaitableExecutor;
@@ -33,13 +36,11 @@ import com.gmail.tracebachi.SockExchange.Utilities.MessageFormatMap;
 import com.google.common.base.Preconditions;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.bukkit.command.CommandSender;
-import org.bukkit.entity.Player;
 import org.bukkit.plugin.java.JavaPlugin;
 
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
@@ -55,11 +56,15 @@ public class SockExchangePlugin extends JavaPlugin implements SpigotTieIn
   private ScheduledThreadPoolExecutor threadPoolExecutor;
   private AwaitableExecutor awaitableExecutor;
   private BasicLogger basicLogger;
+  private MainThreadDispatcher mainThreadDispatcher;
+  private LocalPlayerIndex localPlayerIndex;
   private ReceivedMessageNotifier messageNotifier;
+  private ReceivedStreamNotifier streamNotifier;
   private LongIdCounterMap<ExpirableConsumer<ResponseMessage>> responseConsumerMap;
   private SpigotToVelocityConnection connection;
   private SockExchangeClient sockExchangeClient;
-  private ScheduledFuture<?> consumerTimeoutCleanupFuture;
+  private AllocationStatistics allocationStatistics;
+  private CompressionStatistics compressionStatistics;
 
   private PlayerUpdateChannelListener playerUpdateChannelListener;
   private KeepAliveChannelListener keepAliveChannelListener;
@@ -92,6 +97,15 @@ public class SockExchangePlugin extends JavaPlugin implements SpigotTieIn
     // Create the logger based on Java.Util.Logging
     basicLogger = new JulBasicLogger(getLogger(), debugMode);
 
+    // Create the dispatcher that batches main thread work per tick
+    mainThreadDispatcher = new MainThreadDispatcher(
+      this, basicLogger, configuration.getMainThreadBudgetMillis());
+    mainThreadDispatcher.start();
+
+    // Create the index of local players before anything can route messages
+    localPlayerIndex = new LocalPlayerIndex(this);
+    localPlayerIndex.register();
+
     // Create the shared thread pool executor
     buildThreadPoolExecutor();
     ScheduledExecutorServiceWrapper wrappedThreadPool =
@@ -102,22 +116,32 @@ public class SockExchangePlugin extends JavaPlugin implements SpigotTieIn
 
     // Create the message notifier which will run consumers on SockExchange messages
     messageNotifier = new ReceivedMessageNotifier(awaitableExecutor);
+    messageNotifier.startWatchdog(threadPoolExecutor,
+      ReceivedMessageNotifier.DEFAULT_WATCHDOG_THRESHOLD_MILLIS);
+    streamNotifier = new ReceivedStreamNotifier(awaitableExecutor);
 
     // Create the map that manages consumers for responses to sent message
-    responseConsumerMap = new LongIdCounterMap<>();
-
-    // Schedule a task to clean up the responseConsumerMap (handling timeouts)
-    consumerTimeoutCleanupFuture = threadPoolExecutor.scheduleWithFixedDelay(
-      this::checkForConsumerTimeouts, 5, 5, TimeUnit.SECONDS);
+    // (timed out consumers are removed by the map's timer)
+    responseConsumerMap = new LongIdCounterMap<>(
+      configuration.getTimeoutTickMillis(), this::onConsumerTimeout);
 
     // Create the Spigot-to-Bungee connection
     connection = new SpigotToVelocityConnection(
-      serverName, registrationPassword, awaitableExecutor, messageNotifier, responseConsumerMap,
-      basicLogger);
+      serverName, registrationPassword, awaitableExecutor, messageNotifier, streamNotifier,
+      responseConsumerMap,
+      basicLogger, configuration.getFlushPolicy(), configuration.getBackpressurePolicy());
+    connection.setAutoBatching(configuration.useAutoBatching());
+    connection.setLaneOptions(configuration.getLaneOptions());
+    connection.setPriorityOptions(configuration.getPriorityOptions());
+
+    // Create the statistics for buffers allocated by the client
+    allocationStatistics = new AllocationStatistics(configuration.getBufferAllocatorType());
+    compressionStatistics = new CompressionStatistics();
 
     // Create the API
     SockExchangeApi api = new SockExchangeApi(
-      this, threadPoolExecutor, messageNotifier, connection);
+      this, threadPoolExecutor, messageNotifier, streamNotifier, connection, allocationStatistics,
+      compressionStatistics);
     SockExchangeApi.setInstance(api);
 
     playerUpdateChannelListener = new PlayerUpdateChannelListener(api);
@@ -146,7 +170,10 @@ public class SockExchangePlugin extends JavaPlugin implements SpigotTieIn
 
     try
     {
-      sockExchangeClient = new SockExchangeClient(hostName, port, connection);
+      sockExchangeClient = new SockExchangeClient(hostName, port, connection,
+        configuration.useZeroCopyPayloads(), allocationStatistics,
+        configuration.getTransportOptions(), configuration.getCompressionOptions(),
+        compressionStatistics);
       sockExchangeClient.start();
     }
     catch (Exception e)
@@ -176,6 +203,20 @@ public class SockExchangePlugin extends JavaPlugin implements SpigotTieIn
       sockExchangeClient = null;
     }
 
+    // Run whatever main thread work is still queued now that nothing
+    // else can be added to it
+    if (mainThreadDispatcher != null)
+    {
+      mainThreadDispatcher.stop();
+      mainThreadDispatcher = null;
+    }
+
+    if (localPlayerIndex != null)
+    {
+      localPlayerIndex.unregister();
+      localPlayerIndex = null;
+    }
+
     if (spigotKeepAliveSender != null)
     {
       spigotKeepAliveSender.unregister();
@@ -228,19 +269,19 @@ public class SockExchangePlugin extends JavaPlugin implements SpigotTieIn
 
     connection = null;
 
-    if (consumerTimeoutCleanupFuture != null)
+    if (responseConsumerMap != null)
     {
-      consumerTimeoutCleanupFuture.cancel(false);
-      consumerTimeoutCleanupFuture = null;
+      responseConsumerMap.shutdown();
+      responseConsumerMap = null;
     }
 
-    if (responseConsumerMap != null)
+    if (messageNotifier != null)
     {
-      responseConsumerMap.clear();
-      responseConsumerMap = null;
+      messageNotifier.stopWatchdog();
+      messageNotifier = null;
     }
 
-    messageNotifier = null;
+    streamNotifier = null;
     basicLogger = null;
 
     if (threadPoolExecutor != null)
@@ -271,7 +312,7 @@ public class SockExchangePlugin extends JavaPlugin implements SpigotTieIn
   @Override
   public void sendChatMessagesToConsole(List<String> messages)
   {
-    getServer().getScheduler().runTask(this, () ->
+    mainThreadDispatcher.execute(() ->
     {
       CommandSender receiver = getServer().getConsoleSender();
       for (String message : messages)
@@ -284,42 +325,34 @@ public class SockExchangePlugin extends JavaPlugin implements SpigotTieIn
   @Override
   public void isPlayerOnServer(String playerName, Consumer<Boolean> consumer)
   {
-    getServer().getScheduler().runTask(this, () ->
-    {
-      Player player = getServer().getPlayerExact(playerName);
-      consumer.accept(player != null);
-    });
+    consumer.accept(localPlayerIndex.isOnline(playerName));
   }
 
   public void executeSync(Runnable runnable)
   {
     Preconditions.checkNotNull(runnable, "runnable");
 
-    getServer().getScheduler().runTask(this, runnable);
+    mainThreadDispatcher.execute(runnable);
   }
 
-  private void checkForConsumerTimeouts()
+  @Override
+  public LocalPlayerIndex getLocalPlayerIndex()
   {
-    long currentTimeMillis = System.currentTimeMillis();
-
-    responseConsumerMap.removeIf((entry) ->
-    {
-      ExpirableConsumer<ResponseMessage> responseConsumer = entry.getValue();
-
-      if (responseConsumer.getExpiresAtMillis() > currentTimeMillis)
-      {
-        // Keep the entry
-        return false;
-      }
+    return localPlayerIndex;
+  }
 
-      awaitableExecutor.execute(() ->
-      {
-        ResponseMessage responseMessage = new ResponseMessage(ResponseStatus.TIMED_OUT);
-        responseConsumer.accept(responseMessage);
-      });
+  @Override
+  public MainThreadDispatcher getMainThreadDispatcher()
+  {
+    return mainThreadDispatcher;
+  }
 
-      // Remove the entry
-      return true;
+  private void onConsumerTimeout(ExpirableConsumer<ResponseMessage> responseConsumer)
+  {
+    awaitableExecutor.execute(() ->
+    {
+      ResponseMessage responseMessage = new ResponseMessage(ResponseStatus.TIMED_OUT);
+      responseConsumer.accept(responseMessage);
     });
   }
 
@@ -328,7 +361,7 @@ public class SockExchangePlugin extends JavaPlugin implements SpigotTieIn
     try
     {
       awaitableExecutor.setAcceptingTasks(false);
-      awaitableExecutor.awaitTasksWithSleep(10, 1000);
+      awaitableExecutor.awaitTasks(10, TimeUnit.SECONDS);
       awaitableExecutor.shutdown();
     }
     catch (InterruptedException ex)
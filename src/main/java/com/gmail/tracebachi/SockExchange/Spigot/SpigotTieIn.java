@@ -38,4 +38,8 @@ public interface SpigotTieIn
   void sendChatMessagesToConsole(List<String> messages);
 
   void isPlayerOnServer(String playerName, Consumer<Boolean> consumer);
+
+  MainThreadDispatcher getMainThreadDispatcher();
+
+  LocalPlayerIndex getLocalPlayerIndex();
 }
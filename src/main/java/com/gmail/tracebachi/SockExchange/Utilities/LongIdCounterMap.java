@@ -18,57 +18,632 @@
 package com.gmail.tracebachi.SockExchange.Utilities;
 
 import com.google.common.base.Preconditions;
+import io.netty.util.concurrent.DefaultThreadFactory;
 
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 
 /**
+ * Map of values to generated IDs with optional per-entry timeouts
+ * <p>
+ * Values are stored in a ring of slots indexed by {@code id & mask}. Each
+ * slot remembers the ID it holds, so a stale or unknown ID never matches a
+ * newer value in the same slot. Slots are guarded by striped locks. Putting
+ * and removing a value allocates nothing unless the slot for a new ID is
+ * still held by an older value, in which case the value goes into an
+ * overflow map.
+ * </p>
+ * <p>
+ * The ring starts small and doubles (up to {@link #MAX_CAPACITY} slots)
+ * once the overflow map holds more than an eighth of its slots, so the
+ * number of slots follows the number of outstanding values. A few slow
+ * values only overflow, they do not grow the ring. Growing takes every
+ * stripe lock and moves the overflowed values into the new ring.
+ * </p>
+ * <p>
+ * A timeout is a deadline tick stored next to the value in its slot, plus
+ * the ID in the wheel bucket of that tick. Once per tick, a single timer
+ * thread walks only the bucket of the tick and expires the IDs whose value
+ * is still there and due; IDs of removed values are dropped from the
+ * bucket on the way, so removing a value is also its cancellation. A
+ * bucket is an array of IDs that is reused, so a timed put allocates
+ * nothing either and an expired value is removed within one tick of its
+ * deadline.
+ * </p>
+ * <p>
+ * IDs are never reused, even after {@link #clear()}, so a late response
+ * can never complete a newer value.
+ * </p>
+ *
  * @author GeeItsZee (tracebachi@gmail.com)
  */
 public class LongIdCounterMap<V>
 {
+  public static final int MAX_CAPACITY = 1 << 22;
+
+  private static final int DEFAULT_CAPACITY = 4096;
+  private static final int LOCK_STRIPES = 64;
+  private static final int WHEEL_SIZE = 512;
+  private static final long NO_DEADLINE = 0L;
+
   private final AtomicLong idCounter = new AtomicLong(0L);
-  private final ConcurrentHashMap<Long, V> map = new ConcurrentHashMap<>();
+  private final Object[] locks;
+  private final Object growLock = new Object();
+  private final ConcurrentHashMap<Long, OverflowEntry<V>> overflowMap = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService timer;
+  private final Consumer<V> expiryHandler;
+  private final Bucket[] wheel;
+  private final long startNanos;
+  private final long tickNanos;
+  private final List<V> expiredValues = new ArrayList<>();
+  private volatile Ring ring;
+  private volatile long processedTick = 0;
+
+  public LongIdCounterMap()
+  {
+    this(DEFAULT_CAPACITY, 0, null);
+  }
+
+  /**
+   * @param tickMillis Milliseconds per tick of the wheel (timeouts fire within one tick)
+   * @param expiryHandler Handler for values that were removed because they timed out
+   */
+  public LongIdCounterMap(long tickMillis, Consumer<V> expiryHandler)
+  {
+    this(DEFAULT_CAPACITY, tickMillis, expiryHandler);
+  }
+
+  /**
+   * @param capacity Number of slots the ring starts with (rounded up to a
+   * power of two, the ring grows past it when needed)
+   * @param tickMillis Milliseconds per tick of the wheel (timeouts fire within
+   * one tick) or 0 if timeouts are not used
+   * @param expiryHandler Handler for values that were removed because they
+   * timed out or null if timeouts are not used
+   */
+  public LongIdCounterMap(int capacity, long tickMillis, Consumer<V> expiryHandler)
+  {
+    Preconditions.checkArgument(capacity > 0 && capacity <= MAX_CAPACITY, "capacity");
+    Preconditions.checkArgument(tickMillis >= 0, "tickMillis must be >= 0");
+    Preconditions.checkArgument((tickMillis > 0) == (expiryHandler != null),
+      "tickMillis and expiryHandler must be set together");
+
+    int slotCount = Integer.highestOneBit(capacity);
+    slotCount = (slotCount < capacity) ? slotCount << 1 : slotCount;
+
+    this.ring = new Ring(slotCount);
+
+    // The stripe of an ID (id & (stripes - 1)) stays the same when the ring grows
+    this.locks = new Object[Math.min(LOCK_STRIPES, slotCount)];
+
+    for (int i = 0; i < locks.length; i++)
+    {
+      locks[i] = new Object();
+    }
+
+    this.startNanos = System.nanoTime();
+    this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+
+    if (expiryHandler != null)
+    {
+      this.wheel = new Bucket[WHEEL_SIZE];
+
+      for (int i = 0; i < wheel.length; i++)
+      {
+        wheel[i] = new Bucket();
+      }
+
+      this.expiryHandler = expiryHandler;
+      this.timer = Executors.newSingleThreadScheduledExecutor(
+        new DefaultThreadFactory("SockExchange-Timeouts", true));
+      this.timer.scheduleAtFixedRate(this::advance, tickMillis, tickMillis,
+        TimeUnit.MILLISECONDS);
+    }
+    else
+    {
+      this.wheel = null;
+      this.timer = null;
+      this.expiryHandler = null;
+    }
+  }
 
   public long put(V value)
   {
     Preconditions.checkNotNull(value, "value");
 
     long id = idCounter.incrementAndGet();
-    map.put(id, value);
+    store(id, value, NO_DEADLINE);
+    return id;
+  }
+
+  /**
+   * Adds a value that is removed and passed to the expiry handler if it is
+   * not removed before the timeout
+   *
+   * @param value Value to add
+   * @param timeoutInMillis Milliseconds until the value expires
+   *
+   * @return ID of the value
+   */
+  public long put(V value, long timeoutInMillis)
+  {
+    Preconditions.checkNotNull(value, "value");
+    Preconditions.checkArgument(timeoutInMillis > 0, "timeoutInMillis must be > 0");
+    Preconditions.checkState(timer != null, "Map was created without a timer");
+
+    long elapsedNanos = System.nanoTime() - startNanos +
+      TimeUnit.MILLISECONDS.toNanos(timeoutInMillis);
+
+    // Round up, so the value never expires before its timeout (ticks start at 1)
+    long deadlineTick = (elapsedNanos + tickNanos - 1) / tickNanos;
+
+    long id = idCounter.incrementAndGet();
+    store(id, value, deadlineTick);
+    schedule(id, deadlineTick);
     return id;
   }
 
   public V remove(long id)
   {
-    return map.remove(id);
+    synchronized (lockFor(id))
+    {
+      // Read under the stripe lock since growing the ring takes every stripe lock
+      Ring current = ring;
+      int slot = (int) (id & current.mask);
+
+      if (current.ids[slot] == id && current.values[slot] != null)
+      {
+        return current.take(slot);
+      }
+
+      if (overflowMap.isEmpty())
+      {
+        return null;
+      }
+
+      // Also under the lock, so a value is never missed while it moves into a grown ring
+      OverflowEntry<V> entry = overflowMap.remove(id);
+      return (entry != null) ? entry.value : null;
+    }
+  }
+
+  /**
+   * @return Number of values in the map
+   */
+  public int size()
+  {
+    int size = overflowMap.size();
+
+    for (int stripe = 0; stripe < locks.length; stripe++)
+    {
+      synchronized (locks[stripe])
+      {
+        Ring current = ring;
+
+        for (int slot = stripe; slot <= current.mask; slot += locks.length)
+        {
+          if (current.values[slot] != null)
+          {
+            size++;
+          }
+        }
+      }
+    }
+
+    return size;
+  }
+
+  /**
+   * @return Number of slots in the ring
+   */
+  public int getCapacity()
+  {
+    return ring.mask + 1;
   }
 
+  /**
+   * Removes every value (the ID counter keeps counting, so IDs handed out
+   * before the clear never match a value added after it)
+   */
   public void clear()
   {
-    idCounter.set(0);
-    map.clear();
+    removeIf((entry) -> true);
+  }
+
+  /**
+   * Clears the map and stops the timer (if any)
+   */
+  public void shutdown()
+  {
+    clear();
+
+    if (timer != null)
+    {
+      timer.shutdownNow();
+    }
   }
 
   public void removeIf(Predicate<Map.Entry<Long, V>> predicate)
   {
-    Iterator<Map.Entry<Long, V>> iterator = map.entrySet().iterator();
+    for (int stripe = 0; stripe < locks.length; stripe++)
+    {
+      synchronized (locks[stripe])
+      {
+        Ring current = ring;
+
+        for (int slot = stripe; slot <= current.mask; slot += locks.length)
+        {
+          @SuppressWarnings("unchecked")
+          V value = (V) current.values[slot];
+
+          if (value == null)
+          {
+            continue;
+          }
+
+          try
+          {
+            if (predicate.test(new AbstractMap.SimpleImmutableEntry<>(current.ids[slot], value)))
+            {
+              current.take(slot);
+            }
+          }
+          catch (Exception ex)
+          {
+            ex.printStackTrace();
+          }
+        }
+      }
+    }
+
+    for (Long id : overflowMap.keySet())
+    {
+      // Under the stripe lock, so the value can not move into a grown ring meanwhile
+      synchronized (lockFor(id))
+      {
+        try
+        {
+          OverflowEntry<V> entry = overflowMap.get(id);
+
+          if (entry != null &&
+            predicate.test(new AbstractMap.SimpleImmutableEntry<>(id, entry.value)))
+          {
+            overflowMap.remove(id);
+          }
+        }
+        catch (Exception ex)
+        {
+          ex.printStackTrace();
+        }
+      }
+    }
+  }
+
+  private void store(long id, V value, long deadlineTick)
+  {
+    while (true)
+    {
+      Ring current;
+
+      synchronized (lockFor(id))
+      {
+        current = ring;
+        int slot = (int) (id & current.mask);
+
+        if (current.values[slot] == null)
+        {
+          current.ids[slot] = id;
+          current.values[slot] = value;
+          current.deadlines[slot] = deadlineTick;
+          return;
+        }
+      }
+
+      // The slot is still held by an older value, so either grow the ring or overflow
+      if (!growIfCrowded(current))
+      {
+        break;
+      }
+    }
+
+    overflowMap.put(id, new OverflowEntry<>(value, deadlineTick));
+  }
+
+  /**
+   * @param expected Ring that did not have a free slot
+   *
+   * @return True if the ring was replaced by a larger one (so the caller
+   * should try again) or false if the value should overflow
+   */
+  private boolean growIfCrowded(Ring expected)
+  {
+    int slotCount = expected.mask + 1;
+
+    if (slotCount >= MAX_CAPACITY || overflowMap.size() < (slotCount >> 3))
+    {
+      return false;
+    }
+
+    synchronized (growLock)
+    {
+      if (ring == expected)
+      {
+        growHoldingStripes(0, expected);
+      }
+
+      return true;
+    }
+  }
+
+  /**
+   * Takes the stripe locks in order (one frame per lock) and then replaces
+   * the ring with one twice as large
+   */
+  private void growHoldingStripes(int stripe, Ring expected)
+  {
+    if (stripe < locks.length)
+    {
+      synchronized (locks[stripe])
+      {
+        growHoldingStripes(stripe + 1, expected);
+      }
+      return;
+    }
+
+    Ring grown = new Ring((expected.mask + 1) << 1);
+
+    // Two values in different slots can not share a slot in the larger ring
+    for (int slot = 0; slot <= expected.mask; slot++)
+    {
+      if (expected.values[slot] != null)
+      {
+        grown.set(expected.ids[slot], expected.values[slot], expected.deadlines[slot]);
+      }
+    }
+
+    Iterator<Map.Entry<Long, OverflowEntry<V>>> iterator = overflowMap.entrySet().iterator();
     while (iterator.hasNext())
     {
-      try
+      Map.Entry<Long, OverflowEntry<V>> mapEntry = iterator.next();
+      long id = mapEntry.getKey();
+      int slot = (int) (id & grown.mask);
+
+      if (grown.values[slot] == null)
       {
-        if (predicate.test(iterator.next()))
+        OverflowEntry<V> entry = mapEntry.getValue();
+
+        grown.set(id, entry.value, entry.deadline);
+        iterator.remove();
+      }
+    }
+
+    ring = grown;
+  }
+
+  /**
+   * Adds the ID to the bucket of its deadline tick (or of the next tick if
+   * the timer already went past the deadline)
+   */
+  private void schedule(long id, long deadlineTick)
+  {
+    long tick = deadlineTick;
+
+    while (true)
+    {
+      Bucket bucket = wheel[(int) (tick & (WHEEL_SIZE - 1))];
+
+      synchronized (bucket)
+      {
+        // A processed tick updates processedTick while holding its bucket
+        if (tick > processedTick)
         {
-          iterator.remove();
+          bucket.add(id);
+          return;
         }
       }
+
+      tick = processedTick + 1;
+    }
+  }
+
+  /**
+   * Processes every tick that passed since the last run and passes the
+   * expired values to the expiry handler (run by the timer thread)
+   */
+  private void advance()
+  {
+    long nowTick = (System.nanoTime() - startNanos) / tickNanos;
+
+    for (long tick = processedTick + 1; tick <= nowTick; tick++)
+    {
+      expireBucket(tick);
+    }
+
+    if (expiredValues.isEmpty())
+    {
+      return;
+    }
+
+    // The handler runs outside the locks, so it may use the map
+    for (V value : expiredValues)
+    {
+      try
+      {
+        expiryHandler.accept(value);
+      }
       catch (Exception ex)
       {
         ex.printStackTrace();
       }
     }
+
+    expiredValues.clear();
+  }
+
+  private void expireBucket(long tick)
+  {
+    Bucket bucket = wheel[(int) (tick & (WHEEL_SIZE - 1))];
+
+    synchronized (bucket)
+    {
+      int kept = 0;
+
+      for (int i = 0; i < bucket.size; i++)
+      {
+        long id = bucket.ids[i];
+
+        // IDs due a later turn of the wheel stay in the bucket
+        if (isWaiting(id, tick))
+        {
+          bucket.ids[kept++] = id;
+        }
+      }
+
+      bucket.trim(kept);
+      processedTick = tick;
+    }
+  }
+
+  /**
+   * Moves the value of the ID to the expired values if it is due
+   *
+   * @return True if the value is still in the map and not due yet
+   */
+  private boolean isWaiting(long id, long tick)
+  {
+    synchronized (lockFor(id))
+    {
+      Ring current = ring;
+      int slot = (int) (id & current.mask);
+
+      if (current.ids[slot] == id && current.values[slot] != null)
+      {
+        if (current.deadlines[slot] > tick)
+        {
+          return true;
+        }
+
+        expiredValues.add(current.take(slot));
+        return false;
+      }
+
+      OverflowEntry<V> entry = overflowMap.isEmpty() ? null : overflowMap.get(id);
+
+      if (entry == null)
+      {
+        return false;
+      }
+
+      if (entry.deadline > tick)
+      {
+        return true;
+      }
+
+      overflowMap.remove(id);
+      expiredValues.add(entry.value);
+      return false;
+    }
+  }
+
+  private Object lockFor(long id)
+  {
+    return locks[(int) (id & (locks.length - 1))];
+  }
+
+  /**
+   * Slots of the map (only read or written while holding the stripe lock of
+   * the slot, and replaced while holding every stripe lock)
+   */
+  private class Ring
+  {
+    private final int mask;
+    private final long[] ids;
+    private final Object[] values;
+    private final long[] deadlines;
+
+    private Ring(int slotCount)
+    {
+      this.mask = slotCount - 1;
+      this.ids = new long[slotCount];
+      this.values = new Object[slotCount];
+      this.deadlines = new long[slotCount];
+    }
+
+    private void set(long id, Object value, long deadline)
+    {
+      int slot = (int) (id & mask);
+
+      ids[slot] = id;
+      values[slot] = value;
+      deadlines[slot] = deadline;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V take(int slot)
+    {
+      V value = (V) values[slot];
+
+      values[slot] = null;
+      deadlines[slot] = NO_DEADLINE;
+      return value;
+    }
+  }
+
+  /**
+   * IDs with a deadline on the ticks of one wheel slot (only used while
+   * holding the bucket)
+   */
+  private static class Bucket
+  {
+    private static final int INITIAL_LENGTH = 16;
+
+    private long[] ids = new long[INITIAL_LENGTH];
+    private int size;
+
+    private void add(long id)
+    {
+      if (size == ids.length)
+      {
+        ids = Arrays.copyOf(ids, size << 1);
+      }
+
+      ids[size++] = id;
+    }
+
+    /**
+     * Keeps the first IDs and gives back memory after a burst of timeouts
+     */
+    private void trim(int newSize)
+    {
+      size = newSize;
+
+      if (ids.length > INITIAL_LENGTH && newSize < (ids.length >> 2))
+      {
+        ids = Arrays.copyOf(ids, Math.max(INITIAL_LENGTH, ids.length >> 1));
+      }
+    }
+  }
+
+  private static class OverflowEntry<V>
+  {
+    private final V value;
+    private final long deadline;
+
+    private OverflowEntry(V value, long deadline)
+    {
+      this.value = value;
+      this.deadline = deadline;
+    }
   }
 }
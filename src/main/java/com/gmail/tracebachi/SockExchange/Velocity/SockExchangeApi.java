@@ -17,9 +17,19 @@
  */
 package com.gmail.tracebachi.SockExchange.Velocity;
 
+import com.gmail.tracebachi.SockExchange.Messages.AggregatedResponseMessage;
+import com.gmail.tracebachi.SockExchange.Messages.MessageBatch;
 import com.gmail.tracebachi.SockExchange.Messages.ReceivedMessageNotifier;
+import com.gmail.tracebachi.SockExchange.Messages.ReceivedStreamNotifier;
+import com.gmail.tracebachi.SockExchange.Messages.ResponseFuture;
 import com.gmail.tracebachi.SockExchange.Messages.ResponseMessage;
+import com.gmail.tracebachi.SockExchange.Messages.ResponseStatus;
 import com.gmail.tracebachi.SockExchange.Netty.BungeeToSpigotConnection;
+import com.gmail.tracebachi.SockExchange.Netty.AllocationStatistics;
+import com.gmail.tracebachi.SockExchange.Netty.CompressionStatistics;
+import com.gmail.tracebachi.SockExchange.Netty.FlushStatistics;
+import com.gmail.tracebachi.SockExchange.Netty.PacketPriority;
+import com.gmail.tracebachi.SockExchange.Netty.PriorityStatistics;
 import com.gmail.tracebachi.SockExchange.SockExchangeConstants.Channels;
 import com.gmail.tracebachi.SockExchange.SpigotServerInfo;
 import com.gmail.tracebachi.SockExchange.Utilities.ExtraPreconditions;
@@ -27,9 +37,13 @@ import com.google.common.base.Preconditions;
 import com.google.common.io.ByteArrayDataOutput;
 import com.google.common.io.ByteStreams;
 
+import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.function.Consumer;
 
@@ -54,17 +68,28 @@ public class SockExchangeApi {
     private final VelocityTieIn velocityTieIn;
     private final ScheduledExecutorService scheduledExecutorService;
     private final ReceivedMessageNotifier messageNotifier;
+    private final ReceivedStreamNotifier streamNotifier;
+    private final AllocationStatistics allocationStatistics;
+    private final CompressionStatistics compressionStatistics;
 
     protected SockExchangeApi(
             VelocityTieIn velocityTieIn, ScheduledExecutorService scheduledExecutorService,
-            ReceivedMessageNotifier messageNotifier) {
+            ReceivedMessageNotifier messageNotifier, ReceivedStreamNotifier streamNotifier,
+            AllocationStatistics allocationStatistics,
+            CompressionStatistics compressionStatistics) {
         Preconditions.checkNotNull(velocityTieIn, "velocityTieIn");
         Preconditions.checkNotNull(scheduledExecutorService, "scheduledExecutorService");
         Preconditions.checkNotNull(messageNotifier, "messageNotifier");
+        Preconditions.checkNotNull(streamNotifier, "streamNotifier");
+        Preconditions.checkNotNull(allocationStatistics, "allocationStatistics");
+        Preconditions.checkNotNull(compressionStatistics, "compressionStatistics");
 
         this.velocityTieIn = velocityTieIn;
         this.scheduledExecutorService = scheduledExecutorService;
         this.messageNotifier = messageNotifier;
+        this.streamNotifier = streamNotifier;
+        this.allocationStatistics = allocationStatistics;
+        this.compressionStatistics = compressionStatistics;
     }
 
     /**
@@ -99,6 +124,57 @@ public class SockExchangeApi {
         return messageNotifier;
     }
 
+    /**
+     * @return {@link ReceivedStreamNotifier} used for registering and
+     * un-registering stream consumers
+     */
+    public ReceivedStreamNotifier getStreamNotifier() {
+        return streamNotifier;
+    }
+
+    /**
+     * @param serverName Name of the server
+     * @return {@link FlushStatistics} of the connection to the server or null if not found
+     */
+    public FlushStatistics getFlushStatistics(String serverName) {
+        BungeeToSpigotConnection connection = velocityTieIn.getConnection(serverName);
+        return connection == null ? null : connection.getFlushStatistics();
+    }
+
+    /**
+     * @param serverName Name of the server
+     * @return {@link PriorityStatistics} of the outbound queues of the connection to the
+     * server or null if not found
+     */
+    public PriorityStatistics getPriorityStatistics(String serverName) {
+        BungeeToSpigotConnection connection = velocityTieIn.getConnection(serverName);
+        return connection == null ? null : connection.getPriorityStatistics();
+    }
+
+    /**
+     * @param serverName Name of the server
+     * @return Estimated number of bytes queued for the server but not yet
+     * written to the channel (0 if the server is not found or offline)
+     */
+    public long getQueuedBytes(String serverName) {
+        BungeeToSpigotConnection connection = velocityTieIn.getConnection(serverName);
+        return connection == null ? 0 : connection.getQueuedBytes();
+    }
+
+    /**
+     * @return {@link AllocationStatistics} of the network buffers
+     */
+    public AllocationStatistics getAllocationStatistics() {
+        return allocationStatistics;
+    }
+
+    /**
+     * @return {@link CompressionStatistics} of the frames sent to and received from all servers
+     */
+    public CompressionStatistics getCompressionStatistics() {
+        return compressionStatistics;
+    }
+
     /**
      * Sends bytes to one server (if online)
      * <p>
@@ -134,6 +210,126 @@ public class SockExchangeApi {
         connection.sendToServer(channelName, messageBytes, consumer, timeoutInMillis);
     }
 
+    /**
+     * Sends bytes to one server (if online) in the passed class instead of the class of the channel
+     * <p>
+     * Messages sent in another class than the rest of their channel may arrive out of order.
+     * </p>
+     * To avoid extra memory usage, the API assumes the following parameters
+     * are not modified after this method is called: messageBytes
+     *
+     * @param channelName  Name of channel to send bytes to
+     * @param messageBytes Bytes to send
+     * @param serverName   Name of the server to send to
+     * @param priority     Class to queue the message in
+     */
+    public void sendToServer(
+            String channelName, byte[] messageBytes, String serverName, PacketPriority priority) {
+        Preconditions.checkNotNull(priority, "priority");
+        BungeeToSpigotConnection connection = velocityTieIn.getConnection(serverName);
+        Preconditions.checkNotNull(connection, "Unknown serverName: %s", serverName);
+
+        connection.sendToServer(channelName, messageBytes, null, 0, priority);
+    }
+
+    /**
+     * Sends bytes to one server (if online) and returns a future for the response
+     * <p>
+     * The future completes on the SockExchange executor. Cancelling it removes
+     * the pending request.
+     * </p>
+     * To avoid extra memory usage, the API assumes the following parameters
+     * are not modified after this method is called: messageBytes
+     *
+     * @param channelName     Name of channel to send bytes to
+     * @param messageBytes    Bytes to send
+     * @param serverName      Name of the server to send to
+     * @param timeoutInMillis Milliseconds to wait for a response before returning a timeout response
+     * @return {@link ResponseFuture} completed with the response (or a failure)
+     */
+    public ResponseFuture sendToServerAsync(
+            String channelName, byte[] messageBytes, String serverName, long timeoutInMillis) {
+        return sendToServerAsync(channelName, messageBytes, serverName, timeoutInMillis, null);
+    }
+
+    /**
+     * Sends bytes to one server (if online) and returns a future for the response
+     * <p>
+     * Cancelling the future removes the pending request.
+     * </p>
+     * To avoid extra memory usage, the API assumes the following parameters
+     * are not modified after this method is called: messageBytes
+     *
+     * @param channelName     Name of channel to send bytes to
+     * @param messageBytes    Bytes to send
+     * @param serverName      Name of the server to send to
+     * @param timeoutInMillis Milliseconds to wait for a response before returning a timeout response
+     * @param executor        Executor to complete the future on or null for the SockExchange executor
+     * @return {@link ResponseFuture} completed with the response (or a failure)
+     */
+    public ResponseFuture sendToServerAsync(
+            String channelName, byte[] messageBytes, String serverName, long timeoutInMillis,
+            Executor executor) {
+        ResponseFuture future = new ResponseFuture(executor);
+        sendToServer(channelName, messageBytes, serverName, future, timeoutInMillis);
+        return future;
+    }
+
+    /**
+     * Sends a batch of messages to one server (if online) in one network frame
+     * <p>
+     * Servers running an older version of SockExchange are sent the messages
+     * one by one.
+     * </p>
+     *
+     * @param batch      Messages to send
+     * @param serverName Name of the server to send to
+     */
+    public void sendBatch(MessageBatch batch, String serverName) {
+        BungeeToSpigotConnection connection = velocityTieIn.getConnection(serverName);
+        Preconditions.checkNotNull(connection, "Unknown serverName: %s", serverName);
+
+        connection.sendBatch(batch);
+    }
+
+    /**
+     * Streams bytes to one server (if online) in chunks
+     * <p>
+     * The source is read on a SockExchange thread as the server reads the
+     * stream, so payloads of any size can be sent without holding them in
+     * memory. The source is closed once the stream completes.
+     * </p>
+     *
+     * @param channelName     Name of channel to stream bytes to
+     * @param source          Stream to read the bytes from
+     * @param serverName      Name of the server to stream bytes to
+     * @param consumer        Consumer to run with {@link ResponseStatus#OK} once the server has
+     *                        read the whole stream (or with the reason it failed) or null
+     * @param timeoutInMillis Milliseconds the whole stream may take
+     */
+    public void sendStream(
+            String channelName, InputStream source, String serverName,
+            Consumer<ResponseMessage> consumer, long timeoutInMillis) {
+        BungeeToSpigotConnection connection = velocityTieIn.getConnection(serverName);
+        Preconditions.checkNotNull(connection, "Unknown serverName: %s", serverName);
+
+        connection.sendStream(channelName, source, consumer, timeoutInMillis);
+    }
+
+    /**
+     * Same as {@link #sendStream(String, InputStream, String, Consumer, long)}
+     * for a {@link ReadableByteChannel}
+     */
+    public void sendStream(
+            String channelName, ReadableByteChannel source, String serverName,
+            Consumer<ResponseMessage> consumer, long timeoutInMillis) {
+        Preconditions.checkNotNull(source, "source");
+
+        // SockExchangeConstants.Channels hides java.nio.channels.Channels
+        InputStream inputStream = java.nio.channels.Channels.newInputStream(source);
+        sendStream(channelName, inputStream, serverName, consumer, timeoutInMillis);
+    }
+
     /**
      * Sends bytes to all online servers
      * <p>
@@ -163,24 +359,61 @@ public class SockExchangeApi {
         Preconditions.checkNotNull(messageBytes, "messageBytes");
 
         if (serverNames == null || serverNames.isEmpty()) {
-            for (BungeeToSpigotConnection connection : velocityTieIn.getConnections()) {
-                connection.sendToServer(channelName, messageBytes, null, 0);
-            }
-        } else {
-            for (String serverName : serverNames) {
-                if (serverName == null || serverName.isEmpty()) {
-                    continue;
-                }
+            BungeeToSpigotConnection.sendToServers(channelName, messageBytes,
+                    velocityTieIn.getConnections(), null);
+            return;
+        }
 
-                BungeeToSpigotConnection connection = velocityTieIn.getConnection(serverName);
+        List<BungeeToSpigotConnection> connections = new ArrayList<>(serverNames.size());
 
-                if (connection == null) {
-                    continue;
-                }
+        for (String serverName : serverNames) {
+            if (serverName == null || serverName.isEmpty()) {
+                continue;
+            }
 
-                connection.sendToServer(channelName, messageBytes, null, 0);
+            BungeeToSpigotConnection connection = velocityTieIn.getConnection(serverName);
+
+            if (connection == null) {
+                continue;
             }
+
+            connections.add(connection);
         }
+
+        BungeeToSpigotConnection.sendToServers(channelName, messageBytes, connections, null);
+    }
+
+    /**
+     * Sends bytes to a list of servers (if online) and expects one response
+     * holding the response of every server
+     * <p>
+     * The consumer runs once every server responded or once the quorum of OK
+     * responses is reached. Servers that do not respond before the timeout are
+     * included with a timeout response.
+     * </p>
+     * To avoid extra memory usage, the API assumes the following parameters
+     * are not modified after this method is called: messageBytes, serverNames
+     *
+     * @param channelName     Name of channel to send bytes to
+     * @param messageBytes    Bytes to send
+     * @param serverNames     List of server names to send bytes to or null (or an empty list) for all servers
+     * @param quorum          Number of OK responses to complete with or 0 to wait for all servers
+     * @param consumer        Consumer to run once there is a response
+     * @param timeoutInMillis Milliseconds to wait for each server to respond
+     */
+    public void gatherFromServers(
+            String channelName, byte[] messageBytes, List<String> serverNames, int quorum,
+            Consumer<AggregatedResponseMessage> consumer, long timeoutInMillis) {
+        Preconditions.checkNotNull(consumer, "consumer");
+
+        serverNames = serverNames == null ? Collections.emptyList() : serverNames;
+
+        ExtraPreconditions.checkElements(serverNames, (str) -> str != null && !str.isEmpty(),
+                "Null or empty string in serverNames");
+
+        BungeeToSpigotConnection.gatherFromServers(channelName, messageBytes, serverNames,
+                velocityTieIn, null, quorum, timeoutInMillis,
+                (responses) -> consumer.accept(new AggregatedResponseMessage(ResponseStatus.OK, responses)));
     }
 
     /**
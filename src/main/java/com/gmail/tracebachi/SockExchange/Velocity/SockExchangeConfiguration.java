@@ -1,11 +1,22 @@
 package com.gmail.tracebachi.SockExchange.Velocity;
 
+import com.gmail.tracebachi.SockExchange.Netty.BackpressurePolicy;
+import com.gmail.tracebachi.SockExchange.Netty.BufferAllocatorType;
+import com.gmail.tracebachi.SockExchange.Netty.CompressionOptions;
+import com.gmail.tracebachi.SockExchange.Netty.FlushPolicy;
+import com.gmail.tracebachi.SockExchange.Netty.LaneOptions;
+import com.gmail.tracebachi.SockExchange.Netty.PacketPriority;
+import com.gmail.tracebachi.SockExchange.Netty.PriorityOptions;
+import com.gmail.tracebachi.SockExchange.Netty.TransportOptions;
+import com.gmail.tracebachi.SockExchange.Netty.TransportType;
+import com.gmail.tracebachi.SockExchange.SockExchangeConstants.Channels;
 import com.gmail.tracebachi.SockExchange.Utilities.CaseInsensitiveSet;
 import com.gmail.tracebachi.SockExchange.Utilities.MessageFormatMap;
 import com.google.gson.reflect.TypeToken;
 import org.spongepowered.configurate.CommentedConfigurationNode;
 import org.spongepowered.configurate.serialize.SerializationException;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -15,6 +26,16 @@ public class SockExchangeConfiguration {
     private int port;
     private int connectionThreads;
     private String registrationPassword;
+    private FlushPolicy flushPolicy;
+    private boolean autoBatching;
+    private boolean zeroCopyPayloads;
+    private BufferAllocatorType bufferAllocatorType;
+    private TransportOptions transportOptions;
+    private CompressionOptions compressionOptions;
+    private LaneOptions laneOptions;
+    private PriorityOptions priorityOptions;
+    private BackpressurePolicy backpressurePolicy;
+    private long timeoutTickMillis;
     private MessageFormatMap messageFormatMap;
     private boolean debugMode;
     private CaseInsensitiveSet privateServers = new CaseInsensitiveSet(new HashSet<>());
@@ -23,6 +44,60 @@ public class SockExchangeConfiguration {
         this.port = root.node("SockExchangeServer", "Port").getInt();
         this.connectionThreads = root.node("SockExchangeServer", "Threads").getInt();
         this.registrationPassword = root.node("SockExchangeServer", "Password").getString();
+        this.flushPolicy = FlushPolicy.fromConfig(
+                root.node("SockExchangeServer", "Flush", "Policy").getString("EndOfTask"),
+                root.node("SockExchangeServer", "Flush", "MaxPackets").getInt(32),
+                root.node("SockExchangeServer", "Flush", "MaxDelayMicros").getLong(200));
+        this.autoBatching = root.node("SockExchangeServer", "Flush", "AutoBatch").getBoolean(false);
+        this.zeroCopyPayloads = root.node("SockExchangeServer", "ZeroCopyPayloads").getBoolean(false);
+        this.bufferAllocatorType = BufferAllocatorType.fromName(
+                root.node("SockExchangeServer", "BufferAllocator").getString("PooledDirect"));
+        this.timeoutTickMillis = Math.max(1, root.node("SockExchangeServer", "TimeoutTickMillis").getLong(10));
+        this.transportOptions = new TransportOptions();
+        this.transportOptions.setTransportType(TransportType.fromName(
+                root.node("SockExchangeServer", "Transport", "Type").getString("Auto")));
+        this.transportOptions.setTcpNoDelay(
+                root.node("SockExchangeServer", "Transport", "TcpNoDelay").getBoolean(true));
+        this.transportOptions.setKeepAlive(
+                root.node("SockExchangeServer", "Transport", "KeepAlive").getBoolean(true));
+        this.transportOptions.setSendBufferSize(
+                root.node("SockExchangeServer", "Transport", "SendBufferSize").getInt(0));
+        this.transportOptions.setReceiveBufferSize(
+                root.node("SockExchangeServer", "Transport", "ReceiveBufferSize").getInt(0));
+        this.transportOptions.setDomainSocketPath(
+                root.node("SockExchangeServer", "Transport", "DomainSocketPath").getString(""));
+        this.transportOptions.setWriteBufferWaterMarks(
+                root.node("SockExchangeServer", "WriteBuffer", "LowWaterMark").getInt(524288),
+                root.node("SockExchangeServer", "WriteBuffer", "HighWaterMark").getInt(1048576));
+        this.compressionOptions = new CompressionOptions();
+        this.compressionOptions.setEnabled(
+                root.node("SockExchangeServer", "Compression", "Enabled").getBoolean(false));
+        this.compressionOptions.setThreshold(
+                Math.max(1, root.node("SockExchangeServer", "Compression", "Threshold").getInt(8192)));
+        this.compressionOptions.setLevel(
+                Math.min(9, Math.max(1, root.node("SockExchangeServer", "Compression", "Level").getInt(1))));
+        this.laneOptions = new LaneOptions();
+        this.laneOptions.setBulkThreshold(
+                Math.max(1, root.node("SockExchangeServer", "Lanes", "BulkThreshold").getInt(65536)));
+        this.laneOptions.setBulkChannels(
+                root.node("SockExchangeServer", "Lanes", "BulkChannels").getList(String.class, Collections.emptyList()));
+        this.priorityOptions = new PriorityOptions();
+        this.priorityOptions.setWeight(PacketPriority.CONTROL, Math.min(PriorityOptions.MAX_WEIGHT,
+                Math.max(1, root.node("SockExchangeServer", "Priorities", "ControlWeight").getInt(16))));
+        this.priorityOptions.setWeight(PacketPriority.INTERACTIVE, Math.min(PriorityOptions.MAX_WEIGHT,
+                Math.max(1, root.node("SockExchangeServer", "Priorities", "InteractiveWeight").getInt(4))));
+        this.priorityOptions.setWeight(PacketPriority.BULK, Math.min(PriorityOptions.MAX_WEIGHT,
+                Math.max(1, root.node("SockExchangeServer", "Priorities", "BulkWeight").getInt(1))));
+        this.priorityOptions.setChannelPriority(
+                root.node("SockExchangeServer", "Priorities", "ControlChannels")
+                        .getList(String.class, Collections.singletonList(Channels.KEEP_ALIVE)),
+                PacketPriority.CONTROL);
+        this.priorityOptions.setChannelPriority(
+                root.node("SockExchangeServer", "Priorities", "BulkChannels").getList(String.class, Collections.emptyList()),
+                PacketPriority.BULK);
+        this.backpressurePolicy = BackpressurePolicy.fromConfig(
+                root.node("SockExchangeServer", "WriteBuffer", "Backpressure").getString("Fail"),
+                root.node("SockExchangeServer", "WriteBuffer", "MaxBlockMillis").getLong(50));
 
         this.privateServers = new CaseInsensitiveSet(new HashSet<>(root.node("PrivateServers").getList(String.class)));
 
@@ -43,6 +118,46 @@ public class SockExchangeConfiguration {
         return this.connectionThreads;
     }
 
+    FlushPolicy getFlushPolicy() {
+        return this.flushPolicy;
+    }
+
+    boolean useAutoBatching() {
+        return this.autoBatching;
+    }
+
+    boolean useZeroCopyPayloads() {
+        return this.zeroCopyPayloads;
+    }
+
+    BufferAllocatorType getBufferAllocatorType() {
+        return this.bufferAllocatorType;
+    }
+
+    TransportOptions getTransportOptions() {
+        return this.transportOptions;
+    }
+
+    CompressionOptions getCompressionOptions() {
+        return this.compressionOptions;
+    }
+
+    LaneOptions getLaneOptions() {
+        return this.laneOptions;
+    }
+
+    PriorityOptions getPriorityOptions() {
+        return this.priorityOptions;
+    }
+
+    BackpressurePolicy getBackpressurePolicy() {
+        return this.backpressurePolicy;
+    }
+
+    long getTimeoutTickMillis() {
+        return this.timeoutTickMillis;
+    }
+
     boolean doesRegistrationPasswordMatch(String input) {
         return Objects.equals(this.registrationPassword, input);
     }
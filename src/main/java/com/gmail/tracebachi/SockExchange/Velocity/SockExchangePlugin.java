@@ -2,8 +2,11 @@ package com.gmail.tracebachi.SockExchange.Velocity;
 
 import com.gmail.tracebachi.SockExchange.ExpirableConsumer;
 import com.gmail.tracebachi.SockExchange.Messages.ReceivedMessageNotifier;
+import com.gmail.tracebachi.SockExchange.Messages.ReceivedStreamNotifier;
 import com.gmail.tracebachi.SockExchange.Messages.ResponseMessage;
 import com.gmail.tracebachi.SockExchange.Messages.ResponseStatus;
+import com.gmail.tracebachi.SockExchange.Netty.AllocationStatistics;
+import com.gmail.tracebachi.SockExchange.Netty.CompressionStatistics;
 import com.gmail.tracebachi.SockExchange.Netty.BungeeToSpigotConnection;
 import com.gmail.tracebachi.SockExchange.Netty.SockExchangeServer;
 import com.gmail.tracebachi.SockExchange.Scheduler.AwaitableExecutor;
@@ -56,12 +59,16 @@ public class SockExchangePlugin implements VelocityTieIn {
     private SockExchangeConfiguration configuration;
 
     private CaseInsensitiveMap<BungeeToSpigotConnection> spigotConnectionMap;
+    private BungeeToSpigotConnection[] spigotConnectionsById;
+    private Map<RegisteredServer, BungeeToSpigotConnection> spigotConnectionsByServer;
     private ScheduledThreadPoolExecutor threadPoolExecutor;
-    private ScheduledFuture<?> consumerTimeoutCleanupFuture;
     private LongIdCounterMap<ExpirableConsumer<ResponseMessage>> responseConsumerMap;
     private AwaitableExecutor awaitableExecutor;
     private ReceivedMessageNotifier messageNotifier;
+    private ReceivedStreamNotifier streamNotifier;
     private SockExchangeServer sockExchangeServer;
+    private AllocationStatistics allocationStatistics;
+    private CompressionStatistics compressionStatistics;
 
     private ChatMessageChannelListener chatMessageChannelListener;
     private OnlinePlayerUpdateSender onlinePlayerUpdateSender;
@@ -113,29 +120,48 @@ public class SockExchangePlugin implements VelocityTieIn {
 
         // Create the message notifier which will run consumers on SockExchange messages
         this.messageNotifier = new ReceivedMessageNotifier(awaitableExecutor);
+        this.messageNotifier.startWatchdog(threadPoolExecutor,
+                ReceivedMessageNotifier.DEFAULT_WATCHDOG_THRESHOLD_MILLIS);
+        this.streamNotifier = new ReceivedStreamNotifier(awaitableExecutor);
 
         // Create the map that manages consumers for responses to sent message
-        responseConsumerMap = new LongIdCounterMap<>();
+        // (timed out consumers are removed by the map's timer)
+        responseConsumerMap = new LongIdCounterMap<>(
+                this.configuration.getTimeoutTickMillis(), this::onConsumerTimeout);
 
-        // Schedule a task to clean up the responseConsumerMap (handling timeouts)
-        consumerTimeoutCleanupFuture = threadPoolExecutor.scheduleWithFixedDelay(
-                this::checkForConsumerTimeouts, 5, 5, TimeUnit.SECONDS);
+        // Create the statistics for buffers allocated by the server
+        this.allocationStatistics = new AllocationStatistics(this.configuration.getBufferAllocatorType());
+        this.compressionStatistics = new CompressionStatistics();
 
         // Create the API
-        SockExchangeApi api = new SockExchangeApi(this, wrappedThreadPool, messageNotifier);
+        SockExchangeApi api = new SockExchangeApi(this, wrappedThreadPool, messageNotifier, this.streamNotifier, this.allocationStatistics, this.compressionStatistics);
         SockExchangeApi.setInstance(api);
 
         this.spigotConnectionMap = new CaseInsensitiveMap<>(new ConcurrentHashMap<>());
 
-        for (RegisteredServer server : this.proxy.getAllServers()) {
+        // Servers are assigned dense IDs so requests can be routed with one array read
+        Collection<RegisteredServer> servers = this.proxy.getAllServers();
+        List<BungeeToSpigotConnection> connectionsById = new ArrayList<>(servers.size());
+        Map<RegisteredServer, BungeeToSpigotConnection> connectionsByServer = new HashMap<>();
+
+        for (RegisteredServer server : servers) {
             String serverName = server.getServerInfo().getName();
+            int serverId = connectionsById.size();
 
-            BungeeToSpigotConnection connection = new BungeeToSpigotConnection(serverName, this.awaitableExecutor, this.messageNotifier, this.responseConsumerMap, this.logger, this);
+            BungeeToSpigotConnection connection = new BungeeToSpigotConnection(serverName, serverId, this.awaitableExecutor, this.messageNotifier, this.streamNotifier, this.responseConsumerMap, this.logger, this, this.configuration.getFlushPolicy(), this.configuration.getBackpressurePolicy());
+            connection.setAutoBatching(this.configuration.useAutoBatching());
+            connection.setLaneOptions(this.configuration.getLaneOptions());
+            connection.setPriorityOptions(this.configuration.getPriorityOptions());
 
             this.spigotConnectionMap.put(serverName, connection);
+            connectionsById.add(connection);
+            connectionsByServer.put(server, connection);
         }
 
-        this.sockExchangeServer = new SockExchangeServer(this.configuration.getPort(), this.configuration.getConnectionThreads(), this);
+        this.spigotConnectionsById = connectionsById.toArray(new BungeeToSpigotConnection[0]);
+        this.spigotConnectionsByServer = connectionsByServer;
+
+        this.sockExchangeServer = new SockExchangeServer(this.configuration.getPort(), this.configuration.getConnectionThreads(), this, this.configuration.useZeroCopyPayloads(), this.allocationStatistics, this.configuration.getTransportOptions(), this.configuration.getCompressionOptions(), this.compressionStatistics);
 
         try {
             this.sockExchangeServer.start();
@@ -216,18 +242,19 @@ public class SockExchangePlugin implements VelocityTieIn {
         if (spigotConnectionMap != null) {
             spigotConnectionMap.clear();
             spigotConnectionMap = null;
-        }
-
-        if (consumerTimeoutCleanupFuture != null) {
-            consumerTimeoutCleanupFuture.cancel(false);
-            consumerTimeoutCleanupFuture = null;
+            spigotConnectionsById = null;
+            spigotConnectionsByServer = null;
         }
 
         if (responseConsumerMap != null) {
-            responseConsumerMap.clear();
+            responseConsumerMap.shutdown();
             responseConsumerMap = null;
         }
 
+        if (messageNotifier != null) {
+            messageNotifier.stopWatchdog();
+        }
+
         if (threadPoolExecutor != null) {
             shutdownThreadPoolExecutor();
             threadPoolExecutor = null;
@@ -278,25 +305,11 @@ public class SockExchangePlugin implements VelocityTieIn {
         threadPoolExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
     }
 
-    private void checkForConsumerTimeouts() {
-        long currentTimeMillis = System.currentTimeMillis();
-
-        responseConsumerMap.removeIf((entry) -> {
-            ExpirableConsumer<ResponseMessage> responseConsumer = entry.getValue();
-
-            if (responseConsumer.getExpiresAtMillis() > currentTimeMillis) {
-                // Keep the entry
-                return false;
-            }
-
-            awaitableExecutor.execute(() ->
-            {
-                ResponseMessage responseMessage = new ResponseMessage(ResponseStatus.TIMED_OUT);
-                responseConsumer.accept(responseMessage);
-            });
-
-            // Remove the entry
-            return true;
+    private void onConsumerTimeout(ExpirableConsumer<ResponseMessage> responseConsumer) {
+        awaitableExecutor.execute(() ->
+        {
+            ResponseMessage responseMessage = new ResponseMessage(ResponseStatus.TIMED_OUT);
+            responseConsumer.accept(responseMessage);
         });
     }
 
@@ -310,6 +323,31 @@ public class SockExchangePlugin implements VelocityTieIn {
         return spigotConnectionMap.get(spigotServerName);
     }
 
+    @Override
+    public BungeeToSpigotConnection getConnection(int serverId) {
+        BungeeToSpigotConnection[] connections = spigotConnectionsById;
+
+        if (connections == null || serverId < 0 || serverId >= connections.length) {
+            return null;
+        }
+
+        return connections[serverId];
+    }
+
+    @Override
+    public BungeeToSpigotConnection getConnectionForPlayer(String playerName) {
+        Optional<Player> player = this.proxy.getPlayer(playerName);
+
+        if (!player.isPresent()) {
+            return null;
+        }
+
+        // Resolved by the server instance instead of looking up its name
+        return player.get().getCurrentServer()
+                .map(serverConnection -> spigotConnectionsByServer.get(serverConnection.getServer()))
+                .orElse(null);
+    }
+
     @Override
     public Collection<BungeeToSpigotConnection> getConnections() {
         return Collections.unmodifiableCollection(spigotConnectionMap.values());
@@ -377,7 +415,7 @@ public class SockExchangePlugin implements VelocityTieIn {
     private void shutdownAwaitableExecutor() {
         try {
             this.awaitableExecutor.setAcceptingTasks(false);
-            this.awaitableExecutor.awaitTasksWithSleep(10, 1000);
+            this.awaitableExecutor.awaitTasks(10, TimeUnit.SECONDS);
             this.awaitableExecutor.shutdown();
         } catch (InterruptedException ex) {
             ex.printStackTrace();
@@ -11,6 +11,18 @@ public interface VelocityTieIn {
 
     BungeeToSpigotConnection getConnection(String spigotServerName);
 
+    /**
+     * @param serverId Dense ID assigned to the server (0 to number of servers - 1)
+     * @return Connection of the server or null if the ID is unknown
+     */
+    BungeeToSpigotConnection getConnection(int serverId);
+
+    /**
+     * @param playerName Name of the player
+     * @return Connection of the server the player is on or null if not found
+     */
+    BungeeToSpigotConnection getConnectionForPlayer(String playerName);
+
     Collection<BungeeToSpigotConnection> getConnections();
 
     SpigotServerInfo getServerInfo(String serverName);
@@ -0,0 +1,126 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketToSpigotRequest;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of sending one broadcast request to every destination server
+ * <p>
+ * {@link #encodePerDestination()} is what the proxy did before
+ * {@link BungeeToSpigotConnection#sendToServers}: every channel encoded its
+ * own copy of the packet. {@link #encodeOnce()} encodes the packet once and
+ * hands each channel a retained duplicate, so the cost per destination
+ * should be a reference count bump and stay flat as the payload grows.
+ * </p>
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastEncodeBenchmark
+{
+  @Param({"1", "10", "50"})
+  public int destinations;
+
+  @Param({"64", "1024", "16384"})
+  public int payloadBytes;
+
+  private final ByteBufAllocator allocator = PooledByteBufAllocator.DEFAULT;
+  private PacketToSpigotRequest packet;
+  private ByteBuf[] written;
+
+  @Setup
+  public void setup()
+  {
+    packet = new PacketToSpigotRequest();
+    packet.setChannelName("PlayerUpdate");
+    packet.setMessageBytes(new byte[payloadBytes]);
+    packet.setConsumerId(null);
+
+    written = new ByteBuf[destinations];
+  }
+
+  @Benchmark
+  public int encodePerDestination()
+  {
+    for (int i = 0; i < destinations; i++)
+    {
+      written[i] = BungeePacketEncoder.encodeToBuffer(allocator, packet);
+    }
+
+    return releaseWritten();
+  }
+
+  @Benchmark
+  public int encodeOnce()
+  {
+    ByteBuf encodedPacket = BungeePacketEncoder.encodeToBuffer(allocator, packet);
+
+    try
+    {
+      for (int i = 0; i < destinations; i++)
+      {
+        written[i] = encodedPacket.duplicate().retain();
+      }
+    }
+    finally
+    {
+      encodedPacket.release();
+    }
+
+    return releaseWritten();
+  }
+
+  /**
+   * Releases the buffers like the channels would once they are flushed
+   */
+  private int releaseWritten()
+  {
+    int bytes = 0;
+
+    for (int i = 0; i < destinations; i++)
+    {
+      bytes += written[i].readableBytes();
+      written[i].release();
+      written[i] = null;
+    }
+
+    return bytes;
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Netty;
+
+import com.gmail.tracebachi.SockExchange.Messages.ResponseStatus;
+import com.gmail.tracebachi.SockExchange.Netty.Packets.AbstractPacket;
+import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketToAnyResponse;
+import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketToSpigotRegister;
+import com.gmail.tracebachi.SockExchange.Netty.Packets.PacketToSpigotRequest;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of decoding and dispatching one frame received by Spigot
+ * <p>
+ * {@link #ifElseChain()} is the decoder before {@link PacketRegistry}: up to
+ * three map lookups (one per packet type, in the old order) before the
+ * packet is created. {@link #registry()} is the current decoder: one array
+ * read for the factory and the handler invoker. The packets carry small
+ * payloads so the dispatch cost is not hidden by copying.
+ * </p>
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketDecodeBenchmark
+{
+  @Param({"REGISTER", "REQUEST", "RESPONSE"})
+  public String packetType;
+
+  private final CountingHandler handler = new CountingHandler();
+  private final Map<Class<? extends AbstractPacket>, Byte> packetToId = new HashMap<>();
+  private ByteBuf frame;
+
+  @Setup
+  public void setup()
+  {
+    // Same IDs as the registry, looked up the way the old mapping did
+    packetToId.put(PacketToSpigotRegister.class,
+      PacketRegistry.packetToId(PacketToSpigotRegister.class));
+    packetToId.put(PacketToSpigotRequest.class,
+      PacketRegistry.packetToId(PacketToSpigotRequest.class));
+    packetToId.put(PacketToAnyResponse.class,
+      PacketRegistry.packetToId(PacketToAnyResponse.class));
+
+    frame = BungeePacketEncoder.encodeToBuffer(UnpooledByteBufAllocator.DEFAULT, newPacket());
+  }
+
+  @TearDown
+  public void tearDown()
+  {
+    frame.release();
+  }
+
+  @Benchmark
+  public int ifElseChain()
+  {
+    frame.readerIndex(0);
+
+    byte packetId = frame.readByte();
+
+    if (isIdForPacket(packetId, PacketToSpigotRegister.class))
+    {
+      PacketToSpigotRegister packet = new PacketToSpigotRegister();
+      packet.read(frame);
+
+      handler.handle(packet);
+    }
+    else if (isIdForPacket(packetId, PacketToSpigotRequest.class))
+    {
+      PacketToSpigotRequest packet = new PacketToSpigotRequest();
+      packet.read(frame);
+
+      handler.handle(packet);
+    }
+    else if (isIdForPacket(packetId, PacketToAnyResponse.class))
+    {
+      PacketToAnyResponse packet = new PacketToAnyResponse();
+      packet.read(frame);
+
+      handler.handle(packet);
+    }
+
+    return handler.handled;
+  }
+
+  @Benchmark
+  public int registry()
+  {
+    frame.readerIndex(0);
+
+    byte packetId = frame.readByte();
+    PacketRegistry.Entry<?> entry = PacketRegistry.getSpigotBound(packetId);
+
+    if (entry != null)
+    {
+      AbstractPacket packet = entry.newPacket();
+      packet.read(frame);
+
+      try
+      {
+        entry.dispatch(handler, packet);
+      }
+      finally
+      {
+        packet.release();
+      }
+    }
+
+    return handler.handled;
+  }
+
+  private boolean isIdForPacket(byte id, Class<? extends AbstractPacket> clazz)
+  {
+    Byte packetId = packetToId.get(clazz);
+
+    if (packetId == null)
+    {
+      throw new IllegalArgumentException("Unknown packet class: " + clazz);
+    }
+
+    return packetId == id;
+  }
+
+  private AbstractPacket newPacket()
+  {
+    switch (packetType)
+    {
+      case "REGISTER":
+        PacketToSpigotRegister register = new PacketToSpigotRegister();
+        register.setResult(PacketToSpigotRegister.Result.SUCCESS);
+        return register;
+      case "REQUEST":
+        PacketToSpigotRequest request = new PacketToSpigotRequest();
+        request.setChannelName("PlayerUpdate");
+        request.setMessageBytes(new byte[32]);
+        request.setConsumerId(1L);
+        return request;
+      case "RESPONSE":
+        PacketToAnyResponse response = new PacketToAnyResponse();
+        response.setConsumerId(1L);
+        response.setResponseStatus(ResponseStatus.OK);
+        response.setMessageBytes(new byte[32]);
+        return response;
+      default:
+        throw new IllegalArgumentException("Unknown packet type: " + packetType);
+    }
+  }
+
+  private static class CountingHandler extends AbstractPacketHandler
+  {
+    private int handled;
+
+    @Override
+    public void handle(PacketToSpigotRegister packet)
+    {
+      handled++;
+    }
+
+    @Override
+    public void handle(PacketToSpigotRequest packet)
+    {
+      handled++;
+    }
+
+    @Override
+    public void handle(PacketToAnyResponse packet)
+    {
+      handled++;
+    }
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * SockExchange - Server and Client for BungeeCord and Spigot communication
+ * Copyright (C) 2017 tracebachi@gmail.com (GeeItsZee)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.gmail.tracebachi.SockExchange.Utilities;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cost of one request-response round trip (put a consumer, remove the
+ * oldest one) with a fixed number of responses outstanding
+ * <p>
+ * {@link ConcurrentHashMapIdMap} is the map LongIdCounterMap used before it
+ * became a ring. The rings are built the way the plugins build them, with
+ * the default starting capacity, so the setup grows them to fit the
+ * outstanding responses before the measurement starts. Run with
+ * {@code -prof gc} to compare the bytes allocated per round trip as well
+ * as the time.
+ * </p>
+ *
+ * @author GeeItsZee (tracebachi@gmail.com)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class LongIdCounterMapBenchmark
+{
+  // Default of TimeoutTickMillis in config.yml and velocity-config.yml
+  private static final long TICK_MILLIS = 10;
+  private static final long TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+  private static final Object VALUE = new Object();
+
+  @Param({"1000", "100000", "1000000"})
+  public int outstanding;
+
+  private ConcurrentHashMapIdMap<Object> concurrentHashMap;
+  private LongIdCounterMap<Object> ring;
+  private LongIdCounterMap<Object> timedRing;
+
+  private long[] concurrentHashMapIds;
+  private long[] ringIds;
+  private long[] timedRingIds;
+  private int cursor;
+
+  @Setup
+  public void setup()
+  {
+    concurrentHashMap = new ConcurrentHashMapIdMap<>();
+    ring = new LongIdCounterMap<>();
+    timedRing = new LongIdCounterMap<>(TICK_MILLIS, (value) -> {});
+
+    concurrentHashMapIds = new long[outstanding];
+    ringIds = new long[outstanding];
+    timedRingIds = new long[outstanding];
+
+    for (int i = 0; i < outstanding; i++)
+    {
+      concurrentHashMapIds[i] = concurrentHashMap.put(VALUE);
+      ringIds[i] = ring.put(VALUE);
+      timedRingIds[i] = timedRing.put(VALUE, TIMEOUT_MILLIS);
+    }
+  }
+
+  @TearDown
+  public void tearDown()
+  {
+    timedRing.shutdown();
+  }
+
+  /**
+   * Map used before the ring (boxes the key and allocates a node per put)
+   */
+  @Benchmark
+  public Object concurrentHashMapRoundTrip()
+  {
+    int index = nextIndex();
+    Object removed = concurrentHashMap.remove(concurrentHashMapIds[index]);
+
+    concurrentHashMapIds[index] = concurrentHashMap.put(VALUE);
+    return removed;
+  }
+
+  /**
+   * Ring without timeouts
+   */
+  @Benchmark
+  public Object ringRoundTrip()
+  {
+    int index = nextIndex();
+    Object removed = ring.remove(ringIds[index]);
+
+    ringIds[index] = ring.put(VALUE);
+    return removed;
+  }
+
+  /**
+   * Ring with a timeout on every value (the way the plugins use it)
+   */
+  @Benchmark
+  public Object timedRingRoundTrip()
+  {
+    int index = nextIndex();
+    Object removed = timedRing.remove(timedRingIds[index]);
+
+    timedRingIds[index] = timedRing.put(VALUE, TIMEOUT_MILLIS);
+    return removed;
+  }
+
+  /**
+   * @return Index of the oldest outstanding ID (responses arrive in order)
+   */
+  private int nextIndex()
+  {
+    int index = cursor;
+    cursor = (index + 1 == outstanding) ? 0 : index + 1;
+    return index;
+  }
+
+  /**
+   * Copy of LongIdCounterMap before it was replaced by the ring
+   */
+  private static class ConcurrentHashMapIdMap<V>
+  {
+    private final AtomicLong idCounter = new AtomicLong(0L);
+    private final ConcurrentHashMap<Long, V> map = new ConcurrentHashMap<>();
+
+    private long put(V value)
+    {
+      long id = idCounter.incrementAndGet();
+      map.put(id, value);
+      return id;
+    }
+
+    private V remove(long id)
+    {
+      return map.remove(id);
+    }
+  }
+}